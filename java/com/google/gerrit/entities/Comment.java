@@ -290,6 +290,14 @@ public abstract class Comment {
     return realAuthor != null ? realAuthor : author;
   }
 
+  /**
+   * Returns whether the real author is set. It's set to the author by the constructor and may be
+   * unset by {@link #setRealAuthor(Account.Id)}, which {@link #equals(Object)} tells apart.
+   */
+  public boolean hasRealAuthor() {
+    return realAuthor != null;
+  }
+
   /**
    * Returns the comment's approximate size. This is used to enforce size limits and should
    * therefore include all unbounded fields (e.g. String-s).
@@ -80,6 +80,7 @@ public interface Changes {
     private String query;
     private int limit;
     private int start;
+    private String continueToken;
     private boolean isNoLimit;
     private Set<ListChangesOption> options = EnumSet.noneOf(ListChangesOption.class);
     private ListMultimap<String, String> pluginOptions = ArrayListMultimap.create();
@@ -106,6 +107,17 @@ public interface Changes {
       return this;
     }
 
+    /**
+     * Continue the query after the change that carries this token in {@code _continueToken}.
+     *
+     * @param continueToken token from the last change of a previous result, or null to start from
+     *     the first result.
+     */
+    public QueryRequest withContinueToken(String continueToken) {
+      this.continueToken = continueToken;
+      return this;
+    }
+
     /** Set an option on the request, appending to existing options. */
     public QueryRequest withOption(ListChangesOption options) {
       this.options.add(options);
@@ -152,6 +164,10 @@ public interface Changes {
       return start;
     }
 
+    public String getContinueToken() {
+      return continueToken;
+    }
+
     public Set<ListChangesOption> getOptions() {
       return options;
     }
@@ -169,6 +185,9 @@ public interface Changes {
       if (start != 0) {
         sb.append(", start=").append(start);
       }
+      if (continueToken != null) {
+        sb.append(", continueToken=").append(continueToken);
+      }
       if (!options.isEmpty()) {
         sb.append("options=").append(options);
       }
@@ -114,6 +114,7 @@ public class ChangeInfo {
   public String currentRevision;
   public Map<String, RevisionInfo> revisions;
   public Boolean _moreChanges;
+  public String _continueToken;
 
   public List<ProblemInfo> problems;
   public List<PluginDefinedInfo> plugins;
@@ -273,6 +273,7 @@ public class RestApiServlet extends HttpServlet {
     final ExperimentFeatures experimentFeatures;
     final DeadlineChecker.Factory deadlineCheckerFactory;
     final CancellationMetrics cancellationMetrics;
+    final PerThreadCache.Factory perThreadCacheFactory;
 
     @Inject
     Globals(
@@ -293,7 +294,8 @@ public class RestApiServlet extends HttpServlet {
         DynamicMap<DynamicOptions.DynamicBean> dynamicBeans,
         ExperimentFeatures experimentFeatures,
         DeadlineChecker.Factory deadlineCheckerFactory,
-        CancellationMetrics cancellationMetrics) {
+        CancellationMetrics cancellationMetrics,
+        PerThreadCache.Factory perThreadCacheFactory) {
       this.currentUser = currentUser;
       this.webSession = webSession;
       this.paramParser = paramParser;
@@ -313,6 +315,7 @@ public class RestApiServlet extends HttpServlet {
       this.experimentFeatures = experimentFeatures;
       this.deadlineCheckerFactory = deadlineCheckerFactory;
       this.cancellationMetrics = cancellationMetrics;
+      this.perThreadCacheFactory = perThreadCacheFactory;
     }
 
     private static Pattern makeAllowOrigin(Config cfg) {
@@ -361,7 +364,7 @@ public class RestApiServlet extends HttpServlet {
     try (TraceContext traceContext = enableTracing(req, res)) {
       String requestUri = requestUri(req);
 
-      try (PerThreadCache ignored = PerThreadCache.create()) {
+      try (PerThreadCache ignored = globals.perThreadCacheFactory.create()) {
         List<IdString> path = splitPath(req);
         RequestInfo requestInfo = createRequestInfo(traceContext, requestUri, path);
         globals.requestListeners.runEach(l -> l.onRequest(requestInfo));
@@ -70,6 +70,13 @@ public interface Index<K, V> {
   /** Delete all documents from the index. */
   void deleteAll();
 
+  /**
+   * Make all writes so far durable.
+   *
+   * <p>Only needed for indexes that buffer writes, e.g. if they commit only periodically.
+   */
+  default void commit() {}
+
   /**
    * Convert the given operator predicate into a source searching the index and returning only the
    * documents matching that predicate.
@@ -40,6 +40,7 @@ public abstract class IndexConfig {
     setIfPresent(cfg, "maxLimit", b::maxLimit);
     setIfPresent(cfg, "maxPages", b::maxPages);
     setIfPresent(cfg, "maxTerms", b::maxTerms);
+    setIfPresent(cfg, "visibilityChunkSize", b::visibilityChunkSize);
     setTypeOrDefault(cfg, b::type);
     return b;
   }
@@ -62,6 +63,7 @@ public abstract class IndexConfig {
         .maxPages(Integer.MAX_VALUE)
         .maxTerms(DEFAULT_MAX_TERMS)
         .type(IndexType.getDefault())
+        .visibilityChunkSize(0)
         .separateChangeSubIndexes(false);
   }
 
@@ -83,6 +85,10 @@ public abstract class IndexConfig {
 
     public abstract String type();
 
+    public abstract Builder visibilityChunkSize(int visibilityChunkSize);
+
+    public abstract int visibilityChunkSize();
+
     public abstract Builder separateChangeSubIndexes(boolean separate);
 
     abstract IndexConfig autoBuild();
@@ -92,6 +98,10 @@ public abstract class IndexConfig {
       checkLimit(cfg.maxLimit(), "maxLimit");
       checkLimit(cfg.maxPages(), "maxPages");
       checkLimit(cfg.maxTerms(), "maxTerms");
+      checkArgument(
+          cfg.visibilityChunkSize() >= 0,
+          "visibilityChunkSize must not be negative: %s",
+          cfg.visibilityChunkSize());
       return cfg;
     }
   }
@@ -117,6 +127,12 @@ public abstract class IndexConfig {
    */
   public abstract int maxTerms();
 
+  /**
+   * Returns the number of results that are read and checked for visibility at once when query
+   * results are filtered by visibility, or 0 if results are filtered one page at a time.
+   */
+  public abstract int visibilityChunkSize();
+
   /** Returns index type. */
   public abstract String type();
 
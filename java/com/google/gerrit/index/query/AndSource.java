@@ -17,7 +17,6 @@ package com.google.gerrit.index.query;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.gerrit.exceptions.StorageException;
@@ -32,6 +31,7 @@ public class AndSource<T> extends AndPredicate<T>
 
   private final IsVisibleToPredicate<T> isVisibleToPredicate;
   private final int start;
+  private final int chunkSize;
   private final int cardinality;
 
   public AndSource(Collection<? extends Predicate<T>> that) {
@@ -50,10 +50,28 @@ public class AndSource<T> extends AndPredicate<T>
       Collection<? extends Predicate<T>> that,
       IsVisibleToPredicate<T> isVisibleToPredicate,
       int start) {
+    this(that, isVisibleToPredicate, start, 0);
+  }
+
+  /**
+   * Creates a source that filters the results of the cheapest child source.
+   *
+   * @param chunkSize if positive, the results of the source are read in streaming mode: they are
+   *     filtered in chunks of this size, filtering stops as soon as enough results matched, and a
+   *     paginated source is restarted to read at least this many results at once. If 0, results are
+   *     filtered one by one and a paginated source is restarted with its original limit.
+   */
+  public AndSource(
+      Collection<? extends Predicate<T>> that,
+      IsVisibleToPredicate<T> isVisibleToPredicate,
+      int start,
+      int chunkSize) {
     super(that);
     checkArgument(start >= 0, "negative start: %s", start);
+    checkArgument(chunkSize >= 0, "negative chunk size: %s", chunkSize);
     this.isVisibleToPredicate = isVisibleToPredicate;
     this.start = start;
+    this.chunkSize = chunkSize;
 
     int c = Integer.MAX_VALUE;
     DataSource<T> s = null;
@@ -84,39 +102,61 @@ public class AndSource<T> extends AndPredicate<T>
     ResultSet<T> resultSet = source.read();
     return new LazyResultSet<>(
         () -> {
+          @SuppressWarnings("unchecked")
+          Paginated<T> p = source instanceof Paginated ? (Paginated<T>) source : null;
+          int want = p != null ? p.getOptions().limit() + start : Integer.MAX_VALUE;
           List<T> r = new ArrayList<>();
-          T last = null;
           int nextStart = 0;
           boolean skipped = false;
-          for (T data : buffer(resultSet)) {
-            if (!isMatchable() || match(data)) {
-              r.add(data);
-            } else {
-              skipped = true;
+          for (List<T> chunk : chunks(resultSet)) {
+            List<T> matches = isMatchable() ? filter(chunk) : chunk;
+            skipped |= matches.size() < chunk.size();
+            r.addAll(matches);
+            nextStart += chunk.size();
+            if (chunkSize > 0 && r.size() >= want) {
+              // In streaming mode the remaining results are not needed, so don't check them.
+              break;
             }
-            last = data;
-            nextStart++;
           }
 
-          if (skipped && last != null && source instanceof Paginated) {
+          if (skipped && p != null) {
             // If our source is a paginated source and we skipped at
             // least one of its results, we may not have filled the full
-            // limit the caller wants.  Restart the source and continue.
+            // limit the caller wants.  Restart the source and continue,
+            // after the last result if the source supports it, so that
+            // the index doesn't have to skip the results seen so far.
+            //
+            // In streaming mode the source is restarted with a limit of
+            // at least chunkSize, so that a query whose results are
+            // mostly filtered out doesn't search the index again for
+            // every few results it is missing.
             //
-            @SuppressWarnings("unchecked")
-            Paginated<T> p = (Paginated<T>) source;
-            while (skipped && r.size() < p.getOptions().limit() + start) {
+            Object searchAfter = resultSet.searchAfter();
+            while (skipped && r.size() < want) {
               skipped = false;
-              ResultSet<T> next = p.restart(nextStart);
+              ResultSet<T> next;
+              if (chunkSize > 0) {
+                int limit =
+                    Math.min(
+                        Math.max(chunkSize, want - r.size()), p.getOptions().config().maxLimit());
+                next =
+                    searchAfter != null
+                        ? p.restart(searchAfter, limit)
+                        : p.restart(nextStart, limit);
+              } else {
+                next = searchAfter != null ? p.restart(searchAfter) : p.restart(nextStart);
+              }
 
-              for (T data : buffer(next)) {
-                if (match(data)) {
-                  r.add(data);
-                } else {
-                  skipped = true;
+              for (List<T> chunk : chunks(next)) {
+                List<T> matches = filter(chunk);
+                skipped |= matches.size() < chunk.size();
+                r.addAll(matches);
+                nextStart += chunk.size();
+                if (chunkSize > 0 && r.size() >= want) {
+                  break;
                 }
-                nextStart++;
               }
+              searchAfter = next.searchAfter();
             }
           }
 
@@ -153,15 +193,30 @@ public class AndSource<T> extends AndPredicate<T>
     return true;
   }
 
-  private Iterable<T> buffer(ResultSet<T> scanner) {
-    return FluentIterable.from(Iterables.partition(scanner, 50))
-        .transformAndConcat(this::transformBuffer);
+  private Iterable<List<T>> chunks(ResultSet<T> scanner) {
+    return Iterables.transform(
+        Iterables.partition(scanner, chunkSize > 0 ? chunkSize : 50), this::transformBuffer);
   }
 
   protected List<T> transformBuffer(List<T> buffer) {
     return buffer;
   }
 
+  /**
+   * Returns the results of {@code chunk} that match this predicate, in their original order.
+   *
+   * <p>Subclasses may override this to match the results of a chunk concurrently.
+   */
+  protected List<T> filter(List<T> chunk) {
+    List<T> matches = new ArrayList<>(chunk.size());
+    for (T data : chunk) {
+      if (match(data)) {
+        matches.add(data);
+      }
+    }
+    return matches;
+  }
+
   @Override
   public int getCardinality() {
     return cardinality;
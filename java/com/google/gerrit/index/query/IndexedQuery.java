@@ -102,6 +102,30 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
     return read();
   }
 
+  @Override
+  public ResultSet<T> restart(Object searchAfter) {
+    opts = opts.withStart(0).withSearchAfter(searchAfter);
+    try {
+      source = index.getSource(pred, opts);
+    } catch (QueryParseException e) {
+      // See restart(int).
+      throw new StorageException(e);
+    }
+    return read();
+  }
+
+  @Override
+  public ResultSet<T> restart(int start, int limit) {
+    opts = opts.withLimit(limit);
+    return restart(start);
+  }
+
+  @Override
+  public ResultSet<T> restart(Object searchAfter, int limit) {
+    opts = opts.withLimit(limit);
+    return restart(searchAfter);
+  }
+
   @Override
   public Predicate<T> copy(Collection<? extends Predicate<T>> children) {
     return this;
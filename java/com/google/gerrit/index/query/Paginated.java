@@ -20,4 +20,31 @@ public interface Paginated<T> {
   QueryOptions getOptions();
 
   ResultSet<T> restart(int start);
+
+  /**
+   * Restarts the query after the given position.
+   *
+   * @param searchAfter position returned by {@link ResultSet#searchAfter()} of a previous read.
+   */
+  ResultSet<T> restart(Object searchAfter);
+
+  /**
+   * Restarts the query at {@code start}, returning at most {@code limit} results.
+   *
+   * <p>The default implementation ignores {@code limit} and keeps the limit of {@link
+   * #getOptions()}.
+   */
+  default ResultSet<T> restart(int start, int limit) {
+    return restart(start);
+  }
+
+  /**
+   * Restarts the query after the given position, returning at most {@code limit} results.
+   *
+   * <p>The default implementation ignores {@code limit} and keeps the limit of {@link
+   * #getOptions()}.
+   */
+  default ResultSet<T> restart(Object searchAfter, int limit) {
+    return restart(searchAfter);
+  }
 }
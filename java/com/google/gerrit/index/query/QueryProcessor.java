@@ -88,6 +88,8 @@ public abstract class QueryProcessor<T> {
 
   protected int start;
 
+  @Nullable private Object searchAfter;
+
   private boolean enforceVisibility = true;
   private int userProvidedLimit;
   private boolean isNoLimit;
@@ -123,6 +125,19 @@ public abstract class QueryProcessor<T> {
     return this;
   }
 
+  /**
+   * Continue the query after a position in the sort order of the index, instead of from the first
+   * result. The {@link #setStart(int) start} is relative to this position.
+   *
+   * @param searchAfter position as accepted by {@link QueryOptions#searchAfter()} of the index;
+   *     null to start from the first result.
+   * @return this.
+   */
+  public QueryProcessor<T> setSearchAfter(@Nullable Object searchAfter) {
+    this.searchAfter = searchAfter;
+    return this;
+  }
+
   /**
    * Specify whether to enforce visibility by filtering out results that are not visible to the
    * user.
@@ -244,7 +259,9 @@ public abstract class QueryProcessor<T> {
         // Always bump limit by 1, even if this results in exceeding the permitted
         // max for this user. The only way to see if there are more entities is to
         // ask for one more result from the query.
-        QueryOptions opts = createOptions(indexConfig, start, limit + 1, getRequestedFields());
+        QueryOptions opts =
+            createOptions(indexConfig, start, limit + 1, getRequestedFields())
+                .withSearchAfter(searchAfter);
         logger.atFine().log("Query options: %s", opts);
         Predicate<T> pred = rewriter.rewrite(q, opts);
         if (enforceVisibility) {
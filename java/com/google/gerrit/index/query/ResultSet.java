@@ -15,6 +15,7 @@
 package com.google.gerrit.index.query;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import java.util.Iterator;
 
 /**
@@ -49,4 +50,19 @@ public interface ResultSet<T> extends Iterable<T> {
    * the iterator has finished.
    */
   void close();
+
+  /**
+   * Returns the position after the last result in the sort order of the index.
+   *
+   * <p>Passing this position as {@link com.google.gerrit.index.QueryOptions#searchAfter()} to the
+   * same query continues it after the last result, without the index having to skip the results
+   * before it. Only valid after the results were obtained.
+   *
+   * @return the position, or null if the source doesn't support continuing from a position or there
+   *     were no results.
+   */
+  @Nullable
+  default Object searchAfter() {
+    return null;
+  }
 }
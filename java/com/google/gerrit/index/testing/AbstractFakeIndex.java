@@ -43,6 +43,7 @@ import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.account.AccountIndex;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.group.GroupIndex;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
@@ -116,6 +117,7 @@ public abstract class AbstractFakeIndex<K, V, D> implements Index<K, V> {
           indexedDocuments.values().stream()
               .map(doc -> valueFor(doc))
               .filter(doc -> p.asMatchable().match(doc))
+              .filter(doc -> opts.searchAfter() == null || isAfter(doc, opts.searchAfter()))
               .sorted(sortingComparator())
               .skip(opts.start())
               .limit(opts.limit())
@@ -171,6 +173,14 @@ public abstract class AbstractFakeIndex<K, V, D> implements Index<K, V> {
   /** Comparator representing the default search order. */
   protected abstract Comparator<V> sortingComparator();
 
+  /**
+   * Returns whether {@code value} comes after the position {@code searchAfter} in the default
+   * search order. Indexes that don't support {@link QueryOptions#searchAfter()} ignore it.
+   */
+  protected boolean isAfter(V value, Object searchAfter) {
+    return true;
+  }
+
   /**
    * Fake implementation of {@link ChangeIndex} where all filtering happens in-memory.
    *
@@ -210,6 +220,11 @@ public abstract class AbstractFakeIndex<K, V, D> implements Index<K, V> {
       return lastUpdated.thenComparing(merged).thenComparing(id).reversed();
     }
 
+    @Override
+    protected boolean isAfter(ChangeData value, Object searchAfter) {
+      return ChangeIndexCursor.of(value).compareTo((ChangeIndexCursor) searchAfter) < 0;
+    }
+
     @Override
     protected Map<String, Object> docFor(ChangeData value) {
       ImmutableMap.Builder<String, Object> doc = ImmutableMap.builder();
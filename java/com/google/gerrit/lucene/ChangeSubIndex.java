@@ -15,9 +15,11 @@
 package com.google.gerrit.lucene;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.gerrit.lucene.LuceneChangeIndex.CHANGE_DOC_VALUES_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.ID2_SORT_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.ID_SORT_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.MERGED_ON_SORT_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.PROJECT_DOC_VALUES_FIELD;
 import static com.google.gerrit.lucene.LuceneChangeIndex.UPDATED_SORT_FIELD;
 import static com.google.gerrit.server.index.change.ChangeSchemaDefinitions.NAME;
 
@@ -39,11 +41,14 @@ import com.google.gerrit.server.query.change.ChangeData;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Timestamp;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     implements ChangeIndex {
@@ -118,7 +123,9 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
 
   @Override
   void add(Document doc, Values<ChangeData> values) {
-    // Add separate DocValues fields for those fields needed for sorting.
+    // Add separate DocValues fields for those fields needed for sorting, and
+    // for those fields from which results can be constructed without loading
+    // the stored document.
     FieldDef<ChangeData, ?> f = values.getField();
     if (f == ChangeField.LEGACY_ID) {
       int v = (Integer) getOnlyElement(values.getValues());
@@ -132,6 +139,12 @@ public class ChangeSubIndex extends AbstractLuceneIndex<Change.Id, ChangeData>
     } else if (f == ChangeField.MERGED_ON) {
       long t = ((Timestamp) getOnlyElement(values.getValues())).getTime();
       doc.add(new NumericDocValuesField(MERGED_ON_SORT_FIELD, t));
+    } else if (f == ChangeField.PROJECT) {
+      String v = (String) getOnlyElement(values.getValues());
+      doc.add(new SortedDocValuesField(PROJECT_DOC_VALUES_FIELD, new BytesRef(v)));
+    } else if (f == ChangeField.CHANGE) {
+      byte[] v = (byte[]) getOnlyElement(values.getValues());
+      doc.add(new BinaryDocValuesField(CHANGE_DOC_VALUES_FIELD, new BytesRef(v)));
     }
     super.add(doc, values);
   }
@@ -0,0 +1,148 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopFieldDocs;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Searches the open and closed sub-indexes of a {@link LuceneChangeIndex} concurrently.
+ *
+ * <p>The first sub-index is searched on the calling thread, the others on a dedicated thread pool,
+ * so that the latency of a query that needs both sub-indexes is bounded by the slower one instead
+ * of the sum of both. The pool only runs searches and never waits for other tasks, so it can't
+ * starve the index executors that call it.
+ */
+@Singleton
+class ChangeSubIndexSearcher {
+  /** Search of one sub-index. */
+  @FunctionalInterface
+  interface Search {
+    TopFieldDocs search(IndexSearcher searcher) throws IOException;
+  }
+
+  @Nullable private final ListeningExecutorService executor;
+  private final Timer1<String> latency;
+
+  @Inject
+  ChangeSubIndexSearcher(
+      @GerritServerConfig Config cfg, WorkQueue workQueue, MetricMaker metricMaker) {
+    this(createExecutor(cfg, workQueue), metricMaker);
+  }
+
+  @VisibleForTesting
+  ChangeSubIndexSearcher(@Nullable ListeningExecutorService executor, MetricMaker metricMaker) {
+    this.executor = executor;
+    this.latency =
+        metricMaker.newTimer(
+            "query/lucene/change_sub_index_latency",
+            new Description("Latency of searching one Lucene change sub-index")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofString("sub_index", Metadata.Builder::indexName)
+                .description("name of the sub-index (open or closed)")
+                .build());
+  }
+
+  @Nullable
+  private static ListeningExecutorService createExecutor(Config cfg, WorkQueue workQueue) {
+    int threads =
+        cfg.getInt("index", null, "searchThreads", Runtime.getRuntime().availableProcessors());
+    if (threads <= 0) {
+      return null;
+    }
+    // The work queue executors only accept runnables.
+    return MoreExecutors.listeningDecorator(workQueue.createQueue(threads, "Index-Search", true));
+  }
+
+  /**
+   * Runs {@code search} on all {@code searchers} and returns the results in the same order.
+   *
+   * <p>Returns only after all searches finished, also if one of them failed, so that the caller can
+   * safely release the searchers afterwards.
+   *
+   * @param names names of the sub-indexes, for metrics.
+   * @param searchers acquired searchers of the sub-indexes.
+   * @param search search to run on each searcher.
+   */
+  TopFieldDocs[] search(List<String> names, IndexSearcher[] searchers, Search search)
+      throws IOException {
+    TopFieldDocs[] hits = new TopFieldDocs[searchers.length];
+    if (executor == null || searchers.length < 2) {
+      for (int i = 0; i < searchers.length; i++) {
+        hits[i] = timed(names.get(i), searchers[i], search);
+      }
+      return hits;
+    }
+
+    List<Future<TopFieldDocs>> futures = new ArrayList<>(searchers.length - 1);
+    for (int i = 1; i < searchers.length; i++) {
+      String name = names.get(i);
+      IndexSearcher searcher = searchers[i];
+      futures.add(executor.submit(() -> timed(name, searcher, search)));
+    }
+
+    Throwable failure = null;
+    try {
+      hits[0] = timed(names.get(0), searchers[0], search);
+    } catch (IOException | RuntimeException e) {
+      failure = e;
+    }
+    for (int i = 1; i < searchers.length; i++) {
+      try {
+        hits[i] = Uninterruptibles.getUninterruptibly(futures.get(i - 1));
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure != null) {
+      Throwables.throwIfInstanceOf(failure, IOException.class);
+      Throwables.throwIfUnchecked(failure);
+      throw new IOException(failure);
+    }
+    return hits;
+  }
+
+  private TopFieldDocs timed(String name, IndexSearcher searcher, Search search)
+      throws IOException {
+    try (Timer1.Context<String> ignored = latency.start(name)) {
+      return search.search(searcher);
+    }
+  }
+}
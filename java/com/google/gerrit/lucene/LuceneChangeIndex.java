@@ -24,6 +24,7 @@ import static com.google.gerrit.server.index.change.ChangeIndexRewriter.CLOSED_S
 import static com.google.gerrit.server.index.change.ChangeIndexRewriter.OPEN_STATUSES;
 import static java.util.Objects.requireNonNull;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -34,6 +35,7 @@ import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.converter.ChangeProtoConverter;
@@ -54,6 +56,7 @@ import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.index.options.AutoFlush;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -72,9 +75,17 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -102,6 +113,8 @@ public class LuceneChangeIndex implements ChangeIndex {
   static final String MERGED_ON_SORT_FIELD = sortFieldName(ChangeField.MERGED_ON);
   static final String ID_SORT_FIELD = sortFieldName(ChangeField.LEGACY_ID);
   static final String ID2_SORT_FIELD = sortFieldName(ChangeField.LEGACY_ID_STR);
+  static final String PROJECT_DOC_VALUES_FIELD = ChangeField.PROJECT.getName() + "_DV";
+  static final String CHANGE_DOC_VALUES_FIELD = ChangeField.CHANGE.getName() + "_DV";
 
   private static final String CHANGES = "changes";
   private static final String CHANGES_OPEN = "open";
@@ -127,6 +140,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   }
 
   private final ListeningExecutorService executor;
+  private final ChangeSubIndexSearcher subIndexSearcher;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
   private final QueryBuilder<ChangeData> queryBuilder;
@@ -139,17 +153,20 @@ public class LuceneChangeIndex implements ChangeIndex {
   private final IdTerm idTerm;
   private final ChangeIdExtractor extractor;
   private final ImmutableSet<String> skipFields;
+  private final ImmutableSet<String> docValuesFields;
 
   @Inject
   LuceneChangeIndex(
       @GerritServerConfig Config cfg,
       SitePaths sitePaths,
       @IndexExecutor(INTERACTIVE) ListeningExecutorService executor,
+      ChangeSubIndexSearcher subIndexSearcher,
       ChangeData.Factory changeDataFactory,
       @Assisted Schema<ChangeData> schema,
       AutoFlush autoFlush)
       throws IOException {
     this.executor = executor;
+    this.subIndexSearcher = subIndexSearcher;
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
     this.skipFields =
@@ -219,6 +236,7 @@ public class LuceneChangeIndex implements ChangeIndex {
                 this.schema.useLegacyNumericFields()
                     ? f.numericValue().intValue()
                     : Integer.valueOf(f.stringValue()));
+    docValuesFields = ImmutableSet.of(CHANGE_FIELD, PROJECT.getName(), idField.getName());
   }
 
   @Override
@@ -284,6 +302,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     closedIndex.deleteAll();
   }
 
+  @Override
+  public void commit() {
+    openIndex.commit();
+    closedIndex.commit();
+  }
+
   @Override
   public ChangeDataSource getSource(Predicate<ChangeData> p, QueryOptions opts)
       throws QueryParseException {
@@ -360,9 +384,9 @@ public class LuceneChangeIndex implements ChangeIndex {
       final Set<String> fields = IndexUtils.changeFields(opts, schema.useLegacyNumericFields());
       return new ChangeDataResults(
           executor.submit(
-              new Callable<List<Document>>() {
+              new Callable<Hits>() {
                 @Override
-                public List<Document> call() throws IOException {
+                public Hits call() throws IOException {
                   return doRead(fields);
                 }
 
@@ -376,14 +400,14 @@ public class LuceneChangeIndex implements ChangeIndex {
 
     @Override
     public ResultSet<FieldBundle> readRaw() {
-      List<Document> documents;
+      Hits hits;
       try {
-        documents = doRead(IndexUtils.changeFields(opts, schema.useLegacyNumericFields()));
+        hits = doRead(IndexUtils.changeFields(opts, schema.useLegacyNumericFields()));
       } catch (IOException e) {
         throw new StorageException(e);
       }
       ImmutableList<FieldBundle> fieldBundles =
-          documents.stream().map(rawDocumentMapper).collect(toImmutableList());
+          hits.documents.stream().map(rawDocumentMapper).collect(toImmutableList());
       return new ResultSet<>() {
         @Override
         public Iterator<FieldBundle> iterator() {
@@ -399,29 +423,54 @@ public class LuceneChangeIndex implements ChangeIndex {
         public void close() {
           // Do nothing.
         }
+
+        @Override
+        public Object searchAfter() {
+          return hits.searchAfter;
+        }
       };
     }
 
-    private List<Document> doRead(Set<String> fields) throws IOException {
+    private Hits doRead(Set<String> fields) throws IOException {
       IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
       try {
         int realLimit = opts.start() + opts.limit();
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
+        ChangeIndexCursor after = (ChangeIndexCursor) opts.searchAfter();
+        List<String> names = new ArrayList<>(indexes.size());
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
+          names.add(indexes.get(i) == openIndex ? CHANGES_OPEN : CHANGES_CLOSED);
         }
+        int limit = realLimit;
+        TopFieldDocs[] hits =
+            subIndexSearcher.search(
+                names,
+                searchers,
+                s ->
+                    after != null
+                        ? (TopFieldDocs) s.searchAfter(toFieldDoc(s, after), query, limit, sort)
+                        : s.search(query, limit, sort));
         TopDocs docs = TopDocs.merge(sort, realLimit, hits);
 
+        boolean useDocValues = docValuesFields.containsAll(fields);
         List<Document> result = new ArrayList<>(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
           ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+          IndexSearcher searcher = searchers[sd.shardIndex];
+          Document doc =
+              useDocValues
+                  ? fromDocValues(searcher, sd.doc, fields, schema.useLegacyNumericFields())
+                  : null;
+          result.add(doc != null ? doc : searcher.doc(sd.doc, fields));
+        }
+        ChangeIndexCursor searchAfter = null;
+        if (docs.scoreDocs.length > 0) {
+          searchAfter = toCursor((FieldDoc) docs.scoreDocs[docs.scoreDocs.length - 1]);
         }
-        return result;
+        return new Hits(result, searchAfter);
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
@@ -436,11 +485,98 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  /**
+   * Reads the fields of a result from doc values instead of the stored document.
+   *
+   * <p>Doc values are stored by column, so reading them for a hit avoids the random I/O of loading
+   * and decompressing its stored document. This is possible if only the change, or only the project
+   * and the change number, are requested, which covers lookups of changes by ID and internal
+   * queries that only need the {@link Change}.
+   *
+   * <p>The change is kept as its serialized proto rather than as separate doc values of its fields.
+   * Callers that request it need the whole {@link Change}, and the proto is small compared to the
+   * stored document, which also contains patch sets, approvals and reviewers.
+   *
+   * @return document with the requested fields, or null if the document was indexed without doc
+   *     values and has to be loaded from the stored fields.
+   */
+  @VisibleForTesting
+  @Nullable
+  static Document fromDocValues(
+      IndexSearcher searcher, int docId, Set<String> fields, boolean useLegacyNumericFields)
+      throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    LeafReader reader = leaf.reader();
+    int doc = docId - leaf.docBase;
+
+    Document result = new Document();
+    if (fields.contains(CHANGE_FIELD)) {
+      BinaryDocValues change = reader.getBinaryDocValues(CHANGE_DOC_VALUES_FIELD);
+      if (change == null) {
+        return null;
+      }
+      BytesRef bytes = change.get(doc);
+      if (bytes.length == 0) {
+        return null;
+      }
+      result.add(new StoredField(CHANGE_FIELD, BytesRef.deepCopyOf(bytes)));
+      return result;
+    }
+
+    SortedDocValues project = reader.getSortedDocValues(PROJECT_DOC_VALUES_FIELD);
+    NumericDocValues id =
+        reader.getNumericDocValues(useLegacyNumericFields ? ID_SORT_FIELD : ID2_SORT_FIELD);
+    if (project == null || id == null || project.getOrd(doc) < 0) {
+      return null;
+    }
+    int changeId = (int) id.get(doc);
+    result.add(new StoredField(PROJECT.getName(), project.get(doc).utf8ToString()));
+    result.add(
+        useLegacyNumericFields
+            ? new StoredField(LEGACY_ID.getName(), changeId)
+            : new StoredField(LEGACY_ID_STR.getName(), Integer.toString(changeId)));
+    return result;
+  }
+
+  /**
+   * Returns the position of {@code cursor} in the sort order of {@link #getSort()} for {@code
+   * searcher}.
+   *
+   * <p>The sort values of a cursor are unique, so all documents with the same values are excluded,
+   * regardless of their sub-index or document number. Lucene only compares the document number if
+   * the sort values are equal, but rejects positions after the last document of the searcher, so
+   * the position is at its last document.
+   */
+  private static FieldDoc toFieldDoc(IndexSearcher searcher, ChangeIndexCursor cursor) {
+    return new FieldDoc(
+        searcher.getIndexReader().maxDoc() - 1,
+        Float.NaN,
+        new Object[] {cursor.updated(), cursor.mergedOn(), (long) cursor.id()});
+  }
+
+  private static ChangeIndexCursor toCursor(FieldDoc doc) {
+    return ChangeIndexCursor.create(
+        (Long) doc.fields[0], (Long) doc.fields[1], ((Long) doc.fields[2]).intValue());
+  }
+
+  private static class Hits {
+    final List<Document> documents;
+    @Nullable final ChangeIndexCursor searchAfter;
+
+    Hits(List<Document> documents, @Nullable ChangeIndexCursor searchAfter) {
+      this.documents = documents;
+      this.searchAfter = searchAfter;
+    }
+  }
+
   private class ChangeDataResults implements ResultSet<ChangeData> {
-    private final Future<List<Document>> future;
+    private final Future<Hits> future;
     private final Set<String> fields;
 
-    ChangeDataResults(Future<List<Document>> future, Set<String> fields) {
+    @Nullable private ChangeIndexCursor searchAfter;
+
+    ChangeDataResults(Future<Hits> future, Set<String> fields) {
       this.future = future;
       this.fields = fields;
     }
@@ -453,12 +589,13 @@ public class LuceneChangeIndex implements ChangeIndex {
     @Override
     public ImmutableList<ChangeData> toList() {
       try {
-        List<Document> docs = future.get();
+        Hits hits = future.get();
         ImmutableList.Builder<ChangeData> result =
-            ImmutableList.builderWithExpectedSize(docs.size());
-        for (Document doc : docs) {
+            ImmutableList.builderWithExpectedSize(hits.documents.size());
+        for (Document doc : hits.documents) {
           result.add(toChangeData(fields(doc, fields), fields, idField.getName()));
         }
+        searchAfter = hits.searchAfter;
         return result.build();
       } catch (InterruptedException e) {
         close();
@@ -473,6 +610,11 @@ public class LuceneChangeIndex implements ChangeIndex {
     public void close() {
       future.cancel(false /* do not interrupt Lucene */);
     }
+
+    @Override
+    public Object searchAfter() {
+      return searchAfter;
+    }
   }
 
   private static ListMultimap<String, IndexableField> fields(Document doc, Set<String> fields) {
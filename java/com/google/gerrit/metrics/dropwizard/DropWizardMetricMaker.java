@@ -48,14 +48,18 @@ import com.google.gerrit.metrics.Timer3;
 import com.google.gerrit.metrics.proc.JGitMetricModule;
 import com.google.gerrit.metrics.proc.ProcMetricModule;
 import com.google.gerrit.server.cache.CacheMetrics;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import com.google.inject.Scopes;
 import com.google.inject.Singleton;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.Config;
 
 /**
  * Connects Gerrit metric package onto DropWizard.
@@ -86,10 +90,22 @@ public class DropWizardMetricMaker extends MetricMaker {
     }
   }
 
+  /** Reservoir that keeps the samples of timers and histograms. */
+  enum ReservoirType {
+    /** Dropwizard's default reservoir, a sample biased towards the last 5 minutes. */
+    EXPONENTIALLY_DECAYING,
+
+    /** {@link LogLinearReservoir}. */
+    LOG_LINEAR
+  }
+
   private final MetricRegistry registry;
   private final Map<String, BucketedMetric> bucketed;
   private final Map<String, ImmutableMap<String, String>> descriptions;
 
+  private ReservoirType reservoirType = ReservoirType.EXPONENTIALLY_DECAYING;
+  private Duration reservoirWindow = Duration.ofMinutes(1);
+
   @Inject
   DropWizardMetricMaker(MetricRegistry registry) {
     this.registry = registry;
@@ -97,6 +113,21 @@ public class DropWizardMetricMaker extends MetricMaker {
     this.descriptions = new ConcurrentHashMap<>();
   }
 
+  @Inject(optional = true)
+  void setConfig(@GerritServerConfig Config cfg) {
+    reservoirType =
+        cfg.getEnum(ReservoirType.values(), "metrics", null, "reservoir", reservoirType);
+    reservoirWindow =
+        Duration.ofMillis(
+            ConfigUtil.getTimeUnit(
+                cfg,
+                "metrics",
+                null,
+                "reservoirWindow",
+                reservoirWindow.toMillis(),
+                TimeUnit.MILLISECONDS));
+  }
+
   Iterable<String> getMetricNames() {
     return descriptions.keySet();
   }
@@ -222,6 +253,12 @@ public class DropWizardMetricMaker extends MetricMaker {
   }
 
   TimerImpl newTimerImpl(String name) {
+    if (reservoirType == ReservoirType.LOG_LINEAR) {
+      return new TimerImpl(
+          name,
+          registry.timer(
+              name, () -> new com.codahale.metrics.Timer(new LogLinearReservoir(reservoirWindow))));
+    }
     return new TimerImpl(name, registry.timer(name));
   }
 
@@ -271,6 +308,13 @@ public class DropWizardMetricMaker extends MetricMaker {
   }
 
   HistogramImpl newHistogramImpl(String name) {
+    if (reservoirType == ReservoirType.LOG_LINEAR) {
+      return new HistogramImpl(
+          name,
+          registry.histogram(
+              name,
+              () -> new com.codahale.metrics.Histogram(new LogLinearReservoir(reservoirWindow))));
+    }
     return new HistogramImpl(name, registry.histogram(name));
   }
 
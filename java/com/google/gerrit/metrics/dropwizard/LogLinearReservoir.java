@@ -0,0 +1,271 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Reservoir} that counts values in fixed log-linear buckets.
+ *
+ * <p>Every power-of-two range of values is split into {@link #SUB_BUCKETS} buckets of equal width,
+ * so percentiles are reported with a relative error of at most {@code 1/SUB_BUCKETS}, independent
+ * of the number of recorded values. Recording a value increments one array element and a few
+ * adders; it neither locks nor allocates, unlike the default {@link
+ * com.codahale.metrics.ExponentiallyDecayingReservoir}, which takes a lock and allocates a sample
+ * for every update.
+ *
+ * <p>Values are counted in windows. A snapshot covers the current and the previous window; a new
+ * window is started by the first snapshot taken after the current window is older than the window
+ * length.
+ */
+class LogLinearReservoir implements Reservoir {
+  private static final int SUB_BUCKET_BITS = 5;
+
+  @VisibleForTesting static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Values with more significant bits than this are counted in the last bucket. */
+  private static final int MAX_VALUE_BITS = 48;
+
+  @VisibleForTesting static final int BUCKETS = bucket((1L << MAX_VALUE_BITS) - 1) + 1;
+
+  /**
+   * Returns the bucket of {@code value}. Values below {@code 2 * SUB_BUCKETS} have a bucket of
+   * their own; above, the bucket width doubles with every power of two.
+   */
+  @VisibleForTesting
+  static int bucket(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+    int bits = Math.min(64 - Long.numberOfLeadingZeros(value), MAX_VALUE_BITS);
+    int shift = bits - SUB_BUCKET_BITS - 1;
+    long top = Math.min(value >>> shift, 2 * SUB_BUCKETS - 1);
+    return (shift << SUB_BUCKET_BITS) + (int) top;
+  }
+
+  @VisibleForTesting
+  static long lowerBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    return (long) ((bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+  }
+
+  private static long width(int bucket) {
+    return bucket < 2 * SUB_BUCKETS ? 1 : 1L << ((bucket >>> SUB_BUCKET_BITS) - 1);
+  }
+
+  private final Clock clock;
+  private final long windowNanos;
+
+  private volatile Window current;
+  private Window previous;
+
+  LogLinearReservoir(Duration window) {
+    this(window, Clock.defaultClock());
+  }
+
+  @VisibleForTesting
+  LogLinearReservoir(Duration window, Clock clock) {
+    this.clock = clock;
+    this.windowNanos = window.toNanos();
+    this.current = new Window(clock.getTick());
+    this.previous = new Window(current.start);
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    current.update(value);
+  }
+
+  @Override
+  public synchronized Snapshot getSnapshot() {
+    long now = clock.getTick();
+    if (now - current.start >= windowNanos) {
+      previous = current;
+      current = new Window(now);
+    }
+    return new BucketSnapshot(previous, current);
+  }
+
+  private static class Window {
+    final long start;
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final LongAdder count = new LongAdder();
+    final LongAdder sum = new LongAdder();
+    final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    Window(long start) {
+      this.start = start;
+    }
+
+    void update(long value) {
+      counts.incrementAndGet(bucket(value));
+      count.increment();
+      sum.add(value);
+      if (value < min.get()) {
+        min.accumulateAndGet(value, Math::min);
+      }
+      if (value > max.get()) {
+        max.accumulateAndGet(value, Math::max);
+      }
+    }
+  }
+
+  /** Snapshot of the bucket counts of one or more windows. */
+  private static class BucketSnapshot extends Snapshot {
+    private final long[] counts = new long[BUCKETS];
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+    BucketSnapshot(Window... windows) {
+      long n = 0;
+      long s = 0;
+      long lo = Long.MAX_VALUE;
+      long hi = Long.MIN_VALUE;
+      for (Window w : windows) {
+        for (int i = 0; i < BUCKETS; i++) {
+          counts[i] += w.counts.get(i);
+        }
+        n += w.count.sum();
+        s += w.sum.sum();
+        lo = Math.min(lo, w.min.get());
+        hi = Math.max(hi, w.max.get());
+      }
+      count = n;
+      sum = s;
+      min = n > 0 ? lo : 0;
+      max = n > 0 ? hi : 0;
+    }
+
+    /**
+     * Returns the middle of the bucket that contains the value at {@code quantile}, limited to the
+     * minimum and maximum recorded value.
+     */
+    @Override
+    public double getValue(double quantile) {
+      if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+        throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      if (count == 0) {
+        return 0.0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(Math.max(middle(i), min), max);
+        }
+      }
+      return max;
+    }
+
+    private static double middle(int bucket) {
+      return lowerBound(bucket) + (width(bucket) - 1) / 2.0;
+    }
+
+    /**
+     * Returns the middle of every non-empty bucket. Individual values are not retained, so the
+     * result does not contain one entry per recorded value.
+     */
+    @Override
+    public long[] getValues() {
+      int n = 0;
+      for (long c : counts) {
+        if (c > 0) {
+          n++;
+        }
+      }
+      long[] values = new long[n];
+      n = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        if (counts[i] > 0) {
+          values[n++] = Math.round(middle(i));
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return max;
+    }
+
+    @Override
+    public double getMean() {
+      return count > 0 ? (double) sum / count : 0.0;
+    }
+
+    @Override
+    public long getMin() {
+      return min;
+    }
+
+    @Override
+    public double getStdDev() {
+      if (count <= 1) {
+        return 0.0;
+      }
+      double mean = getMean();
+      double variance = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        if (counts[i] > 0) {
+          double d = middle(i) - mean;
+          variance += counts[i] * d * d;
+        }
+      }
+      return Math.sqrt(variance / (count - 1));
+    }
+
+    /** Writes the middle and the count of every non-empty bucket, one bucket per line. */
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
+        for (int i = 0; i < BUCKETS; i++) {
+          if (counts[i] > 0) {
+            out.printf("%d %d%n", Math.round(middle(i)), counts[i]);
+          }
+        }
+      }
+    }
+  }
+}
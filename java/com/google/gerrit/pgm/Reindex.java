@@ -36,8 +36,11 @@ import com.google.gerrit.server.cache.CacheDisplay;
 import com.google.gerrit.server.cache.CacheInfo;
 import com.google.gerrit.server.change.ChangeResource;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.index.IndexModule;
+import com.google.gerrit.server.index.change.AllChangesIndexer;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.gerrit.server.index.change.ReindexCheckpoint;
 import com.google.gerrit.server.index.options.AutoFlush;
 import com.google.gerrit.server.index.options.IsFirstInsertForEntry;
 import com.google.gerrit.server.plugins.PluginGuiceEnvironment;
@@ -48,6 +51,7 @@ import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.multibindings.OptionalBinder;
+import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
@@ -93,6 +97,20 @@ public class Reindex extends SiteProgram {
               + "Defaults to true when reindex is run from init on a new site, false otherwise")
   private boolean disableCacheStats;
 
+  @Option(
+      name = "--resume",
+      usage =
+          "Resume an interrupted reindex of the changes index; skips the projects that were"
+              + " reindexed already")
+  private boolean resume;
+
+  @Option(
+      name = "--skip-up-to-date",
+      usage =
+          "Skip changes whose document in the changes index is up to date; keeps the existing"
+              + " documents")
+  private boolean skipUpToDate;
+
   private Injector dbInjector;
   private Injector sysInjector;
   private Injector cfgInjector;
@@ -100,6 +118,7 @@ public class Reindex extends SiteProgram {
 
   @Inject private Collection<IndexDefinition<?, ?, ?>> indexDefs;
   @Inject private DynamicMap<Cache<?, ?>> cacheMap;
+  @Inject private SitePaths sitePaths;
 
   @Override
   public int run() throws Exception {
@@ -142,7 +161,7 @@ public class Reindex extends SiteProgram {
     return true;
   }
 
-  private boolean reindex() {
+  private boolean reindex() throws IOException {
     boolean ok = true;
     for (IndexDefinition<?, ?, ?> def : indexDefs) {
       if (indices.isEmpty() || indices.contains(def.getName())) {
@@ -205,9 +224,10 @@ public class Reindex extends SiteProgram {
           @Override
           protected void configure() {
             super.configure();
+            // Documents of changes that were indexed before have to be replaced when resuming.
             OptionalBinder.newOptionalBinder(binder(), IsFirstInsertForEntry.class)
                 .setBinding()
-                .toInstance(IsFirstInsertForEntry.YES);
+                .toInstance(keepChanges() ? IsFirstInsertForEntry.NO : IsFirstInsertForEntry.YES);
           }
         });
     modules.add(new BatchProgramModule(dbInjector));
@@ -238,14 +258,40 @@ public class Reindex extends SiteProgram {
     globalConfig.setBoolean("index", null, "autoReindexIfStale", false);
   }
 
-  private <K, V, I extends Index<K, V>> boolean reindex(IndexDefinition<K, V, I> def) {
+  private boolean keepChanges() {
+    return resume || skipUpToDate;
+  }
+
+  private <K, V, I extends Index<K, V>> boolean reindex(IndexDefinition<K, V, I> def)
+      throws IOException {
     I index = def.getIndexCollection().getSearchIndex();
     requireNonNull(
         index, () -> String.format("no active search index configured for %s", def.getName()));
     index.markReady(false);
-    index.deleteAll();
 
     SiteIndexer<K, V, I> siteIndexer = def.getSiteIndexer();
+    ReindexCheckpoint checkpoint = null;
+    if (siteIndexer instanceof AllChangesIndexer) {
+      checkpoint =
+          ReindexCheckpoint.load(
+              sitePaths.index_dir.resolve(
+                  String.format(
+                      "%s_%04d.checkpoint", def.getName(), index.getSchema().getVersion())));
+      if (resume) {
+        System.out.format(
+            "Resuming reindex of %s index, skipping %d project slices\n",
+            def.getName(), checkpoint.size());
+      } else {
+        checkpoint.delete();
+      }
+      AllChangesIndexer changesIndexer = (AllChangesIndexer) siteIndexer;
+      changesIndexer.setCheckpoint(checkpoint);
+      changesIndexer.setSkipUpToDate(skipUpToDate);
+    }
+    if (checkpoint == null || !keepChanges()) {
+      index.deleteAll();
+    }
+
     siteIndexer.setProgressOut(System.err);
     siteIndexer.setVerboseOut(verbose ? System.out : NullOutputStream.INSTANCE);
     SiteIndexer.Result result = siteIndexer.indexAll(index);
@@ -255,6 +301,9 @@ public class Reindex extends SiteProgram {
         "Reindexed %d documents in %s index in %.01fs (%.01f/s)\n", n, def.getName(), t, n / t);
     if (result.success()) {
       index.markReady(true);
+      if (checkpoint != null) {
+        checkpoint.delete();
+      }
     }
     System.out.format(
         "Index %s in version %d is %sready\n",
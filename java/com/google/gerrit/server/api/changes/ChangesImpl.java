@@ -139,6 +139,9 @@ class ChangesImpl implements Changes {
       }
       qc.setLimit(q.getLimit());
       qc.setStart(q.getStart());
+      if (q.getContinueToken() != null) {
+        qc.setContinueToken(q.getContinueToken());
+      }
       qc.setNoLimit(q.getNoLimit());
       for (ListChangesOption option : q.getOptions()) {
         qc.addOption(option);
@@ -146,7 +149,9 @@ class ChangesImpl implements Changes {
       dynamicOptionParser.parseDynamicOptions(qc, q.getPluginOptions(), dynamicOptions);
 
       try {
-        List<?> result = qc.apply(TopLevelResource.INSTANCE).value();
+        Object value = qc.apply(TopLevelResource.INSTANCE).value();
+        checkState(value instanceof List);
+        List<?> result = (List<?>) value;
         if (result.isEmpty()) {
           return ImmutableList.of();
         }
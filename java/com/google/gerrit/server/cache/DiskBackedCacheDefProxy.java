@@ -12,21 +12,24 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-package com.google.gerrit.server.cache.h2;
+package com.google.gerrit.server.cache;
 
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.Weigher;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.server.cache.PersistentCacheDef;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.inject.TypeLiteral;
 import java.time.Duration;
 
-class H2CacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
+/**
+ * Definition of the in-memory part of a {@link DiskBackedCache}, which holds {@link ValueHolder}s
+ * instead of the values.
+ */
+class DiskBackedCacheDefProxy<K, V> implements PersistentCacheDef<K, V> {
   private final PersistentCacheDef<K, V> source;
 
-  H2CacheDefProxy(PersistentCacheDef<K, V> source) {
+  DiskBackedCacheDefProxy(PersistentCacheDef<K, V> source) {
     this.source = source;
   }
 
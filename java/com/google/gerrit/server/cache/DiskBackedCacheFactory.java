@@ -0,0 +1,174 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.DiskBackedCache.Store;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
+import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Base class for factories of {@link DiskBackedCache}s.
+ *
+ * <p>Opens the disk stores of the caches on start, prunes them daily and writes the pending entries
+ * when the server or the plugin owning a cache stops. Subclasses only create the stores.
+ */
+public abstract class DiskBackedCacheFactory extends PersistentCacheBaseFactory
+    implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final List<DiskBackedCache<?, ?>> caches;
+  private final DynamicMap<Cache<?, ?>> cacheMap;
+  private final ScheduledExecutorService cleanup;
+
+  /** Executor of the disk writes, or null if the disk is not enabled. */
+  protected final ExecutorService executor;
+
+  protected DiskBackedCacheFactory(
+      MemoryCacheFactory memCacheFactory,
+      Config cfg,
+      SitePaths site,
+      DynamicMap<Cache<?, ?>> cacheMap) {
+    super(memCacheFactory, cfg, site);
+    caches = new ArrayList<>();
+    this.cacheMap = cacheMap;
+
+    if (diskEnabled) {
+      executor =
+          new LoggingContextAwareExecutorService(
+              Executors.newFixedThreadPool(
+                  1, new ThreadFactoryBuilder().setNameFormat("DiskCache-Store-%d").build()));
+      cleanup =
+          new LoggingContextAwareScheduledExecutorService(
+              Executors.newScheduledThreadPool(
+                  1,
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("DiskCache-Prune-%d")
+                      .setDaemon(true)
+                      .build()));
+    } else {
+      executor = null;
+      cleanup = null;
+    }
+  }
+
+  /** Creates the disk store of a cache. */
+  protected abstract <K, V> Store<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize);
+
+  /** Creates a cache on top of a store created by {@link #newStore}. */
+  protected abstract <K, V> DiskBackedCache<K, V> newCache(
+      Store<K, V> store, TypeLiteral<K> keyType, Cache<K, ValueHolder<V>> mem);
+
+  @Override
+  public void start() {
+    if (executor != null) {
+      for (DiskBackedCache<?, ?> cache : caches) {
+        executor.execute(cache::start);
+        @SuppressWarnings("unused")
+        Future<?> possiblyIgnoredError =
+            cleanup.schedule(() -> cache.prune(cleanup), 30, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      try {
+        cleanup.shutdownNow();
+
+        List<Runnable> pending = executor.shutdownNow();
+        if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
+          if (pending != null && !pending.isEmpty()) {
+            logger.atInfo().log("Finishing %d disk cache updates", pending.size());
+            for (Runnable update : pending) {
+              update.run();
+            }
+          }
+        } else {
+          logger.atInfo().log("Timeout waiting for disk cache to close");
+        }
+      } catch (InterruptedException e) {
+        logger.atWarning().log("Interrupted waiting for disk cache to shutdown");
+      }
+    }
+    synchronized (caches) {
+      for (DiskBackedCache<?, ?> cache : caches) {
+        cache.stop();
+      }
+    }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override
+  public <K, V> Cache<K, V> buildImpl(PersistentCacheDef<K, V> in, long limit) {
+    DiskBackedCacheDefProxy<K, V> def = new DiskBackedCacheDefProxy<>(in);
+    Store<K, V> store = newStore(def, limit);
+    DiskBackedCache<K, V> cache =
+        newCache(store, def.keyType(), (Cache<K, ValueHolder<V>>) memCacheFactory.build(def));
+    synchronized (caches) {
+      caches.add(cache);
+    }
+    return cache;
+  }
+
+  @SuppressWarnings({"unchecked"})
+  @Override
+  public <K, V> LoadingCache<K, V> buildImpl(
+      PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, long limit) {
+    DiskBackedCacheDefProxy<K, V> def = new DiskBackedCacheDefProxy<>(in);
+    Store<K, V> store = newStore(def, limit);
+    Cache<K, ValueHolder<V>> mem =
+        (Cache<K, ValueHolder<V>>)
+            memCacheFactory.build(
+                def, (CacheLoader<K, V>) new DiskBackedCache.Loader<>(store, loader));
+    DiskBackedCache<K, V> cache = newCache(store, def.keyType(), mem);
+    synchronized (caches) {
+      caches.add(cache);
+    }
+    return cache;
+  }
+
+  @Override
+  public void onStop(String plugin) {
+    synchronized (caches) {
+      for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
+        Cache<?, ?> cache = entry.getValue().get();
+        if (caches.remove(cache)) {
+          ((DiskBackedCache<?, ?>) cache).stop();
+        }
+      }
+    }
+  }
+}
@@ -18,10 +18,20 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
+import org.eclipse.jgit.lib.Config;
 
 /**
  * Caches object instances for a request as {@link ThreadLocal} in the serving thread.
@@ -36,26 +46,31 @@ import java.util.function.Supplier;
  * retrieved object guarantees. Depending on the implementation of {@code CurrentUser}, it might be
  * shared between the request serving thread as well as sub- or background treads.
  *
- * <p>In comparison to that, this class guarantees thread safety even on non-thread-safe objects as
- * its cache is tied to the serving thread only. While allowing to cache non-thread-safe objects, it
- * has the downside of not sharing any objects with background threads or executors.
+ * <p>In comparison to that, this class is tied to the serving thread and the tasks that the request
+ * explicitly hands its cache to with {@link #propagate(Callable)}, {@link #propagate(Runnable)} or
+ * {@link PerThreadCacheAwareExecutorService}; this is done by the {@code RequestScopePropagator}
+ * and the fan-out executor. Cached objects may therefore be used concurrently by these tasks and
+ * must tolerate that. Once the cache is closed, tasks that still hold it invoke the {@code
+ * Supplier} directly.
  *
  * <p>Lastly, this class offers a cache, that requires callers to also provide a {@code Supplier} in
  * case the object is not present in the cache, while {@code CurrentUser} provides a storage where
  * just retrieving stored values is a valid operation.
  *
- * <p>To prevent OOM errors on requests that would cache a lot of objects, this class enforces an
- * internal limit after which no new elements are cached. All {@code get} calls are served by
- * invoking the {@code Supplier} after that.
+ * <p>To prevent OOM errors on requests that would cache a lot of objects, this class enforces a
+ * limit per value class after which no new elements of that class are cached. All {@code get} calls
+ * for that class are served by invoking the {@code Supplier} after that. The limits can be
+ * configured with {@code perThreadCache.maxEntries} and {@code
+ * perThreadCache.<SimpleClassName>.maxEntries}.
  */
 public class PerThreadCache implements AutoCloseable {
   private static final ThreadLocal<PerThreadCache> CACHE = new ThreadLocal<>();
   /**
-   * Cache at maximum 25 values per thread. This value was chosen arbitrarily. Some endpoints (like
-   * ListProjects) break the assumption that the data cached in a request is limited. To prevent
-   * this class from accumulating an unbound number of objects, we enforce this limit.
+   * Cache at maximum 100 values per value class by default. Some endpoints (like ListProjects)
+   * break the assumption that the data cached in a request is limited. To prevent this class from
+   * accumulating an unbound number of objects, we enforce this limit.
    */
-  private static final int PER_THREAD_CACHE_SIZE = 25;
+  public static final int DEFAULT_MAX_ENTRIES = 100;
 
   /**
    * Unique key for key-value mappings stored in PerThreadCache. The key is based on the value's
@@ -102,9 +117,59 @@ public class PerThreadCache implements AutoCloseable {
     }
   }
 
+  /** Creates caches that apply the configured limits and report hits and misses as metrics. */
+  @Singleton
+  public static class Factory {
+    private static final Field<String> CLASS_FIELD =
+        Field.ofString("class_name", Metadata.Builder::className)
+            .description("The class of the cached values.")
+            .build();
+
+    private final Config cfg;
+    private final int defaultMaxEntries;
+    private final Map<Class<?>, Integer> maxEntries = new ConcurrentHashMap<>();
+    private final Counter1<String> hits;
+    private final Counter1<String> misses;
+
+    @Inject
+    Factory(@GerritServerConfig Config cfg, MetricMaker metricMaker) {
+      this.cfg = cfg;
+      this.defaultMaxEntries = cfg.getInt("perThreadCache", "maxEntries", DEFAULT_MAX_ENTRIES);
+      this.hits =
+          metricMaker.newCounter(
+              "perthreadcache/hit_count",
+              new Description("Lookups served from the per-request cache")
+                  .setRate()
+                  .setUnit("lookups"),
+              CLASS_FIELD);
+      this.misses =
+          metricMaker.newCounter(
+              "perthreadcache/miss_count",
+              new Description("Lookups not served from the per-request cache")
+                  .setRate()
+                  .setUnit("lookups"),
+              CLASS_FIELD);
+    }
+
+    public PerThreadCache create() {
+      return PerThreadCache.create(this);
+    }
+
+    private int maxEntries(Class<?> clazz) {
+      return maxEntries.computeIfAbsent(
+          clazz,
+          c -> cfg.getInt("perThreadCache", c.getSimpleName(), "maxEntries", defaultMaxEntries));
+    }
+  }
+
+  /** Creates a cache with the default limits that does not report metrics. */
   public static PerThreadCache create() {
+    return create(null);
+  }
+
+  private static PerThreadCache create(@Nullable Factory factory) {
     checkState(CACHE.get() == null, "called create() twice on the same request");
-    PerThreadCache cache = new PerThreadCache();
+    PerThreadCache cache = new PerThreadCache(factory);
     CACHE.set(cache);
     return cache;
   }
@@ -119,28 +184,127 @@ public class PerThreadCache implements AutoCloseable {
     return cache != null ? cache.get(key, loader) : loader.get();
   }
 
-  private final Map<Key<?>, Object> cache = Maps.newHashMapWithExpectedSize(PER_THREAD_CACHE_SIZE);
+  /**
+   * Returns a {@link Callable} that makes the cache of the current thread available to the thread
+   * that invokes it. Returns {@code callable} unchanged if the current thread has no cache.
+   */
+  public static <T> Callable<T> propagate(Callable<T> callable) {
+    PerThreadCache cache = get();
+    if (cache == null) {
+      return callable;
+    }
+    return new Callable<>() {
+      @Override
+      public T call() throws Exception {
+        PerThreadCache old = CACHE.get();
+        if (old == cache) {
+          return callable.call();
+        }
+        CACHE.set(cache);
+        try {
+          return callable.call();
+        } finally {
+          restore(old);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return callable.toString();
+      }
+    };
+  }
+
+  /**
+   * Returns a {@link Runnable} that makes the cache of the current thread available to the thread
+   * that runs it. Returns {@code runnable} unchanged if the current thread has no cache.
+   */
+  public static Runnable propagate(Runnable runnable) {
+    PerThreadCache cache = get();
+    if (cache == null) {
+      return runnable;
+    }
+    return new Runnable() {
+      @Override
+      public void run() {
+        PerThreadCache old = CACHE.get();
+        if (old == cache) {
+          runnable.run();
+          return;
+        }
+        CACHE.set(cache);
+        try {
+          runnable.run();
+        } finally {
+          restore(old);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return runnable.toString();
+      }
+    };
+  }
+
+  private static void restore(@Nullable PerThreadCache old) {
+    if (old != null) {
+      CACHE.set(old);
+    } else {
+      CACHE.remove();
+    }
+  }
+
+  @Nullable private final Factory factory;
+  private final Map<Class<?>, Map<Key<?>, Object>> cache = new ConcurrentHashMap<>();
+  private volatile boolean closed;
 
-  private PerThreadCache() {}
+  private PerThreadCache(@Nullable Factory factory) {
+    this.factory = factory;
+  }
 
   /**
    * Returns an instance of {@code T} that was either loaded from the cache or obtained from the
    * provided {@link Supplier}.
    */
   public <T> T get(Key<T> key, Supplier<T> loader) {
+    if (closed) {
+      return loader.get();
+    }
+    Map<Key<?>, Object> values = cache.computeIfAbsent(key.clazz, c -> new ConcurrentHashMap<>());
     @SuppressWarnings("unchecked")
-    T value = (T) cache.get(key);
-    if (value == null) {
-      value = loader.get();
-      if (cache.size() < PER_THREAD_CACHE_SIZE) {
-        cache.put(key, value);
+    T value = (T) values.get(key);
+    if (value != null) {
+      if (factory != null) {
+        factory.hits.increment(key.clazz.getSimpleName());
+      }
+      return value;
+    }
+
+    if (factory != null) {
+      factory.misses.increment(key.clazz.getSimpleName());
+    }
+    value = loader.get();
+    if (value != null && values.size() < maxEntries(key.clazz)) {
+      // Another task of this request may have loaded the value concurrently. Keep the first one
+      // so that all callers share the same instance.
+      @SuppressWarnings("unchecked")
+      T existing = (T) values.putIfAbsent(key, value);
+      if (existing != null) {
+        return existing;
       }
     }
     return value;
   }
 
+  private int maxEntries(Class<?> clazz) {
+    return factory != null ? factory.maxEntries(clazz) : DEFAULT_MAX_ENTRIES;
+  }
+
   @Override
   public void close() {
+    closed = true;
+    cache.clear();
     CACHE.remove();
   }
 }
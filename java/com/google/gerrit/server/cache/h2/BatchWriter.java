@@ -0,0 +1,264 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-behind queue in front of a {@link SqlStore}.
+ *
+ * <p>Callers only record the entry in a bounded map of pending writes; the entries are written to
+ * the database in batches, each in a single transaction, on the store executor. Repeated puts of
+ * the same key before the next flush replace each other, so only the latest value is written.
+ *
+ * <p>If the queue is full, new keys are dropped instead of blocking the caller. Dropped values stay
+ * dirty in the in-memory cache and are written when the cache is stopped.
+ */
+class BatchWriter<K, V> implements DiskBackedCache.Store<K, V> {
+  static final int DEFAULT_MAX_PENDING = 4096;
+  static final int DEFAULT_BATCH_SIZE = 128;
+
+  private final String name;
+  private final Executor executor;
+  private final SqlStore<K, V> store;
+  private final int maxPending;
+  private final int batchSize;
+  private final Metrics metrics;
+
+  private final LinkedHashMap<K, ValueHolder<V>> pending = new LinkedHashMap<>();
+  private boolean scheduled;
+
+  BatchWriter(
+      String name,
+      Executor executor,
+      SqlStore<K, V> store,
+      int maxPending,
+      int batchSize,
+      Metrics metrics) {
+    this.name = name;
+    this.executor = executor;
+    this.store = store;
+    this.maxPending = Math.max(1, maxPending);
+    this.batchSize = Math.max(1, batchSize);
+    this.metrics = metrics;
+    metrics.register(this);
+  }
+
+  /** Queues {@code holder} to be written for {@code key}, unless it is already persisted. */
+  @Override
+  public void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+    synchronized (this) {
+      if (pending.size() >= maxPending && !pending.containsKey(key)) {
+        metrics.dropped.increment(name);
+        return;
+      }
+      pending.put(key, holder);
+      if (scheduled) {
+        return;
+      }
+      scheduled = true;
+    }
+    executor.execute(this::flush);
+  }
+
+  void putAll(Map<K, ValueHolder<V>> entries) {
+    for (Map.Entry<K, ValueHolder<V>> e : entries.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  /**
+   * Returns the value queued for {@code key}, or the value stored in the database if there is no
+   * pending write for it.
+   */
+  @Override
+  @Nullable
+  public ValueHolder<V> getIfPresent(K key) {
+    ValueHolder<V> h;
+    synchronized (this) {
+      h = pending.get(key);
+    }
+    if (h != null) {
+      return h;
+    }
+    return store.mightContain(key) ? store.getIfPresent(key) : null;
+  }
+
+  /** Discards a pending write for {@code key} and removes it from the database. */
+  @Override
+  public void invalidate(K key) {
+    synchronized (this) {
+      pending.remove(key);
+    }
+    if (store.mightContain(key)) {
+      executor.execute(() -> store.invalidate(key));
+    }
+  }
+
+  @Override
+  public void invalidateAll() {
+    synchronized (this) {
+      pending.clear();
+    }
+    store.invalidateAll();
+  }
+
+  @Override
+  public boolean needsRefresh(Instant created) {
+    return store.needsRefresh(created);
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    return store.diskStats();
+  }
+
+  @Override
+  public void open() {
+    store.open();
+  }
+
+  @Override
+  public void prune(Cache<K, ValueHolder<V>> mem) {
+    store.prune(mem);
+  }
+
+  synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  /** Writes all pending entries to the database on the calling thread. */
+  void flush() {
+    for (; ; ) {
+      Map<K, ValueHolder<V>> batch = new LinkedHashMap<>();
+      synchronized (this) {
+        Iterator<Map.Entry<K, ValueHolder<V>>> i = pending.entrySet().iterator();
+        while (batch.size() < batchSize && i.hasNext()) {
+          Map.Entry<K, ValueHolder<V>> e = i.next();
+          batch.put(e.getKey(), e.getValue());
+          i.remove();
+        }
+        if (batch.isEmpty()) {
+          scheduled = false;
+          return;
+        }
+      }
+      try (Timer1.Context<String> ignored = metrics.batchLatency.start(name)) {
+        store.putAll(batch);
+      }
+      metrics.batchSize.record(name, batch.size());
+    }
+  }
+
+  /**
+   * Flushes pending writes, writes the {@code dirty} entries and closes the database. Stops
+   * reporting metrics for this writer.
+   */
+  @Override
+  public void close(Map<K, ValueHolder<V>> dirty) {
+    flush();
+    metrics.unregister(this);
+    store.putAll(dirty);
+    store.close();
+  }
+
+  @Singleton
+  static class Metrics {
+    private static final Field<String> F_NAME =
+        Field.ofString("cache_name", Metadata.Builder::cacheName)
+            .description("The name of the cache.")
+            .build();
+
+    private final Set<BatchWriter<?, ?>> writers = ConcurrentHashMap.newKeySet();
+    private final Counter1<String> dropped;
+    private final Histogram1<String> batchSize;
+    private final Timer1<String> batchLatency;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      dropped =
+          metricMaker.newCounter(
+              "caches/disk_write_dropped_count",
+              new Description("Writes to a persistent cache dropped because its queue was full")
+                  .setRate()
+                  .setUnit("entries"),
+              F_NAME);
+      batchSize =
+          metricMaker.newHistogram(
+              "caches/disk_write_batch_size",
+              new Description("Number of entries written to a persistent cache in one batch")
+                  .setCumulative()
+                  .setUnit("entries"),
+              F_NAME);
+      batchLatency =
+          metricMaker.newTimer(
+              "caches/disk_write_latency",
+              new Description("Latency of writing a batch of entries to a persistent cache")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              F_NAME);
+      CallbackMetric1<String, Integer> queueSize =
+          metricMaker.newCallbackMetric(
+              "caches/disk_write_queue_size",
+              Integer.class,
+              new Description("Entries waiting to be written to a persistent cache")
+                  .setGauge()
+                  .setUnit("entries"),
+              F_NAME);
+      metricMaker.newTrigger(
+          queueSize,
+          () -> {
+            for (BatchWriter<?, ?> w : writers) {
+              queueSize.set(w.name, w.pendingCount());
+            }
+            queueSize.prune();
+          });
+    }
+
+    private void register(BatchWriter<?, ?> writer) {
+      writers.add(writer);
+    }
+
+    private void unregister(BatchWriter<?, ?> writer) {
+      writers.remove(writer);
+    }
+  }
+}
@@ -15,32 +15,19 @@
 package com.google.gerrit.server.cache.h2;
 
 import com.google.common.cache.Cache;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.flogger.FluentLogger;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.gerrit.server.cache.DiskBackedCache.Store;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.DiskBackedCacheFactory;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
-import com.google.gerrit.server.cache.PersistentCacheBaseFactory;
 import com.google.gerrit.server.cache.PersistentCacheDef;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
-import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
-import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import com.google.inject.Inject;
-import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import com.google.inject.TypeLiteral;
 import org.eclipse.jgit.lib.Config;
 
 /**
@@ -48,128 +35,47 @@ import org.eclipse.jgit.lib.Config;
  * is unset, it will fall back to in-memory caches.
  */
 @Singleton
-class H2CacheFactory extends PersistentCacheBaseFactory implements LifecycleListener {
-  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-
-  private final List<H2CacheImpl<?, ?>> caches;
-  private final DynamicMap<Cache<?, ?>> cacheMap;
-  private final ExecutorService executor;
-  private final ScheduledExecutorService cleanup;
+class H2CacheFactory extends DiskBackedCacheFactory {
+  private final BatchWriter.Metrics writerMetrics;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final int writeQueueSize;
+  private final int writeBatchSize;
 
   @Inject
   H2CacheFactory(
       MemoryCacheFactory memCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
-    super(memCacheFactory, cfg, site);
+      DynamicMap<Cache<?, ?>> cacheMap,
+      BatchWriter.Metrics writerMetrics) {
+    super(memCacheFactory, cfg, site, cacheMap);
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
-    caches = new ArrayList<>();
-    this.cacheMap = cacheMap;
-
-    if (diskEnabled) {
-      executor =
-          new LoggingContextAwareExecutorService(
-              Executors.newFixedThreadPool(
-                  1, new ThreadFactoryBuilder().setNameFormat("DiskCache-Store-%d").build()));
-      cleanup =
-          new LoggingContextAwareScheduledExecutorService(
-              Executors.newScheduledThreadPool(
-                  1,
-                  new ThreadFactoryBuilder()
-                      .setNameFormat("DiskCache-Prune-%d")
-                      .setDaemon(true)
-                      .build()));
-    } else {
-      executor = null;
-      cleanup = null;
-    }
+    writeQueueSize = cfg.getInt("cache", null, "h2WriteQueueSize", BatchWriter.DEFAULT_MAX_PENDING);
+    writeBatchSize = cfg.getInt("cache", null, "h2WriteBatchSize", BatchWriter.DEFAULT_BATCH_SIZE);
+    this.writerMetrics = writerMetrics;
   }
 
   @Override
-  public void start() {
-    if (executor != null) {
-      for (H2CacheImpl<?, ?> cache : caches) {
-        executor.execute(cache::start);
-        @SuppressWarnings("unused")
-        Future<?> possiblyIgnoredError =
-            cleanup.schedule(() -> cache.prune(cleanup), 30, TimeUnit.SECONDS);
-      }
-    }
+  protected <K, V> Store<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize) {
+    return newBatchWriter(def, maxSize);
   }
 
   @Override
-  public void stop() {
-    if (executor != null) {
-      try {
-        cleanup.shutdownNow();
-
-        List<Runnable> pending = executor.shutdownNow();
-        if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
-          if (pending != null && !pending.isEmpty()) {
-            logger.atInfo().log("Finishing %d disk cache updates", pending.size());
-            for (Runnable update : pending) {
-              update.run();
-            }
-          }
-        } else {
-          logger.atInfo().log("Timeout waiting for disk cache to close");
-        }
-      } catch (InterruptedException e) {
-        logger.atWarning().log("Interrupted waiting for disk cache to shutdown");
-      }
-    }
-    synchronized (caches) {
-      for (H2CacheImpl<?, ?> cache : caches) {
-        cache.stop();
-      }
-    }
+  protected <K, V> DiskBackedCache<K, V> newCache(
+      Store<K, V> store, TypeLiteral<K> keyType, Cache<K, ValueHolder<V>> mem) {
+    return new H2CacheImpl<>((BatchWriter<K, V>) store, keyType, mem);
   }
 
-  @SuppressWarnings({"unchecked"})
-  @Override
-  public <K, V> Cache<K, V> buildImpl(PersistentCacheDef<K, V> in, long limit) {
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
-    H2CacheImpl<K, V> cache =
-        new H2CacheImpl<>(
-            executor, store, def.keyType(), (Cache<K, ValueHolder<V>>) memCacheFactory.build(def));
-    synchronized (caches) {
-      caches.add(cache);
-    }
-    return cache;
-  }
-
-  @SuppressWarnings({"unchecked"})
-  @Override
-  public <K, V> LoadingCache<K, V> buildImpl(
-      PersistentCacheDef<K, V> in, CacheLoader<K, V> loader, long limit) {
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
-    SqlStore<K, V> store = newSqlStore(def, limit);
-    Cache<K, ValueHolder<V>> mem =
-        (Cache<K, ValueHolder<V>>)
-            memCacheFactory.build(
-                def, (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader));
-    H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
-    synchronized (caches) {
-      caches.add(cache);
-    }
-    return cache;
-  }
-
-  @Override
-  public void onStop(String plugin) {
-    synchronized (caches) {
-      for (Map.Entry<String, Provider<Cache<?, ?>>> entry : cacheMap.byPlugin(plugin).entrySet()) {
-        Cache<?, ?> cache = entry.getValue().get();
-        if (caches.remove(cache)) {
-          ((H2CacheImpl<?, ?>) cache).stop();
-        }
-      }
-    }
+  private <K, V> BatchWriter<K, V> newBatchWriter(PersistentCacheDef<K, V> def, long maxSize) {
+    return new BatchWriter<>(
+        def.name(),
+        executor,
+        newSqlStore(def, maxSize),
+        writeQueueSize,
+        writeBatchSize,
+        writerMetrics);
   }
 
   private <V, K> SqlStore<K, V> newSqlStore(PersistentCacheDef<K, V> def, long maxSize) {
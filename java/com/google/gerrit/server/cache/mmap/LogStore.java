@@ -0,0 +1,615 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparingLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Disk store of a persistent cache, built on an append-only, memory-mapped log file and an
+ * in-memory hash index.
+ *
+ * <p>The log starts with a header holding the cache version, followed by records of serialized
+ * key/value pairs. The file is mapped in fixed-size segments and a record never spans two segments,
+ * so a lookup is a probe of the index followed by a single copy out of the mapped segment. Puts
+ * append a new record and repoint the index; invalidations append a tombstone. On open, the index
+ * is rebuilt by scanning the log, stopping at the first incomplete or corrupt record.
+ *
+ * <p>Stale records are only reclaimed by {@link #prune(Cache)}, which rewrites the live entries
+ * into a new log, dropping the least recently accessed ones until the store fits into its disk
+ * limit.
+ *
+ * <p>Writes are serialized on the store. Reads never lock: they use the segments of the log that
+ * was current when the lookup started, which remain mapped even if the log is concurrently replaced
+ * by {@link #prune(Cache)} or {@link #invalidateAll()}.
+ */
+class LogStore<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int FILE_MAGIC = 0x47434d4c;
+  private static final int FILE_HEADER_SIZE = 8;
+  private static final int RECORD_MAGIC = 0x52454331;
+  private static final int PADDING_MAGIC = 0x50414431;
+  // magic, key length, value length, created, CRC32 of everything after the CRC.
+  private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 8 + 4;
+  private static final int TOMBSTONE = -1;
+
+  private final Path path;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final int segmentSize;
+  @Nullable private final Duration expireAfterWrite;
+  @Nullable private final Duration refreshAfterWrite;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  @Nullable private volatile Log log;
+
+  LogStore(
+      Path path,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      int segmentSize,
+      @Nullable Duration expireAfterWrite,
+      @Nullable Duration refreshAfterWrite) {
+    this.path = path;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    this.segmentSize = segmentSize;
+    this.expireAfterWrite = expireAfterWrite;
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  synchronized void open() {
+    if (log == null) {
+      try {
+        log = recover();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot open cache %s, starting empty", path);
+        log = reset();
+      }
+    }
+  }
+
+  synchronized void close() {
+    Log l = log;
+    if (l != null) {
+      l.close();
+      log = null;
+    }
+  }
+
+  @Nullable
+  ValueHolder<V> getIfPresent(K key) {
+    Log l = log;
+    if (l == null) {
+      open();
+      l = log;
+      if (l == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+    }
+
+    KeyBytes k = new KeyBytes(keySerializer.serialize(key));
+    Entry e = l.index.get(k);
+    if (e == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    Instant created = Instant.ofEpochMilli(e.created);
+    if (expired(created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    V val;
+    try {
+      val = valueSerializer.deserialize(l.read(e));
+    } catch (RuntimeException ex) {
+      logger.atWarning().withCause(ex).log("Cannot read cache %s for %s", path, key);
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+    e.accessed = TimeUtil.nowMs();
+    ValueHolder<V> h = new ValueHolder<>(val, created);
+    h.clean = true;
+    hitCount.incrementAndGet();
+    return h;
+  }
+
+  boolean needsRefresh(Instant created) {
+    if (refreshAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(refreshAfterWrite) > 0;
+  }
+
+  private boolean expired(Instant created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(expireAfterWrite) > 0;
+  }
+
+  synchronized void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+    Log l = openedLog();
+    if (l == null) {
+      return;
+    }
+    try {
+      byte[] value = valueSerializer.serialize(holder.value);
+      if (l.append(
+          new KeyBytes(keySerializer.serialize(key)), value, holder.created.toEpochMilli())) {
+        holder.clean = true;
+      } else {
+        logger.atFine().log(
+            "Not storing %d byte value for %s in cache %s, segment size is %d",
+            value.length, key, path, segmentSize);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot put into cache %s", path);
+    }
+  }
+
+  synchronized void invalidate(K key) {
+    Log l = openedLog();
+    if (l == null) {
+      return;
+    }
+    try {
+      l.remove(new KeyBytes(keySerializer.serialize(key)));
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot invalidate cache %s", path);
+    }
+  }
+
+  synchronized void invalidateAll() {
+    Log old = log;
+    log = reset();
+    if (old != null) {
+      old.release();
+    }
+  }
+
+  /**
+   * Rewrites the log without stale records, dropping the least recently accessed entries that are
+   * not held in memory until the live data fits into the disk limit.
+   */
+  synchronized void prune(Cache<K, ?> mem) {
+    Log l = openedLog();
+    if (l == null) {
+      return;
+    }
+
+    List<Map.Entry<KeyBytes, Entry>> byAccess = new ArrayList<>(l.index.entrySet());
+    byAccess.sort(comparingLong(e -> e.getValue().accessed));
+    long used = l.live;
+    int dropped = 0;
+    List<Map.Entry<KeyBytes, Entry>> keep = new ArrayList<>(byAccess.size());
+    for (Map.Entry<KeyBytes, Entry> e : byAccess) {
+      boolean expired = expired(Instant.ofEpochMilli(e.getValue().created));
+      if (expired || (used > maxSize && !inMemory(mem, e.getKey()))) {
+        used -= e.getValue().length();
+        dropped++;
+      } else {
+        keep.add(e);
+      }
+    }
+
+    long stale = l.end - FILE_HEADER_SIZE - l.live;
+    if (dropped == 0 && stale <= l.live) {
+      return;
+    }
+
+    keep.sort(comparingLong(e -> e.getValue().position));
+    Path tmp = tmpPath();
+    Log compacted = null;
+    try {
+      compacted = Log.create(tmp, segmentSize, version);
+      for (Map.Entry<KeyBytes, Entry> e : keep) {
+        Entry old = e.getValue();
+        if (compacted.append(e.getKey(), l.read(old), old.created)) {
+          compacted.index.get(e.getKey()).accessed = old.accessed;
+        }
+      }
+      compacted.force();
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot prune cache %s", path);
+      if (compacted != null) {
+        compacted.release();
+      }
+      deleteTmp();
+      return;
+    }
+
+    log = compacted;
+    l.release();
+    logger.atInfo().log(
+        "Pruned cache %s: dropped %d entries, reclaimed %d bytes",
+        path, dropped, l.end - compacted.end);
+  }
+
+  private boolean inMemory(Cache<K, ?> mem, KeyBytes key) {
+    try {
+      return mem.getIfPresent(keySerializer.deserialize(key.bytes)) != null;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  DiskStats diskStats() {
+    Log l = log;
+    long size = l != null ? l.index.size() : 0;
+    long space = l != null ? l.end : 0;
+    return new DiskStats(size, space, hitCount.get(), missCount.get());
+  }
+
+  @Nullable
+  private Log openedLog() {
+    if (log == null) {
+      open();
+    }
+    return log;
+  }
+
+  private Log recover() throws IOException {
+    if (!Files.exists(path)) {
+      return newLog();
+    }
+
+    FileChannel channel = FileChannel.open(path, READ, WRITE);
+    Log l = new Log(channel, segmentSize);
+    long size = channel.size();
+    if (size < FILE_HEADER_SIZE || size % segmentSize != 0) {
+      logger.atInfo().log("Discarding cache %s with unexpected size %d", path, size);
+      l.release();
+      return newLog();
+    }
+
+    ByteBuffer first = l.segment(0);
+    if (first.getInt(0) != FILE_MAGIC || first.getInt(4) != version) {
+      logger.atInfo().log("Discarding cache %s not matching version %d", path, version);
+      l.release();
+      return newLog();
+    }
+
+    long segments = size / segmentSize;
+    long pos = FILE_HEADER_SIZE;
+    while (pos / segmentSize < segments) {
+      int seg = (int) (pos / segmentSize);
+      int off = (int) (pos % segmentSize);
+      ByteBuffer b = l.segment(seg);
+      if (segmentSize - off < 4 || b.getInt(off) == PADDING_MAGIC) {
+        pos = (long) (seg + 1) * segmentSize;
+        continue;
+      }
+      if (b.getInt(off) != RECORD_MAGIC || segmentSize - off < RECORD_HEADER_SIZE) {
+        break;
+      }
+      int keyLen = b.getInt(off + 4);
+      int valueLen = b.getInt(off + 8);
+      long created = b.getLong(off + 12);
+      int len = RECORD_HEADER_SIZE + keyLen + Math.max(valueLen, 0);
+      if (keyLen < 0 || valueLen < TOMBSTONE || len > segmentSize - off) {
+        break;
+      }
+      ByteBuffer body = b.duplicate();
+      body.position(off + 4).limit(off + len);
+      CRC32 crc = new CRC32();
+      ByteBuffer lengths = body.slice();
+      lengths.limit(16);
+      crc.update(lengths);
+      body.position(off + RECORD_HEADER_SIZE);
+      ByteBuffer payload = body.slice();
+      crc.update(payload);
+      if ((int) crc.getValue() != b.getInt(off + 20)) {
+        logger.atWarning().log("Corrupt record in cache %s at %d, truncating", path, pos);
+        break;
+      }
+
+      byte[] key = new byte[keyLen];
+      body.position(off + RECORD_HEADER_SIZE);
+      body.get(key);
+      KeyBytes k = new KeyBytes(key);
+      if (valueLen == TOMBSTONE) {
+        l.drop(k);
+      } else {
+        l.index(k, new Entry(pos, keyLen, valueLen, created));
+      }
+      pos += len;
+    }
+    l.end = pos;
+    l.truncate(pos);
+    logger.atInfo().log("Loaded %d entries from cache %s", l.index.size(), path);
+    return l;
+  }
+
+  @Nullable
+  private Log reset() {
+    try {
+      return newLog();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot create cache %s", path);
+      deleteTmp();
+      return null;
+    }
+  }
+
+  /**
+   * Creates an empty log and moves it over the current file. The file is never truncated in place,
+   * since readers may still access the mapped segments of the previous log.
+   */
+  private Log newLog() throws IOException {
+    Path tmp = tmpPath();
+    Log l = Log.create(tmp, segmentSize, version);
+    try {
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException e) {
+      l.release();
+      throw e;
+    }
+    return l;
+  }
+
+  private Path tmpPath() {
+    return path.resolveSibling(path.getFileName() + ".tmp");
+  }
+
+  private void deleteTmp() {
+    Path tmp = tmpPath();
+    try {
+      Files.deleteIfExists(tmp);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete %s", tmp);
+    }
+  }
+
+  /** Location of the newest record for a key. */
+  private static class Entry {
+    final long position;
+    final int keyLen;
+    final int valueLen;
+    final long created;
+    volatile long accessed;
+
+    Entry(long position, int keyLen, int valueLen, long created) {
+      this.position = position;
+      this.keyLen = keyLen;
+      this.valueLen = valueLen;
+      this.created = created;
+      this.accessed = created;
+    }
+
+    int length() {
+      return RECORD_HEADER_SIZE + keyLen + valueLen;
+    }
+  }
+
+  /** Serialized key, compared by content. */
+  private static class KeyBytes {
+    final byte[] bytes;
+    private final int hash;
+
+    KeyBytes(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof KeyBytes && Arrays.equals(bytes, ((KeyBytes) o).bytes);
+    }
+  }
+
+  /** One generation of the log file, its mapped segments and its index. */
+  private static class Log {
+    final FileChannel channel;
+    final int segmentSize;
+    final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    final Map<KeyBytes, Entry> index = new ConcurrentHashMap<>();
+
+    // Guarded by the owning LogStore.
+    long end;
+    long live;
+
+    static Log create(Path path, int segmentSize, int version) throws IOException {
+      Log l = new Log(FileChannel.open(path, CREATE, READ, WRITE, TRUNCATE_EXISTING), segmentSize);
+      ByteBuffer first = l.segment(0);
+      first.putInt(0, FILE_MAGIC);
+      first.putInt(4, version);
+      l.end = FILE_HEADER_SIZE;
+      return l;
+    }
+
+    Log(FileChannel channel, int segmentSize) {
+      this.channel = channel;
+      this.segmentSize = segmentSize;
+    }
+
+    MappedByteBuffer segment(int n) throws IOException {
+      while (segments.size() <= n) {
+        segments.add(
+            channel.map(
+                FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+      }
+      return segments.get(n);
+    }
+
+    byte[] read(Entry e) {
+      ByteBuffer b = segments.get((int) (e.position / segmentSize)).duplicate();
+      b.position((int) (e.position % segmentSize) + RECORD_HEADER_SIZE + e.keyLen);
+      byte[] value = new byte[e.valueLen];
+      b.get(value);
+      return value;
+    }
+
+    boolean append(KeyBytes key, byte[] value, long created) throws IOException {
+      long pos = write(key, value, value.length, created);
+      if (pos < 0) {
+        return false;
+      }
+      index(key, new Entry(pos, key.bytes.length, value.length, created));
+      return true;
+    }
+
+    void remove(KeyBytes key) throws IOException {
+      if (index.containsKey(key)) {
+        write(key, new byte[0], TOMBSTONE, TimeUtil.nowMs());
+        drop(key);
+      }
+    }
+
+    void index(KeyBytes key, Entry e) {
+      Entry old = index.put(key, e);
+      live += e.length() - (old != null ? old.length() : 0);
+    }
+
+    void drop(KeyBytes key) {
+      Entry old = index.remove(key);
+      if (old != null) {
+        live -= old.length();
+      }
+    }
+
+    private long write(KeyBytes key, byte[] value, int valueLen, long created) throws IOException {
+      int len = RECORD_HEADER_SIZE + key.bytes.length + value.length;
+      if (len > segmentSize - FILE_HEADER_SIZE) {
+        return -1;
+      }
+
+      long pos = end;
+      int seg = (int) (pos / segmentSize);
+      int off = (int) (pos % segmentSize);
+      if (off + len > segmentSize) {
+        if (segmentSize - off >= 4) {
+          segment(seg).putInt(off, PADDING_MAGIC);
+        }
+        seg++;
+        off = 0;
+        pos = (long) seg * segmentSize;
+      }
+
+      ByteBuffer lengths = ByteBuffer.allocate(16);
+      lengths.putInt(key.bytes.length).putInt(valueLen).putLong(created).flip();
+      CRC32 crc = new CRC32();
+      crc.update(lengths.duplicate());
+      crc.update(key.bytes);
+      crc.update(value);
+
+      ByteBuffer b = segment(seg).duplicate();
+      b.position(off + 4);
+      b.put(lengths).putInt((int) crc.getValue()).put(key.bytes).put(value);
+      // Write the magic last, so that a partially written record is never recovered.
+      b.putInt(off, RECORD_MAGIC);
+      end = pos + len;
+      return pos;
+    }
+
+    /**
+     * Discards everything after {@code pos}, so that records following an incomplete or corrupt
+     * record can't be recovered once new records have been appended in front of them.
+     */
+    void truncate(long pos) throws IOException {
+      int seg = (int) (pos / segmentSize);
+      int off = (int) (pos % segmentSize);
+      if (off != 0 && seg < segments.size()) {
+        ByteBuffer b = segments.get(seg).duplicate();
+        b.position(off);
+        while (b.remaining() >= 4) {
+          b.putInt(0);
+        }
+      }
+      long keep = off == 0 ? pos : (long) (seg + 1) * segmentSize;
+      // Segments beyond the new end would be written past the end of the file. The log isn't
+      // readable yet, so no reader can still use them.
+      while (segments.size() > keep / segmentSize) {
+        segments.remove(segments.size() - 1);
+      }
+      if (channel.size() > keep) {
+        channel.truncate(keep);
+      }
+    }
+
+    void force() {
+      for (MappedByteBuffer s : segments) {
+        s.force();
+      }
+    }
+
+    void close() {
+      force();
+      release();
+    }
+
+    /** Closes the channel; mapped segments stay readable until they are garbage collected. */
+    void release() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot close cache file");
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Appends the stores and invalidations of a cache to its {@link LogStore} on the store executor,
+ * hiding the latency of serializing the entries from the callers.
+ */
+class LogWriter<K, V> implements DiskBackedCache.Store<K, V> {
+  private final Executor executor;
+  private final LogStore<K, V> store;
+
+  LogWriter(Executor executor, LogStore<K, V> store) {
+    this.executor = executor;
+    this.store = store;
+  }
+
+  @Override
+  @Nullable
+  public ValueHolder<V> getIfPresent(K key) {
+    return store.getIfPresent(key);
+  }
+
+  @Override
+  public void put(K key, ValueHolder<V> holder) {
+    executor.execute(() -> store.put(key, holder));
+  }
+
+  @Override
+  public void invalidate(K key) {
+    executor.execute(() -> store.invalidate(key));
+  }
+
+  @Override
+  public void invalidateAll() {
+    store.invalidateAll();
+  }
+
+  @Override
+  public boolean needsRefresh(Instant created) {
+    return store.needsRefresh(created);
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    return store.diskStats();
+  }
+
+  @Override
+  public void open() {
+    store.open();
+  }
+
+  @Override
+  public void close(Map<K, ValueHolder<V>> dirty) {
+    for (Map.Entry<K, ValueHolder<V>> e : dirty.entrySet()) {
+      store.put(e.getKey(), e.getValue());
+    }
+    store.close();
+  }
+
+  @Override
+  public void prune(Cache<K, ValueHolder<V>> mem) {
+    store.prune(mem);
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.gerrit.server.cache.DiskBackedCache.Store;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.DiskBackedCacheFactory;
+import com.google.gerrit.server.cache.MemoryCacheFactory;
+import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Creates persistent caches backed by memory-mapped logs, depending on gerrit.config parameters. If
+ * the cache.directory property is unset, it will fall back to in-memory caches.
+ */
+@Singleton
+class MmapCacheFactory extends DiskBackedCacheFactory {
+  static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+  private final int segmentSize;
+
+  @Inject
+  MmapCacheFactory(
+      MemoryCacheFactory memCacheFactory,
+      @GerritServerConfig Config cfg,
+      SitePaths site,
+      DynamicMap<Cache<?, ?>> cacheMap) {
+    super(memCacheFactory, cfg, site, cacheMap);
+    long configuredSegmentSize =
+        cfg.getLong("cache", null, "mmapSegmentSize", DEFAULT_SEGMENT_SIZE);
+    segmentSize = (int) Math.min(Integer.MAX_VALUE, Math.max(1 << 20, configuredSegmentSize));
+  }
+
+  @Override
+  protected <K, V> Store<K, V> newStore(PersistentCacheDef<K, V> def, long maxSize) {
+    return new LogWriter<>(
+        executor,
+        new LogStore<>(
+            cacheDir.resolve(def.name() + ".mmap"),
+            def.keySerializer(),
+            def.valueSerializer(),
+            def.version(),
+            maxSize,
+            segmentSize,
+            def.expireAfterWrite(),
+            def.refreshAfterWrite()));
+  }
+
+  @Override
+  protected <K, V> DiskBackedCache<K, V> newCache(
+      Store<K, V> store, TypeLiteral<K> keyType, Cache<K, ValueHolder<V>> mem) {
+    return new MmapCacheImpl<>((LogWriter<K, V>) store, keyType, mem);
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.inject.TypeLiteral;
+
+/**
+ * Hybrid in-memory and disk backed cache built on a memory-mapped log.
+ *
+ * <p>Behaves like the H2 backed cache, but a disk lookup is a probe of an in-memory hash index and
+ * a read from a mapped file, so no Bloom filter is needed in front of the {@link LogStore}. Stores
+ * and invalidations are appended to the log on a background thread by a {@link LogWriter}.
+ *
+ * @see MmapCacheFactory
+ */
+public class MmapCacheImpl<K, V> extends DiskBackedCache<K, V> {
+  MmapCacheImpl(LogWriter<K, V> writer, TypeLiteral<K> keyType, Cache<K, ValueHolder<V>> mem) {
+    super(writer, keyType, mem);
+  }
+}
@@ -45,9 +45,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -91,6 +93,7 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.GpgException;
 import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
@@ -113,7 +116,10 @@ import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
 import com.google.gerrit.server.util.AttentionSetUtil;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.inject.Inject;
+import com.google.inject.OutOfScopeException;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
@@ -127,6 +133,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
@@ -157,6 +167,9 @@ public class ChangeJson {
           CURRENT_COMMIT,
           MESSAGES);
 
+  /** Number of changes loaded by one task when prefetching on the fan-out executor. */
+  private static final int PREFETCH_BATCH_SIZE = 10;
+
   @Singleton
   public static class Factory {
     private final AssistedFactory factory;
@@ -195,6 +208,7 @@ public class ChangeJson {
     private final Timer0 toChangeInfoLatency;
     private final Timer0 toChangeInfosLatency;
     private final Timer0 formatQueryResultsLatency;
+    private final Timer0 prefetchLatency;
 
     @Inject
     Metrics(MetricMaker metricMaker) {
@@ -216,6 +230,12 @@ public class ChangeJson {
               new Description("Latency for formatQueryResults invocations in ChangeJson")
                   .setCumulative()
                   .setUnit(Units.MILLISECONDS));
+      prefetchLatency =
+          metricMaker.newTimer(
+              "http/server/rest_api/change_json/prefetch_latency",
+              new Description("Latency for loading the data of multiple changes in ChangeJson")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
     }
   }
 
@@ -234,6 +254,8 @@ public class ChangeJson {
   private final Metrics metrics;
   private final RevisionJson revisionJson;
   private final Optional<PluginDefinedInfosFactory> pluginDefinedInfosFactory;
+  private final ExecutorService fanOutExecutor;
+  private final ThreadLocalRequestContext requestContext;
   private final boolean includeMergeable;
   private final boolean lazyLoad;
 
@@ -255,6 +277,8 @@ public class ChangeJson {
       TrackingFooters trackingFooters,
       Metrics metrics,
       RevisionJson.Factory revisionJsonFactory,
+      @FanOutExecutor ExecutorService fanOutExecutor,
+      ThreadLocalRequestContext requestContext,
       @GerritServerConfig Config cfg,
       @Assisted Iterable<ListChangesOption> options,
       @Assisted Optional<PluginDefinedInfosFactory> pluginDefinedInfosFactory) {
@@ -271,6 +295,8 @@ public class ChangeJson {
     this.trackingFooters = trackingFooters;
     this.metrics = metrics;
     this.revisionJson = revisionJsonFactory.create(options);
+    this.fanOutExecutor = fanOutExecutor;
+    this.requestContext = requestContext;
     this.options = Sets.immutableEnumSet(options);
     this.includeMergeable = MergeabilityComputationBehavior.fromConfig(cfg).includeInApi();
     this.lazyLoad = containsAnyOf(this.options, REQUIRE_LAZY_LOAD);
@@ -312,8 +338,9 @@ public class ChangeJson {
       accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
       List<List<ChangeInfo>> res = new ArrayList<>(in.size());
       Map<Change.Id, ChangeInfo> cache = Maps.newHashMapWithExpectedSize(in.size());
-      ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange =
-          getPluginInfos(in.stream().flatMap(e -> e.entities().stream()).collect(toList()));
+      List<ChangeData> all = in.stream().flatMap(e -> e.entities().stream()).collect(toList());
+      prefetch(all);
+      ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange = getPluginInfos(all);
       for (QueryResult<ChangeData> r : in) {
         List<ChangeInfo> infos = toChangeInfos(r.entities(), cache, pluginInfosByChange);
         if (!infos.isEmpty() && r.more()) {
@@ -328,6 +355,7 @@ public class ChangeJson {
 
   public List<ChangeInfo> format(Collection<ChangeData> in) throws PermissionBackendException {
     accountLoader = accountLoaderFactory.create(has(DETAILED_ACCOUNTS));
+    prefetch(in);
     ensureLoaded(in);
     List<ChangeInfo> out = new ArrayList<>(in.size());
     ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange = getPluginInfos(in);
@@ -480,6 +508,78 @@ public class ChangeJson {
     }
   }
 
+  /**
+   * Loads the data needed to format {@code changes} in parallel on the fan-out executor.
+   *
+   * <p>Loading runs in phases over all changes, each phase waiting for the previous one: first the
+   * change notes, loaded in bulk per project, then the submit requirements, which are evaluated
+   * from the notes. Formatting then finds the data already loaded instead of reading NoteDb change
+   * by change.
+   *
+   * <p>Prefetching is best effort. The tasks run without a current user, so anything that depends
+   * on the caller fails here and is loaded again, with proper error handling, while formatting.
+   */
+  private void prefetch(Collection<ChangeData> changes) {
+    if (!lazyLoad || changes.size() < 2) {
+      return;
+    }
+    try (Timer0.Context ignored = metrics.prefetchLatency.start()) {
+      for (ChangeData cd : changes) {
+        cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_PRIMARY_NOTEDB_SECONDARY);
+      }
+      // Batches only contain changes of one project, so that their notes are loaded together.
+      List<List<ChangeData>> batches = new ArrayList<>();
+      for (Collection<ChangeData> inProject :
+          Multimaps.index(changes, ChangeData::project).asMap().values()) {
+        Iterables.addAll(batches, Iterables.partition(inProject, PREFETCH_BATCH_SIZE));
+      }
+      prefetch(batches, ChangeData::ensureNotesLoaded);
+      if (has(SUBMIT_REQUIREMENTS) || has(SUBMITTABLE)) {
+        prefetch(batches, batch -> batch.forEach(ChangeJson::prefetchSubmitRequirements));
+      }
+    }
+  }
+
+  private static void prefetchSubmitRequirements(ChangeData cd) {
+    try {
+      cd.submitRequirements();
+    } catch (RuntimeException e) {
+      logger.atFine().withCause(e).log("Failed to prefetch change %s", cd.getId());
+    }
+  }
+
+  private void prefetch(List<List<ChangeData>> batches, Consumer<List<ChangeData>> load) {
+    List<Future<?>> futures = new ArrayList<>(batches.size());
+    for (List<ChangeData> batch : batches) {
+      futures.add(fanOutExecutor.submit(() -> load(batch, load)));
+    }
+    try {
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(f -> f.cancel(true));
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log("Failed to prefetch changes");
+    }
+  }
+
+  private void load(List<ChangeData> batch, Consumer<List<ChangeData>> load) {
+    RequestContext noUser =
+        () -> {
+          throw new OutOfScopeException("No user while prefetching changes");
+        };
+    RequestContext old = requestContext.setContext(noUser);
+    try {
+      load.accept(batch);
+    } catch (RuntimeException e) {
+      logger.atFine().withCause(e).log("Failed to prefetch changes %s", batch);
+    } finally {
+      requestContext.setContext(old);
+    }
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
@@ -20,6 +20,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.server.CacheRefreshExecutor;
 import com.google.gerrit.server.FanOutExecutor;
+import com.google.gerrit.server.cache.PerThreadCacheAwareExecutorService;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
@@ -70,7 +71,7 @@ public class SysExecutorModule extends AbstractModule {
     if (poolSize == 0) {
       return newDirectExecutorService();
     }
-    return queues.createQueue(poolSize, "FanOut");
+    return new PerThreadCacheAwareExecutorService(queues.createQueue(poolSize, "FanOut"));
   }
 
   @Provides
@@ -174,6 +174,7 @@ public class MultiProgressMonitor implements RequestStateProvider {
   public class VolatileTask extends Task {
     protected AtomicInteger volatileTotal;
     protected AtomicBoolean isTotalFinalized = new AtomicBoolean(false);
+    private volatile long etaStartNanos = -1;
 
     public VolatileTask(String subTaskName) {
       super(subTaskName, UNKNOWN);
@@ -205,6 +206,14 @@ public class MultiProgressMonitor implements RequestStateProvider {
       isTotalFinalized.set(true);
     }
 
+    /**
+     * Show the estimated remaining time of this sub-task once its total is finalized, based on the
+     * throughput since this method was called.
+     */
+    public void showEta() {
+      etaStartNanos = ticker.read();
+    }
+
     @Override
     public int getTotal() {
       return volatileTotal.get();
@@ -212,8 +221,24 @@ public class MultiProgressMonitor implements RequestStateProvider {
 
     @Override
     public String getTotalDisplay(int total) {
-      return super.getTotalDisplay(total) + (isTotalFinalized.get() ? "" : "+");
+      if (!isTotalFinalized.get()) {
+        return super.getTotalDisplay(total) + "+";
+      }
+      int count = getCount();
+      if (etaStartNanos < 0 || count == 0 || count >= total) {
+        return super.getTotalDisplay(total);
+      }
+      long remaining = (ticker.read() - etaStartNanos) / count * (total - count);
+      return super.getTotalDisplay(total) + ", ETA " + formatDuration(remaining);
+    }
+  }
+
+  private static String formatDuration(long nanos) {
+    long s = NANOSECONDS.toSeconds(nanos);
+    if (s >= 3600) {
+      return String.format("%dh%02dm", s / 3600, s / 60 % 60);
     }
+    return String.format("%dm%02ds", s / 60, s % 60);
   }
 
   public interface Factory {
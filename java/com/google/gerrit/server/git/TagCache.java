@@ -15,20 +15,45 @@
 package com.google.gerrit.server.git;
 
 import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.CacheRefreshExecutor;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 
 @Singleton
-public class TagCache {
+public class TagCache implements GitReferenceUpdatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private static final String CACHE_NAME = "git_tags";
 
+  enum BuildType {
+    BUILD,
+    REBUILD,
+    UPDATE
+  }
+
   public static Module module() {
     return new CacheModule() {
       @Override
@@ -38,15 +63,97 @@ public class TagCache {
             .keySerializer(StringCacheSerializer.INSTANCE)
             .valueSerializer(TagSetHolder.Serializer.INSTANCE);
         bind(TagCache.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(TagCache.class);
       }
     };
   }
 
   private final Cache<String, TagSetHolder> cache;
+  private final GitRepositoryManager repoManager;
+  private final ListeningExecutorService executor;
+
+  final Timer1<BuildType> buildLatency;
+  final Counter1<BuildType> walkedCommits;
 
   @Inject
-  TagCache(@Named(CACHE_NAME) Cache<String, TagSetHolder> cache) {
+  TagCache(
+      @Named(CACHE_NAME) Cache<String, TagSetHolder> cache,
+      GitRepositoryManager repoManager,
+      @CacheRefreshExecutor ListeningExecutorService executor,
+      MetricMaker metricMaker) {
     this.cache = cache;
+    this.repoManager = repoManager;
+    this.executor = executor;
+
+    Field<BuildType> buildTypeField =
+        Field.ofEnum(BuildType.class, "type", Metadata.Builder::operationName)
+            .description("The type of the operation (BUILD, REBUILD, UPDATE).")
+            .build();
+    this.buildLatency =
+        metricMaker.newTimer(
+            "git/tags/build_latency",
+            new Description("Latency of building or updating the set of reachable tags")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            buildTypeField);
+    this.walkedCommits =
+        metricMaker.newCounter(
+            "git/tags/walked_commit_count",
+            new Description("Commits walked to build or update the set of reachable tags")
+                .setRate()
+                .setUnit("commits"),
+            buildTypeField);
+  }
+
+  /**
+   * Updates the tag set of the project after a branch moved, walking only the commits between its
+   * old and new value.
+   *
+   * <p>The walk runs on the cache refresh executor, so that it doesn't delay the caller that
+   * updated the ref. It is only scheduled if the project's tag set is cached and tracks the ref.
+   *
+   * <p>Newly created and deleted refs are picked up when the tag set is used next.
+   */
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (event.isCreate() || event.isDelete() || event.getRefName().startsWith(Constants.R_TAGS)) {
+      return;
+    }
+    Project.NameKey name = Project.nameKey(event.getProjectName());
+    TagSetHolder holder = cache.getIfPresent(name.get());
+    if (holder == null) {
+      return;
+    }
+    TagSet tags = holder.getTagSet();
+    if (tags == null || !tags.hasRef(event.getRefName())) {
+      return;
+    }
+    String refName = event.getRefName();
+    ObjectId oldValue = ObjectId.fromString(event.getOldObjectId());
+    ObjectId newValue = ObjectId.fromString(event.getNewObjectId());
+    try {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          executor.submit(() -> update(holder, name, refName, oldValue, newValue));
+    } catch (RejectedExecutionException e) {
+      // The tag set catches up on its next use.
+      logger.atFine().withCause(e).log(
+          "Cannot schedule update of tags of %s after update of %s", name, refName);
+    }
+  }
+
+  private void update(
+      TagSetHolder holder,
+      Project.NameKey name,
+      String refName,
+      ObjectId oldValue,
+      ObjectId newValue) {
+    try (Repository repo = repoManager.openRepository(name)) {
+      holder.update(this, repo, refName, oldValue, newValue);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot update tags of %s after update of %s", name, refName);
+    }
   }
 
   /**
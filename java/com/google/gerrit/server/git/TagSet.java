@@ -47,7 +47,8 @@ import org.eclipse.jgit.revwalk.RevWalk;
  * Builds a set of tags, and tracks which tags are reachable from which non-tag, non-special refs.
  * An instance is constructed from a snapshot of the ref database. TagSets can be incrementally
  * updated to newer states of the RefDatabase using the refresh method. The updateFastForward method
- * can do partial updates based on individual refs moving forward.
+ * can do partial updates based on individual refs moving forward, and the update method applies a
+ * single ref update by walking only the commits between its old and new value.
  *
  * <p>This set is used to determine which tags should be advertised when only a subset of refs is
  * visible to a user.
@@ -88,6 +89,10 @@ class TagSet {
     return projectName;
   }
 
+  boolean hasRef(String refName) {
+    return refs.containsKey(refName);
+  }
+
   Tag lookupTag(AnyObjectId id) {
     return tags.get(id);
   }
@@ -200,11 +205,17 @@ class TagSet {
     }
   }
 
-  void build(Repository git, TagSet old, TagMatcher m) {
+  /**
+   * Builds this set, reusing {@code old} if possible.
+   *
+   * @return number of commits walked.
+   */
+  int build(Repository git, TagSet old, TagMatcher m) {
     if (old != null && m != null && refresh(old, m)) {
-      return;
+      return 0;
     }
 
+    int walked = 0;
     try (TagWalk rw = new TagWalk(git)) {
       rw.setRetainBody(false);
       for (Ref ref :
@@ -233,6 +244,7 @@ class TagSet {
       // underlying bit set.
       TagCommit c;
       while ((c = (TagCommit) rw.next()) != null) {
+        walked++;
         BitSet mine = c.refFlags;
         int pCnt = c.getParentCount();
         for (int pIdx = 0; pIdx < pCnt; pIdx++) {
@@ -242,6 +254,67 @@ class TagSet {
     } catch (IOException e) {
       logger.atWarning().withCause(e).log("Error building tags for repository %s", projectName);
     }
+    return walked;
+  }
+
+  /**
+   * Initializes this set as a copy of {@code old} in which {@code refName} moved from {@code
+   * oldValue} to {@code newValue}.
+   *
+   * <p>Only the commits between the two values are walked: tags on commits that became reachable
+   * from the ref get its flag set, tags on commits that are no longer reachable from it get the
+   * flag cleared.
+   *
+   * @return number of commits walked, or -1 if the update can't be applied, e.g. because the ref is
+   *     not part of {@code old} or was meanwhile moved elsewhere. This set must not be used then.
+   */
+  int update(Repository git, TagSet old, String refName, ObjectId oldValue, ObjectId newValue) {
+    CachedRef oldRef = old.refs.get(refName);
+    if (oldRef == null) {
+      return -1;
+    }
+    // updateFastForward may already have moved the ref to the new value, without updating the tags.
+    ObjectId cur = oldRef.get();
+    if (!cur.equals(oldValue) && !cur.equals(newValue)) {
+      return -1;
+    }
+
+    copy(old);
+    refs.put(refName, new CachedRef(oldRef.flag, newValue));
+    try (RevWalk rw = new RevWalk(git)) {
+      rw.setRetainBody(false);
+      RevCommit oldCommit = rw.parseCommit(oldValue);
+      RevCommit newCommit = rw.parseCommit(newValue);
+      int walked = setFlag(rw, newCommit, oldCommit, oldRef.flag, true);
+      rw.reset();
+      return walked + setFlag(rw, oldCommit, newCommit, oldRef.flag, false);
+    } catch (IncorrectObjectTypeException notCommit) {
+      return -1;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Error updating %s of %s", refName, projectName);
+      return -1;
+    }
+  }
+
+  /**
+   * Sets {@code flag} to {@code value} on all tags reachable from {@code start}, but not from
+   * {@code uninteresting}.
+   */
+  private int setFlag(
+      RevWalk rw, RevCommit start, RevCommit uninteresting, int flag, boolean value)
+      throws IOException {
+    rw.markStart(start);
+    rw.markUninteresting(uninteresting);
+    int walked = 0;
+    RevCommit c;
+    while ((c = rw.next()) != null) {
+      walked++;
+      Tag tag = tags.get(c);
+      if (tag != null) {
+        tag.refFlags.set(flag, value);
+      }
+    }
+    return walked;
   }
 
   static TagSet fromProto(TagSetProto proto) {
@@ -338,13 +411,7 @@ class TagSet {
   }
 
   private void copy(TagSet old, TagMatcher m) {
-    refs.putAll(old.refs);
-
-    for (Tag srcTag : old.tags) {
-      BitSet mine = new BitSet();
-      mine.or(srcTag.refFlags);
-      tags.add(new Tag(srcTag, mine));
-    }
+    copy(old);
 
     for (TagMatcher.LostRef lost : m.lostRefs) {
       Tag mine = tags.get(lost.tag);
@@ -354,6 +421,16 @@ class TagSet {
     }
   }
 
+  private void copy(TagSet old) {
+    refs.putAll(old.refs);
+
+    for (Tag srcTag : old.tags) {
+      BitSet mine = new BitSet();
+      mine.or(srcTag.refFlags);
+      tags.add(new Tag(srcTag, mine));
+    }
+  }
+
   private void addTag(TagWalk rw, Ref ref) {
     ObjectId id = ref.getPeeledObjectId();
     if (id == null) {
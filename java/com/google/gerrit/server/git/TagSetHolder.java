@@ -18,10 +18,13 @@ import static java.util.stream.Collectors.toList;
 
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.proto.Cache.TagSetHolderProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.git.TagCache.BuildType;
 import java.util.Collection;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -74,12 +77,39 @@ public class TagSetHolder {
     m.tags.prepare(m);
   }
 
+  /**
+   * Applies an update of {@code refName} from {@code oldValue} to {@code newValue} to the current
+   * tag set, without rebuilding it. Does nothing if no tag set was built yet or the ref is not part
+   * of it. If the update can't be applied, the tag set is left as is and catches up on its next
+   * use.
+   */
+  void update(TagCache cache, Repository db, String refName, ObjectId oldValue, ObjectId newValue) {
+    synchronized (buildLock) {
+      TagSet old = this.tags;
+      if (old == null || !old.hasRef(refName)) {
+        return;
+      }
+      TagSet cur = new TagSet(projectName);
+      int walked;
+      try (Timer1.Context<BuildType> ignored = cache.buildLatency.start(BuildType.UPDATE)) {
+        walked = cur.update(db, old, refName, oldValue, newValue);
+      }
+      if (walked >= 0) {
+        cache.walkedCommits.incrementBy(BuildType.UPDATE, walked);
+        this.tags = cur;
+        cache.put(projectName, this);
+      }
+    }
+  }
+
   private TagSet build(TagCache cache, Repository db) {
     synchronized (buildLock) {
       TagSet tags = this.tags;
       if (tags == null) {
         tags = new TagSet(projectName);
-        tags.build(db, null, null);
+        try (Timer1.Context<BuildType> ignored = cache.buildLatency.start(BuildType.BUILD)) {
+          cache.walkedCommits.incrementBy(BuildType.BUILD, tags.build(db, null, null));
+        }
         this.tags = tags;
         cache.put(projectName, this);
       }
@@ -92,7 +122,9 @@ public class TagSetHolder {
       TagSet cur = this.tags;
       if (cur == old) {
         cur = new TagSet(projectName);
-        cur.build(db, old, m);
+        try (Timer1.Context<BuildType> ignored = cache.buildLatency.start(BuildType.REBUILD)) {
+          cache.walkedCommits.incrementBy(BuildType.REBUILD, cur.build(db, old, m));
+        }
         this.tags = cur;
         cache.put(projectName, this);
       }
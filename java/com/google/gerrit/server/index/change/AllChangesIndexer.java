@@ -18,16 +18,20 @@ import static com.google.common.util.concurrent.Futures.successfulAsList;
 import static com.google.common.util.concurrent.Futures.transform;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
+import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.SiteIndexer;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MultiProgressMonitor;
@@ -43,12 +47,20 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 
@@ -64,6 +76,9 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private Task failedTask;
   private static final int PROJECT_SLICE_MAX_REFS = 1000;
 
+  /** Number of changes loaded together with {@link ChangeNotes.Factory#createAll}. */
+  private static final int NOTES_BATCH_SIZE = 100;
+
   private final MultiProgressMonitor.Factory multiProgressMonitorFactory;
 
   private static class ProjectsCollectionFailure extends Exception {
@@ -80,6 +95,11 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
   private final ChangeIndexer.Factory indexerFactory;
   private final ChangeNotes.Factory notesFactory;
   private final ProjectCache projectCache;
+  private final IndexConfig indexConfig;
+
+  @Nullable private ReindexCheckpoint checkpoint;
+  private boolean skipUpToDate;
+  private ChangeIndex index;
 
   @Inject
   AllChangesIndexer(
@@ -89,7 +109,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       @IndexExecutor(BATCH) ListeningExecutorService executor,
       ChangeIndexer.Factory indexerFactory,
       ChangeNotes.Factory notesFactory,
-      ProjectCache projectCache) {
+      ProjectCache projectCache,
+      IndexConfig indexConfig) {
     this.multiProgressMonitorFactory = multiProgressMonitorFactory;
     this.changeDataFactory = changeDataFactory;
     this.repoManager = repoManager;
@@ -97,6 +118,23 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     this.indexerFactory = indexerFactory;
     this.notesFactory = notesFactory;
     this.projectCache = projectCache;
+    this.indexConfig = indexConfig;
+  }
+
+  /**
+   * Sets the checkpoint that records reindexed project slices. Slices that are recorded as done
+   * already are skipped by {@link #indexAll(ChangeIndex)}.
+   */
+  public void setCheckpoint(@Nullable ReindexCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * Sets whether to skip changes whose document in the index is up to date, i.e. whose stored ref
+   * states match the repositories. Only useful if the index was not emptied before.
+   */
+  public void setSkipUpToDate(boolean skipUpToDate) {
+    this.skipUpToDate = skipUpToDate;
   }
 
   @AutoValue
@@ -132,9 +170,11 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     // in 2020.
 
     Stopwatch sw = Stopwatch.createStarted();
+    this.index = index;
     AtomicBoolean ok = new AtomicBoolean(true);
     mpm = multiProgressMonitorFactory.create(progressOut, TaskKind.INDEXING, "Reindexing changes");
     doneTask = mpm.beginVolatileSubTask("changes");
+    doneTask.showEta();
     failedTask = mpm.beginSubTask("failed", MultiProgressMonitor.UNKNOWN);
     List<ListenableFuture<?>> futures;
     try {
@@ -157,6 +197,9 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       logger.atSevere().withCause(e).log("Error in batch indexer");
       ok.set(false);
     }
+    if (checkpoint != null) {
+      checkpoint.flush(index);
+    }
     // If too many changes failed, maybe there was a bug in the indexer. Don't
     // trust the results. This is not an exact percentage since we bump the same
     // failure counter if a project can't be read, but close enough.
@@ -194,7 +237,67 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       ScanResult scanResult,
       Task done,
       Task failed) {
-    return new ProjectIndexer(indexer, project, slice, slices, scanResult, done, failed);
+    return new ProjectIndexer(indexer, project, slice, slices, scanResult, done, failed, null);
+  }
+
+  /**
+   * Slices scheduled by {@link #indexAll(ChangeIndex)}.
+   *
+   * <p>Each thread of the pool indexes waiting slices until none are left. It then helps indexing
+   * the batches of the running slice with the longest estimated remaining time.
+   */
+  private static class SlicePool {
+    /** Slices that were submitted but not started yet. */
+    final Queue<ProjectIndexer> waiting = new ConcurrentLinkedQueue<>();
+
+    final Set<ProjectIndexer> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Indexes waiting slices, and helps with running slices once no slices are waiting.
+     *
+     * <p>Threads take the waiting slices from the pool, rather than each running the slice it was
+     * submitted for. Otherwise a thread that stopped helping because a slice was waiting could find
+     * the slice started by another thread, and would idle until all slices are done.
+     */
+    void work() {
+      while (true) {
+        ProjectIndexer next = waiting.poll();
+        if (next != null) {
+          next.index();
+          continue;
+        }
+        ProjectIndexer victim = victim();
+        if (victim == null) {
+          return;
+        }
+        victim.work(true);
+      }
+    }
+
+    /** Helps with the running slices, see {@link #work()}. */
+    Void help() {
+      OnlineReindexMode.begin();
+      try {
+        work();
+      } finally {
+        OnlineReindexMode.end();
+      }
+      return null;
+    }
+
+    @Nullable
+    ProjectIndexer victim() {
+      ProjectIndexer victim = null;
+      long max = 0;
+      for (ProjectIndexer p : running) {
+        long remaining = p.estimatedRemainingNanos();
+        if (remaining > max) {
+          victim = p;
+          max = remaining;
+        }
+      }
+      return victim;
+    }
   }
 
   private class ProjectIndexer implements Callable<Void> {
@@ -205,6 +308,16 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     private final ScanResult scanResult;
     private final ProgressMonitor done;
     private final ProgressMonitor failed;
+    @Nullable private final SlicePool pool;
+
+    /** Batches of changes that no thread started to index yet. */
+    private final Deque<List<Change.Id>> batches = new ArrayDeque<>();
+
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicLong batchNanos = new AtomicLong();
+    private final AtomicInteger batchesDone = new AtomicInteger();
+    private volatile boolean sliceFailed;
 
     private ProjectIndexer(
         ChangeIndexer indexer,
@@ -213,7 +326,8 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
         int slices,
         ScanResult scanResult,
         ProgressMonitor done,
-        ProgressMonitor failed) {
+        ProgressMonitor failed,
+        @Nullable SlicePool pool) {
       this.indexer = indexer;
       this.project = project;
       this.slice = slice;
@@ -221,23 +335,168 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       this.scanResult = scanResult;
       this.done = done;
       this.failed = failed;
+      this.pool = pool;
     }
 
     @Override
     public Void call() throws Exception {
       OnlineReindexMode.begin();
-      // Order of scanning changes is undefined. This is ok if we assume that packfile locality is
-      // not important for indexing, since sites should have a fully populated DiffSummary cache.
-      // It does mean that reindexing after invalidating the DiffSummary cache will be expensive,
-      // but the goal is to invalidate that cache as infrequently as we possibly can. And besides,
-      // we don't have concrete proof that improving packfile locality would help.
-      notesFactory
-          .scan(scanResult, project, id -> (id.get() % slices) == slice)
-          .forEach(r -> index(r));
-      OnlineReindexMode.end();
+      try {
+        if (pool != null) {
+          // This slice may be indexed by another thread of the pool already.
+          pool.work();
+        } else {
+          index();
+        }
+      } finally {
+        OnlineReindexMode.end();
+      }
       return null;
     }
 
+    private void index() {
+      // Order of scanning changes is undefined. This is ok if we assume that packfile locality
+      // is not important for indexing, since sites should have a fully populated DiffSummary
+      // cache. It does mean that reindexing after invalidating the DiffSummary cache will be
+      // expensive, but the goal is to invalidate that cache as infrequently as we possibly can.
+      // And besides, we don't have concrete proof that improving packfile locality would help.
+      List<Change.Id> ids =
+          scanResult.fromMetaRefs().stream()
+              .filter(id -> (id.get() % slices) == slice)
+              .collect(toList());
+      if (checkpoint != null && checkpoint.isDone(project, slice, slices)) {
+        done.update(ids.size());
+        verboseWriter.format(
+            "Skipped slice %d/%d of project %s, reindexed by a previous run\n",
+            slice, slices, project.get());
+        return;
+      }
+      synchronized (batches) {
+        batches.addAll(Lists.partition(ids, NOTES_BATCH_SIZE));
+      }
+      if (pool != null) {
+        pool.running.add(this);
+      }
+      work(false);
+    }
+
+    /**
+     * Indexes batches of this slice until none are left.
+     *
+     * @param helping whether the calling thread helps with this slice after finishing its own; it
+     *     then stops as soon as other slices are waiting to be started.
+     */
+    private void work(boolean helping) {
+      workers.incrementAndGet();
+      try (Repository repo = repoManager.openRepository(project)) {
+        for (List<Change.Id> batch = nextBatch(helping);
+            batch != null;
+            batch = nextBatch(helping)) {
+          long start = System.nanoTime();
+          indexBatch(repo, batch);
+          batchNanos.addAndGet(System.nanoTime() - start);
+          batchesDone.incrementAndGet();
+        }
+      } catch (IOException e) {
+        List<Change.Id> remaining = new ArrayList<>();
+        synchronized (batches) {
+          batches.forEach(remaining::addAll);
+          batches.clear();
+        }
+        failed.update(remaining.size());
+        fail("Failed to open project " + project + " for indexing", false, e);
+      } finally {
+        if (workers.decrementAndGet() == 0 && remainingBatches() == 0) {
+          finish();
+        }
+      }
+    }
+
+    @Nullable
+    private List<Change.Id> nextBatch(boolean helping) {
+      if (helping && !pool.waiting.isEmpty()) {
+        return null;
+      }
+      synchronized (batches) {
+        return batches.poll();
+      }
+    }
+
+    private int remainingBatches() {
+      synchronized (batches) {
+        return batches.size();
+      }
+    }
+
+    /**
+     * Returns the estimated time to index the remaining batches of this slice, based on the
+     * throughput of the batches indexed so far, or 0 if it isn't worth helping with this slice.
+     */
+    private long estimatedRemainingNanos() {
+      int remaining = remainingBatches();
+      if (remaining < 2) {
+        return 0;
+      }
+      int n = batchesDone.get();
+      return remaining * (n > 0 ? batchNanos.get() / n : 1);
+    }
+
+    private void finish() {
+      if (!finished.compareAndSet(false, true)) {
+        return;
+      }
+      if (pool != null) {
+        pool.running.remove(this);
+      }
+      if (checkpoint != null && !sliceFailed) {
+        checkpoint.markDone(index, project, slice, slices);
+      }
+    }
+
+    private void indexBatch(Repository repo, List<Change.Id> batch) {
+      List<Change.Id> toIndex = batch;
+      if (skipUpToDate) {
+        toIndex = batch.stream().filter(id -> !isUpToDate(id)).collect(toList());
+        done.update(batch.size() - toIndex.size());
+      }
+      try {
+        notesFactory.createAll(repo, project, toIndex).forEach(r -> index(r));
+      } catch (IOException e) {
+        failed.update(toIndex.size());
+        fail("Failed to read changes " + toIndex + " for indexing", false, e);
+      }
+    }
+
+    /** Returns whether the document of change {@code id} in the index matches the repositories. */
+    private boolean isUpToDate(Change.Id id) {
+      if (!index.getSchema().hasField(ChangeField.REF_STATE)
+          || !index.getSchema().hasField(ChangeField.REF_STATE_PATTERN)) {
+        return false;
+      }
+      try {
+        Optional<ChangeData> cd =
+            index.get(
+                id, IndexedChangeQuery.createOptions(indexConfig, 0, 1, StalenessChecker.FIELDS));
+        if (!cd.isPresent()) {
+          return false;
+        }
+        boolean upToDate =
+            !StalenessChecker.check(
+                    repoManager,
+                    id,
+                    cd.get().getRefStates(),
+                    StalenessChecker.parsePatterns(cd.get().getRefStatePatterns()))
+                .isStale();
+        if (upToDate) {
+          verboseWriter.format("Skipped up-to-date change %d (project: %s)\n", id.get(), project);
+        }
+        return upToDate;
+      } catch (RuntimeException e) {
+        logger.atWarning().withCause(e).log("Cannot check whether change %s is up to date", id);
+        return false;
+      }
+    }
+
     private void index(ChangeNotesResult r) {
       if (r.error().isPresent()) {
         fail("Failed to read change " + r.id() + " for indexing", true, r.error().get());
@@ -257,6 +516,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
 
     private void fail(String error, boolean failed, Throwable e) {
+      sliceFailed = true;
       if (failed) {
         this.failed.update(1);
       }
@@ -266,6 +526,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     }
 
     private void failSilently() {
+      sliceFailed = true;
       this.failed.update(1);
     }
 
@@ -282,6 +543,7 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
     final AtomicInteger projectsFailed = new AtomicInteger(0);
     final List<ListenableFuture<?>> sliceIndexerFutures = new ArrayList<>();
     final List<ListenableFuture<?>> sliceCreationFutures = new ArrayList<>();
+    final SlicePool pool = new SlicePool();
     VolatileTask projTask = mpm.beginVolatileSubTask("project-slices");
     Task slicingProjects;
 
@@ -321,6 +583,12 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
       slicingProjects.endTask();
       setTotalWork(changeCount.get());
 
+      // Threads that found nothing to do while big projects were still being sliced are idle now,
+      // as there is one task per slice. Let them help with the slices that are left.
+      for (int i = pool.running.size() + pool.waiting.size(); i > 0; i--) {
+        sliceIndexerFutures.add(executor.submit(pool::help));
+      }
+
       return sliceIndexerFutures;
     }
 
@@ -349,16 +617,18 @@ public class AllChangesIndexer extends SiteIndexer<Change.Id, ChangeData, Change
 
             for (int slice = 0; slice < slices; slice++) {
               ProjectSlice projectSlice = ProjectSlice.create(name, slice, slices, sr);
-              ListenableFuture<?> future =
-                  executor.submit(
-                      reindexProject(
-                          indexerFactory.create(executor, index),
-                          name,
-                          slice,
-                          slices,
-                          projectSlice.scanResult(),
-                          doneTask,
-                          failedTask));
+              ProjectIndexer projectIndexer =
+                  new ProjectIndexer(
+                      indexerFactory.create(executor, index),
+                      name,
+                      slice,
+                      slices,
+                      projectSlice.scanResult(),
+                      doneTask,
+                      failedTask,
+                      pool);
+              pool.waiting.add(projectIndexer);
+              ListenableFuture<?> future = executor.submit(projectIndexer);
               String description = "project " + name + " (" + slice + "/" + slices + ")";
               addErrorListener(future, description, projTask, ok);
               sliceIndexerFutures.add(future);
@@ -0,0 +1,99 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Splitter;
+import com.google.common.io.BaseEncoding;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Position of a change in the sort order of the change index.
+ *
+ * <p>Changes are sorted by last updated timestamp, merged-on timestamp and change number, all
+ * descending. A cursor is passed as {@link QueryOptions#searchAfter()} to continue a query after
+ * the change it was created for. It can be encoded as an opaque token to let REST clients continue
+ * a query.
+ */
+@AutoValue
+public abstract class ChangeIndexCursor implements Comparable<ChangeIndexCursor> {
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  private static final Comparator<ChangeIndexCursor> COMPARATOR =
+      Comparator.comparingLong(ChangeIndexCursor::updated)
+          .thenComparingLong(ChangeIndexCursor::mergedOn)
+          .thenComparingInt(ChangeIndexCursor::id);
+
+  public static ChangeIndexCursor create(long updated, long mergedOn, int id) {
+    return new AutoValue_ChangeIndexCursor(updated, mergedOn, id);
+  }
+
+  /** Returns the cursor of the change in {@code cd}. */
+  public static ChangeIndexCursor of(ChangeData cd) {
+    return create(
+        cd.change().getLastUpdatedOn().toEpochMilli(),
+        cd.getMergedOn().map(Instant::toEpochMilli).orElse(0L),
+        cd.getId().get());
+  }
+
+  /**
+   * Parses a token returned by {@link #encode()}.
+   *
+   * @throws IllegalArgumentException if the token is invalid.
+   */
+  public static ChangeIndexCursor decode(String token) {
+    List<String> parts = Splitter.on('.').splitToList(new String(ENCODING.decode(token), UTF_8));
+    if (parts.size() != 3) {
+      throw new IllegalArgumentException("invalid token: " + token);
+    }
+    try {
+      return create(
+          Long.parseLong(parts.get(0)),
+          Long.parseLong(parts.get(1)),
+          Integer.parseInt(parts.get(2)));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid token: " + token, e);
+    }
+  }
+
+  /** Last updated timestamp of the change, in milliseconds since the epoch. */
+  public abstract long updated();
+
+  /** Merged-on timestamp of the change in milliseconds since the epoch, 0 if not merged. */
+  public abstract long mergedOn();
+
+  /** Number of the change. */
+  public abstract int id();
+
+  /** Returns an opaque token that can be parsed with {@link #decode(String)}. */
+  public String encode() {
+    return ENCODING.encode((updated() + "." + mergedOn() + "." + id()).getBytes(UTF_8));
+  }
+
+  /**
+   * Compares in ascending order. A change comes after the cursor in the index if its cursor is less
+   * than this one.
+   */
+  @Override
+  public int compareTo(ChangeIndexCursor other) {
+    return COMPARATOR.compare(this, other);
+  }
+}
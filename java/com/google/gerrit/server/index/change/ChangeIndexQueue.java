@@ -0,0 +1,169 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Change index tasks that are scheduled but not started yet.
+ *
+ * <p>The queue is shared by all {@link ChangeIndexer} instances, so that a change which is
+ * scheduled for indexing several times, e.g. by a review, a vote and robot comments posted in quick
+ * succession, is indexed only once, also if the requests come from different indexer instances.
+ * Tasks are coalesced per change and per index they write to.
+ *
+ * <p>Optionally tasks are delayed by {@code index.changeIndexDelay}, so that requests which arrive
+ * shortly after each other are coalesced even if the index executor is idle.
+ */
+@Singleton
+class ChangeIndexQueue {
+  private final Map<Key, ChangeIndexer.IndexTask> pending = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private final long delayMillis;
+  private final Counter0 requested;
+  private final Counter0 coalesced;
+
+  @Inject
+  ChangeIndexQueue(@GerritServerConfig Config cfg, WorkQueue workQueue, MetricMaker metricMaker) {
+    this(
+        workQueue.getDefaultQueue(),
+        ConfigUtil.getTimeUnit(cfg, "index", null, "changeIndexDelay", 0, MILLISECONDS),
+        metricMaker);
+  }
+
+  @VisibleForTesting
+  ChangeIndexQueue(ScheduledExecutorService scheduler, long delayMillis, MetricMaker metricMaker) {
+    this.scheduler = scheduler;
+    this.delayMillis = Math.max(delayMillis, 0);
+    this.requested =
+        metricMaker.newCounter(
+            "index/change/index_requests",
+            new Description("Requests to asynchronously index a change").setRate());
+    this.coalesced =
+        metricMaker.newCounter(
+            "index/change/coalesced_index_requests",
+            new Description(
+                    "Requests to asynchronously index a change that were coalesced with an"
+                        + " already scheduled index task")
+                .setRate());
+    metricMaker.newCallbackMetric(
+        "index/change/queue_depth",
+        Long.class,
+        new Description("Number of changes scheduled for indexing").setGauge().setUnit("changes"),
+        () -> (long) pending.size());
+  }
+
+  /**
+   * Returns the pending task that indexes change {@code id} into {@code target}, and adds a new
+   * task if there is none.
+   *
+   * @param target index or index collection the task writes to.
+   * @param id change to index.
+   * @param newTask creates the task if none is pending; is called at most once.
+   */
+  ChangeIndexer.IndexTask computeIfAbsent(
+      Object target, Change.Id id, Supplier<ChangeIndexer.IndexTask> newTask) {
+    requested.increment();
+    boolean[] added = new boolean[1];
+    ChangeIndexer.IndexTask task =
+        pending.computeIfAbsent(
+            new Key(target, id),
+            k -> {
+              added[0] = true;
+              return newTask.get();
+            });
+    if (!added[0]) {
+      coalesced.increment();
+    }
+    return task;
+  }
+
+  /** Removes the pending task for change {@code id}, e.g. because it started running. */
+  void remove(Object target, Change.Id id) {
+    pending.remove(new Key(target, id));
+  }
+
+  /**
+   * Submits {@code task} to {@code executor}, after the configured delay.
+   *
+   * <p>If there is no delay, a rejection by {@code executor} is thrown to the caller. Otherwise it
+   * fails the returned future, and {@code onRejected} is called first so that the task can be
+   * submitted again.
+   */
+  <T> ListenableFuture<T> submit(
+      Callable<T> task, ListeningExecutorService executor, Runnable onRejected) {
+    if (delayMillis == 0) {
+      return executor.submit(task);
+    }
+    return Futures.scheduleAsync(
+        () -> {
+          try {
+            return executor.submit(task);
+          } catch (RejectedExecutionException e) {
+            onRejected.run();
+            throw e;
+          }
+        },
+        delayMillis,
+        MILLISECONDS,
+        scheduler);
+  }
+
+  /** Key of a pending task; indexes and index collections are compared by identity. */
+  private static class Key {
+    private final Object target;
+    private final int id;
+
+    Key(Object target, Change.Id id) {
+      this.target = target;
+      this.id = id.get();
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(target) + id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return target == other.target && id == other.id;
+    }
+  }
+}
@@ -47,7 +47,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -81,8 +80,8 @@ public class ChangeIndexer {
   private final StalenessChecker stalenessChecker;
   private final boolean autoReindexIfStale;
   private final IsFirstInsertForEntry isFirstInsertForEntry;
+  private final ChangeIndexQueue queuedIndexTasks;
 
-  private final Map<Change.Id, IndexTask> queuedIndexTasks = new ConcurrentHashMap<>();
   private final Set<ReindexIfStaleTask> queuedReindexIfStaleTasks =
       Collections.newSetFromMap(new ConcurrentHashMap<>());
 
@@ -97,7 +96,8 @@ public class ChangeIndexer {
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndex index,
-      IsFirstInsertForEntry isFirstInsertForEntry) {
+      IsFirstInsertForEntry isFirstInsertForEntry,
+      ChangeIndexQueue queuedIndexTasks) {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
@@ -109,6 +109,7 @@ public class ChangeIndexer {
     this.index = index;
     this.indexes = null;
     this.isFirstInsertForEntry = isFirstInsertForEntry;
+    this.queuedIndexTasks = queuedIndexTasks;
   }
 
   @AssistedInject
@@ -122,7 +123,8 @@ public class ChangeIndexer {
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndexCollection indexes,
-      IsFirstInsertForEntry isFirstInsertForEntry) {
+      IsFirstInsertForEntry isFirstInsertForEntry,
+      ChangeIndexQueue queuedIndexTasks) {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
@@ -134,6 +136,7 @@ public class ChangeIndexer {
     this.index = null;
     this.indexes = indexes;
     this.isFirstInsertForEntry = isFirstInsertForEntry;
+    this.queuedIndexTasks = queuedIndexTasks;
   }
 
   private static boolean autoReindexIfStale(Config cfg) {
@@ -151,6 +154,8 @@ public class ChangeIndexer {
     // updates that happened after the change was scheduled for indexing will automatically be taken
     // into account when the index task is executed (as it reads the current change state).
     // To skip duplicate index requests, queuedIndexTasks keeps track of the scheduled index tasks.
+    // It is shared by all indexers that write to the same indexes, so that requests from different
+    // indexer instances (e.g. ReindexAfterRefUpdate creates one per ref update) are coalesced too.
     // Here we check if the change has already been scheduled for indexing, and only if not we
     // create a new index task for the change.
     // By using computeIfAbsent we ensure that the lookup and the insertion of a new task happens
@@ -159,10 +164,11 @@ public class ChangeIndexer {
     // entire table on write, but only segments of the table).
     IndexTask task =
         queuedIndexTasks.computeIfAbsent(
+            getTarget(),
             changeId,
-            id -> {
-              fireChangeScheduledForIndexingEvent(project.get(), id.get());
-              return new IndexTask(project, id);
+            () -> {
+              fireChangeScheduledForIndexingEvent(project.get(), changeId.get());
+              return new IndexTask(project, changeId);
             });
     // Submitting the task to the executor must not happen from within the computeIfAbsent callback,
     // as this could result in the task being executed before the computeIfAbsent method has
@@ -349,6 +355,10 @@ public class ChangeIndexer {
     }
   }
 
+  private Object getTarget() {
+    return indexes != null ? indexes : index;
+  }
+
   private Collection<ChangeIndex> getWriteIndexes() {
     return indexes != null ? indexes.getWriteIndexes() : Collections.singleton(index);
   }
@@ -398,7 +408,7 @@ public class ChangeIndexer {
     }
   }
 
-  private class IndexTask extends AbstractIndexTask<ChangeData> {
+  class IndexTask extends AbstractIndexTask<ChangeData> {
     ListenableFuture<ChangeData> future;
 
     private IndexTask(Project.NameKey project, Change.Id id) {
@@ -419,11 +429,22 @@ public class ChangeIndexer {
      */
     private synchronized ListenableFuture<ChangeData> submitIfNeeded() {
       if (future == null) {
-        future = submit(this);
+        future =
+            Futures.nonCancellationPropagating(
+                queuedIndexTasks.submit(this, executor, this::rejected));
       }
       return future;
     }
 
+    /**
+     * Forgets that this task was submitted, after the executor rejected it, so that the change is
+     * not left pending with a failed future and the next request submits it again.
+     */
+    private synchronized void rejected() {
+      future = null;
+      remove();
+    }
+
     @Override
     public ChangeData callImpl() throws Exception {
       // Remove this task from queuedIndexTasks. This is done right at the beginning of this task so
@@ -465,7 +486,7 @@ public class ChangeIndexer {
 
     @Override
     protected void remove() {
-      queuedIndexTasks.remove(id);
+      queuedIndexTasks.remove(getTarget(), id);
     }
   }
 
@@ -205,6 +205,7 @@ public class ChangeSchemaDefinitions extends SchemaDefinitions<ChangeData> {
    * Added new field {@link ChangeField#PREFIX_HASHTAG} and {@link ChangeField#PREFIX_TOPIC} to
    * allow easier search for topics.
    */
+  @Deprecated
   static final Schema<ChangeData> V75 =
       new Schema.Builder<ChangeData>()
           .add(V74)
@@ -212,6 +213,9 @@ public class ChangeSchemaDefinitions extends SchemaDefinitions<ChangeData> {
           .add(ChangeField.PREFIX_TOPIC)
           .build();
 
+  /** Store {@link ChangeField#CHANGE} and {@link ChangeField#PROJECT} also as doc values. */
+  static final Schema<ChangeData> V76 = schema(V75, false);
+
   /**
    * Name of the change index to be used when contacting index backends or loading configurations.
    */
@@ -0,0 +1,256 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.RefState;
+import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.change.StalenessChecker.RefStatePattern;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangePredicates;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Finds and reindexes the stale changes of a project.
+ *
+ * <p>Unlike {@link StalenessChecker#check(com.google.gerrit.entities.Change.Id)}, which looks up
+ * the document and every ref it references one change at a time, the scanner reads the ref states
+ * of all changes of the project from the index page by page, and compares them against one snapshot
+ * of the refs of each namespace involved. Only changes that don't match the snapshot are passed to
+ * {@link ChangeIndexer#reindexIfStale}, which checks them again against the current refs before
+ * reindexing them, so that changes updated after the snapshot was taken are not reindexed
+ * needlessly.
+ *
+ * <p>Changes that are missing from the index can't be found this way; use {@code gerrit index
+ * changes-in-project} for these.
+ */
+public class ChangeStalenessScanner {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int PAGE_SIZE = 1000;
+
+  @AutoValue
+  public abstract static class Result {
+    /** Number of scanned changes. */
+    public abstract int scanned();
+
+    /** Number of changes that didn't match the ref snapshot. */
+    public abstract int mismatched();
+
+    /** Number of changes that were stale and got reindexed. */
+    public abstract int reindexed();
+
+    private static Result create(int scanned, int mismatched, int reindexed) {
+      return new AutoValue_ChangeStalenessScanner_Result(scanned, mismatched, reindexed);
+    }
+  }
+
+  private final ChangeIndexCollection indexes;
+  private final GitRepositoryManager repoManager;
+  private final IndexConfig indexConfig;
+  private final ChangeIndexer indexer;
+  private final int pageSize;
+
+  @Inject
+  ChangeStalenessScanner(
+      ChangeIndexCollection indexes,
+      GitRepositoryManager repoManager,
+      IndexConfig indexConfig,
+      ChangeIndexer indexer) {
+    this(indexes, repoManager, indexConfig, indexer, PAGE_SIZE);
+  }
+
+  @VisibleForTesting
+  ChangeStalenessScanner(
+      ChangeIndexCollection indexes,
+      GitRepositoryManager repoManager,
+      IndexConfig indexConfig,
+      ChangeIndexer indexer,
+      int pageSize) {
+    this.indexes = indexes;
+    this.repoManager = repoManager;
+    this.indexConfig = indexConfig;
+    this.indexer = indexer;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Scans all indexed changes of {@code project} and reindexes the stale ones.
+   *
+   * @param project project to scan.
+   * @param pm progress monitor, updated for each scanned change.
+   * @return counts of scanned and reindexed changes.
+   */
+  public Result scan(Project.NameKey project, ProgressMonitor pm) {
+    ChangeIndex index = indexes.getSearchIndex();
+    if (index == null
+        || !index.getSchema().hasField(ChangeField.REF_STATE)
+        || !index.getSchema().hasField(ChangeField.REF_STATE_PATTERN)) {
+      return Result.create(0, 0, 0);
+    }
+
+    RefSnapshot snapshot = new RefSnapshot(repoManager);
+    List<ListenableFuture<Boolean>> reindexed = new ArrayList<>();
+    int scanned = 0;
+    pm.beginTask("Scanning changes of " + project.get(), ProgressMonitor.UNKNOWN);
+    QueryOptions opts =
+        IndexedChangeQuery.createOptions(indexConfig, 0, pageSize, StalenessChecker.FIELDS);
+    try {
+      for (; ; ) {
+        ResultSet<ChangeData> page =
+            index.getSource(ChangePredicates.project(project), opts).read();
+        List<ChangeData> changes = page.toList();
+        for (ChangeData cd : changes) {
+          if (snapshot.isStale(
+              cd.getRefStates(), StalenessChecker.parsePatterns(cd.getRefStatePatterns()))) {
+            reindexed.add(indexer.reindexIfStale(project, cd.getId()));
+          }
+          pm.update(1);
+        }
+        scanned += changes.size();
+        if (changes.size() < pageSize) {
+          break;
+        }
+        opts =
+            page.searchAfter() != null
+                ? opts.withSearchAfter(page.searchAfter())
+                : opts.withStart(opts.start() + pageSize);
+      }
+    } catch (QueryParseException e) {
+      throw new StorageException("Cannot query changes of " + project, e);
+    } finally {
+      pm.endTask();
+    }
+
+    int stale = 0;
+    for (Boolean r : waitFor(reindexed)) {
+      if (Boolean.TRUE.equals(r)) {
+        stale++;
+      }
+    }
+    return Result.create(scanned, reindexed.size(), stale);
+  }
+
+  private static List<Boolean> waitFor(List<ListenableFuture<Boolean>> futures) {
+    try {
+      return Futures.successfulAsList(futures).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new StorageException("Failed to wait for reindexing of stale changes", e);
+    }
+  }
+
+  /**
+   * Refs of the repositories referenced by the scanned changes.
+   *
+   * <p>The refs of a namespace (e.g. {@code refs/changes/} of a project) are read once, when they
+   * are needed for the first time.
+   */
+  @VisibleForTesting
+  static class RefSnapshot {
+    private final GitRepositoryManager repoManager;
+    private final Map<Project.NameKey, Map<String, NavigableMap<String, ObjectId>>> refs =
+        new HashMap<>();
+
+    RefSnapshot(GitRepositoryManager repoManager) {
+      this.repoManager = repoManager;
+    }
+
+    /** Returns whether the given ref states of a change don't match the snapshot. */
+    boolean isStale(
+        SetMultimap<Project.NameKey, RefState> states,
+        ListMultimap<Project.NameKey, RefStatePattern> patterns) {
+      for (Project.NameKey p : Sets.union(states.keySet(), patterns.keySet())) {
+        try {
+          Set<RefState> projectStates = states.get(p);
+          for (RefState state : projectStates) {
+            ObjectId actual = namespace(p, state.ref()).get(state.ref());
+            if (!state.id().equals(actual != null ? actual : ObjectId.zeroId())) {
+              return true;
+            }
+          }
+          for (RefStatePattern pattern : patterns.get(p)) {
+            for (Map.Entry<String, ObjectId> e :
+                namespace(p, pattern.prefix()).tailMap(pattern.prefix()).entrySet()) {
+              if (!e.getKey().startsWith(pattern.prefix())) {
+                break;
+              }
+              if (pattern.match(e.getKey())
+                  && !projectStates.contains(RefState.create(e.getKey(), e.getValue()))) {
+                return true;
+              }
+            }
+          }
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot read refs of %s", p);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private NavigableMap<String, ObjectId> namespace(Project.NameKey project, String ref)
+        throws IOException {
+      String namespace = namespaceOf(ref);
+      Map<String, NavigableMap<String, ObjectId>> byNamespace =
+          refs.computeIfAbsent(project, p -> new HashMap<>());
+      NavigableMap<String, ObjectId> result = byNamespace.get(namespace);
+      if (result == null) {
+        result = new TreeMap<>();
+        try (Repository repo = repoManager.openRepository(project)) {
+          for (Ref r : repo.getRefDatabase().getRefsByPrefix(namespace)) {
+            if (r.getObjectId() != null) {
+              result.put(r.getName(), r.getObjectId());
+            }
+          }
+        }
+        byNamespace.put(namespace, result);
+      }
+      return result;
+    }
+
+    /** Returns the first two components of {@code ref}, e.g. {@code refs/changes/}. */
+    @VisibleForTesting
+    static String namespaceOf(String ref) {
+      int slash = ref.indexOf('/', ref.indexOf('/') + 1);
+      return slash > 0 ? ref.substring(0, slash + 1) : ref;
+    }
+  }
+}
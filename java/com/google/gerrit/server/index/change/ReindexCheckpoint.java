@@ -0,0 +1,126 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import com.google.common.base.Stopwatch;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.index.Index;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Project slices that were completely reindexed by {@link AllChangesIndexer}, so that an
+ * interrupted reindex can be resumed without reindexing them again.
+ *
+ * <p>The slices are recorded in a file, one line per slice. A slice is only recorded after the
+ * index committed its changes, so that no change is lost if the process dies before the index is
+ * committed the next time. To avoid committing the index too often, finished slices are collected
+ * and recorded together at most once a minute.
+ *
+ * <p>A slice is identified by its project, its number and the number of slices of its project. If
+ * the number of slices of a project changed because changes were created in the meantime, its
+ * slices are reindexed again.
+ */
+public class ReindexCheckpoint {
+  private static final long COMMIT_INTERVAL_SECONDS = 60;
+
+  /** Loads the checkpoint from {@code file}; the file doesn't need to exist. */
+  public static ReindexCheckpoint load(Path file) throws IOException {
+    Set<String> done = new HashSet<>();
+    if (Files.exists(file)) {
+      for (String line : Files.readAllLines(file, UTF_8)) {
+        if (!line.isEmpty()) {
+          done.add(line);
+        }
+      }
+    }
+    return new ReindexCheckpoint(file, done);
+  }
+
+  private static String key(Project.NameKey project, int slice, int slices) {
+    return slice + " " + slices + " " + project.get();
+  }
+
+  private final Path file;
+  private final Set<String> done;
+  private final List<String> pending = new ArrayList<>();
+  private final Stopwatch sinceCommit = Stopwatch.createStarted();
+
+  private ReindexCheckpoint(Path file, Set<String> done) {
+    this.file = file;
+    this.done = done;
+  }
+
+  /** Returns the number of slices that were recorded as done. */
+  public synchronized int size() {
+    return done.size();
+  }
+
+  /** Returns whether the slice was recorded as done by a previous run. */
+  public synchronized boolean isDone(Project.NameKey project, int slice, int slices) {
+    return done.contains(key(project, slice, slices));
+  }
+
+  /**
+   * Marks a slice as done. It is recorded in the file with the next commit of {@code index}.
+   *
+   * @param index index that the slice was written to.
+   */
+  public synchronized void markDone(
+      Index<?, ?> index, Project.NameKey project, int slice, int slices) {
+    pending.add(key(project, slice, slices));
+    if (sinceCommit.elapsed(TimeUnit.SECONDS) >= COMMIT_INTERVAL_SECONDS) {
+      flush(index);
+    }
+  }
+
+  /** Commits {@code index} and records all slices marked as done. */
+  public synchronized void flush(Index<?, ?> index) {
+    if (pending.isEmpty()) {
+      return;
+    }
+    index.commit();
+    try (BufferedWriter w = Files.newBufferedWriter(file, UTF_8, CREATE, APPEND)) {
+      for (String key : pending) {
+        w.write(key);
+        w.newLine();
+      }
+    } catch (IOException e) {
+      throw new StorageException("Cannot write reindex checkpoint " + file, e);
+    }
+    done.addAll(pending);
+    pending.clear();
+    sinceCommit.reset().start();
+  }
+
+  /** Deletes the checkpoint file, e.g. because the reindex finished. */
+  public synchronized void delete() throws IOException {
+    Files.deleteIfExists(file);
+    done.clear();
+    pending.clear();
+  }
+}
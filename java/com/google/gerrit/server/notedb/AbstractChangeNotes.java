@@ -51,6 +51,7 @@ public abstract class AbstractChangeNotes<T> {
     public final AllUsersName allUsers;
     public final NoteDbMetrics metrics;
     public final String serverId;
+    public final RevisionNoteCache revisionNoteCache;
 
     // Providers required to avoid dependency cycles.
 
@@ -64,6 +65,7 @@ public abstract class AbstractChangeNotes<T> {
         ChangeNoteJson changeNoteJson,
         NoteDbMetrics metrics,
         Provider<ChangeNotesCache> cache,
+        RevisionNoteCache revisionNoteCache,
         @GerritServerId String serverId) {
       this.failOnLoadForTest = new AtomicBoolean();
       this.repoManager = repoManager;
@@ -71,6 +73,7 @@ public abstract class AbstractChangeNotes<T> {
       this.changeNoteJson = changeNoteJson;
       this.metrics = metrics;
       this.cache = cache;
+      this.revisionNoteCache = revisionNoteCache;
       this.serverId = serverId;
     }
   }
@@ -79,10 +82,13 @@ public abstract class AbstractChangeNotes<T> {
   public static class LoadHandle implements AutoCloseable {
     private final Repository repo;
     private final ObjectId id;
+    private final boolean sharedWalk;
     private ChangeNotesRevWalk rw;
 
-    private LoadHandle(Repository repo, @Nullable ObjectId id) {
+    private LoadHandle(Repository repo, @Nullable ObjectId id, @Nullable ChangeNotesRevWalk rw) {
       this.repo = requireNonNull(repo);
+      this.rw = rw;
+      this.sharedWalk = rw != null;
 
       if (ObjectId.zeroId().equals(id)) {
         id = null;
@@ -106,7 +112,7 @@ public abstract class AbstractChangeNotes<T> {
 
     @Override
     public void close() {
-      if (rw != null) {
+      if (rw != null && !sharedWalk) {
         rw.close();
       }
     }
@@ -147,6 +153,14 @@ public abstract class AbstractChangeNotes<T> {
   }
 
   public T load(Repository repo) {
+    return load(repo, null);
+  }
+
+  /**
+   * Loads this entity, reading commits with {@code walk} instead of a new walk if it is not null.
+   * The walk is not closed, so that it can be shared by entities of the same repository.
+   */
+  T load(Repository repo, @Nullable ChangeNotesRevWalk walk) {
     if (loaded) {
       return self();
     }
@@ -157,7 +171,7 @@ public abstract class AbstractChangeNotes<T> {
     try (Timer0.Context timer = args.metrics.readLatency.start();
         // Call openHandle even if reading is disabled, to trigger
         // auto-rebuilding before this object may get passed to a ChangeUpdate.
-        LoadHandle handle = openHandle(repo, revision)) {
+        LoadHandle handle = openHandle(repo, revision, walk)) {
       revision = handle.id();
       onLoad(handle);
       loaded = true;
@@ -181,17 +195,20 @@ public abstract class AbstractChangeNotes<T> {
    * @param repo open repository.
    * @param id SHA1 of the entity to read from the repository. The SHA1 is not sanity checked and is
    *     assumed to be valid. If null, lookup SHA1 from the /meta ref.
+   * @param walk walk to read commits with, owned by the caller. If null, the handle creates its own
+   *     walk on demand.
    * @return handle for reading the entity.
    * @throws NoSuchChangeException change does not exist.
    * @throws IOException a repo-level error occurred.
    */
-  protected LoadHandle openHandle(Repository repo, @Nullable ObjectId id)
+  protected LoadHandle openHandle(
+      Repository repo, @Nullable ObjectId id, @Nullable ChangeNotesRevWalk walk)
       throws NoSuchChangeException, IOException {
     if (id == null) {
       id = readRef(repo);
     }
 
-    return new LoadHandle(repo, id);
+    return new LoadHandle(repo, id, walk);
   }
 
   public T reload() {
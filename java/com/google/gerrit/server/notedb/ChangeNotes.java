@@ -26,6 +26,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -57,6 +58,7 @@ import com.google.gerrit.server.ReviewerByEmailSet;
 import com.google.gerrit.server.ReviewerSet;
 import com.google.gerrit.server.ReviewerStatusUpdate;
 import com.google.gerrit.server.git.RefCache;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -69,7 +71,9 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -118,7 +122,7 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
     public abstract static class ScanResult {
       abstract ImmutableSet<Change.Id> fromPatchSetRefs();
 
-      abstract ImmutableSet<Change.Id> fromMetaRefs();
+      public abstract ImmutableSet<Change.Id> fromMetaRefs();
 
       public SetView<Change.Id> all() {
         return Sets.union(fromPatchSetRefs(), fromMetaRefs());
@@ -250,6 +254,54 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return notes;
     }
 
+    /**
+     * Loads the notes of multiple changes of one project.
+     *
+     * <p>This is cheaper than loading the changes one by one: the meta refs are read with a single
+     * ref lookup, cached states are looked up together, and the states that are not cached are
+     * parsed with one shared {@link ChangeNotesRevWalk}.
+     *
+     * @return one result per change, in the order of {@code changeIds}. Changes without meta ref
+     *     have a {@link NoSuchChangeException} as error.
+     * @throws IOException if the meta refs cannot be read.
+     */
+    public ImmutableList<ChangeNotesResult> createAll(
+        Repository repo, Project.NameKey project, Collection<Change.Id> changeIds)
+        throws IOException {
+      Map<String, Ref> refs =
+          repo.getRefDatabase()
+              .exactRef(changeIds.stream().map(RefNames::changeMetaRef).toArray(String[]::new));
+      Map<Change.Id, ObjectId> metaIds = new LinkedHashMap<>();
+      for (Change.Id id : changeIds) {
+        Ref ref = refs.get(RefNames.changeMetaRef(id));
+        if (ref != null && ref.getObjectId() != null) {
+          metaIds.put(id, ref.getObjectId());
+        }
+      }
+      ImmutableMap<Change.Id, ChangeNotesCache.Value> cached =
+          args.cache.get().getAllPresent(project, metaIds);
+
+      ImmutableList.Builder<ChangeNotesResult> results = ImmutableList.builder();
+      try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+        for (Change.Id id : changeIds) {
+          ObjectId metaId = metaIds.get(id);
+          if (metaId == null) {
+            results.add(ChangeNotesResult.error(id, new NoSuchChangeException(id)));
+            continue;
+          }
+          ChangeNotes notes =
+              new ChangeNotes(args, newChange(project, id), true, n -> Optional.of(metaId), null);
+          notes.cached = cached.get(id);
+          try {
+            results.add(ChangeNotesResult.notes(notes.load(repo, walk)));
+          } catch (RuntimeException e) {
+            results.add(ChangeNotesResult.error(id, e));
+          }
+        }
+      }
+      return results.build();
+    }
+
     /* TODO: This is now unused in the Gerrit code-base, however it is kept in the code
     /* because it is a public method in a stable branch.
      * It can be removed in master branch where we have more flexibility to change the API
@@ -384,6 +436,9 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
   // notes easier.
   RevisionNoteMap<ChangeRevisionNote> revisionNoteMap;
 
+  // State found by a bulk cache lookup in Factory#createAll, used once instead of the cache.
+  @Nullable private ChangeNotesCache.Value cached;
+
   private DraftCommentNotes draftCommentNotes;
   private RobotCommentNotes robotCommentNotes;
 
@@ -670,8 +725,13 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return;
     }
 
-    ChangeNotesCache.Value v =
-        args.cache.get().get(getProjectName(), getChangeId(), rev, handle::walk);
+    ChangeNotesCache.Value v;
+    if (cached != null && cached.state().metaId().equals(rev)) {
+      v = cached;
+    } else {
+      v = args.cache.get().get(getProjectName(), getChangeId(), rev, handle::walk);
+    }
+    cached = null;
     state = v.state();
 
     String stateServerId = state.serverId();
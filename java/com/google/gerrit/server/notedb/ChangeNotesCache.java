@@ -17,6 +17,7 @@ package com.google.gerrit.server.notedb;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Table;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -37,6 +38,7 @@ import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,6 +54,12 @@ public class ChangeNotesCache {
 
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
 
+  /**
+   * Maximum number of commits that are applied to the cached state of an earlier meta revision
+   * instead of parsing all commits of the change.
+   */
+  private static final int MAX_INCREMENTAL_COMMITS = 10;
+
   public static Module module() {
     return new CacheModule() {
       @Override
@@ -364,15 +372,46 @@ public class ChangeNotesCache {
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
       logger.atFine().log(
           "Load change notes for change %s of project %s", key.changeId(), key.project());
+      ChangeNotesRevWalk walk = walkSupplier.get();
       ChangeNotesParser parser =
           new ChangeNotesParser(
-              key.changeId(), key.id(), walkSupplier.get(), args.changeNoteJson, args.metrics);
-      ChangeNotesState result = parser.parseAll();
+              key.changeId(),
+              key.id(),
+              walk,
+              args.changeNoteJson,
+              args.metrics,
+              args.revisionNoteCache);
+      ChangeNotesState prior = findPrior(walk);
+      ChangeNotesState result = prior != null ? parser.parseIncremental(prior).orElse(null) : null;
+      if (result != null) {
+        args.metrics.incrementalParseCount.increment();
+      } else {
+        result = parser.parseAll();
+        args.metrics.fullParseCount.increment();
+      }
       // This assignment only happens if call() was actually called, which only
       // happens when Cache#get(K, Callable<V>) incurs a cache miss.
       revisionNoteMap = parser.getRevisionNoteMap();
       return result;
     }
+
+    /**
+     * Returns the cached state of the change at one of the last {@code MAX_INCREMENTAL_COMMITS}
+     * ancestors of the meta revision, or {@code null} if none is cached.
+     */
+    @Nullable
+    private ChangeNotesState findPrior(ChangeNotesRevWalk walk) throws IOException {
+      ChangeNotesCommit commit = walk.parseCommit(key.id());
+      for (int i = 0; i < MAX_INCREMENTAL_COMMITS && commit.getParentCount() == 1; i++) {
+        commit = walk.parseCommit(commit.getParent(0));
+        ChangeNotesState prior =
+            cache.getIfPresent(Key.create(key.project(), key.changeId(), commit));
+        if (prior != null) {
+          return prior;
+        }
+      }
+      return null;
+    }
   }
 
   private final Cache<Key, ChangeNotesState> cache;
@@ -403,4 +442,21 @@ public class ChangeNotesCache {
           e);
     }
   }
+
+  /**
+   * Returns the cached values for changes of {@code project} at the given meta revisions, in one
+   * cache lookup. Changes that are not cached are omitted and not loaded.
+   */
+  ImmutableMap<Change.Id, Value> getAllPresent(
+      Project.NameKey project, Map<Change.Id, ObjectId> metaIds) {
+    List<Key> keys = new ArrayList<>(metaIds.size());
+    for (Map.Entry<Change.Id, ObjectId> e : metaIds.entrySet()) {
+      keys.add(Key.create(project, e.getKey(), e.getValue()));
+    }
+    ImmutableMap.Builder<Change.Id, Value> result = ImmutableMap.builder();
+    for (Map.Entry<Key, ChangeNotesState> e : cache.getAllPresent(keys).entrySet()) {
+      result.put(e.getKey().changeId(), new AutoValue_ChangeNotesCache_Value(e.getValue(), null));
+    }
+    return result.build();
+  }
 }
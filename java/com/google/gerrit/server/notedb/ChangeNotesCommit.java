@@ -25,6 +25,7 @@ import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.InsertedObject;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -121,6 +122,20 @@ public class ChangeNotesCommit extends RevCommit {
   }
 
   public List<String> getFooterLineValues(FooterKey key) {
+    return footerLines().get(key.getName().toLowerCase());
+  }
+
+  /** Returns whether each footer of this commit has one of the given keys. */
+  public boolean hasOnlyFooters(Set<FooterKey> keys) {
+    for (String key : footerLines().keySet()) {
+      if (keys.stream().noneMatch(k -> k.getName().equalsIgnoreCase(key))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private ListMultimap<String, String> footerLines() {
     if (footerLines == null) {
       List<FooterLine> src = getFooterLines();
       footerLines = MultimapBuilder.hashKeys(src.size()).arrayListValues(1).build();
@@ -128,7 +143,7 @@ public class ChangeNotesCommit extends RevCommit {
         footerLines.put(fl.getKey().toLowerCase(), fl.getValue());
       }
     }
-    return footerLines.get(key.getName().toLowerCase());
+    return footerLines;
   }
 
   public boolean isAttentionSetCommitOnly(boolean hasChangeMessage) {
@@ -116,8 +116,17 @@ class ChangeNotesParser {
   private static final Splitter RULE_SPLITTER = Splitter.on(": ");
   private static final Splitter HASHTAG_SPLITTER = Splitter.on(",");
 
+  /**
+   * Footers of the commits that {@link #parseIncremental(ChangeNotesState)} can apply to an earlier
+   * state: votes, change messages and comments on existing patch sets, and attention set updates.
+   */
+  private static final ImmutableSet<FooterKey> INCREMENTAL_FOOTERS =
+      ImmutableSet.of(
+          FOOTER_PATCH_SET, FOOTER_LABEL, FOOTER_ATTENTION, FOOTER_TAG, FOOTER_REAL_USER);
+
   // Private final members initialized in the constructor.
   private final ChangeNoteJson changeNoteJson;
+  @Nullable private final RevisionNoteCache revisionNoteCache;
   private final NoteDbMetrics metrics;
   private final Change.Id id;
   private final ObjectId tip;
@@ -181,11 +190,22 @@ class ChangeNotesParser {
       ChangeNotesRevWalk walk,
       ChangeNoteJson changeNoteJson,
       NoteDbMetrics metrics) {
+    this(changeId, tip, walk, changeNoteJson, metrics, null);
+  }
+
+  ChangeNotesParser(
+      Change.Id changeId,
+      ObjectId tip,
+      ChangeNotesRevWalk walk,
+      ChangeNoteJson changeNoteJson,
+      NoteDbMetrics metrics,
+      @Nullable RevisionNoteCache revisionNoteCache) {
     this.id = changeId;
     this.tip = tip;
     this.walk = walk;
     this.changeNoteJson = changeNoteJson;
     this.metrics = metrics;
+    this.revisionNoteCache = revisionNoteCache;
     approvals = new LinkedHashMap<>();
     bufferedApprovals = new ArrayList<>();
     reviewers = HashBasedTable.create();
@@ -217,6 +237,8 @@ class ChangeNotesParser {
     try (Timer0.Context timer = metrics.parseLatency.start()) {
       ChangeNotesCommit commit;
       while ((commit = walk.next()) != null) {
+        // The walk drops the bodies of commits that parseIncremental walked as uninteresting.
+        walk.parseBody(commit);
         parse(commit);
       }
       if (hasReviewStarted == null) {
@@ -238,6 +260,143 @@ class ChangeNotesParser {
     return buildState();
   }
 
+  /**
+   * Parses only the commits after the meta revision of {@code prior} and applies them to it.
+   *
+   * <p>This is only possible if the new commits descend linearly from the meta revision of {@code
+   * prior}, the change is open and the commits only contain footers that don't depend on the older
+   * history, see {@link #INCREMENTAL_FOOTERS}. Otherwise nothing is parsed and {@link #parseAll()}
+   * has to be used instead.
+   *
+   * @param prior state of the change at an earlier meta revision.
+   * @return state of the change at the tip, or empty if the new commits can't be applied to {@code
+   *     prior}.
+   */
+  Optional<ChangeNotesState> parseIncremental(ChangeNotesState prior)
+      throws ConfigInvalidException, IOException {
+    ChangeNotesState.ChangeColumns columns = prior.columns();
+    if (prior.metaId() == null || columns == null || columns.status() != Change.Status.NEW) {
+      return Optional.empty();
+    }
+    Map<PatchSet.Id, PatchSet> priorPatchSets = new HashMap<>();
+    prior.patchSets().forEach(e -> priorPatchSets.put(e.getKey(), e.getValue()));
+
+    walk.reset();
+    ChangeNotesCommit priorCommit = walk.parseCommit(prior.metaId());
+    walk.markStart(walk.parseCommit(tip));
+    walk.markUninteresting(priorCommit);
+    List<ChangeNotesCommit> commits = new ArrayList<>();
+    ChangeNotesCommit commit;
+    while ((commit = walk.next()) != null) {
+      if (commit.getParentCount() != 1
+          || !commit.hasOnlyFooters(INCREMENTAL_FOOTERS)
+          || parsePatchSetState(commit) != null
+          || !priorPatchSets.containsKey(parsePatchSetId(commit))) {
+        return Optional.empty();
+      }
+      commits.add(commit);
+    }
+    for (int i = 0; i < commits.size(); i++) {
+      ObjectId parent = i + 1 < commits.size() ? commits.get(i + 1) : priorCommit;
+      if (!commits.get(i).getParent(0).equals(parent)) {
+        // Not a fast-forward of the prior meta revision.
+        return Optional.empty();
+      }
+    }
+
+    try (Timer0.Context timer = metrics.parseLatency.start()) {
+      for (ChangeNotesCommit c : commits) {
+        parse(c);
+      }
+      return Optional.of(applyTo(prior, priorPatchSets));
+    }
+  }
+
+  /**
+   * Applies the commits parsed by {@link #parseIncremental(ChangeNotesState)} to {@code prior},
+   * with the same result as parsing all commits with {@link #parseAll()}.
+   */
+  private ChangeNotesState applyTo(
+      ChangeNotesState prior, Map<PatchSet.Id, PatchSet> priorPatchSets)
+      throws ConfigInvalidException, IOException {
+    ChangeNotesState.ChangeColumns columns = prior.columns();
+    Instant updatedOn = columns.lastUpdatedOn();
+    if (lastUpdatedOn != null && lastUpdatedOn.isAfter(updatedOn)) {
+      updatedOn = lastUpdatedOn;
+    }
+
+    // New approvals replace the approvals of the same key. Like in buildApprovals(), approvals of
+    // removed reviewers are dropped; the reviewers didn't change, as the new commits have no
+    // reviewer footers.
+    ListMultimap<PatchSet.Id, PatchSetApproval> newApprovals =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (PatchSetApproval.Builder a : approvals.values()) {
+      Account.Id accountId = a.key().accountId();
+      if (!prior.allPastReviewers().contains(accountId)
+          || prior.reviewers().all().contains(accountId)) {
+        newApprovals.put(a.key().patchSetId(), a.build());
+      }
+    }
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : prior.approvals()) {
+      if (!approvals.containsKey(e.getValue().key())) {
+        newApprovals.put(e.getKey(), e.getValue());
+      }
+    }
+    newApprovals.keySet().forEach(k -> newApprovals.get(k).sort(ChangeNotes.PSA_BY_TIME));
+
+    Map<Account.Id, AttentionSetUpdate> attentionSet = new HashMap<>(latestAttentionStatus);
+    prior.attentionSet().forEach(u -> attentionSet.putIfAbsent(u.account(), u));
+
+    List<AttentionSetUpdate> attentionSetUpdates = new ArrayList<>(allAttentionSetUpdates);
+    attentionSetUpdates.addAll(prior.allAttentionSetUpdates());
+
+    List<ChangeMessage> messages = new ArrayList<>(prior.changeMessages());
+    messages.addAll(buildAllMessages());
+
+    // Comments are stored in the notes of the tip. Like in updatePatchSetStates(), comments on
+    // deleted or missing patch sets are dropped. Push certificates of the patch sets don't need to
+    // be read again, they are only written when a patch set is created.
+    ObjectReader reader = walk.getObjectReader();
+    revisionNoteMap =
+        RevisionNoteMap.parse(
+            changeNoteJson,
+            reader,
+            NoteMap.read(reader, walk.parseCommit(tip)),
+            HumanComment.Status.PUBLISHED,
+            revisionNoteCache);
+    Map<ObjectId, ChangeRevisionNote> rns = revisionNoteMap.revisionNotes;
+    for (Map.Entry<ObjectId, ChangeRevisionNote> e : rns.entrySet()) {
+      for (HumanComment c : e.getValue().getEntities()) {
+        if (priorPatchSets.containsKey(PatchSet.id(id, c.key.patchSetId))) {
+          humanComments.put(e.getKey(), c);
+        }
+      }
+    }
+    for (PatchSet ps :
+        priorPatchSets.values().stream()
+            .sorted(comparingInt((PatchSet p) -> p.id().get()).reversed())
+            .collect(Collectors.toList())) {
+      ChangeRevisionNote rn = rns.get(ps.commitId());
+      if (rn != null && rn.getSubmitRequirementsResult() != null) {
+        submitRequirementResults.addAll(rn.getSubmitRequirementsResult());
+        break;
+      }
+    }
+
+    return prior
+        .toBuilder()
+        .metaId(tip.copy())
+        .columns(columns.toBuilder().lastUpdatedOn(updatedOn).build())
+        .approvals(newApprovals.entries())
+        .attentionSet(ImmutableSet.copyOf(attentionSet.values()))
+        .allAttentionSetUpdates(attentionSetUpdates)
+        .changeMessages(messages)
+        .publishedComments(humanComments)
+        .submitRequirementsResult(submitRequirementResults)
+        .updateCount(prior.updateCount() + updateCount)
+        .build();
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
@@ -856,7 +1015,11 @@ class ChangeNotesParser {
     ChangeNotesCommit tipCommit = walk.parseCommit(tip);
     revisionNoteMap =
         RevisionNoteMap.parse(
-            changeNoteJson, reader, NoteMap.read(reader, tipCommit), HumanComment.Status.PUBLISHED);
+            changeNoteJson,
+            reader,
+            NoteMap.read(reader, tipCommit),
+            HumanComment.Status.PUBLISHED,
+            revisionNoteCache);
     Map<ObjectId, ChangeRevisionNote> rns = revisionNoteMap.revisionNotes;
 
     for (Map.Entry<ObjectId, ChangeRevisionNote> e : rns.entrySet()) {
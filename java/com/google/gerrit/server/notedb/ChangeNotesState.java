@@ -335,6 +335,8 @@ public abstract class ChangeNotesState {
   @Nullable
   abstract Instant mergedOn();
 
+  abstract Builder toBuilder();
+
   Change newChange(Project.NameKey project) {
     ChangeColumns c = requireNonNull(columns(), "columns are required");
     Change change =
@@ -21,6 +21,7 @@ import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Comment;
 import com.google.gerrit.entities.HumanComment;
 import com.google.gerrit.entities.SubmitRequirementResult;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -68,6 +69,24 @@ class ChangeRevisionNote extends RevisionNote<HumanComment> {
     return pushCert;
   }
 
+  /**
+   * Parses the note like {@link #parse()}, but takes the parsed data from {@code cache} if the note
+   * was parsed before.
+   */
+  void parse(RevisionNoteCache cache) throws IOException, ConfigInvalidException {
+    RevisionNoteProto cached = cache.get(getNoteId());
+    if (cached == null) {
+      parse();
+      cache.put(
+          getNoteId(),
+          RevisionNoteCache.toProto(getEntities(), pushCert, submitRequirementsResult));
+      return;
+    }
+    load(RevisionNoteCache.humanComments(cached));
+    pushCert = status == HumanComment.Status.PUBLISHED ? RevisionNoteCache.pushCert(cached) : null;
+    submitRequirementsResult = RevisionNoteCache.submitRequirementResults(cached);
+  }
+
   @Override
   protected List<HumanComment> parse(byte[] raw, int offset)
       throws IOException, ConfigInvalidException {
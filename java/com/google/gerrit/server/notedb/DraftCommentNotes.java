@@ -121,7 +121,8 @@ public class DraftCommentNotes extends AbstractChangeNotes<DraftCommentNotes> {
             args.changeNoteJson,
             reader,
             NoteMap.read(reader, tipCommit),
-            HumanComment.Status.DRAFT);
+            HumanComment.Status.DRAFT,
+            args.revisionNoteCache);
     ImmutableListMultimap.Builder<ObjectId, HumanComment> cs = ImmutableListMultimap.builder();
     for (ChangeRevisionNote rn : revisionNoteMap.revisionNotes.values()) {
       for (HumanComment c : rn.getEntities()) {
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.notedb;
 
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
@@ -43,6 +44,15 @@ class NoteDbMetrics {
    */
   final Timer0 parseLatency;
 
+  /** Number of changes whose notes were parsed from the first commit of their meta ref. */
+  final Counter0 fullParseCount;
+
+  /**
+   * Number of changes whose notes were parsed by applying new commits to a cached state of an
+   * earlier revision of their meta ref.
+   */
+  final Counter0 incrementalParseCount;
+
   @Inject
   NoteDbMetrics(MetricMaker metrics) {
     updateLatency =
@@ -72,5 +82,16 @@ class NoteDbMetrics {
             new Description("NoteDb parse latency for changes")
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
+
+    fullParseCount =
+        metrics.newCounter(
+            "notedb/parse_full_count",
+            new Description("Changes parsed from all commits of their meta ref").setRate());
+
+    incrementalParseCount =
+        metrics.newCounter(
+            "notedb/parse_incremental_count",
+            new Description("Changes parsed by applying new commits to a cached earlier state")
+                .setRate());
   }
 }
@@ -17,8 +17,10 @@ package com.google.gerrit.server.notedb;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.gerrit.extensions.config.FactoryModule;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
+import org.eclipse.jgit.lib.ObjectId;
 
 public class NoteDbModule extends FactoryModule {
   private final boolean useTestBindings;
@@ -47,10 +49,14 @@ public class NoteDbModule extends FactoryModule {
 
     if (!useTestBindings) {
       install(ChangeNotesCache.module());
+      install(RevisionNoteCache.module());
     } else {
       bind(new TypeLiteral<Cache<ChangeNotesCache.Key, ChangeNotesState>>() {})
           .annotatedWith(Names.named(ChangeNotesCache.CACHE_NAME))
           .toInstance(CacheBuilder.newBuilder().build());
+      bind(new TypeLiteral<Cache<ObjectId, RevisionNoteProto>>() {})
+          .annotatedWith(Names.named(RevisionNoteCache.CACHE_NAME))
+          .toInstance(CacheBuilder.newBuilder().build());
     }
   }
 }
@@ -68,9 +68,13 @@ public abstract class RevisionNote<T> {
     return entities;
   }
 
+  ObjectId getNoteId() {
+    return noteId;
+  }
+
   /** Reads the raw data, and delegates parsing to the {@link #parse(byte[], int)} method. */
   public void parse() throws IOException, ConfigInvalidException {
-    raw = reader.open(noteId, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+    raw = readRaw();
     MutableInteger p = new MutableInteger();
     trimLeadingEmptyLines(raw, p);
     if (p.value >= raw.length) {
@@ -81,6 +85,19 @@ public abstract class RevisionNote<T> {
     entities = ImmutableList.copyOf(parse(raw, p.value));
   }
 
+  /**
+   * Reads the raw data, but takes the entities from an earlier parse of the same note instead of
+   * parsing the raw data again.
+   */
+  void load(List<T> parsed) throws IOException {
+    raw = readRaw();
+    entities = ImmutableList.copyOf(parsed);
+  }
+
+  private byte[] readRaw() throws IOException {
+    return reader.open(noteId, OBJ_BLOB).getCachedBytes(MAX_NOTE_SZ);
+  }
+
   protected abstract List<T> parse(byte[] raw, int offset)
       throws IOException, ConfigInvalidException;
 
@@ -0,0 +1,300 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Comment;
+import com.google.gerrit.entities.FixReplacement;
+import com.google.gerrit.entities.FixSuggestion;
+import com.google.gerrit.entities.HumanComment;
+import com.google.gerrit.entities.RobotComment;
+import com.google.gerrit.entities.SubmitRequirementResult;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto.CommentProto;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto.FixSuggestionProto;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto.FixSuggestionProto.FixReplacementProto;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto.RangeProto;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto.RobotProto;
+import com.google.gerrit.server.cache.serialize.ObjectIdCacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import com.google.gerrit.server.cache.serialize.ProtobufSerializer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Cache of the data parsed from revision notes, keyed by the ID of the note blob.
+ *
+ * <p>Inline comments are stored as JSON in the notes of the change meta ref and of the draft and
+ * robot comment refs. Parsing the JSON is expensive for changes with many comments. Note blobs are
+ * immutable, so entries never become stale, and most notes are the same blobs after a change was
+ * updated.
+ *
+ * <p>The cached value is the protobuf form of the parsed data. Comments are mutable, so each lookup
+ * creates new comment instances from it.
+ */
+@Singleton
+public class RevisionNoteCache {
+  static final String CACHE_NAME = "revision_notes";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, ObjectId.class, RevisionNoteProto.class)
+            .weigher(Weigher.class)
+            .maximumWeight(20 << 20)
+            .diskLimit(256 << 20)
+            .version(2)
+            .keySerializer(ObjectIdCacheSerializer.INSTANCE)
+            .valueSerializer(new ProtobufSerializer<>(RevisionNoteProto.parser()));
+        bind(RevisionNoteCache.class);
+      }
+    };
+  }
+
+  private final Cache<ObjectId, RevisionNoteProto> cache;
+
+  @Inject
+  RevisionNoteCache(@Named(CACHE_NAME) Cache<ObjectId, RevisionNoteProto> cache) {
+    this.cache = cache;
+  }
+
+  @Nullable
+  RevisionNoteProto get(ObjectId noteId) {
+    return cache.getIfPresent(noteId);
+  }
+
+  void put(ObjectId noteId, RevisionNoteProto proto) {
+    cache.put(noteId.copy(), proto);
+  }
+
+  static RevisionNoteProto toProto(
+      List<? extends Comment> comments,
+      @Nullable String pushCert,
+      @Nullable List<SubmitRequirementResult> submitRequirementResults) {
+    RevisionNoteProto.Builder b = RevisionNoteProto.newBuilder();
+    comments.forEach(c -> b.addComment(toProto(c)));
+    if (pushCert != null) {
+      b.setPushCert(pushCert).setHasPushCert(true);
+    }
+    if (submitRequirementResults != null) {
+      submitRequirementResults.forEach(
+          sr -> b.addSubmitRequirementResult(SubmitRequirementProtoConverter.INSTANCE.toProto(sr)));
+      b.setHasSubmitRequirementResults(true);
+    }
+    return b.build();
+  }
+
+  static ImmutableList<HumanComment> humanComments(RevisionNoteProto proto) {
+    return proto.getCommentList().stream()
+        .map(RevisionNoteCache::toHumanComment)
+        .collect(toImmutableList());
+  }
+
+  static ImmutableList<RobotComment> robotComments(RevisionNoteProto proto) {
+    return proto.getCommentList().stream()
+        .map(RevisionNoteCache::toRobotComment)
+        .collect(toImmutableList());
+  }
+
+  @Nullable
+  static String pushCert(RevisionNoteProto proto) {
+    return proto.getHasPushCert() ? proto.getPushCert() : null;
+  }
+
+  @Nullable
+  static ImmutableList<SubmitRequirementResult> submitRequirementResults(RevisionNoteProto proto) {
+    if (!proto.getHasSubmitRequirementResults()) {
+      return null;
+    }
+    return proto.getSubmitRequirementResultList().stream()
+        .map(SubmitRequirementProtoConverter.INSTANCE::fromProto)
+        .collect(toImmutableList());
+  }
+
+  private static CommentProto toProto(Comment c) {
+    CommentProto.Builder b =
+        CommentProto.newBuilder()
+            .setUuid(c.key.uuid)
+            .setFilename(c.key.filename)
+            .setPatchSetId(c.key.patchSetId)
+            .setLineNbr(c.lineNbr)
+            .setAuthor(c.author.getId().get())
+            .setWrittenOnSeconds(c.writtenOn.toInstant().getEpochSecond())
+            .setWrittenOnNanos(c.writtenOn.getNanos())
+            .setSide(c.side);
+    if (c.hasRealAuthor()) {
+      b.setRealAuthor(c.getRealAuthor().getId().get()).setHasRealAuthor(true);
+    }
+    if (c.message != null) {
+      b.setMessage(c.message).setHasMessage(true);
+    }
+    if (c.parentUuid != null) {
+      b.setParentUuid(c.parentUuid).setHasParentUuid(true);
+    }
+    if (c.range != null) {
+      b.setRange(toProto(c.range));
+    }
+    if (c.tag != null) {
+      b.setTag(c.tag).setHasTag(true);
+    }
+    if (c.getCommitId() != null) {
+      b.setCommit(ObjectIdConverter.create().toByteString(c.getCommitId()));
+    }
+    if (c.serverId != null) {
+      b.setServerId(c.serverId).setHasServerId(true);
+    }
+    if (c instanceof HumanComment) {
+      b.setUnresolved(((HumanComment) c).unresolved);
+    } else if (c instanceof RobotComment) {
+      b.setRobot(toProto((RobotComment) c));
+    }
+    return b.build();
+  }
+
+  private static RobotProto toProto(RobotComment c) {
+    RobotProto.Builder b =
+        RobotProto.newBuilder().setRobotId(c.robotId).setRobotRunId(c.robotRunId);
+    if (c.url != null) {
+      b.setUrl(c.url).setHasUrl(true);
+    }
+    if (c.properties != null) {
+      b.putAllProperties(c.properties).setHasProperties(true);
+    }
+    if (c.fixSuggestions != null) {
+      for (FixSuggestion f : c.fixSuggestions) {
+        FixSuggestionProto.Builder fb =
+            FixSuggestionProto.newBuilder().setFixId(f.fixId).setDescription(f.description);
+        for (FixReplacement r : f.replacements) {
+          fb.addReplacement(
+              FixReplacementProto.newBuilder()
+                  .setPath(r.path)
+                  .setRange(toProto(r.range))
+                  .setReplacement(r.replacement));
+        }
+        b.addFixSuggestion(fb);
+      }
+      b.setHasFixSuggestions(true);
+    }
+    return b.build();
+  }
+
+  private static RangeProto toProto(Comment.Range r) {
+    return RangeProto.newBuilder()
+        .setStartLine(r.startLine)
+        .setStartChar(r.startChar)
+        .setEndLine(r.endLine)
+        .setEndChar(r.endChar)
+        .build();
+  }
+
+  private static HumanComment toHumanComment(CommentProto proto) {
+    HumanComment c =
+        new HumanComment(
+            key(proto),
+            Account.id(proto.getAuthor()),
+            writtenOn(proto),
+            (short) proto.getSide(),
+            proto.getHasMessage() ? proto.getMessage() : null,
+            proto.getHasServerId() ? proto.getServerId() : null,
+            proto.getUnresolved());
+    setCommonFields(c, proto);
+    return c;
+  }
+
+  private static RobotComment toRobotComment(CommentProto proto) {
+    RobotProto robot = proto.getRobot();
+    RobotComment c =
+        new RobotComment(
+            key(proto),
+            Account.id(proto.getAuthor()),
+            writtenOn(proto),
+            (short) proto.getSide(),
+            proto.getHasMessage() ? proto.getMessage() : null,
+            proto.getHasServerId() ? proto.getServerId() : null,
+            robot.getRobotId(),
+            robot.getRobotRunId());
+    setCommonFields(c, proto);
+    c.url = robot.getHasUrl() ? robot.getUrl() : null;
+    c.properties = robot.getHasProperties() ? new LinkedHashMap<>(robot.getPropertiesMap()) : null;
+    c.fixSuggestions =
+        robot.getHasFixSuggestions()
+            ? robot.getFixSuggestionList().stream()
+                .map(
+                    f ->
+                        new FixSuggestion(
+                            f.getFixId(),
+                            f.getDescription(),
+                            f.getReplacementList().stream()
+                                .map(
+                                    r ->
+                                        new FixReplacement(
+                                            r.getPath(), toRange(r.getRange()), r.getReplacement()))
+                                .collect(toImmutableList())))
+                .collect(toImmutableList())
+            : null;
+    return c;
+  }
+
+  private static Comment.Key key(CommentProto proto) {
+    return new Comment.Key(proto.getUuid(), proto.getFilename(), proto.getPatchSetId());
+  }
+
+  private static Instant writtenOn(CommentProto proto) {
+    return Instant.ofEpochSecond(proto.getWrittenOnSeconds(), proto.getWrittenOnNanos());
+  }
+
+  private static void setCommonFields(Comment c, CommentProto proto) {
+    c.lineNbr = proto.getLineNbr();
+    // The constructor sets the real author to the author, which setRealAuthor would unset.
+    if (!proto.getHasRealAuthor()) {
+      c.setRealAuthor(null);
+    } else if (proto.getRealAuthor() != proto.getAuthor()) {
+      c.setRealAuthor(Account.id(proto.getRealAuthor()));
+    }
+    c.parentUuid = proto.getHasParentUuid() ? proto.getParentUuid() : null;
+    c.range = proto.hasRange() ? toRange(proto.getRange()) : null;
+    c.tag = proto.getHasTag() ? proto.getTag() : null;
+    c.setCommitId(
+        proto.getCommit().isEmpty()
+            ? null
+            : ObjectIdConverter.create().fromByteString(proto.getCommit()));
+  }
+
+  private static Comment.Range toRange(RangeProto proto) {
+    return new Comment.Range(
+        proto.getStartLine(), proto.getStartChar(), proto.getEndLine(), proto.getEndChar());
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<ObjectId, RevisionNoteProto> {
+    @Override
+    public int weigh(ObjectId key, RevisionNoteProto value) {
+      // A message in memory takes roughly twice the size of its serialized form.
+      return 20 + 2 * value.getSerializedSize();
+    }
+  }
+}
@@ -15,6 +15,7 @@
 package com.google.gerrit.server.notedb;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Comment;
 import java.io.IOException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
@@ -43,10 +44,28 @@ class RevisionNoteMap<T extends RevisionNote<? extends Comment>> {
   static RevisionNoteMap<ChangeRevisionNote> parse(
       ChangeNoteJson noteJson, ObjectReader reader, NoteMap noteMap, Comment.Status status)
       throws ConfigInvalidException, IOException {
+    return parse(noteJson, reader, noteMap, status, null);
+  }
+
+  /**
+   * Parses the notes of {@code noteMap}, taking the parsed data of notes from {@code cache} if it
+   * isn't null.
+   */
+  static RevisionNoteMap<ChangeRevisionNote> parse(
+      ChangeNoteJson noteJson,
+      ObjectReader reader,
+      NoteMap noteMap,
+      Comment.Status status,
+      @Nullable RevisionNoteCache cache)
+      throws ConfigInvalidException, IOException {
     ImmutableMap.Builder<ObjectId, ChangeRevisionNote> result = ImmutableMap.builder();
     for (Note note : noteMap) {
       ChangeRevisionNote rn = new ChangeRevisionNote(noteJson, reader, note.getData(), status);
-      rn.parse();
+      if (cache != null) {
+        rn.parse(cache);
+      } else {
+        rn.parse();
+      }
 
       result.put(note.copy(), rn);
     }
@@ -56,11 +75,28 @@ class RevisionNoteMap<T extends RevisionNote<? extends Comment>> {
   static RevisionNoteMap<RobotCommentsRevisionNote> parseRobotComments(
       ChangeNoteJson changeNoteJson, ObjectReader reader, NoteMap noteMap)
       throws ConfigInvalidException, IOException {
+    return parseRobotComments(changeNoteJson, reader, noteMap, null);
+  }
+
+  /**
+   * Parses the notes of {@code noteMap}, taking the parsed comments of notes from {@code cache} if
+   * it isn't null.
+   */
+  static RevisionNoteMap<RobotCommentsRevisionNote> parseRobotComments(
+      ChangeNoteJson changeNoteJson,
+      ObjectReader reader,
+      NoteMap noteMap,
+      @Nullable RevisionNoteCache cache)
+      throws ConfigInvalidException, IOException {
     ImmutableMap.Builder<ObjectId, RobotCommentsRevisionNote> result = ImmutableMap.builder();
     for (Note note : noteMap) {
       RobotCommentsRevisionNote rn =
           new RobotCommentsRevisionNote(changeNoteJson, reader, note.getData());
-      rn.parse();
+      if (cache != null) {
+        rn.parse(cache);
+      } else {
+        rn.parse();
+      }
       result.put(note.copy(), rn);
     }
     return new RevisionNoteMap<>(noteMap, result.buildOrThrow());
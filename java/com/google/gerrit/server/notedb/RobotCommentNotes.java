@@ -91,7 +91,7 @@ public class RobotCommentNotes extends AbstractChangeNotes<RobotCommentNotes> {
     ObjectReader reader = handle.walk().getObjectReader();
     revisionNoteMap =
         RevisionNoteMap.parseRobotComments(
-            args.changeNoteJson, reader, NoteMap.read(reader, tipCommit));
+            args.changeNoteJson, reader, NoteMap.read(reader, tipCommit), args.revisionNoteCache);
     ImmutableListMultimap.Builder<ObjectId, RobotComment> cs = ImmutableListMultimap.builder();
     for (RobotCommentsRevisionNote rn : revisionNoteMap.revisionNotes.values()) {
       for (RobotComment c : rn.getEntities()) {
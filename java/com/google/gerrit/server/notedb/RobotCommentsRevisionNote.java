@@ -17,12 +17,14 @@ package com.google.gerrit.server.notedb;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.gerrit.entities.RobotComment;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.List;
+import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 
@@ -39,6 +41,20 @@ public class RobotCommentsRevisionNote extends RevisionNote<RobotComment> {
     this.noteUtil = noteUtil;
   }
 
+  /**
+   * Parses the note like {@link #parse()}, but takes the parsed comments from {@code cache} if the
+   * note was parsed before.
+   */
+  void parse(RevisionNoteCache cache) throws IOException, ConfigInvalidException {
+    RevisionNoteProto cached = cache.get(getNoteId());
+    if (cached == null) {
+      parse();
+      cache.put(getNoteId(), RevisionNoteCache.toProto(getEntities(), null, null));
+      return;
+    }
+    load(RevisionNoteCache.robotComments(cached));
+  }
+
   @Override
   protected List<RobotComment> parse(byte[] raw, int offset) throws IOException {
     try (InputStream is = new ByteArrayInputStream(raw, offset, raw.length - offset);
@@ -20,7 +20,11 @@ class CharText extends Sequence {
   private final String content;
 
   CharText(Text text, int s, int e) {
-    content = text.getString(s, e, false /* keep LF */);
+    this(text.getString(s, e, false /* keep LF */));
+  }
+
+  CharText(String content) {
+    this.content = content;
   }
 
   char charAt(int idx) {
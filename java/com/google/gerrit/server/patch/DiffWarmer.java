@@ -0,0 +1,231 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo;
+import com.google.gerrit.extensions.events.RevisionCreatedListener;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.InternalUser;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.patch.filediff.FileDiffOutput;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Computes the diffs of new patch sets in the background, so that the first reviewer who opens a
+ * new patch set doesn't wait for them.
+ *
+ * <p>When a patch set is created, the modified files against the parent and against the previous
+ * patch set, and the diffs of the files against the parent including intraline differences, are
+ * loaded into the diff caches. Only diffs with the default diff preferences are computed. This runs
+ * on a low-priority queue with a bounded number of pending patch sets; if the queue is full, new
+ * patch sets are not warmed.
+ *
+ * <p>Enabled by {@code change.warmDiffs}.
+ */
+@Singleton
+public class DiffWarmer implements RevisionCreatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Maximum number of files of a patch set whose diffs against the parent are computed. */
+  private static final int MAX_FILES = 500;
+
+  public static boolean isEnabled(Config cfg) {
+    return cfg.getBoolean("change", "warmDiffs", false);
+  }
+
+  private enum State {
+    QUEUED,
+    WARMED
+  }
+
+  private final ChangeNotes.Factory notesFactory;
+  private final DiffOperations diffOperations;
+  private final PatchScriptFactory.Factory patchScriptFactoryFactory;
+  private final InternalUser.Factory internalUserFactory;
+  @Nullable private final ScheduledExecutorService queue;
+  private final int maxPending;
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /** Patch sets that were warmed, or are queued for warming, and weren't viewed yet. */
+  private final Cache<PatchSet.Id, State> notViewed =
+      CacheBuilder.newBuilder().maximumSize(10_000).expireAfterWrite(Duration.ofDays(1)).build();
+
+  private final Counter0 dropped;
+  private final Timer0 latency;
+  private final Counter0 firstViewWarm;
+  private final Counter0 firstViewCold;
+
+  @Inject
+  DiffWarmer(
+      @GerritServerConfig Config cfg,
+      WorkQueue workQueue,
+      MetricMaker metricMaker,
+      ChangeNotes.Factory notesFactory,
+      DiffOperations diffOperations,
+      PatchScriptFactory.Factory patchScriptFactoryFactory,
+      InternalUser.Factory internalUserFactory) {
+    this.notesFactory = notesFactory;
+    this.diffOperations = diffOperations;
+    this.patchScriptFactoryFactory = patchScriptFactoryFactory;
+    this.internalUserFactory = internalUserFactory;
+    this.queue =
+        isEnabled(cfg)
+            ? workQueue.createQueue(
+                cfg.getInt("change", "warmDiffsThreads", 1),
+                "DiffWarming",
+                Thread.MIN_PRIORITY,
+                true)
+            : null;
+    this.maxPending = cfg.getInt("change", "warmDiffsMaxPending", 100);
+
+    // GetDiff depends on this class also if warming is disabled. Don't export its metrics then.
+    MetricMaker metrics = isEnabled(cfg) ? metricMaker : new DisabledMetricMaker();
+    this.dropped =
+        metrics.newCounter(
+            "diff/warming/dropped",
+            new Description("Patch sets that were not warmed because the queue was full")
+                .setRate());
+    this.latency =
+        metrics.newTimer(
+            "diff/warming/latency",
+            new Description("Time to compute the diffs of a new patch set in the background")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS));
+    this.firstViewWarm =
+        metrics.newCounter(
+            "diff/warming/first_view_warm",
+            new Description("First views of a diff of a patch set whose diffs were warmed")
+                .setRate());
+    this.firstViewCold =
+        metrics.newCounter(
+            "diff/warming/first_view_cold",
+            new Description("First views of a diff of a patch set that was queued for warming")
+                .setRate());
+  }
+
+  @Override
+  public void onRevisionCreated(Event event) {
+    if (queue == null) {
+      return;
+    }
+    if (pending.incrementAndGet() > maxPending) {
+      pending.decrementAndGet();
+      dropped.increment();
+      return;
+    }
+    Project.NameKey project = Project.nameKey(event.getChange().project);
+    PatchSet.Id psId =
+        PatchSet.id(Change.id(event.getChange()._number), event.getRevision()._number);
+    notViewed.put(psId, State.QUEUED);
+    try {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError = queue.submit(new Task(project, psId));
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      notViewed.invalidate(psId);
+      logger.atFine().withCause(e).log(
+          "Cannot queue warming diffs of change %s in project %s", psId, project);
+    }
+  }
+
+  /**
+   * Records in the metrics whether the diffs of a patch set were warmed when they are viewed for
+   * the first time.
+   */
+  public void onView(PatchSet.Id psId) {
+    State state = notViewed.asMap().remove(psId);
+    if (state == State.WARMED) {
+      firstViewWarm.increment();
+    } else if (state == State.QUEUED) {
+      firstViewCold.increment();
+    }
+  }
+
+  private void warm(Project.NameKey project, PatchSet.Id psId) throws Exception {
+    ChangeNotes notes = notesFactory.createChecked(project, psId.changeId());
+    PatchSet ps = notes.getPatchSets().get(psId);
+    if (ps == null) {
+      return;
+    }
+
+    Map<String, FileDiffOutput> files =
+        diffOperations.listModifiedFilesAgainstParent(
+            project, ps.commitId(), /* parentNum= */ 0, DiffOptions.DEFAULTS);
+    SortedMap<PatchSet.Id, PatchSet> earlier = notes.getPatchSets().headMap(psId);
+    if (!earlier.isEmpty()) {
+      diffOperations.listModifiedFiles(
+          project, earlier.get(earlier.lastKey()).commitId(), ps.commitId(), DiffOptions.DEFAULTS);
+    }
+
+    DiffPreferencesInfo prefs = DiffPreferencesInfo.defaults();
+    CurrentUser user = internalUserFactory.create();
+    for (String fileName : Iterables.limit(files.keySet(), MAX_FILES)) {
+      patchScriptFactoryFactory.create(notes, fileName, null, psId, prefs, user).call();
+    }
+  }
+
+  private class Task implements Runnable {
+    private final Project.NameKey project;
+    private final PatchSet.Id psId;
+
+    Task(Project.NameKey project, PatchSet.Id psId) {
+      this.project = project;
+      this.psId = psId;
+    }
+
+    @Override
+    public void run() {
+      try (Timer0.Context ignored = latency.start()) {
+        warm(project, psId);
+        notViewed.asMap().replace(psId, State.QUEUED, State.WARMED);
+      } catch (Exception e) {
+        notViewed.invalidate(psId);
+        logger.atWarning().withCause(e).log(
+            "Cannot warm diffs of change %s in project %s", psId, project);
+      } finally {
+        pending.decrementAndGet();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Warm diffs of change %s in project %s", psId, project);
+    }
+  }
+}
@@ -16,14 +16,18 @@
 package com.google.gerrit.server.patch;
 
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Patch;
 import com.google.gerrit.jgit.diff.ReplaceEdit;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -39,6 +43,7 @@ import java.util.stream.Collectors;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.MyersDiff;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 
 class IntraLineLoader implements Callable<IntraLineDiff> {
   static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -47,23 +52,36 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
     IntraLineLoader create(IntraLineDiffKey key, IntraLineDiffArgs args);
   }
 
+  /** How the characters of replaced lines are compared. */
+  enum Algorithm {
+    /** Myers diff of the characters. */
+    CHARACTER,
+
+    /** Histogram diff of words, whitespace and punctuation, see {@link TokenText}. */
+    HISTOGRAM_TOKEN
+  }
+
   private static final Pattern BLANK_LINE_RE =
       Pattern.compile("^[ \\t]*(|[{}]|/\\*\\*?|\\*)[ \\t]*$");
 
   private static final Pattern CONTROL_BLOCK_START_RE = Pattern.compile("[{:][ \\t]*$");
 
   private final ExecutorService diffExecutor;
+  private final Cache<ObjectId, TokenText> tokenCache;
   private final long timeoutMillis;
+  private final Algorithm algorithm;
   private final IntraLineDiffKey key;
   private final IntraLineDiffArgs args;
 
   @Inject
   IntraLineLoader(
       @DiffExecutor ExecutorService diffExecutor,
+      @Named(PatchListCacheImpl.INTRA_TOKENS_NAME) Cache<ObjectId, TokenText> tokenCache,
       @GerritServerConfig Config cfg,
       @Assisted IntraLineDiffKey key,
       @Assisted IntraLineDiffArgs args) {
     this.diffExecutor = diffExecutor;
+    this.tokenCache = tokenCache;
     timeoutMillis =
         ConfigUtil.getTimeUnit(
             cfg,
@@ -72,6 +90,13 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
             "timeout",
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    algorithm =
+        cfg.getEnum(
+            Algorithm.values(),
+            "cache",
+            PatchListCacheImpl.INTRA_NAME,
+            "algorithm",
+            Algorithm.CHARACTER);
     this.key = key;
     this.args = args;
   }
@@ -81,8 +106,16 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
     Future<IntraLineDiff> result =
         diffExecutor.submit(
             () ->
-                IntraLineLoader.compute(
-                    args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
+                algorithm == Algorithm.HISTOGRAM_TOKEN
+                    ? IntraLineLoader.compute(
+                        args.aText(),
+                        args.bText(),
+                        args.edits(),
+                        args.editsDueToRebase(),
+                        tokens(key.getBlobA(), args.aText()),
+                        tokens(key.getBlobB(), args.bText()))
+                    : IntraLineLoader.compute(
+                        args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
     try {
       return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
     } catch (InterruptedException | TimeoutException e) {
@@ -105,11 +138,40 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
     }
   }
 
+  /**
+   * Returns the tokens of a blob, from the cache if possible.
+   *
+   * <p>The sides of magic files are keyed by the ID of their commit, and their content also depends
+   * on what the commit is compared against, so their tokens are not cached.
+   */
+  private TokenText tokens(ObjectId id, Text text) throws ExecutionException {
+    if (Patch.isMagic(args.path()) || ObjectId.zeroId().equals(id)) {
+      return TokenText.create(text);
+    }
+    return tokenCache.get(id, () -> TokenText.create(text));
+  }
+
   static IntraLineDiff compute(
       Text aText,
       Text bText,
       ImmutableList<Edit> immutableEdits,
       ImmutableSet<Edit> immutableEditsDueToRebase) {
+    return compute(aText, bText, immutableEdits, immutableEditsDueToRebase, null, null);
+  }
+
+  /**
+   * Computes the intraline differences of the replaced lines in {@code immutableEdits}.
+   *
+   * <p>If the tokens of both texts are given, the lines are compared by tokens with {@link
+   * TokenText#diff}, otherwise by characters.
+   */
+  static IntraLineDiff compute(
+      Text aText,
+      Text bText,
+      ImmutableList<Edit> immutableEdits,
+      ImmutableSet<Edit> immutableEditsDueToRebase,
+      @Nullable TokenText aTokens,
+      @Nullable TokenText bTokens) {
     List<Edit> edits = new ArrayList<>(immutableEdits);
     combineLineEdits(edits, immutableEditsDueToRebase, aText, bText);
 
@@ -117,11 +179,21 @@ class IntraLineLoader implements Callable<IntraLineDiff> {
       Edit e = edits.get(i);
 
       if (e.getType() == Edit.Type.REPLACE) {
-        CharText a = new CharText(aText, e.getBeginA(), e.getEndA());
-        CharText b = new CharText(bText, e.getBeginB(), e.getEndB());
+        CharText a;
+        CharText b;
         CharTextComparator cmp = new CharTextComparator();
-
-        List<Edit> wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
+        List<Edit> wordEdits;
+        if (aTokens != null && bTokens != null) {
+          a = aTokens.charText(e.getBeginA(), e.getEndA());
+          b = bTokens.charText(e.getBeginB(), e.getEndB());
+          wordEdits =
+              TokenText.diff(
+                  aTokens, e.getBeginA(), e.getEndA(), bTokens, e.getBeginB(), e.getEndB());
+        } else {
+          a = new CharText(aText, e.getBeginA(), e.getEndA());
+          b = new CharText(bText, e.getBeginB(), e.getEndB());
+          wordEdits = MyersDiff.INSTANCE.diff(cmp, a, b);
+        }
 
         // Combine edits that are really close together. If they are
         // just a few characters apart we tend to get better results
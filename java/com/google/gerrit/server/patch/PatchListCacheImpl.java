@@ -28,6 +28,7 @@ import com.google.inject.name.Named;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 
 /** Provides a cached list of {@link PatchListEntry}. */
 @Singleton
@@ -35,6 +36,7 @@ public class PatchListCacheImpl implements PatchListCache {
   public static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   static final String INTRA_NAME = "diff_intraline";
+  static final String INTRA_TOKENS_NAME = "diff_intraline_tokens";
   static final String DIFF_SUMMARY = "diff_summary";
 
   public static Module module() {
@@ -45,6 +47,9 @@ public class PatchListCacheImpl implements PatchListCache {
         persist(INTRA_NAME, IntraLineDiffKey.class, IntraLineDiff.class)
             .maximumWeight(10 << 20)
             .weigher(IntraLineWeigher.class);
+        cache(INTRA_TOKENS_NAME, ObjectId.class, TokenText.class)
+            .maximumWeight(10 << 20)
+            .weigher(TokenText.Weigher.class);
 
         factory(DiffSummaryLoader.Factory.class);
         persist(DIFF_SUMMARY, DiffSummaryKey.class, DiffSummary.class)
@@ -0,0 +1,236 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.diff.SequenceComparator;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A text split into tokens for computing intraline differences by words instead of by characters.
+ *
+ * <p>A token is a run of letters, digits and underscores, a run of whitespace other than line
+ * feeds, or any other single character. Line feeds are tokens of their own, so that each line
+ * starts with a token. The text is split once and can be reused for all edits of all diffs of the
+ * same blob.
+ */
+class TokenText {
+  /**
+   * Maximum number of tokens of one side of a region that is diffed at once. The histogram diff
+   * takes quadratic time on regions in which most lines were changed.
+   */
+  static final int MAX_REGION_TOKENS = 10_000;
+
+  static TokenText create(Text text) {
+    String content = text.getString(0, text.size(), false);
+    int[] lineStarts = new int[text.size() + 1];
+    int[] lineFirstTokens = new int[text.size() + 1];
+    int[] tokenStarts = new int[content.length() + 1];
+    int line = 0;
+    int tokens = 0;
+    int i = 0;
+    while (i < content.length()) {
+      if (i == 0 || content.charAt(i - 1) == '\n') {
+        lineStarts[line] = i;
+        lineFirstTokens[line] = tokens;
+        line++;
+      }
+      tokenStarts[tokens++] = i;
+      i = tokenEnd(content, i);
+    }
+    lineStarts[line] = content.length();
+    lineFirstTokens[line] = tokens;
+    tokenStarts[tokens] = content.length();
+
+    int[] starts = new int[tokens + 1];
+    System.arraycopy(tokenStarts, 0, starts, 0, tokens + 1);
+    int[] hashes = new int[tokens];
+    for (int t = 0; t < tokens; t++) {
+      int h = 0;
+      for (int c = starts[t]; c < starts[t + 1]; c++) {
+        h = 31 * h + content.charAt(c);
+      }
+      hashes[t] = h;
+    }
+    return new TokenText(content, lineStarts, lineFirstTokens, starts, hashes);
+  }
+
+  private static int tokenEnd(String content, int i) {
+    char c = content.charAt(i);
+    if (isWordChar(c)) {
+      do {
+        i++;
+      } while (i < content.length() && isWordChar(content.charAt(i)));
+      return i;
+    }
+    if (c != '\n' && Character.isWhitespace(c)) {
+      do {
+        i++;
+      } while (i < content.length()
+          && content.charAt(i) != '\n'
+          && Character.isWhitespace(content.charAt(i)));
+      return i;
+    }
+    return i + 1;
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  private final String content;
+
+  /** Start of each line in {@link #content}, followed by the length of the content. */
+  private final int[] lineStarts;
+
+  /** Index of the first token of each line, followed by the number of tokens. */
+  private final int[] lineFirstTokens;
+
+  /** Start of each token in {@link #content}, followed by the length of the content. */
+  private final int[] tokenStarts;
+
+  private final int[] tokenHashes;
+
+  private TokenText(
+      String content,
+      int[] lineStarts,
+      int[] lineFirstTokens,
+      int[] tokenStarts,
+      int[] tokenHashes) {
+    this.content = content;
+    this.lineStarts = lineStarts;
+    this.lineFirstTokens = lineFirstTokens;
+    this.tokenStarts = tokenStarts;
+    this.tokenHashes = tokenHashes;
+  }
+
+  /** Returns the characters of the lines from {@code begin} (inclusive) to {@code end}. */
+  CharText charText(int begin, int end) {
+    return new CharText(content.substring(lineStarts[begin], lineStarts[end]));
+  }
+
+  /** Returns the approximate number of bytes used by this instance. */
+  int weight() {
+    return 2 * content.length() + 4 * (2 * lineStarts.length + 2 * tokenStarts.length);
+  }
+
+  /**
+   * Diffs the tokens of lines {@code [beginA, endA)} of {@code a} against the tokens of lines
+   * {@code [beginB, endB)} of {@code b}.
+   *
+   * <p>If a side has more than {@link #MAX_REGION_TOKENS} tokens and both sides have the same
+   * number of lines, like a block in which a name was changed, each line is diffed against the line
+   * at the same position. Otherwise such lines are replaced entirely.
+   *
+   * @return the edits, as character positions within the lines of each side like on the {@link
+   *     CharText} returned by {@link #charText(int, int)}.
+   */
+  static List<Edit> diff(TokenText a, int beginA, int endA, TokenText b, int beginB, int endB) {
+    List<Edit> result = new ArrayList<>();
+    diff(result, a, beginA, endA, a.lineStarts[beginA], b, beginB, endB, b.lineStarts[beginB]);
+    return result;
+  }
+
+  private static void diff(
+      List<Edit> result,
+      TokenText a,
+      int beginA,
+      int endA,
+      int offsetA,
+      TokenText b,
+      int beginB,
+      int endB,
+      int offsetB) {
+    Tokens ta = new Tokens(a, a.lineFirstTokens[beginA], a.lineFirstTokens[endA]);
+    Tokens tb = new Tokens(b, b.lineFirstTokens[beginB], b.lineFirstTokens[endB]);
+    if (ta.size() <= MAX_REGION_TOKENS && tb.size() <= MAX_REGION_TOKENS) {
+      HistogramDiff histogram = new HistogramDiff();
+      // Replace regions whose tokens repeat too often instead of falling back to Myers, which can
+      // take long on large regions.
+      histogram.setFallbackAlgorithm(null);
+      for (Edit e : histogram.diff(TokensComparator.INSTANCE, ta, tb)) {
+        result.add(
+            new Edit(
+                a.tokenStarts[ta.begin + e.getBeginA()] - offsetA,
+                a.tokenStarts[ta.begin + e.getEndA()] - offsetA,
+                b.tokenStarts[tb.begin + e.getBeginB()] - offsetB,
+                b.tokenStarts[tb.begin + e.getEndB()] - offsetB));
+      }
+    } else if (endA - beginA == endB - beginB && endA - beginA > 1) {
+      for (int i = 0; i < endA - beginA; i++) {
+        diff(
+            result, a, beginA + i, beginA + i + 1, offsetA, b, beginB + i, beginB + i + 1, offsetB);
+      }
+    } else {
+      result.add(
+          new Edit(
+              a.lineStarts[beginA] - offsetA,
+              a.lineStarts[endA] - offsetA,
+              b.lineStarts[beginB] - offsetB,
+              b.lineStarts[endB] - offsetB));
+    }
+  }
+
+  /** The tokens from {@code begin} (inclusive) to {@code end} of a text. */
+  private static class Tokens extends Sequence {
+    final TokenText text;
+    final int begin;
+    final int end;
+
+    Tokens(TokenText text, int begin, int end) {
+      this.text = text;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public int size() {
+      return end - begin;
+    }
+  }
+
+  private static class TokensComparator extends SequenceComparator<Tokens> {
+    static final TokensComparator INSTANCE = new TokensComparator();
+
+    @Override
+    public boolean equals(Tokens a, int ai, Tokens b, int bi) {
+      int i = a.begin + ai;
+      int j = b.begin + bi;
+      if (a.text.tokenHashes[i] != b.text.tokenHashes[j]) {
+        return false;
+      }
+      int start = a.text.tokenStarts[i];
+      int length = a.text.tokenStarts[i + 1] - start;
+      return length == b.text.tokenStarts[j + 1] - b.text.tokenStarts[j]
+          && a.text.content.regionMatches(start, b.text.content, b.text.tokenStarts[j], length);
+    }
+
+    @Override
+    public int hash(Tokens seq, int ptr) {
+      return seq.text.tokenHashes[seq.begin + ptr];
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<ObjectId, TokenText> {
+    @Override
+    public int weigh(ObjectId key, TokenText value) {
+      return 20 + value.weight();
+    }
+  }
+}
@@ -48,17 +48,23 @@ import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
@@ -155,9 +161,20 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
   }
 
   static class Loader extends CacheLoader<GitFileDiffCacheKey, GitFileDiff> {
+    /** Minimum number of files that each task of a parallel diff computation gets. */
+    private static final int MIN_FILES_PER_TASK = 50;
+
     private final GitRepositoryManager repoManager;
     private final ExecutorService diffExecutor;
     private final long timeoutMillis;
+    private final int parallelism;
+
+    /**
+     * Permits for tasks of parallel diff computations, so that all requests together use at most
+     * {@link #parallelism} threads of the diff executor.
+     */
+    private final Semaphore taskPermits;
+
     private final Metrics metrics;
 
     @Inject
@@ -176,6 +193,9 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
               "timeout",
               TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
               TimeUnit.MILLISECONDS);
+      this.parallelism =
+          cfg.getInt("cache", GIT_DIFF, "parallelism", Runtime.getRuntime().availableProcessors());
+      this.taskPermits = new Semaphore(Math.max(parallelism, 0));
       this.metrics = metrics;
     }
 
@@ -241,6 +261,7 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
       DiffFormatter formatter = createDiffFormatter(options, repo, reader);
       ListMultimap<String, DiffEntry> diffEntries =
           loadDiffEntries(formatter, options, filePaths.values());
+      List<GitFileDiffCacheKey> modified = new ArrayList<>();
       for (GitFileDiffCacheKey key : filePaths.keySet()) {
         String newFilePath = filePaths.get(key);
         if (!diffEntries.containsKey(newFilePath)) {
@@ -250,26 +271,111 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
                   AbbreviatedObjectId.fromObjectId(key.oldTree()),
                   AbbreviatedObjectId.fromObjectId(key.newTree()),
                   newFilePath));
-          continue;
-        }
-        List<DiffEntry> entries = diffEntries.get(newFilePath);
-        if (entries.size() == 1) {
-          result.put(key, createGitFileDiff(entries.get(0), formatter, key));
         } else {
-          // Handle when JGit returns two {Added, Deleted} entries for the same file. This happens,
-          // for example, when a file's mode is changed between patchsets (e.g. converting a
-          // symlink to a regular file). We combine both diff entries into a single entry with
-          // {changeType = Rewrite}.
-          List<GitFileDiff> gitDiffs = new ArrayList<>();
-          for (DiffEntry entry : diffEntries.get(newFilePath)) {
-            gitDiffs.add(createGitFileDiff(entry, formatter, key));
-          }
-          result.put(key, createRewriteEntry(gitDiffs));
+          modified.add(key);
+        }
+      }
+
+      Map<GitFileDiffCacheKey, GitFileDiff> computed =
+          modified.size() >= 2 * MIN_FILES_PER_TASK && parallelism > 1
+              ? loadInParallel(repo, options, diffEntries, modified)
+              : ImmutableMap.of();
+      result.putAll(computed);
+      for (GitFileDiffCacheKey key : modified) {
+        if (!computed.containsKey(key)) {
+          result.put(
+              key,
+              createGitFileDiff(
+                  key, diffEntries.get(key.newFilePath()), formatter, key.useTimeout()));
         }
       }
       return result.build();
     }
 
+    /**
+     * Computes the git file diffs of {@code keys} on the diff executor, so that large batches are
+     * diffed by several threads.
+     *
+     * <p>Up to {@link #parallelism} tasks take the next file from a shared list until all files are
+     * diffed. The tasks of all requests share {@link #taskPermits}, so a request gets fewer tasks,
+     * or none, while other requests use them. Each task uses its own {@link ObjectReader} and
+     * {@link DiffFormatter}, since neither is thread-safe. All tasks share one deadline of {@link
+     * #timeoutMillis}. When it passes, the tasks stop taking new files and the diffs computed so
+     * far are returned.
+     *
+     * @return the git file diffs of the keys whose computation finished before the deadline. The
+     *     caller computes the remaining ones one by one, which enforces the timeout per file.
+     */
+    private Map<GitFileDiffCacheKey, GitFileDiff> loadInParallel(
+        Repository repo,
+        DiffOptions options,
+        ListMultimap<String, DiffEntry> diffEntries,
+        List<GitFileDiffCacheKey> keys)
+        throws IOException, DiffNotAvailableException {
+      int wanted = Math.min(parallelism, keys.size() / MIN_FILES_PER_TASK);
+      int tasks = 0;
+      while (tasks < wanted && taskPermits.tryAcquire()) {
+        tasks++;
+      }
+      Map<GitFileDiffCacheKey, GitFileDiff> result = new ConcurrentHashMap<>();
+      AtomicInteger next = new AtomicInteger();
+      AtomicBoolean stopped = new AtomicBoolean();
+      List<Future<Void>> futures = new ArrayList<>(tasks);
+      for (int i = 0; i < tasks; i++) {
+        try {
+          futures.add(
+              diffExecutor.submit(
+                  () -> {
+                    try (ObjectReader reader = repo.newObjectReader()) {
+                      DiffFormatter formatter = createDiffFormatter(options, repo, reader);
+                      int k;
+                      while (!stopped.get() && (k = next.getAndIncrement()) < keys.size()) {
+                        GitFileDiffCacheKey key = keys.get(k);
+                        result.put(
+                            key,
+                            createGitFileDiff(
+                                key, diffEntries.get(key.newFilePath()), formatter, false));
+                      }
+                    } finally {
+                      taskPermits.release();
+                    }
+                    return null;
+                  }));
+        } catch (RejectedExecutionException e) {
+          // Continue with the tasks submitted so far, or let the caller diff all files.
+          taskPermits.release(tasks - i);
+          break;
+        }
+      }
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+        for (Future<Void> f : futures) {
+          f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+      } catch (InterruptedException e) {
+        // Don't let the caller diff the remaining files, since with the interrupt status set their
+        // diffs would time out immediately and be cached as negative results.
+        Thread.currentThread().interrupt();
+        stopped.set(true);
+        InterruptedIOException ie =
+            new InterruptedIOException("Interrupted while computing git file diffs");
+        ie.initCause(e);
+        throw ie;
+      } catch (TimeoutException e) {
+        // Tasks still running finish their current file, which may be stuck in an endless loop of
+        // the diff algorithm. Their files are diffed again with a timeout by the caller.
+        stopped.set(true);
+        return ImmutableMap.copyOf(result);
+      } catch (ExecutionException e) {
+        stopped.set(true);
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfInstanceOf(e.getCause(), DiffNotAvailableException.class);
+        throw new IOException(e.getMessage(), e.getCause());
+      }
+      return result;
+    }
+
     private static ListMultimap<String, DiffEntry> loadDiffEntries(
         DiffFormatter diffFormatter, DiffOptions diffOptions, Collection<String> filePaths)
         throws IOException {
@@ -321,9 +427,30 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
       }
     }
 
+    /** Creates the {@link GitFileDiff} of {@code key} from its non-empty list of diff entries. */
+    private GitFileDiff createGitFileDiff(
+        GitFileDiffCacheKey key,
+        List<DiffEntry> entries,
+        DiffFormatter formatter,
+        boolean useTimeout)
+        throws IOException, DiffNotAvailableException {
+      if (entries.size() == 1) {
+        return createGitFileDiff(entries.get(0), formatter, key, useTimeout);
+      }
+      // Handle when JGit returns two {Added, Deleted} entries for the same file. This happens, for
+      // example, when a file's mode is changed between patchsets (e.g. converting a symlink to a
+      // regular file). We combine both diff entries into a single entry with
+      // {changeType = Rewrite}.
+      List<GitFileDiff> gitDiffs = new ArrayList<>();
+      for (DiffEntry entry : entries) {
+        gitDiffs.add(createGitFileDiff(entry, formatter, key, useTimeout));
+      }
+      return createRewriteEntry(gitDiffs);
+    }
+
     /**
-     * Create a {@link GitFileDiff}. The result depends on the value of the {@code useTimeout} field
-     * of the {@code key} parameter.
+     * Create a {@link GitFileDiff}. The result depends on the value of the {@code useTimeout}
+     * parameter.
      *
      * <ul>
      *   <li>If {@code useTimeout} is true, the computation is performed with timeout enforcement
@@ -334,8 +461,9 @@ public class GitFileDiffCacheImpl implements GitFileDiffCache {
      *       timeout enforcement.
      */
     private GitFileDiff createGitFileDiff(
-        DiffEntry diffEntry, DiffFormatter formatter, GitFileDiffCacheKey key) throws IOException {
-      if (!key.useTimeout()) {
+        DiffEntry diffEntry, DiffFormatter formatter, GitFileDiffCacheKey key, boolean useTimeout)
+        throws IOException {
+      if (!useTimeout) {
         FileHeader fileHeader = formatter.toFileHeader(diffEntry);
         return GitFileDiff.create(diffEntry, fileHeader);
       }
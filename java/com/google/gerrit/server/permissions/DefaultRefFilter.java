@@ -45,8 +45,10 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -64,6 +66,7 @@ class DefaultRefFilter {
   private final ChangeNotes.Factory changeNotesFactory;
   private final PermissionBackend permissionBackend;
   private final RefVisibilityControl refVisibilityControl;
+  private final RefVisibilityIndex refVisibilityIndex;
   private final ProjectControl projectControl;
   private final CurrentUser user;
   private final ProjectState projectState;
@@ -81,6 +84,7 @@ class DefaultRefFilter {
       ChangeNotes.Factory changeNotesFactory,
       PermissionBackend permissionBackend,
       RefVisibilityControl refVisibilityControl,
+      RefVisibilityIndex refVisibilityIndex,
       @GerritServerConfig Config config,
       MetricMaker metricMaker,
       VisibleChangesCache.Factory visibleChangesCacheFactory,
@@ -89,6 +93,7 @@ class DefaultRefFilter {
     this.changeNotesFactory = changeNotesFactory;
     this.permissionBackend = permissionBackend;
     this.refVisibilityControl = refVisibilityControl;
+    this.refVisibilityIndex = refVisibilityIndex;
     this.skipFullRefEvaluationIfAllRefsAreVisible =
         config.getBoolean("auth", "skipFullRefEvaluationIfAllRefsAreVisible", true);
     this.projectControl = projectControl;
@@ -220,6 +225,11 @@ class DefaultRefFilter {
             .testOrFalse(GlobalPermission.ACCESS_DATABASE);
     ImmutableList.Builder<Ref> resultRefs = ImmutableList.builderWithExpectedSize(refs.size());
     ImmutableList.Builder<Ref> deferredTags = ImmutableList.builder();
+    // Plain refs are looked up in the index if the user's read access can be shared with other
+    // users. Bit i is set if the i-th indexable ref in refs is readable.
+    Optional<BitSet> readableRefs =
+        refVisibilityIndex.readableRefs(projectControl, indexableRefNames(refs, opts));
+    int indexableRefPos = 0;
     for (Ref ref : refs) {
       String refName = ref.getName();
       Change.Id changeId;
@@ -263,6 +273,13 @@ class DefaultRefFilter {
           // Change is visible
           resultRefs.add(ref);
         }
+      } else if (readableRefs.isPresent()
+          && RefVisibilityIndex.isIndexable(ref.getLeaf().getName())) {
+        if (readableRefs.get().get(indexableRefPos++)) {
+          resultRefs.add(ref);
+        } else {
+          logger.atFinest().log("Filter out non-readable ref %s", refName);
+        }
       } else if (refVisibilityControl.isVisible(projectControl, ref.getLeaf().getName())) {
         resultRefs.add(ref);
       }
@@ -272,6 +289,27 @@ class DefaultRefFilter {
     return result;
   }
 
+  /**
+   * Returns the names of the refs whose visibility {@link #filterRefs(List, RefFilterOptions)} can
+   * look up in the {@link RefVisibilityIndex}, in the order they are filtered.
+   */
+  private static List<String> indexableRefNames(List<Ref> refs, RefFilterOptions opts) {
+    List<String> names = new ArrayList<>();
+    for (Ref ref : refs) {
+      String refName = ref.getName();
+      if ((opts.filterMeta() && (RefNames.isRefsChanges(refName) || RefNames.isRefsEdit(refName)))
+          || isTag(ref)
+          || Change.Id.fromRef(refName) != null) {
+        continue;
+      }
+      String leafName = ref.getLeaf().getName();
+      if (RefVisibilityIndex.isIndexable(leafName)) {
+        names.add(leafName);
+      }
+    }
+    return names;
+  }
+
   /**
    * Returns all refs tag we regard as starting points for reachability computation for tags. In
    * general, these are all refs not managed by Gerrit excluding symbolic refs and tags.
@@ -37,6 +37,7 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.project.RefPattern;
 import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
 import com.google.gerrit.server.project.SectionMatcher;
+import com.google.gerrit.server.project.SectionMatcherAutomaton;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.util.ArrayList;
@@ -131,43 +132,63 @@ public class PermissionCollection {
     PermissionCollection filter(
         Iterable<SectionMatcher> matcherList, String ref, CurrentUser user) {
       try (Timer0.Context ignored = filterLatency.start()) {
-        if (isRE(ref)) {
-          if (!containsParameters(ref)) {
-            ref = RefPattern.shortestExample(ref);
-          }
-        } else if (ref.endsWith("/*")) {
-          ref = ref.substring(0, ref.length() - 1);
-        }
+        return filterNormalized(matcherList, normalize(ref), user);
+      }
+    }
+
+    /**
+     * Get all permissions that apply to a reference, like {@link #filter(Iterable, String,
+     * CurrentUser)}. Only the sections that {@code sections} returns as candidates for the
+     * reference are matched against it.
+     */
+    PermissionCollection filter(SectionMatcherAutomaton sections, String ref, CurrentUser user) {
+      try (Timer0.Context ignored = filterLatency.start()) {
+        ref = normalize(ref);
+        return filterNormalized(sections.candidates(ref), ref, user);
+      }
+    }
 
-        // LinkedHashMap to maintain input ordering.
-        Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
-        boolean perUser = filterRefMatchingSections(matcherList, ref, user, sectionToProject);
-        List<AccessSection> sections = Lists.newArrayList(sectionToProject.keySet());
+    private static String normalize(String ref) {
+      if (isRE(ref)) {
+        if (!containsParameters(ref)) {
+          return RefPattern.shortestExample(ref);
+        }
+      } else if (ref.endsWith("/*")) {
+        return ref.substring(0, ref.length() - 1);
+      }
+      return ref;
+    }
 
-        // Sort by ref pattern specificity. For equally specific patterns, the sections from the
-        // project closer to the current one come first.
-        sorter.sort(ref, sections);
+    private PermissionCollection filterNormalized(
+        Iterable<SectionMatcher> matcherList, String ref, CurrentUser user) {
+      // LinkedHashMap to maintain input ordering.
+      Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
+      boolean perUser = filterRefMatchingSections(matcherList, ref, user, sectionToProject);
+      List<AccessSection> sections = Lists.newArrayList(sectionToProject.keySet());
 
-        // For block permissions, we want a different order: first, we want to go from parent to
-        // child.
-        List<Map.Entry<AccessSection, Project.NameKey>> accessDescending =
-            Lists.reverse(Lists.newArrayList(sectionToProject.entrySet()));
+      // Sort by ref pattern specificity. For equally specific patterns, the sections from the
+      // project closer to the current one come first.
+      sorter.sort(ref, sections);
 
-        Map<Project.NameKey, List<AccessSection>> accessByProject =
-            accessDescending.stream()
-                .collect(
-                    Collectors.groupingBy(
-                        Map.Entry::getValue,
-                        LinkedHashMap::new,
-                        mapping(Map.Entry::getKey, toList())));
-        // Within each project, sort by ref specificity.
-        for (List<AccessSection> secs : accessByProject.values()) {
-          sorter.sort(ref, secs);
-        }
+      // For block permissions, we want a different order: first, we want to go from parent to
+      // child.
+      List<Map.Entry<AccessSection, Project.NameKey>> accessDescending =
+          Lists.reverse(Lists.newArrayList(sectionToProject.entrySet()));
 
-        return new PermissionCollection(
-            Lists.newArrayList(accessByProject.values()), sections, perUser);
+      Map<Project.NameKey, List<AccessSection>> accessByProject =
+          accessDescending.stream()
+              .collect(
+                  Collectors.groupingBy(
+                      Map.Entry::getValue,
+                      LinkedHashMap::new,
+                      mapping(Map.Entry::getKey, toList())));
+      // Within each project, sort by ref specificity.
+      for (List<AccessSection> secs : accessByProject.values()) {
+        sorter.sort(ref, secs);
       }
+
+      return new PermissionCollection(
+          Lists.newArrayList(accessByProject.values()), sections, perUser);
     }
   }
 
@@ -48,16 +48,17 @@ import com.google.gerrit.server.permissions.PermissionBackend.ForRef;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SectionMatcher;
+import com.google.gerrit.server.project.SectionMatcherAutomaton;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -79,8 +80,9 @@ class ProjectControl {
   private final ChangeData.Factory changeDataFactory;
   private final AllUsersName allUsersName;
 
-  private List<SectionMatcher> allSections;
-  private Map<String, RefControl> refControls;
+  // Instances are shared through the PerThreadCache with the tasks a request fans out to.
+  private final Map<String, RefControl> refControls = new ConcurrentHashMap<>();
+  private volatile SectionMatcherAutomaton allSections;
   private Boolean declaredOwner;
 
   @Inject
@@ -122,12 +124,9 @@ class ProjectControl {
   }
 
   public RefControl controlForRef(String refName) {
-    if (refControls == null) {
-      refControls = new HashMap<>();
-    }
     RefControl ctl = refControls.get(refName);
     if (ctl == null) {
-      PermissionCollection relevant = permissionFilter.filter(access(), refName, user);
+      PermissionCollection relevant = permissionFilter.filter(sections(), refName, user);
       ctl =
           new RefControl(
               changeDataFactory, refVisibilityControl, this, repositoryManager, refName, relevant);
@@ -322,8 +321,12 @@ class ProjectControl {
   }
 
   private List<SectionMatcher> access() {
+    return sections().sections();
+  }
+
+  private SectionMatcherAutomaton sections() {
     if (allSections == null) {
-      allSections = state.getAllSections();
+      allSections = state.getAllSectionsAutomaton();
     }
     return allSections;
   }
@@ -0,0 +1,189 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.PermissionRule;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.RefPattern;
+import com.google.gerrit.server.project.SectionMatcher;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches which plain refs of a project are readable, shared by all users with the same relevant
+ * group memberships.
+ *
+ * <p>Read access to a ref that is neither a tag nor managed by Gerrit only depends on the access
+ * sections of the project hierarchy and on which of the groups named in their READ rules the user
+ * is a member of. For a given list of ref names, the readable refs are stored as a {@link BitSet}
+ * keyed by the config revisions of the project hierarchy, a hash of the ref names and the subset of
+ * those groups that contain the user. Advertising the same refs to another user with the same
+ * memberships is then a bit lookup per ref instead of a permission evaluation.
+ *
+ * <p>Change refs are not covered: their visibility depends on the individual user (e.g. as owner or
+ * reviewer of a private change) and is evaluated through {@link VisibleChangesCache}.
+ */
+@Singleton
+public class RefVisibilityIndex {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CACHE_NAME = "ref_visibility";
+
+  /**
+   * Minimum number of refs for which the index is used. Shorter lists are cheap to evaluate
+   * directly and would only churn the cache.
+   */
+  static final int MIN_REFS = 100;
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, BitSet.class).maximumWeight(32 << 20).weigher(Weigher.class);
+        bind(RefVisibilityIndex.class);
+      }
+    };
+  }
+
+  private final Cache<Key, BitSet> cache;
+
+  @Inject
+  RefVisibilityIndex(@Named(CACHE_NAME) Cache<Key, BitSet> cache) {
+    this.cache = cache;
+  }
+
+  /** Returns true if the visibility of {@code refName} can be looked up in the index. */
+  static boolean isIndexable(String refName) {
+    return !refName.startsWith(Constants.R_TAGS) && !RefNames.isGerritRef(refName);
+  }
+
+  /**
+   * Returns the positions of the readable refs in {@code refNames} for the user of {@code
+   * projectControl}, or empty if the user's access can't be shared with other users.
+   *
+   * @param projectControl control of the user for the project the refs belong to.
+   * @param refNames names of refs for which {@link #isIndexable(String)} is true.
+   */
+  Optional<BitSet> readableRefs(ProjectControl projectControl, List<String> refNames) {
+    if (refNames.size() < MIN_REFS || projectControl.getUser().isInternalUser()) {
+      return Optional.empty();
+    }
+    Optional<Key> key = Key.create(projectControl, refNames);
+    if (!key.isPresent()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(
+          cache.get(
+              key.get(),
+              () -> {
+                BitSet readable = new BitSet(refNames.size());
+                for (int i = 0; i < refNames.size(); i++) {
+                  if (projectControl.controlForRef(refNames.get(i)).hasReadPermissionOnRef(false)) {
+                    readable.set(i);
+                  }
+                }
+                return readable;
+              }));
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot compute readable refs of %s", projectControl.getProject().getName());
+      return Optional.empty();
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    /** Revisions of the project configs, starting from the project up to All-Projects. */
+    abstract ImmutableList<ObjectId> configRevisions();
+
+    /** Hash of the ref names, in the order of the bits in the value. */
+    abstract HashCode refNames();
+
+    /** Groups named in READ rules that contain the user. */
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    /**
+     * Creates the key for the user of {@code projectControl}, or empty if read access depends on
+     * more than the user's group memberships.
+     */
+    static Optional<Key> create(ProjectControl projectControl, List<String> refNames) {
+      ProjectState projectState = projectControl.getProjectState();
+      ImmutableSet.Builder<AccountGroup.UUID> groups = ImmutableSet.builder();
+      for (SectionMatcher matcher : projectState.getAllSections()) {
+        if (RefPattern.containsParameters(matcher.getSection().getName())) {
+          // The pattern is expanded with the user name.
+          return Optional.empty();
+        }
+        Permission read = matcher.getSection().getPermission(Permission.READ);
+        if (read == null) {
+          continue;
+        }
+        for (PermissionRule rule : read.getRules()) {
+          AccountGroup.UUID uuid = rule.getGroup().getUUID();
+          if (uuid != null && projectControl.match(rule, false)) {
+            groups.add(uuid);
+          }
+        }
+      }
+
+      ImmutableList.Builder<ObjectId> revisions = ImmutableList.builder();
+      for (ProjectState s : projectState.tree()) {
+        revisions.add(s.getConfig().getRevision().orElse(ObjectId.zeroId()));
+      }
+
+      Hasher h = Hashing.sha256().newHasher();
+      for (String name : refNames) {
+        h.putString(name, UTF_8).putByte((byte) 0);
+      }
+
+      return Optional.of(
+          new AutoValue_RefVisibilityIndex_Key(
+              projectState.getNameKey(), revisions.build(), h.hash(), groups.build()));
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Key, BitSet> {
+    @Override
+    public int weigh(Key key, BitSet value) {
+      return 64 + 20 * key.configRevisions().size() + 32 * key.groups().size() + value.size() / 8;
+    }
+  }
+}
@@ -89,6 +89,9 @@ public class ProjectState {
   /** Local access sections, wrapped in SectionMatchers for faster evaluation. */
   private volatile List<SectionMatcher> localAccessSections;
 
+  /** Automaton of all local and inherited sections, rebuilt if an inherited config changes. */
+  private volatile SectionMatcherAutomaton allSectionsAutomaton;
+
   /** If this is all projects, the capabilities used by the server. */
   private final CapabilityCollection capabilities;
 
@@ -315,6 +318,29 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * Obtain all local and inherited sections, combined into an automaton that finds the sections
+   * matching a ref. The automaton is cached until the config of the project or one of its parents
+   * changes.
+   */
+  public SectionMatcherAutomaton getAllSectionsAutomaton() {
+    List<List<SectionMatcher>> local = new ArrayList<>();
+    if (isAllProjects) {
+      local.add(getLocalAccessSections());
+    } else {
+      for (ProjectState s : tree()) {
+        local.add(s.getLocalAccessSections());
+      }
+    }
+
+    SectionMatcherAutomaton a = allSectionsAutomaton;
+    if (a == null || !a.isCreatedFrom(local)) {
+      a = SectionMatcherAutomaton.create(local);
+      allSectionsAutomaton = a;
+    }
+    return a;
+  }
+
   /**
    * Returns all {@link AccountGroup}'s to which the owner privilege for 'refs/*' is assigned for
    * this project (the local owners), if there are no local owners the local owners of the nearest
@@ -21,6 +21,7 @@ import static com.google.gerrit.server.project.RefPattern.isRE;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Streams;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.ParameterizedString;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.RefNames;
@@ -46,6 +47,15 @@ public abstract class RefPatternMatcher {
 
   public abstract boolean match(String ref, CurrentUser user);
 
+  /**
+   * Returns an automaton that accepts exactly the ref names this matcher matches, or {@code null}
+   * if the matcher can't be expressed as one, e.g. because it depends on the user.
+   */
+  @Nullable
+  Automaton toAutomaton() {
+    return null;
+  }
+
   private static class Exact extends RefPatternMatcher {
     private final String expect;
 
@@ -57,6 +67,11 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return expect.equals(ref);
     }
+
+    @Override
+    Automaton toAutomaton() {
+      return Automaton.makeString(expect);
+    }
   }
 
   private static class Prefix extends RefPatternMatcher {
@@ -70,6 +85,11 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return ref.startsWith(prefix);
     }
+
+    @Override
+    Automaton toAutomaton() {
+      return Automaton.makeString(prefix).concatenate(Automaton.makeAnyString());
+    }
   }
 
   private static class Regexp extends RefPatternMatcher {
@@ -83,6 +103,60 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return pattern.matcher(ref).matches() || (isRE(ref) && pattern.pattern().equals(ref));
     }
+
+    @Override
+    Automaton toAutomaton() {
+      String re = pattern.pattern();
+      if (!hasSameSemantics(isRE(re) ? re.substring(1) : re)) {
+        return null;
+      }
+      try {
+        return RefPattern.toRegExp(re).toAutomaton();
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+
+    /**
+     * Returns whether {@code re} only uses syntax that {@link java.util.regex.Pattern} and {@link
+     * dk.brics.automaton.RegExp} interpret the same way, so that both accept the same ref names.
+     *
+     * <p>Anchors, predefined character classes, back references, flags, possessive quantifiers and
+     * nested character classes are only supported by {@link java.util.regex.Pattern}, while {@code
+     * "} quotes a string for {@link dk.brics.automaton.RegExp}.
+     */
+    private static boolean hasSameSemantics(String re) {
+      boolean inClass = false;
+      for (int i = 0; i < re.length(); i++) {
+        char c = re.charAt(i);
+        char next = i + 1 < re.length() ? re.charAt(i + 1) : 0;
+        if (c == '\\') {
+          if (next == 0 || Character.isLetterOrDigit(next)) {
+            return false;
+          }
+          i++;
+        } else if (inClass) {
+          if (c == '[' || c == '&') {
+            return false;
+          }
+          inClass = c != ']';
+        } else if (c == '[') {
+          if (next == '^') {
+            i++;
+            next = i + 1 < re.length() ? re.charAt(i + 1) : 0;
+          }
+          if (next == ']') {
+            return false;
+          }
+          inClass = true;
+        } else if (c == '^' || c == '$' || c == '"' || (c == '(' && next == '?')) {
+          return false;
+        } else if ((c == '*' || c == '+' || c == '?' || c == '}') && next == '+') {
+          return false;
+        }
+      }
+      return !inClass;
+    }
   }
 
   public static class ExpandParameters extends RefPatternMatcher {
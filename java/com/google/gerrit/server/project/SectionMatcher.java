@@ -17,6 +17,7 @@ package com.google.gerrit.server.project;
 import com.google.gerrit.entities.AccessSection;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.CurrentUser;
+import dk.brics.automaton.Automaton;
 
 /**
  * Matches an AccessSection against a reference name.
@@ -48,6 +49,11 @@ public class SectionMatcher extends RefPatternMatcher {
     return this.matcher.match(ref, user);
   }
 
+  @Override
+  Automaton toAutomaton() {
+    return matcher.toAutomaton();
+  }
+
   public AccessSection getSection() {
     return section;
   }
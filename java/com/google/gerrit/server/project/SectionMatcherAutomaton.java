@@ -0,0 +1,328 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.gerrit.server.project.RefPattern.isRE;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds the access sections of a project hierarchy whose ref pattern matches a ref name.
+ *
+ * <p>The patterns of the sections are combined into one deterministic automaton, whose states know
+ * which patterns accept the input read so far. Finding the candidate sections for a ref is then a
+ * single pass over the ref name instead of matching the ref against each section.
+ *
+ * <p>Sections whose pattern depends on the user, and regular expressions that the automaton library
+ * interprets differently from {@link java.util.regex.Pattern}, are not part of the automaton and
+ * are always returned as candidates. If the combined automaton gets too large, all sections are
+ * candidates.
+ */
+public class SectionMatcherAutomaton {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Maximum number of states of the combined automaton. */
+  private static final int MAX_STATES = 10_000;
+
+  /**
+   * Creates the automaton for the sections of a project hierarchy.
+   *
+   * @param localSections local sections of each project, starting from the project up to
+   *     All-Projects, as returned by {@link ProjectState#getLocalAccessSections()}.
+   */
+  static SectionMatcherAutomaton create(List<? extends List<SectionMatcher>> localSections) {
+    ImmutableList.Builder<SectionMatcher> sections = ImmutableList.builder();
+    for (List<SectionMatcher> l : localSections) {
+      sections.addAll(l);
+    }
+    return new SectionMatcherAutomaton(ImmutableList.copyOf(localSections), sections.build());
+  }
+
+  private final ImmutableList<List<SectionMatcher>> localSections;
+  private final ImmutableList<SectionMatcher> sections;
+
+  /** Positions of the sections that are not part of the automaton. */
+  private final BitSet uncompiled = new BitSet();
+
+  /**
+   * Transitions of each state of the combined automaton, as sorted, disjoint character ranges
+   * {@code [min[s][i], max[s][i]]} leading to state {@code dest[s][i]}. State 0 is the initial
+   * state. Null if the automaton wasn't built.
+   */
+  @Nullable private final char[][] min;
+
+  @Nullable private final char[][] max;
+  @Nullable private final int[][] dest;
+
+  /** Positions of the sections whose pattern accepts in each state. */
+  @Nullable private final BitSet[] accept;
+
+  private SectionMatcherAutomaton(
+      ImmutableList<List<SectionMatcher>> localSections, ImmutableList<SectionMatcher> sections) {
+    this.localSections = localSections;
+    this.sections = sections;
+
+    List<Integer> positions = new ArrayList<>();
+    List<Automaton> automata = new ArrayList<>();
+    for (int i = 0; i < sections.size(); i++) {
+      Automaton a = sections.get(i).toAutomaton();
+      if (a == null) {
+        uncompiled.set(i);
+      } else {
+        a.minimize();
+        positions.add(i);
+        automata.add(a);
+      }
+    }
+
+    Builder b = new Builder(positions, automata);
+    if (b.build()) {
+      int n = b.transitions.size();
+      min = new char[n][];
+      max = new char[n][];
+      dest = new int[n][];
+      accept = b.accept.toArray(new BitSet[n]);
+      for (int s = 0; s < n; s++) {
+        List<int[]> t = b.transitions.get(s);
+        min[s] = new char[t.size()];
+        max[s] = new char[t.size()];
+        dest[s] = new int[t.size()];
+        for (int i = 0; i < t.size(); i++) {
+          min[s][i] = (char) t.get(i)[0];
+          max[s][i] = (char) t.get(i)[1];
+          dest[s][i] = t.get(i)[2];
+        }
+      }
+    } else {
+      logger.atFine().log(
+          "Not combining %d ref patterns, automaton exceeds %d states",
+          sections.size(), MAX_STATES);
+      min = null;
+      max = null;
+      dest = null;
+      accept = null;
+    }
+  }
+
+  /** Returns all sections, in the order of {@link ProjectState#getAllSections()}. */
+  public ImmutableList<SectionMatcher> sections() {
+    return sections;
+  }
+
+  /**
+   * Returns whether this automaton was created from {@code localSections}, comparing the lists of
+   * sections by identity. {@link ProjectState} keeps the same list as long as a project's config
+   * doesn't change.
+   */
+  boolean isCreatedFrom(List<? extends List<SectionMatcher>> localSections) {
+    if (localSections.size() != this.localSections.size()) {
+      return false;
+    }
+    for (int i = 0; i < localSections.size(); i++) {
+      if (localSections.get(i) != this.localSections.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the sections that may match {@code ref}, in their original order.
+   *
+   * <p>The result contains the sections whose pattern matches {@code ref} and the sections that are
+   * not part of the automaton. Callers still have to match the returned sections against the ref,
+   * which is cheap for the few sections that are usually returned.
+   */
+  public Iterable<SectionMatcher> candidates(String ref) {
+    if (min == null || !isSupported(ref)) {
+      return sections;
+    }
+    BitSet matching = (BitSet) uncompiled.clone();
+    int s = 0;
+    for (int i = 0; i < ref.length(); i++) {
+      s = step(s, ref.charAt(i));
+      if (s < 0) {
+        break;
+      }
+    }
+    if (s >= 0) {
+      matching.or(accept[s]);
+    }
+    List<SectionMatcher> result = new ArrayList<>(matching.cardinality());
+    for (int i = matching.nextSetBit(0); i >= 0; i = matching.nextSetBit(i + 1)) {
+      result.add(sections.get(i));
+    }
+    return result;
+  }
+
+  private int step(int s, char c) {
+    int i = Arrays.binarySearch(min[s], c);
+    if (i < 0) {
+      // Index of the last range starting before c.
+      i = -i - 2;
+    }
+    return i >= 0 && c <= max[s][i] ? dest[s][i] : -1;
+  }
+
+  /**
+   * Returns whether the automaton matches {@code ref} like {@link java.util.regex.Pattern} does.
+   *
+   * <p>Regular expressions are applied to ref names, and don't match a regular expression used as
+   * ref name. The automaton works on UTF-16 chars, while {@link java.util.regex.Pattern} matches
+   * code points and doesn't match line terminators with {@code .}.
+   */
+  private static boolean isSupported(String ref) {
+    if (isRE(ref)) {
+      return false;
+    }
+    for (int i = 0; i < ref.length(); i++) {
+      char c = ref.charAt(i);
+      if (Character.isSurrogate(c)
+          || c == '\n'
+          || c == '\r'
+          || c == '\u0085'
+          || c == '\u2028'
+          || c == '\u2029') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Builds the product of the automata of all patterns, from the initial state on. */
+  private static class Builder {
+    private final List<Integer> positions;
+    private final List<State> initialStates = new ArrayList<>();
+    private final List<List<State>> states = new ArrayList<>();
+    private final List<Map<State, Integer>> stateIds = new ArrayList<>();
+    private final Map<Key, Integer> ids = new HashMap<>();
+    private final Deque<Key> pending = new ArrayDeque<>();
+
+    final List<List<int[]>> transitions = new ArrayList<>();
+    final List<BitSet> accept = new ArrayList<>();
+
+    Builder(List<Integer> positions, List<Automaton> automata) {
+      this.positions = positions;
+      for (Automaton a : automata) {
+        List<State> l = new ArrayList<>(a.getStates());
+        Map<State, Integer> m = new HashMap<>();
+        for (int i = 0; i < l.size(); i++) {
+          m.put(l.get(i), i);
+        }
+        initialStates.add(a.getInitialState());
+        states.add(l);
+        stateIds.add(m);
+      }
+    }
+
+    /** Returns false if the product has more than {@link #MAX_STATES} states. */
+    boolean build() {
+      int[] initial = new int[states.size()];
+      for (int j = 0; j < initial.length; j++) {
+        initial[j] = stateIds.get(j).get(initialStates.get(j));
+      }
+      id(new Key(initial));
+
+      while (!pending.isEmpty()) {
+        if (ids.size() > MAX_STATES) {
+          return false;
+        }
+        Key k = pending.removeFirst();
+        int s = ids.get(k);
+
+        TreeSet<Integer> points = new TreeSet<>();
+        for (int j = 0; j < k.states.length; j++) {
+          if (k.states[j] >= 0) {
+            for (Transition t : states.get(j).get(k.states[j]).getTransitions()) {
+              points.add((int) t.getMin());
+              points.add(t.getMax() + 1);
+            }
+          }
+        }
+
+        List<int[]> out = new ArrayList<>();
+        Integer[] p = points.toArray(new Integer[0]);
+        for (int i = 0; i + 1 < p.length; i++) {
+          char c = (char) p[i].intValue();
+          int[] next = new int[k.states.length];
+          boolean alive = false;
+          for (int j = 0; j < next.length; j++) {
+            State n = k.states[j] >= 0 ? states.get(j).get(k.states[j]).step(c) : null;
+            next[j] = n != null ? stateIds.get(j).get(n) : -1;
+            alive |= next[j] >= 0;
+          }
+          if (alive) {
+            out.add(new int[] {p[i], p[i + 1] - 1, id(new Key(next))});
+          }
+        }
+        transitions.set(s, out);
+      }
+      return true;
+    }
+
+    private int id(Key k) {
+      Integer id = ids.get(k);
+      if (id == null) {
+        id = ids.size();
+        ids.put(k, id);
+        pending.addLast(k);
+        transitions.add(null);
+        BitSet a = new BitSet();
+        for (int j = 0; j < k.states.length; j++) {
+          if (k.states[j] >= 0 && states.get(j).get(k.states[j]).isAccept()) {
+            a.set(positions.get(j));
+          }
+        }
+        accept.add(a);
+      }
+      return id;
+    }
+  }
+
+  /** State of the product automaton: the state of each pattern's automaton, or -1 if dead. */
+  private static class Key {
+    final int[] states;
+    private final int hash;
+
+    Key(int[] states) {
+      this.states = states;
+      this.hash = Arrays.hashCode(states);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && Arrays.equals(states, ((Key) o).states);
+    }
+  }
+}
@@ -14,16 +14,31 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.query.AndSource;
 import com.google.gerrit.index.query.IsVisibleToPredicate;
 import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class AndChangeSource extends AndSource<ChangeData> implements ChangeDataSource {
+  @Nullable private final Executor executor;
+  @Nullable private final ThreadLocalRequestContext requestContext;
 
   public AndChangeSource(Collection<Predicate<ChangeData>> that) {
     super(that);
+    this.executor = null;
+    this.requestContext = null;
   }
 
   public AndChangeSource(
@@ -31,6 +46,29 @@ public class AndChangeSource extends AndSource<ChangeData> implements ChangeData
       IsVisibleToPredicate<ChangeData> isVisibleToPredicate,
       int start) {
     super(that, isVisibleToPredicate, start);
+    this.executor = null;
+    this.requestContext = null;
+  }
+
+  /**
+   * Creates a source that reads its results in streaming mode and checks the results of each chunk
+   * concurrently on {@code executor}.
+   *
+   * @param chunkSize number of results that are read and checked at once, see {@link
+   *     AndSource#AndSource(Collection, IsVisibleToPredicate, int, int)}.
+   * @param executor executor to check results on.
+   * @param requestContext request context, which is propagated to the threads of {@code executor}.
+   */
+  public AndChangeSource(
+      Predicate<ChangeData> that,
+      IsVisibleToPredicate<ChangeData> isVisibleToPredicate,
+      int start,
+      int chunkSize,
+      Executor executor,
+      ThreadLocalRequestContext requestContext) {
+    super(ImmutableList.of(that), isVisibleToPredicate, start, chunkSize);
+    this.executor = executor;
+    this.requestContext = requestContext;
   }
 
   @Override
@@ -46,6 +84,47 @@ public class AndChangeSource extends AndSource<ChangeData> implements ChangeData
     return super.transformBuffer(buffer);
   }
 
+  @Override
+  protected List<ChangeData> filter(List<ChangeData> chunk) {
+    if (executor == null || chunk.size() < 2) {
+      return super.filter(chunk);
+    }
+
+    RequestContext context = requestContext.getContext();
+    List<FutureTask<Boolean>> tasks = new ArrayList<>(chunk.size());
+    for (ChangeData cd : chunk) {
+      FutureTask<Boolean> task = new FutureTask<>(() -> match(context, cd));
+      tasks.add(task);
+      executor.execute(task);
+    }
+
+    List<ChangeData> matches = new ArrayList<>(chunk.size());
+    for (int i = 0; i < chunk.size(); i++) {
+      FutureTask<Boolean> task = tasks.get(i);
+      // Run the task here if no thread of the executor started it yet, so that a query which runs
+      // on the executor itself never waits for tasks that are queued behind it.
+      task.run();
+      try {
+        if (Uninterruptibles.getUninterruptibly(task)) {
+          matches.add(chunk.get(i));
+        }
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new StorageException(e.getCause());
+      }
+    }
+    return matches;
+  }
+
+  private boolean match(RequestContext context, ChangeData cd) {
+    RequestContext old = requestContext.setContext(context);
+    try {
+      return match(cd);
+    } finally {
+      requestContext.setContext(old);
+    }
+  }
+
   @Override
   public int compare(Predicate<ChangeData> a, Predicate<ChangeData> b) {
     int cmp = super.compare(a, b);
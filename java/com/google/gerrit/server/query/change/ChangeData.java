@@ -78,6 +78,7 @@ import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.MergeUtil;
 import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.notedb.RobotCommentNotes;
 import com.google.gerrit.server.patch.DiffSummary;
 import com.google.gerrit.server.patch.DiffSummaryKey;
@@ -101,6 +102,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -165,6 +167,38 @@ public class ChangeData {
     }
   }
 
+  /**
+   * Loads the notes of all changes that don't have them yet. Changes of the same project are loaded
+   * together with {@link ChangeNotes.Factory#createAll}. Changes that fail to load are left
+   * unloaded, so that the error is reported when their notes are accessed.
+   */
+  public static void ensureNotesLoaded(Iterable<ChangeData> changes) {
+    ChangeData first = Iterables.getFirst(changes, null);
+    if (first == null) {
+      return;
+    }
+
+    Map<Project.NameKey, Map<Change.Id, ChangeData>> pending = new HashMap<>();
+    for (ChangeData cd : changes) {
+      if (cd.notes == null && cd.lazyload()) {
+        pending.computeIfAbsent(cd.project(), p -> new LinkedHashMap<>()).put(cd.getId(), cd);
+      }
+    }
+    for (Map.Entry<Project.NameKey, Map<Change.Id, ChangeData>> e : pending.entrySet()) {
+      Project.NameKey project = e.getKey();
+      Map<Change.Id, ChangeData> byId = e.getValue();
+      try (Repository repo = first.repoManager.openRepository(project)) {
+        for (ChangeNotesResult r : first.notesFactory.createAll(repo, project, byId.keySet())) {
+          if (!r.error().isPresent()) {
+            byId.get(r.id()).notes = r.notes();
+          }
+        }
+      } catch (IOException ex) {
+        logger.atWarning().withCause(ex).log("Cannot load changes of project %s", project);
+      }
+    }
+  }
+
   public static void ensureAllPatchSetsLoaded(Iterable<ChangeData> changes) {
     ChangeData first = Iterables.getFirst(changes, null);
     if (first == null) {
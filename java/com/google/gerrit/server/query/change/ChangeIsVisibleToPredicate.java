@@ -15,6 +15,7 @@
 package com.google.gerrit.server.query.change;
 
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.restapi.AuthException;
@@ -26,6 +27,7 @@ import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
@@ -45,18 +47,23 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
   protected final PermissionBackend permissionBackend;
   protected final ProjectCache projectCache;
   private final Provider<AnonymousUser> anonymousUserProvider;
+  @Nullable private final ChangeVisibilityMemo.ForUser visibilityMemo;
 
   @Inject
   public ChangeIsVisibleToPredicate(
       PermissionBackend permissionBackend,
       ProjectCache projectCache,
       Provider<AnonymousUser> anonymousUserProvider,
+      ChangeVisibilityMemo visibilityMemo,
       @Assisted CurrentUser user) {
     super(ChangeQueryBuilder.FIELD_VISIBLETO, IndexUtils.describe(user));
     this.user = user;
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
     this.anonymousUserProvider = anonymousUserProvider;
+    // Other permission backends may decide on the visibility of each change individually.
+    this.visibilityMemo =
+        permissionBackend.usesDefaultCapabilities() ? visibilityMemo.forUser(user) : null;
   }
 
   @Override
@@ -87,7 +94,23 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
                     .filter(u -> u instanceof GroupBackedUser || u instanceof InternalUser)
                     .orElseGet(anonymousUserProvider::get));
     try {
-      withUser.change(cd).check(ChangePermission.READ);
+      if (visibilityMemo != null && !change.isPrivate()) {
+        // Unless the change is private, it is visible exactly if its destination branch is
+        // readable, which is the same for all changes of the branch.
+        if (!visibilityMemo.canRead(
+            projectState.get(),
+            change.getDest(),
+            () ->
+                withUser
+                    .project(change.getProject())
+                    .ref(change.getDest().branch())
+                    .testOrFalse(RefPermission.READ))) {
+          logger.atFine().log("Filter out change %s on non-readable branch", cd);
+          return false;
+        }
+      } else {
+        withUser.change(cd).check(ChangePermission.READ);
+      }
     } catch (PermissionBackendException e) {
       Throwable cause = e.getCause();
       if (cause instanceof RepositoryNotFoundException) {
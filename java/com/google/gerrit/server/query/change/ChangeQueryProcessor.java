@@ -31,6 +31,7 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.DynamicOptions.DynamicBean;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.account.AccountLimits;
 import com.google.gerrit.server.change.ChangePluginDefinedInfoFactory;
 import com.google.gerrit.server.change.PluginDefinedAttributesFactories;
@@ -39,6 +40,7 @@ import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.index.change.IndexedChangeQuery;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.ArrayList;
@@ -47,6 +49,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Query processor for the change index.
@@ -58,6 +61,9 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     implements DynamicOptions.BeanReceiver, DynamicOptions.BeanProvider, PluginDefinedInfosFactory {
   private final Provider<CurrentUser> userProvider;
   private final ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory;
+  private final int visibilityChunkSize;
+  private final ExecutorService fanOutExecutor;
+  private final ThreadLocalRequestContext requestContext;
   private final Map<String, DynamicBean> dynamicBeans = new HashMap<>();
   private final List<Extension<ChangePluginDefinedInfoFactory>>
       changePluginDefinedInfoFactoriesByPlugin = new ArrayList<>();
@@ -78,7 +84,9 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
       ChangeIndexCollection indexes,
       ChangeIndexRewriter rewriter,
       ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory,
-      DynamicSet<ChangePluginDefinedInfoFactory> changePluginDefinedInfoFactories) {
+      DynamicSet<ChangePluginDefinedInfoFactory> changePluginDefinedInfoFactories,
+      @FanOutExecutor ExecutorService fanOutExecutor,
+      ThreadLocalRequestContext requestContext) {
     super(
         metricMaker,
         ChangeSchemaDefinitions.INSTANCE,
@@ -89,6 +97,9 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
         () -> limitsFactory.create(userProvider.get()).getQueryLimit());
     this.userProvider = userProvider;
     this.changeIsVisibleToPredicateFactory = changeIsVisibleToPredicateFactory;
+    this.visibilityChunkSize = indexConfig.visibilityChunkSize();
+    this.fanOutExecutor = fanOutExecutor;
+    this.requestContext = requestContext;
 
     changePluginDefinedInfoFactories
         .entries()
@@ -130,8 +141,13 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
 
   @Override
   protected Predicate<ChangeData> enforceVisibility(Predicate<ChangeData> pred) {
-    return new AndChangeSource(
-        pred, changeIsVisibleToPredicateFactory.forUser(userProvider.get()), start);
+    ChangeIsVisibleToPredicate isVisible =
+        changeIsVisibleToPredicateFactory.forUser(userProvider.get());
+    if (visibilityChunkSize > 0) {
+      return new AndChangeSource(
+          pred, isVisible, start, visibilityChunkSize, fanOutExecutor, requestContext);
+    }
+    return new AndChangeSource(pred, isVisible, start);
   }
 
   @Override
@@ -0,0 +1,197 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.ServiceUserClassifier;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Memoizes whether a user can read the destination branch of changes.
+ *
+ * <p>Unless a change is private, it is visible to a user exactly if the user can read its
+ * destination branch. Query results often contain many changes of the same branch, so {@link
+ * ChangeIsVisibleToPredicate} evaluates the permission once per branch and query instead of once
+ * per change.
+ *
+ * <p>Service users, e.g. CI systems, tend to run the same queries over and over. For them the
+ * answers are also shared across queries, keyed by the account, its groups and the config revisions
+ * of the project hierarchy, so that they become unused as soon as the user's groups or the access
+ * rights change. Only the groups returned by {@link
+ * com.google.gerrit.server.account.GroupMembership#getKnownGroups()} are part of the key. Group
+ * backends may not enumerate all groups of a user, e.g. groups of external systems, so changes of
+ * such memberships may take effect only once the cached answers expired.
+ */
+@Singleton
+public class ChangeVisibilityMemo {
+  static final String CACHE_NAME = "change_visibility";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, Boolean.class)
+            .maximumWeight(4 << 20)
+            .weigher(Weigher.class)
+            .expireAfterWrite(Duration.ofMinutes(5));
+        bind(ChangeVisibilityMemo.class);
+      }
+    };
+  }
+
+  private final Cache<Key, Boolean> cache;
+  private final ServiceUserClassifier serviceUserClassifier;
+  private final Counter0 hits;
+  private final Counter0 misses;
+
+  @Inject
+  ChangeVisibilityMemo(
+      @Named(CACHE_NAME) Cache<Key, Boolean> cache,
+      ServiceUserClassifier serviceUserClassifier,
+      MetricMaker metricMaker) {
+    this.cache = cache;
+    this.serviceUserClassifier = serviceUserClassifier;
+    this.hits =
+        metricMaker.newCounter(
+            "query/change/visibility_memo_hits",
+            new Description("Change visibility checks answered by the branch visibility memo")
+                .setRate());
+    this.misses =
+        metricMaker.newCounter(
+            "query/change/visibility_memo_misses",
+            new Description("Change visibility checks that evaluated branch permissions")
+                .setRate());
+  }
+
+  /** Returns a memo for the visibility checks of one query of {@code user}. */
+  ForUser forUser(CurrentUser user) {
+    return new ForUser(user);
+  }
+
+  /** Memo of one query. Thread-safe, as the changes of a query may be checked concurrently. */
+  class ForUser {
+    private final CurrentUser user;
+    private final Map<BranchNameKey, Boolean> visible = new ConcurrentHashMap<>();
+    private volatile Optional<ImmutableSet<AccountGroup.UUID>> sharedGroups;
+
+    private ForUser(CurrentUser user) {
+      this.user = user;
+    }
+
+    /**
+     * Returns whether {@code user} can read {@code branch}, calling {@code canRead} unless the
+     * answer is memoized.
+     *
+     * @param projectState state of the project of {@code branch}.
+     * @param branch destination branch of a change.
+     * @param canRead evaluates whether {@code user} can read {@code branch}.
+     */
+    boolean canRead(ProjectState projectState, BranchNameKey branch, BooleanSupplier canRead) {
+      Boolean result = visible.get(branch);
+      if (result != null) {
+        hits.increment();
+        return result;
+      }
+
+      Optional<ImmutableSet<AccountGroup.UUID>> groups = sharedGroups();
+      Key key =
+          groups.isPresent()
+              ? Key.create(user.getAccountId(), groups.get(), projectState, branch)
+              : null;
+      if (key != null) {
+        result = cache.getIfPresent(key);
+        if (result != null) {
+          hits.increment();
+          visible.put(branch, result);
+          return result;
+        }
+      }
+
+      misses.increment();
+      result = canRead.getAsBoolean();
+      visible.put(branch, result);
+      if (key != null) {
+        cache.put(key, result);
+      }
+      return result;
+    }
+
+    /** Returns the groups of the user if its answers are shared across queries. */
+    private Optional<ImmutableSet<AccountGroup.UUID>> sharedGroups() {
+      if (sharedGroups == null) {
+        sharedGroups =
+            user.isIdentifiedUser() && serviceUserClassifier.isServiceUser(user.getAccountId())
+                ? Optional.of(ImmutableSet.copyOf(user.getEffectiveGroups().getKnownGroups()))
+                : Optional.empty();
+      }
+      return sharedGroups;
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Account.Id account();
+
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    /** Revisions of the project configs, starting from the project up to All-Projects. */
+    abstract ImmutableList<ObjectId> configRevisions();
+
+    abstract BranchNameKey branch();
+
+    static Key create(
+        Account.Id account,
+        ImmutableSet<AccountGroup.UUID> groups,
+        ProjectState projectState,
+        BranchNameKey branch) {
+      ImmutableList.Builder<ObjectId> revisions = ImmutableList.builder();
+      for (ProjectState s : projectState.tree()) {
+        revisions.add(s.getConfig().getRevision().orElse(ObjectId.zeroId()));
+      }
+      return new AutoValue_ChangeVisibilityMemo_Key(account, groups, revisions.build(), branch);
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Key, Boolean> {
+    @Override
+    public int weigh(Key key, Boolean value) {
+      return 64
+          + 32 * key.groups().size()
+          + 20 * key.configRevisions().size()
+          + 2 * key.branch().branch().length();
+    }
+  }
+}
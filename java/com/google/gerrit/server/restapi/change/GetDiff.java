@@ -45,6 +45,7 @@ import com.google.gerrit.server.diff.DiffSide;
 import com.google.gerrit.server.diff.DiffWebLinksProvider;
 import com.google.gerrit.server.git.LargeObjectException;
 import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.patch.DiffWarmer;
 import com.google.gerrit.server.patch.PatchScriptFactory;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
@@ -67,6 +68,7 @@ public class GetDiff implements RestReadView<FileResource> {
 
   private final ProjectCache projectCache;
   private final PatchScriptFactory.Factory patchScriptFactoryFactory;
+  private final DiffWarmer diffWarmer;
   private final Revisions revisions;
   private final WebLinks webLinks;
   private final Provider<CurrentUser> currentUser;
@@ -96,11 +98,13 @@ public class GetDiff implements RestReadView<FileResource> {
   GetDiff(
       ProjectCache projectCache,
       PatchScriptFactory.Factory patchScriptFactoryFactory,
+      DiffWarmer diffWarmer,
       Revisions revisions,
       WebLinks webLinks,
       Provider<CurrentUser> currentUser) {
     this.projectCache = projectCache;
     this.patchScriptFactoryFactory = patchScriptFactoryFactory;
+    this.diffWarmer = diffWarmer;
     this.revisions = revisions;
     this.webLinks = webLinks;
     this.currentUser = currentUser;
@@ -151,6 +155,7 @@ public class GetDiff implements RestReadView<FileResource> {
 
     try {
       PatchScript ps = psf.call();
+      diffWarmer.onView(pId);
       Project.NameKey projectName = resource.getRevision().getChange().getProject();
       ProjectState state = projectCache.get(projectName).orElseThrow(illegalState(projectName));
       DiffSide sideA =
@@ -14,6 +14,9 @@
 
 package com.google.gerrit.server.restapi.change;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.client.ListChangesOption;
@@ -21,44 +24,72 @@ import com.google.gerrit.extensions.client.ListOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.index.query.LimitPredicate;
+import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryRequiresAuthException;
 import com.google.gerrit.index.query.QueryResult;
+import com.google.gerrit.json.OutputFormat;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
 import com.google.gerrit.server.query.change.ChangeQueryProcessor;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import org.eclipse.jgit.lib.Config;
 import org.kohsuke.args4j.Option;
 
 public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOptions.BeanReceiver {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Content type of the output of {@code --stream}: one JSON object per line. */
+  public static final String NDJSON_TYPE = "application/x-ndjson";
+
+  /**
+   * Default size of the first page of a streamed query. Later pages double in size, up to {@link
+   * #STREAM_MAX_PAGE_FACTOR} times the first page, so that the first results are sent early while
+   * the number of index queries stays small for large results.
+   */
+  private static final int STREAM_FIRST_PAGE_SIZE = 100;
+
+  private static final int STREAM_MAX_PAGE_FACTOR = 10;
+
   private final ChangeJson.Factory json;
   private final ChangeQueryBuilder qb;
   private final Provider<ChangeQueryProcessor> queryProcessorProvider;
   private final HashMap<String, DynamicOptions.DynamicBean> dynamicBeans = new HashMap<>();
   private final Provider<CurrentUser> userProvider;
   private final PermissionBackend permissionBackend;
+  private final int streamFirstPageSize;
   private EnumSet<ListChangesOption> options;
   private Integer limit;
   private Integer start;
+  private ChangeIndexCursor searchAfter;
   private Boolean noLimit;
   private Boolean skipVisibility;
+  private boolean stream;
 
   @Option(
       name = "--query",
@@ -95,6 +126,18 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     this.start = start;
   }
 
+  @Option(
+      name = "--continue",
+      metaVar = "TOKEN",
+      usage = "Continue after the change with this continuation token")
+  public void setContinueToken(String token) throws BadRequestException {
+    try {
+      searchAfter = ChangeIndexCursor.decode(token);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("invalid continuation token: " + token, e);
+    }
+  }
+
   @Option(name = "--no-limit", usage = "Return all results, overriding the default limit")
   public void setNoLimit(boolean on) {
     this.noLimit = on;
@@ -109,6 +152,13 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     skipVisibility = on;
   }
 
+  @Option(
+      name = "--stream",
+      usage = "Write the results of a single query incrementally, one JSON object per line")
+  public void setStream(boolean on) {
+    this.stream = on;
+  }
+
   @Override
   public void setDynamicBean(String plugin, DynamicOptions.DynamicBean dynamicBean) {
     dynamicBeans.put(plugin, dynamicBean);
@@ -120,12 +170,15 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       ChangeQueryBuilder qb,
       Provider<ChangeQueryProcessor> queryProcessorProvider,
       Provider<CurrentUser> userProvider,
-      PermissionBackend permissionBackend) {
+      PermissionBackend permissionBackend,
+      @GerritServerConfig Config cfg) {
     this.json = json;
     this.qb = qb;
     this.queryProcessorProvider = queryProcessorProvider;
     this.userProvider = userProvider;
     this.permissionBackend = permissionBackend;
+    this.streamFirstPageSize =
+        Math.max(cfg.getInt("change", "streamFirstPageSize", STREAM_FIRST_PAGE_SIZE), 1);
 
     options = EnumSet.noneOf(ListChangesOption.class);
   }
@@ -141,40 +194,52 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     return queries.get(i);
   }
 
+  /**
+   * Returns the list of {@link ChangeInfo}s, or a list of such lists if multiple queries were
+   * given. With {@code --stream}, returns a {@link BinaryResult} that runs the query page by page
+   * while it is written.
+   */
   @Override
-  public Response<List<?>> apply(TopLevelResource rsrc)
+  public Response<?> apply(TopLevelResource rsrc)
       throws BadRequestException, AuthException, PermissionBackendException {
-    List<List<ChangeInfo>> out;
     try {
-      out = query();
+      if (stream) {
+        return Response.ok(stream());
+      }
+      List<List<ChangeInfo>> out = query();
+      return Response.ok(out.size() == 1 ? out.get(0) : out);
     } catch (QueryRequiresAuthException e) {
       throw new AuthException("Must be signed-in to use this operator", e);
     } catch (QueryParseException e) {
       logger.atFine().withCause(e).log("Reject change query with 400 Bad Request: %s", queries);
       throw new BadRequestException(e.getMessage(), e);
     }
-    return Response.ok(out.size() == 1 ? out.get(0) : out);
   }
 
-  private List<List<ChangeInfo>> query() throws QueryParseException, PermissionBackendException {
+  private ChangeQueryProcessor newQueryProcessor() throws QueryParseException {
     ChangeQueryProcessor queryProcessor = queryProcessorProvider.get();
     if (queryProcessor.isDisabled()) {
       throw new QueryParseException("query disabled");
     }
+    if (skipVisibility != null) {
+      queryProcessor.enforceVisibility(!skipVisibility);
+    }
+    dynamicBeans.forEach((p, b) -> queryProcessor.setDynamicBean(p, b));
+    return queryProcessor;
+  }
 
+  private List<List<ChangeInfo>> query() throws QueryParseException, PermissionBackendException {
+    ChangeQueryProcessor queryProcessor = newQueryProcessor();
     if (limit != null) {
       queryProcessor.setUserProvidedLimit(limit);
     }
     if (start != null) {
       queryProcessor.setStart(start);
     }
+    queryProcessor.setSearchAfter(searchAfter);
     if (noLimit != null) {
       queryProcessor.setNoLimit(noLimit);
     }
-    if (skipVisibility != null) {
-      queryProcessor.enforceVisibility(!skipVisibility);
-    }
-    dynamicBeans.forEach((p, b) -> queryProcessor.setDynamicBean(p, b));
 
     if (queries == null || queries.isEmpty()) {
       queries = Collections.singletonList("status:open");
@@ -182,6 +247,8 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       // Hard-code a default maximum number of queries to prevent
       // users from submitting too much to the server in a single call.
       throw new QueryParseException("limit of 10 queries");
+    } else if (queries.size() > 1 && searchAfter != null) {
+      throw new QueryParseException("--continue supports only a single query");
     }
 
     int cnt = queries.size();
@@ -192,8 +259,104 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       List<ChangeInfo> info = res.get(n);
       if (results.get(n).more() && !info.isEmpty()) {
         Iterables.getLast(info)._moreChanges = true;
+        Iterables.getLast(info)._continueToken = continueToken(results.get(n));
       }
     }
     return res;
   }
+
+  private static String continueToken(QueryResult<ChangeData> result) {
+    return ChangeIndexCursor.of(Iterables.getLast(result.entities())).encode();
+  }
+
+  private BinaryResult stream() throws QueryParseException, PermissionBackendException {
+    if (queries != null && queries.size() > 1) {
+      throw new QueryParseException("--stream supports only a single query");
+    }
+    String query = queries == null || queries.isEmpty() ? "status:open" : queries.get(0);
+    int total = limit != null && limit > 0 ? limit : Integer.MAX_VALUE;
+    Integer queryLimit = LimitPredicate.getLimit(ChangeQueryBuilder.FIELD_LIMIT, qb.parse(query));
+    if (queryLimit != null) {
+      total = Math.min(total, queryLimit);
+    }
+
+    // Run the first page right away, so that errors are reported with a proper status code.
+    ChangeStream changes = new ChangeStream(query, total);
+    changes.nextPage();
+    return new BinaryResult() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        changes.writeTo(out);
+      }
+    }.setContentType(NDJSON_TYPE).setCharacterEncoding(UTF_8);
+  }
+
+  /**
+   * Runs a query in pages of growing size and writes the changes of each page as soon as it is
+   * formatted, so that only one page is held in memory at a time. Each page continues after the
+   * last change of the previous page, so that later pages are as cheap to read as the first.
+   */
+  private class ChangeStream {
+    private final String query;
+    private final int total;
+
+    private int fetched;
+    private int pageSize = streamFirstPageSize;
+    private List<ChangeInfo> page;
+    private boolean hasNextPage;
+    private ChangeIndexCursor pageSearchAfter = searchAfter;
+
+    ChangeStream(String query, int total) {
+      this.query = query;
+      this.total = total;
+    }
+
+    void nextPage() throws QueryParseException, PermissionBackendException {
+      ChangeQueryProcessor queryProcessor = newQueryProcessor();
+      if (fetched == 0 && start != null) {
+        queryProcessor.setStart(start);
+      }
+      queryProcessor.setSearchAfter(pageSearchAfter);
+      queryProcessor.setUserProvidedLimit(Math.min(pageSize, total - fetched));
+      Predicate<ChangeData> predicate = qb.parse(query);
+      QueryResult<ChangeData> result = queryProcessor.query(predicate);
+      page =
+          json.create(options, queryProcessor.getInfosFactory())
+              .format(ImmutableList.of(result))
+              .get(0);
+      fetched += page.size();
+      pageSize = Math.min(2 * pageSize, STREAM_MAX_PAGE_FACTOR * streamFirstPageSize);
+      hasNextPage = result.more() && !page.isEmpty() && fetched < total;
+      if (result.more() && !page.isEmpty()) {
+        pageSearchAfter = ChangeIndexCursor.of(Iterables.getLast(result.entities()));
+        if (hasNextPage) {
+          // Only the last change of the whole stream carries _more_changes.
+          Iterables.getLast(page)._moreChanges = null;
+        } else {
+          Iterables.getLast(page)._continueToken = pageSearchAfter.encode();
+        }
+      }
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      Gson gson = OutputFormat.JSON_COMPACT.newGson();
+      Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+      w.write(")]}'\n");
+      for (; ; ) {
+        for (ChangeInfo info : page) {
+          gson.toJson(info, w);
+          w.write('\n');
+        }
+        w.flush();
+        if (!hasNextPage) {
+          return;
+        }
+        try {
+          nextPage();
+        } catch (QueryParseException | PermissionBackendException e) {
+          throw new IOException("Cannot read next page of " + query, e);
+        }
+      }
+    }
+  }
 }
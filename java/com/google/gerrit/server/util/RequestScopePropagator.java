@@ -19,6 +19,7 @@ import static java.util.Objects.requireNonNull;
 import com.google.common.base.Throwables;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.RequestCleanup;
+import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.git.ProjectRunnable;
 import com.google.inject.Key;
 import com.google.inject.Scope;
@@ -60,6 +61,9 @@ public abstract class RequestScopePropagator {
    * so there is no ProjectCallable implementation. Implementations of this method must be
    * consistent with Guice's {@link ServletScopes#continueRequest(Callable, java.util.Map)}.
    *
+   * <p>The {@link PerThreadCache} of the calling thread, if any, is shared with the continued
+   * thread.
+   *
    * <p>There are some limitations:
    *
    * <ul>
@@ -75,7 +79,8 @@ public abstract class RequestScopePropagator {
   @SuppressWarnings("javadoc") // See GuiceRequestScopePropagator#wrapImpl
   public final <T> Callable<T> wrap(Callable<T> callable) {
     final RequestContext callerContext = requireNonNull(local.getContext());
-    final Callable<T> wrapped = wrapImpl(context(callerContext, cleanup(callable)));
+    final Callable<T> wrapped =
+        wrapImpl(context(callerContext, cleanup(PerThreadCache.propagate(callable))));
     return new Callable<>() {
       @Override
       public T call() throws Exception {
@@ -41,6 +41,7 @@ import com.google.gerrit.server.PluginUser;
 import com.google.gerrit.server.api.GerritApiModule;
 import com.google.gerrit.server.api.PluginApiModule;
 import com.google.gerrit.server.audit.AuditModule;
+import com.google.gerrit.server.cache.PerThreadCacheAwareExecutorService;
 import com.google.gerrit.server.cache.h2.H2CacheModule;
 import com.google.gerrit.server.cache.mem.DefaultMemoryCacheModule;
 import com.google.gerrit.server.change.FileInfoJsonModule;
@@ -308,7 +309,7 @@ public class InMemoryModule extends FactoryModule {
   @Singleton
   @FanOutExecutor
   public ExecutorService createFanOutExecutor(WorkQueue queues) {
-    return queues.createQueue(2, "FanOut");
+    return new PerThreadCacheAwareExecutorService(queues.createQueue(2, "FanOut"));
   }
 
   @Provides
@@ -0,0 +1,173 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountManager;
+import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.change.ChangeInserter;
+import com.google.gerrit.server.notedb.Sequences;
+import com.google.gerrit.server.schema.SchemaCreator;
+import com.google.gerrit.server.update.BatchUpdate;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gerrit.testing.InMemoryModule;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Fully wired, in-memory Gerrit server for benchmarks.
+ *
+ * <p>Uses the same {@link InMemoryModule} as the query and NoteDb tests, so benchmarks exercise the
+ * production code paths against in-memory JGit repositories and an in-memory Lucene index. All
+ * synthetic data is created through the regular server APIs, so the NoteDb history and the index
+ * contents look like those of a real site.
+ */
+public class InMemoryServer implements AutoCloseable {
+  @Inject private AccountManager accountManager;
+  @Inject private AuthRequest.Factory authRequestFactory;
+  @Inject private BatchUpdate.Factory updateFactory;
+  @Inject private ChangeInserter.Factory changeFactory;
+  @Inject private GerritApi gApi;
+  @Inject private IdentifiedUser.GenericFactory userFactory;
+  @Inject private InMemoryRepositoryManager repoManager;
+  @Inject private SchemaCreator schemaCreator;
+  @Inject private Sequences seq;
+  @Inject private ThreadLocalRequestContext requestContext;
+
+  private final Injector injector;
+  private final LifecycleManager lifecycle;
+  private Account.Id userId;
+
+  public static InMemoryServer start() throws Exception {
+    return start(InMemoryModule.newDefaultConfig());
+  }
+
+  public static InMemoryServer start(Config cfg) throws Exception {
+    InMemoryServer server = new InMemoryServer(cfg);
+    server.init();
+    return server;
+  }
+
+  private InMemoryServer(Config cfg) {
+    injector = Guice.createInjector(new InMemoryModule(cfg));
+    lifecycle = new LifecycleManager();
+    lifecycle.add(injector);
+    injector.injectMembers(this);
+  }
+
+  private void init() throws Exception {
+    lifecycle.start();
+    schemaCreator.create();
+    userId = accountManager.authenticate(authRequestFactory.createForUser("user")).getAccountId();
+    setUser(userId);
+  }
+
+  public <T> T getInstance(Class<T> type) {
+    return injector.getInstance(type);
+  }
+
+  public <T> T getInstance(Key<T> key) {
+    return injector.getInstance(key);
+  }
+
+  public GerritApi api() {
+    return gApi;
+  }
+
+  public IdentifiedUser user() {
+    return userFactory.create(userId);
+  }
+
+  /** Creates an additional account, without changing the calling user. */
+  public Account.Id createAccount(String username) throws Exception {
+    return accountManager.authenticate(authRequestFactory.createForUser(username)).getAccountId();
+  }
+
+  /** Sets the user of the current thread's request context. */
+  public void setUser(Account.Id id) {
+    CurrentUser requestUser = userFactory.create(id);
+    requestContext.setContext(() -> requestUser);
+  }
+
+  public TestRepository<Repo> createProject(String name) throws Exception {
+    gApi.projects().create(name).get();
+    return new TestRepository<>(repoManager.openRepository(Project.nameKey(name)));
+  }
+
+  /**
+   * Creates changes on {@code refs/heads/master} of the given project.
+   *
+   * @param repo project repository, as returned by {@link #createProject(String)}.
+   * @param count number of changes to create.
+   * @param filesPerChange number of files touched by each change.
+   * @return the created changes, in creation order.
+   */
+  public ImmutableList<Change> createChanges(
+      TestRepository<Repo> repo, int count, int filesPerChange) throws Exception {
+    Project.NameKey project =
+        Project.nameKey(repo.getRepository().getDescription().getRepositoryName());
+    ImmutableList.Builder<Change> changes = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      TestRepository<?>.CommitBuilder b = repo.commit().message("Change " + i);
+      for (int f = 0; f < filesPerChange; f++) {
+        b.add("dir" + (f % 10) + "/file" + f, "content " + i + " " + f + "\n");
+      }
+      RevCommit commit = repo.parseBody(b.create());
+      ChangeInserter ins =
+          changeFactory
+              .create(Change.id(seq.nextChangeId()), commit, "refs/heads/master")
+              .setValidate(false);
+      try (BatchUpdate bu = updateFactory.create(project, user(), TimeUtil.now())) {
+        bu.insertChange(ins);
+        bu.execute();
+      }
+      changes.add(ins.getChange());
+    }
+    return changes.build();
+  }
+
+  /**
+   * Adds {@code count} reviews with a message and a vote to the current patch set of a change, to
+   * grow its NoteDb history.
+   */
+  public void addReviews(Change.Id id, int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      ReviewInput in = (i % 2 == 0 ? ReviewInput.recommend() : ReviewInput.noScore());
+      gApi.changes().id(id.get()).current().review(in.message("Review " + i));
+    }
+  }
+
+  @Override
+  public void close() {
+    lifecycle.stop();
+    requestContext.setContext(null);
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.TypeLiteral;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the L2 (disk) path of persistent caches: {@link SqlStore#getIfPresent} on hits and
+ * misses, and {@link SqlStore#put}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class H2CacheSqlStoreBenchmark {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<>() {};
+  private static final AtomicInteger dbCnt = new AtomicInteger();
+
+  @Param({"10000"})
+  public int entries;
+
+  @Param({"100", "10000"})
+  public int valueSize;
+
+  private SqlStore<String, String> store;
+  private String value;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    store =
+        new SqlStore<>(
+            "jdbc:h2:mem:Benchmark_" + dbCnt.incrementAndGet(),
+            KEY_TYPE,
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            1,
+            Long.MAX_VALUE,
+            null,
+            null);
+    value = Strings.repeat("x", valueSize);
+    for (int i = 0; i < entries; i++) {
+      store.put(key(i), new ValueHolder<>(value, Instant.now()));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    store.close();
+  }
+
+  private static String key(int i) {
+    return "refs/changes/" + i;
+  }
+
+  private String nextKey() {
+    next = (next + 1) % entries;
+    return key(next);
+  }
+
+  @Benchmark
+  public ValueHolder<String> getHit() {
+    return store.getIfPresent(nextKey());
+  }
+
+  @Benchmark
+  public ValueHolder<String> getMiss() {
+    return store.getIfPresent("missing/" + nextKey());
+  }
+
+  @Benchmark
+  public void put() {
+    store.put(nextKey(), new ValueHolder<>(value, Instant.now()));
+  }
+}
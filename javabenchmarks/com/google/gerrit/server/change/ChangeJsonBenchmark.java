@@ -0,0 +1,100 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import com.google.gerrit.benchmarks.InMemoryServer;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ChangeJson#format(java.util.Collection)} for a page of changes.
+ *
+ * <p>Fresh {@link ChangeData} instances are created for every invocation, so lazily loaded fields
+ * are loaded again each time, like they are for every REST request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangeJsonBenchmark {
+  @Param({"25", "500"})
+  public int changes;
+
+  @Param({"5"})
+  public int reviewsPerChange;
+
+  /** Comma separated {@link ListChangesOption}s, empty for none. */
+  @Param({"", "LABELS,DETAILED_ACCOUNTS", "CURRENT_REVISION,CURRENT_COMMIT,SUBMITTABLE"})
+  public String options;
+
+  private InMemoryServer server;
+  private ChangeData.Factory changeDataFactory;
+  private ChangeJson.Factory changeJsonFactory;
+  private ImmutableList<ListChangesOption> listChangesOptions;
+  private ImmutableList<Change> created;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = InMemoryServer.start();
+    created = server.createChanges(server.createProject("json"), changes, 3);
+    for (Change c : created) {
+      server.addReviews(c.getId(), reviewsPerChange);
+    }
+    changeDataFactory = server.getInstance(ChangeData.Factory.class);
+    changeJsonFactory = server.getInstance(ChangeJson.Factory.class);
+    listChangesOptions =
+        Streams.stream(Splitter.on(',').omitEmptyStrings().trimResults().split(options))
+            .map(ListChangesOption::valueOf)
+            .collect(toImmutableList());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public List<ChangeInfo> format() throws Exception {
+    ImmutableList<ChangeData> cds =
+        created.stream()
+            .map(c -> changeDataFactory.create(c.getProject(), c.getId()))
+            .collect(toImmutableList());
+    return changeJsonFactory.create(listChangesOptions).format(cds);
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building a {@link TagSet} from scratch and checking tag reachability against a warm
+ * {@link TagSetHolder}.
+ *
+ * <p>The synthetic repository has a linear history of {@code commits} commits, with {@code
+ * branches} branches and {@code tags} annotated tags spread evenly over that history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TagSetBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("tags");
+
+  @Param({"10000"})
+  public int commits;
+
+  @Param({"10", "500"})
+  public int branches;
+
+  @Param({"100", "2000"})
+  public int tags;
+
+  private InMemoryRepository repo;
+  private TagCache tagCache;
+  private List<Ref> branchRefs;
+  private List<Ref> tagRefs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+    repo = repoManager.createRepository(PROJECT);
+    TestRepository<InMemoryRepository> tr = new TestRepository<>(repo);
+    List<RevCommit> history = new ArrayList<>(commits);
+    RevCommit parent = null;
+    for (int i = 0; i < commits; i++) {
+      TestRepository<InMemoryRepository>.CommitBuilder b = tr.commit().message("commit " + i);
+      if (parent != null) {
+        b.parent(parent);
+      }
+      parent = b.create();
+      history.add(parent);
+    }
+    for (int i = 0; i < branches; i++) {
+      tr.update("refs/heads/branch-" + i, history.get(pick(i, branches)));
+    }
+    for (int i = 0; i < tags; i++) {
+      String name = "v" + i;
+      tr.update(Constants.R_TAGS + name, tr.tag(name, history.get(pick(i, tags))));
+    }
+
+    branchRefs = repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS);
+    tagRefs = repo.getRefDatabase().getRefsByPrefix(Constants.R_TAGS);
+    tagCache =
+        new TagCache(
+            CacheBuilder.newBuilder().build(),
+            repoManager,
+            newDirectExecutorService(),
+            new DisabledMetricMaker());
+    // Warm the cache so that the reachability benchmark only measures the lookup.
+    tagCache.get(PROJECT).matcher(tagCache, repo, branchRefs);
+  }
+
+  private int pick(int i, int n) {
+    return (int) ((long) (i + 1) * (commits - 1) / n);
+  }
+
+  @Benchmark
+  public TagSet buildFromScratch() {
+    TagSet tagSet = new TagSet(PROJECT);
+    tagSet.build(repo, null, null);
+    return tagSet;
+  }
+
+  @Benchmark
+  public void isReachable(Blackhole bh) throws Exception {
+    TagMatcher m = tagCache.get(PROJECT).matcher(tagCache, repo, branchRefs);
+    for (Ref tag : tagRefs) {
+      bh.consume(m.isReachable(tag));
+    }
+  }
+}
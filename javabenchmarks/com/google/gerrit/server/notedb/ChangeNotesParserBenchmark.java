@@ -0,0 +1,82 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import com.google.gerrit.benchmarks.InMemoryServer;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures a full parse of a change's NoteDb meta history with {@link ChangeNotesParser}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangeNotesParserBenchmark {
+  /** Number of review updates on top of the change creation, i.e. the length of meta history. */
+  @Param({"10", "100", "500"})
+  public int updates;
+
+  private InMemoryServer server;
+  private Repo repo;
+  private Change.Id changeId;
+  private ObjectId metaId;
+  private ChangeNoteJson changeNoteJson;
+  private NoteDbMetrics metrics;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = InMemoryServer.start();
+    TestRepository<Repo> testRepo = server.createProject("notes");
+    repo = testRepo.getRepository();
+    changeId = server.createChanges(testRepo, 1, 1).get(0).getId();
+    server.addReviews(changeId, updates);
+    metaId = repo.exactRef(RefNames.changeMetaRef(changeId)).getObjectId();
+    changeNoteJson = new ChangeNoteJson();
+    metrics = new NoteDbMetrics(new DisabledMetricMaker());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public ChangeNotesState parseAll() throws Exception {
+    try (ChangeNotesRevWalk walk = ChangeNotesCommit.newRevWalk(repo)) {
+      return new ChangeNotesParser(changeId, metaId, walk, changeNoteJson, metrics).parseAll();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.gerrit.benchmarks.InMemoryServer;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.gerrit.testing.InMemoryModule;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link DefaultRefFilter#filter} for a non-admin user over all refs of a repository.
+ *
+ * <p>{@code auth.skipFullRefEvaluationIfAllRefsAreVisible} is disabled so that every ref goes
+ * through the full per-ref evaluation, which is what users without READ on {@code refs/*} pay for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DefaultRefFilterBenchmark {
+  @Param({"100", "1000"})
+  public int changes;
+
+  @Param({"10", "1000"})
+  public int branches;
+
+  private InMemoryServer server;
+  private Repo repo;
+  private Project.NameKey project;
+  private CurrentUser viewer;
+  private PermissionBackend permissionBackend;
+  private List<Ref> refs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Config cfg = InMemoryModule.newDefaultConfig();
+    cfg.setBoolean("auth", null, "skipFullRefEvaluationIfAllRefsAreVisible", false);
+    server = InMemoryServer.start(cfg);
+
+    TestRepository<Repo> testRepo = server.createProject("refs");
+    repo = testRepo.getRepository();
+    project = Project.nameKey("refs");
+    server.createChanges(testRepo, changes, 1);
+    RevCommit tip = testRepo.commit().message("branch base").create();
+    for (int i = 0; i < branches; i++) {
+      testRepo.update("refs/heads/branch-" + i, tip);
+    }
+
+    viewer =
+        server
+            .getInstance(IdentifiedUser.GenericFactory.class)
+            .create(server.createAccount("viewer"));
+    permissionBackend = server.getInstance(PermissionBackend.class);
+    refs = repo.getRefDatabase().getRefs();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public Collection<Ref> filterAllRefs() throws Exception {
+    return permissionBackend
+        .user(viewer)
+        .project(project)
+        .filter(refs, repo, RefFilterOptions.defaults());
+  }
+}
@@ -0,0 +1,76 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.gerrit.benchmarks.InMemoryServer;
+import com.google.gerrit.index.query.Predicate;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing typical dashboard queries into predicate trees with {@link ChangeQueryBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChangeQueryBuilderBenchmark {
+  @Param({
+    "status:open",
+    "is:open owner:self",
+    "is:open -is:wip reviewer:self -owner:self label:Code-Review<=0",
+    "project:queries branch:master (status:merged OR status:abandoned) age:1w",
+    "file:^dir[0-9]/file.* message:foo OR topic:bar OR hashtag:baz limit:100"
+  })
+  public String query;
+
+  private InMemoryServer server;
+  private Provider<ChangeQueryBuilder> queryBuilderProvider;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = InMemoryServer.start();
+    server.createProject("queries");
+    queryBuilderProvider =
+        server.getInstance(Key.get(new TypeLiteral<Provider<ChangeQueryBuilder>>() {}));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.close();
+  }
+
+  @Benchmark
+  public Predicate<ChangeData> parse() throws Exception {
+    return queryBuilderProvider.get().parse(query);
+  }
+}
@@ -36,16 +36,22 @@ import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.SubmitRequirement;
+import com.google.gerrit.entities.SubmitRequirementExpression;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.json.OutputFormat;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.restapi.change.QueryChanges;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
@@ -197,6 +203,62 @@ public class QueryChangesIT extends AbstractDaemonTest {
         .containsExactly(changeId3, changeId4);
   }
 
+  @Test
+  public void prefetchedChangesHaveSameSubmitRecordsAndRequirementsAsSingleChanges()
+      throws Exception {
+    configSubmitRequirement(
+        project,
+        SubmitRequirement.builder()
+            .setName("Code-Review")
+            .setSubmittabilityExpression(
+                SubmitRequirementExpression.create("label:Code-Review=MAX"))
+            .setAllowOverrideInChildProjects(false)
+            .build());
+    configSubmitRequirement(
+        project,
+        SubmitRequirement.builder()
+            .setName("Non-Uploader-Review")
+            .setSubmittabilityExpression(
+                SubmitRequirementExpression.create("label:Code-Review=MAX,user=non_uploader"))
+            .setAllowOverrideInChildProjects(false)
+            .build());
+    // More changes than fit into one prefetch batch, with different votes.
+    int changes = 12;
+    for (int i = 0; i < changes; i++) {
+      String changeId = createChange().getChangeId();
+      if (i % 3 == 0) {
+        gApi.changes().id(changeId).current().review(ReviewInput.approve());
+      } else if (i % 3 == 1) {
+        gApi.changes().id(changeId).current().review(ReviewInput.reject());
+      }
+    }
+
+    // Formatting multiple changes with MESSAGES prefetches their data in parallel, formatting a
+    // single change doesn't.
+    EnumSet<ListChangesOption> options =
+        EnumSet.of(
+            ListChangesOption.DETAILED_LABELS,
+            ListChangesOption.MESSAGES,
+            ListChangesOption.SUBMITTABLE,
+            ListChangesOption.SUBMIT_REQUIREMENTS);
+    List<ChangeInfo> prefetched =
+        gApi.changes().query("project:" + project.get()).withOptions(options).get();
+    assertThat(prefetched).hasSize(changes);
+
+    Gson gson = OutputFormat.JSON.newGson();
+    for (ChangeInfo change : prefetched) {
+      ChangeInfo single = gApi.changes().id(change.id).get(options);
+      assertThat(gson.toJsonTree(change.submitRecords))
+          .isEqualTo(gson.toJsonTree(single.submitRecords));
+      assertThat(gson.toJsonTree(change.requirements))
+          .isEqualTo(gson.toJsonTree(single.requirements));
+      assertThat(gson.toJsonTree(change.submitRequirements))
+          .isEqualTo(gson.toJsonTree(single.submitRequirements));
+      assertThat(change.submittable).isEqualTo(single.submittable);
+      assertThat(change.labels).isEqualTo(single.labels);
+    }
+  }
+
   @Test
   public void usingOutOfRangeLabelValuesDoesNotCauseError() throws Exception {
     for (String operator : ImmutableList.of("=", ">", ">=", "<", "<=")) {
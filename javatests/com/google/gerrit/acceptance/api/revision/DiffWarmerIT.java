@@ -0,0 +1,125 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.api.revision;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.gerrit.truth.CacheStatsSubject.assertThat;
+import static com.google.gerrit.truth.CacheStatsSubject.cloneStats;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.acceptance.TestMetricMaker;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.extensions.common.DiffInfo;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.patch.IntraLineDiff;
+import com.google.gerrit.server.patch.IntraLineDiffKey;
+import com.google.gerrit.server.patch.filediff.FileDiffCacheKey;
+import com.google.gerrit.server.patch.filediff.FileDiffOutput;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.junit.Test;
+
+@NoHttpd
+public class DiffWarmerIT extends AbstractDaemonTest {
+  private static final String FILE_NAME = "a.txt";
+
+  @Inject private TestMetricMaker testMetricMaker;
+  @Inject private WorkQueue workQueue;
+
+  @Inject
+  @Named("gerrit_file_diff")
+  private Cache<FileDiffCacheKey, FileDiffOutput> fileDiffCache;
+
+  @Inject
+  @Named("diff_intraline")
+  private Cache<IntraLineDiffKey, IntraLineDiff> intraCache;
+
+  @Test
+  @GerritConfig(name = "change.warmDiffs", value = "true")
+  public void diffsOfNewPatchSetAreWarmed() throws Exception {
+    PushOneCommit.Result r = createChangeModifyingFile();
+    waitForWarming();
+
+    testMetricMaker.reset();
+    CacheStats startFileDiff = cloneStats(fileDiffCache.stats());
+    CacheStats startIntra = cloneStats(intraCache.stats());
+    DiffInfo diff = viewDiff(r);
+
+    assertThat(diff.content).isNotEmpty();
+    assertThat(testMetricMaker.getCount("diff/warming/first_view_warm")).isEqualTo(1);
+    assertThat(testMetricMaker.getCount("diff/warming/first_view_cold")).isEqualTo(0);
+    assertThat(fileDiffCache.stats()).since(startFileDiff).hasMissCount(0);
+    assertThat(intraCache.stats()).since(startIntra).hasMissCount(0);
+    assertThat(intraCache.stats()).since(startIntra).hasHitCount(1);
+
+    // Only the first view of a patch set is counted.
+    viewDiff(r);
+    assertThat(testMetricMaker.getCount("diff/warming/first_view_warm")).isEqualTo(1);
+  }
+
+  @Test
+  public void diffsAreNotWarmedByDefault() throws Exception {
+    PushOneCommit.Result r = createChangeModifyingFile();
+
+    testMetricMaker.reset();
+    CacheStats startIntra = cloneStats(intraCache.stats());
+    viewDiff(r);
+
+    assertThat(testMetricMaker.getCount("diff/warming/first_view_warm")).isEqualTo(0);
+    assertThat(testMetricMaker.getCount("diff/warming/first_view_cold")).isEqualTo(0);
+    assertThat(intraCache.stats()).since(startIntra).hasMissCount(1);
+  }
+
+  private PushOneCommit.Result createChangeModifyingFile() throws Exception {
+    // Intraline differences are only computed for modified files.
+    pushFactory
+        .create(admin.newIdent(), testRepo, "Base", FILE_NAME, "line 1\nline 2\nline 3\n")
+        .to("refs/heads/master")
+        .assertOkStatus();
+    PushOneCommit.Result r = createChange("Change", FILE_NAME, "line 1\nline two\nline 3\n");
+    amendChange(r.getChangeId(), "Change", FILE_NAME, "line 1\nline 2.5\nline 3\n");
+    return r;
+  }
+
+  /** Requests the diff like the web UI does with the default diff preferences. */
+  private DiffInfo viewDiff(PushOneCommit.Result r) throws Exception {
+    return gApi.changes()
+        .id(r.getChangeId())
+        .current()
+        .file(FILE_NAME)
+        .diffRequest()
+        .withIntraline(true)
+        .withWhitespace(Whitespace.IGNORE_NONE)
+        .get();
+  }
+
+  private void waitForWarming() throws Exception {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    while (workQueue.getTasks().stream().anyMatch(t -> t.getQueueName().equals("DiffWarming"))) {
+      assertWithMessage("diffs not warmed in time")
+          .that(stopwatch.elapsed(SECONDS))
+          .isLessThan(30L);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Splitter;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class QueryChangesStreamIT extends AbstractDaemonTest {
+  private static final Gson GSON = OutputFormat.JSON.newGson();
+
+  @Test
+  public void streamWritesOneChangePerLine() throws Exception {
+    String c1 = createChange().getChangeId();
+    String c2 = createChange().getChangeId();
+    String c3 = createChange().getChangeId();
+
+    List<ChangeInfo> changes = stream("/changes/?q=status:open&stream");
+    assertThat(changes.stream().map(c -> c.changeId).collect(toList()))
+        .containsExactly(c3, c2, c1)
+        .inOrder();
+    assertThat(changes.get(2)._moreChanges).isNull();
+  }
+
+  @Test
+  public void streamHonorsLimit() throws Exception {
+    createChange();
+    String c2 = createChange().getChangeId();
+    String c3 = createChange().getChangeId();
+
+    List<ChangeInfo> changes = stream("/changes/?q=status:open&n=2&stream");
+    assertThat(changes.stream().map(c -> c.changeId).collect(toList()))
+        .containsExactly(c3, c2)
+        .inOrder();
+    assertThat(changes.get(0)._moreChanges).isNull();
+    assertThat(changes.get(1)._moreChanges).isTrue();
+  }
+
+  @Test
+  @GerritConfig(name = "change.streamFirstPageSize", value = "2")
+  public void streamContinuesAcrossPages() throws Exception {
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      expected.add(0, createChange().getChangeId());
+    }
+
+    // Pages of 2, 4 and 8 changes.
+    List<ChangeInfo> changes = stream("/changes/?q=status:open&stream");
+    assertThat(changes.stream().map(c -> c.changeId).collect(toList()))
+        .containsExactlyElementsIn(expected)
+        .inOrder();
+    assertThat(changes.stream().filter(c -> c._moreChanges != null).collect(toList())).isEmpty();
+
+    // Pages of 2, 4 and 1 changes.
+    changes = stream("/changes/?q=status:open&n=7&stream");
+    assertThat(changes.stream().map(c -> c.changeId).collect(toList()))
+        .containsExactlyElementsIn(expected.subList(0, 7))
+        .inOrder();
+    assertThat(changes.stream().filter(c -> c._moreChanges != null).collect(toList()))
+        .containsExactly(changes.get(6));
+    assertThat(changes.get(6)._moreChanges).isTrue();
+  }
+
+  @Test
+  public void streamRejectsMultipleQueries() throws Exception {
+    adminRestSession.get("/changes/?q=status:open&q=status:merged&stream").assertBadRequest();
+  }
+
+  private List<ChangeInfo> stream(String url) throws Exception {
+    RestResponse r = adminRestSession.get(url);
+    r.assertOK();
+    List<String> lines = Splitter.on('\n').omitEmptyStrings().splitToList(r.getEntityContent());
+    assertThat(lines.get(0)).isEqualTo(")]}'");
+    return lines.stream().skip(1).map(l -> GSON.fromJson(l, ChangeInfo.class)).collect(toList());
+  }
+}
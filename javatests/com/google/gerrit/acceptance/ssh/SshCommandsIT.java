@@ -98,7 +98,9 @@ public class SshCommandsIT extends AbstractDaemonTest {
           .put(
               "gerrit index",
               ImmutableList.of(
-                  "changes", "changes-in-project")) // "activate" and "start" are not included
+                  "changes",
+                  "changes-in-project",
+                  "stale-changes-in-project")) // "activate" and "start" are not included
           .put("gerrit logging", ImmutableList.of("ls", "set"))
           .put(
               "gerrit plugin",
@@ -0,0 +1,159 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.Test;
+
+public class AndSourceTest {
+  /** Source of the numbers {@code 0} to {@code size - 1}, which counts its reads and results. */
+  private static class NumberSource extends Predicate<Integer>
+      implements DataSource<Integer>, Paginated<Integer> {
+    private final int size;
+    private QueryOptions opts;
+    private int reads;
+    private int results;
+
+    NumberSource(int size, int limit) {
+      this.size = size;
+      this.opts = QueryOptions.create(IndexConfig.createDefault(), 0, limit, ImmutableSet.of());
+    }
+
+    @Override
+    public QueryOptions getOptions() {
+      return opts;
+    }
+
+    @Override
+    public ResultSet<Integer> restart(int start) {
+      opts = opts.withStart(start);
+      return read();
+    }
+
+    @Override
+    public ResultSet<Integer> restart(Object searchAfter) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public ResultSet<Integer> restart(int start, int limit) {
+      opts = opts.withLimit(limit);
+      return restart(start);
+    }
+
+    @Override
+    public int getCardinality() {
+      return size;
+    }
+
+    @Override
+    public ResultSet<Integer> read() {
+      reads++;
+      List<Integer> r = new ArrayList<>();
+      for (int i = opts.start(); i < size && r.size() < opts.limit(); i++) {
+        r.add(i);
+      }
+      results += r.size();
+      return new ListResultSet<>(r);
+    }
+
+    @Override
+    public ResultSet<FieldBundle> readRaw() {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public Predicate<Integer> copy(Collection<? extends Predicate<Integer>> children) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return this == other;
+    }
+  }
+
+  /** Sees only multiples of 100. */
+  private static class IsMultipleOf100 extends IsVisibleToPredicate<Integer> {
+    private int matched;
+
+    IsMultipleOf100() {
+      super("visibleto", "multiple-of-100");
+    }
+
+    @Override
+    public boolean match(Integer i) {
+      matched++;
+      return i % 100 == 0;
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+  }
+
+  @Test
+  public void restartsWithOriginalLimit() {
+    NumberSource source = new NumberSource(1000, 3);
+    AndSource<Integer> and = new AndSource<>(ImmutableList.of(source), new IsMultipleOf100(), 0);
+
+    assertThat(and.read().toList()).containsExactly(0, 100, 200).inOrder();
+    assertThat(source.reads).isEqualTo(67);
+  }
+
+  @Test
+  public void streamingModeRestartsWithChunkSize() {
+    NumberSource source = new NumberSource(1000, 3);
+    IsMultipleOf100 isVisible = new IsMultipleOf100();
+    AndSource<Integer> and = new AndSource<>(ImmutableList.of(source), isVisible, 0, 50);
+
+    assertThat(and.read().toList()).containsExactly(0, 100, 200).inOrder();
+    assertThat(source.reads).isEqualTo(5);
+    assertThat(isVisible.matched).isEqualTo(203);
+  }
+
+  @Test
+  public void streamingModeReturnsAllMatchesIfSourceIsExhausted() {
+    NumberSource source = new NumberSource(250, 5);
+    AndSource<Integer> and =
+        new AndSource<>(ImmutableList.of(source), new IsMultipleOf100(), 0, 50);
+
+    assertThat(and.read().toList()).containsExactly(0, 100, 200).inOrder();
+    assertThat(source.results).isEqualTo(250);
+  }
+
+  @Test
+  public void streamingModeSkipsStart() {
+    NumberSource source = new NumberSource(1000, 3);
+    AndSource<Integer> and =
+        new AndSource<>(ImmutableList.of(source), new IsMultipleOf100(), 1, 50);
+
+    assertThat(and.read().toList()).containsExactly(100, 200, 300).inOrder();
+  }
+}
@@ -0,0 +1,222 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.lucene.LuceneChangeIndex.ID2_SORT_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.UPDATED_SORT_FIELD;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.index.change.ChangeField;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that searching the open and closed sub-indexes with {@link ChangeSubIndexSearcher} and
+ * merging the hits returns the same results as searching a single index with all changes.
+ */
+public class ChangeSubIndexSearcherTest {
+  private static final String ID = ChangeField.LEGACY_ID_STR.getName();
+  private static final String PROJECT = ChangeField.PROJECT.getName();
+  private static final int CHANGES = 100;
+  private static final Sort SORT =
+      new Sort(
+          new SortField(UPDATED_SORT_FIELD, SortField.Type.LONG, true),
+          new SortField(ID2_SORT_FIELD, SortField.Type.LONG, true));
+
+  private final RAMDirectory openDir = new RAMDirectory();
+  private final RAMDirectory closedDir = new RAMDirectory();
+  private final RAMDirectory allDir = new RAMDirectory();
+  private ListeningExecutorService executor;
+  private DirectoryReader openReader;
+  private DirectoryReader closedReader;
+  private DirectoryReader allReader;
+  private IndexSearcher[] subIndexes;
+  private IndexSearcher all;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    try (IndexWriter open = writer(openDir);
+        IndexWriter closed = writer(closedDir);
+        IndexWriter all = writer(allDir)) {
+      for (int id = 1; id <= CHANGES; id++) {
+        // Interleave both sub-indexes in the sort order and let some changes have the same
+        // update time, so that they are sorted by their number.
+        Document doc = change(id, id / 3, id % 2 == 0 ? "project-a" : "project-b");
+        (id % 3 == 0 ? closed : open).addDocument(doc);
+        all.addDocument(doc);
+      }
+    }
+    openReader = DirectoryReader.open(openDir);
+    closedReader = DirectoryReader.open(closedDir);
+    allReader = DirectoryReader.open(allDir);
+    subIndexes =
+        new IndexSearcher[] {new IndexSearcher(openReader), new IndexSearcher(closedReader)};
+    all = new IndexSearcher(allReader);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    openReader.close();
+    closedReader.close();
+    allReader.close();
+  }
+
+  @Test
+  public void concurrentSearchEqualsSearchOfSingleIndex() throws Exception {
+    ChangeSubIndexSearcher searcher =
+        new ChangeSubIndexSearcher(executor, new DisabledMetricMaker());
+    for (Query query :
+        ImmutableList.of(new MatchAllDocsQuery(), new TermQuery(new Term(PROJECT, "project-a")))) {
+      for (int limit : new int[] {1, 7, 50, CHANGES + 1}) {
+        assertThat(search(searcher, query, limit)).isEqualTo(searchAll(query, limit));
+      }
+    }
+  }
+
+  @Test
+  public void concurrentSearchEqualsSequentialSearch() throws Exception {
+    ChangeSubIndexSearcher concurrent =
+        new ChangeSubIndexSearcher(executor, new DisabledMetricMaker());
+    ChangeSubIndexSearcher sequential = new ChangeSubIndexSearcher(null, new DisabledMetricMaker());
+    Query query = new MatchAllDocsQuery();
+
+    assertThat(search(concurrent, query, 20)).isEqualTo(search(sequential, query, 20));
+  }
+
+  @Test
+  public void searchAfterPagesThroughSameResultsAsSingleIndex() throws Exception {
+    ChangeSubIndexSearcher searcher =
+        new ChangeSubIndexSearcher(executor, new DisabledMetricMaker());
+    Query query = new MatchAllDocsQuery();
+    ImmutableList.Builder<String> pages = ImmutableList.builder();
+    Object[] after = null;
+    for (int page = 0; page < CHANGES / 15 + 1; page++) {
+      Object[] pageAfter = after;
+      TopDocs docs =
+          TopDocs.merge(
+              SORT,
+              15,
+              searcher.search(
+                  ImmutableList.of("open", "closed"),
+                  subIndexes,
+                  s ->
+                      pageAfter != null
+                          ? (TopFieldDocs) s.searchAfter(after(s, pageAfter), query, 15, SORT)
+                          : s.search(query, 15, SORT)));
+      pages.addAll(ids(docs));
+      if (docs.scoreDocs.length > 0) {
+        after = ((FieldDoc) docs.scoreDocs[docs.scoreDocs.length - 1]).fields;
+      }
+    }
+
+    assertThat(pages.build()).isEqualTo(searchAll(query, CHANGES));
+  }
+
+  @Test
+  public void failureIsThrownAfterAllSearchesFinished() throws Exception {
+    ChangeSubIndexSearcher searcher =
+        new ChangeSubIndexSearcher(executor, new DisabledMetricMaker());
+    Query query = new MatchAllDocsQuery();
+    IOException failure = new IOException("closed sub-index failed");
+
+    IOException thrown =
+        assertThrows(
+            IOException.class,
+            () ->
+                searcher.search(
+                    ImmutableList.of("open", "closed"),
+                    subIndexes,
+                    s -> {
+                      if (s == subIndexes[1]) {
+                        throw failure;
+                      }
+                      return s.search(query, 10, SORT);
+                    }));
+    assertThat(thrown).isSameInstanceAs(failure);
+  }
+
+  private ImmutableList<String> search(ChangeSubIndexSearcher searcher, Query query, int limit)
+      throws IOException {
+    TopFieldDocs[] hits =
+        searcher.search(
+            ImmutableList.of("open", "closed"), subIndexes, s -> s.search(query, limit, SORT));
+    return ids(TopDocs.merge(SORT, limit, hits));
+  }
+
+  private ImmutableList<String> searchAll(Query query, int limit) throws IOException {
+    TopDocs docs = all.search(query, limit, SORT);
+    ImmutableList.Builder<String> ids = ImmutableList.builder();
+    for (ScoreDoc sd : docs.scoreDocs) {
+      ids.add(all.doc(sd.doc).get(ID));
+    }
+    return ids.build();
+  }
+
+  private ImmutableList<String> ids(TopDocs docs) throws IOException {
+    ImmutableList.Builder<String> ids = ImmutableList.builder();
+    for (ScoreDoc sd : docs.scoreDocs) {
+      ids.add(subIndexes[sd.shardIndex].doc(sd.doc).get(ID));
+    }
+    return ids.build();
+  }
+
+  /** Returns the position after all documents of {@code searcher} with the given sort values. */
+  private static FieldDoc after(IndexSearcher searcher, Object[] sortValues) {
+    return new FieldDoc(searcher.getIndexReader().maxDoc() - 1, Float.NaN, sortValues);
+  }
+
+  private static IndexWriter writer(RAMDirectory dir) throws IOException {
+    return new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()));
+  }
+
+  private static Document change(int id, long updated, String project) {
+    Document doc = new Document();
+    doc.add(new StringField(ID, Integer.toString(id), Store.YES));
+    doc.add(new NumericDocValuesField(ID2_SORT_FIELD, id));
+    doc.add(new NumericDocValuesField(UPDATED_SORT_FIELD, updated));
+    doc.add(new StringField(PROJECT, project, Store.YES));
+    return doc;
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.lucene.LuceneChangeIndex.CHANGE_DOC_VALUES_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.ID2_SORT_FIELD;
+import static com.google.gerrit.lucene.LuceneChangeIndex.PROJECT_DOC_VALUES_FIELD;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.server.index.change.ChangeField;
+import java.io.IOException;
+import java.util.Set;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading results of {@link LuceneChangeIndex} from doc values, and the fall-back to stored
+ * fields for documents that were indexed without them.
+ */
+public class LuceneChangeIndexTest {
+  private static final String CHANGE = ChangeField.CHANGE.getName();
+  private static final String PROJECT = ChangeField.PROJECT.getName();
+  private static final String ID = ChangeField.LEGACY_ID_STR.getName();
+  private static final Set<String> CHANGE_ONLY = ImmutableSet.of(CHANGE);
+  private static final Set<String> PROJECT_AND_ID = ImmutableSet.of(PROJECT, ID);
+
+  private RAMDirectory dir;
+  private DirectoryReader reader;
+  private IndexSearcher searcher;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new RAMDirectory();
+    IndexWriterConfig cfg =
+        new IndexWriterConfig(new StandardAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE);
+    try (IndexWriter writer = new IndexWriter(dir, cfg)) {
+      // A segment in which only some documents have doc values, and one in which none have.
+      writer.addDocument(withDocValues(1, "project-a"));
+      writer.addDocument(withoutDocValues(2, "project-a"));
+      writer.commit();
+      writer.addDocument(withoutDocValues(3, "project-b"));
+      writer.commit();
+    }
+    reader = DirectoryReader.open(dir);
+    searcher = new IndexSearcher(reader);
+    assertThat(reader.leaves()).hasSize(2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+  }
+
+  @Test
+  public void readChangeFromDocValues() throws Exception {
+    Document doc = LuceneChangeIndex.fromDocValues(searcher, docId(1), CHANGE_ONLY, false);
+
+    assertThat(doc.getFields()).hasSize(1);
+    assertThat(doc.getBinaryValue(CHANGE)).isEqualTo(change(1));
+  }
+
+  @Test
+  public void readProjectAndIdFromDocValues() throws Exception {
+    Document doc = LuceneChangeIndex.fromDocValues(searcher, docId(1), PROJECT_AND_ID, false);
+
+    assertThat(doc.getFields()).hasSize(2);
+    assertThat(doc.get(PROJECT)).isEqualTo("project-a");
+    assertThat(doc.get(ID)).isEqualTo("1");
+  }
+
+  @Test
+  public void fallBackForDocumentWithoutDocValuesInSegmentWithDocValues() throws Exception {
+    assertThat(LuceneChangeIndex.fromDocValues(searcher, docId(2), CHANGE_ONLY, false)).isNull();
+    assertThat(LuceneChangeIndex.fromDocValues(searcher, docId(2), PROJECT_AND_ID, false)).isNull();
+  }
+
+  @Test
+  public void fallBackForSegmentWithoutDocValues() throws Exception {
+    assertThat(LuceneChangeIndex.fromDocValues(searcher, docId(3), CHANGE_ONLY, false)).isNull();
+    assertThat(LuceneChangeIndex.fromDocValues(searcher, docId(3), PROJECT_AND_ID, false)).isNull();
+  }
+
+  /** Returns a document as written before the doc values of schema 76 were added. */
+  private static Document withoutDocValues(int id, String project) {
+    Document doc = new Document();
+    doc.add(new StringField(ID, Integer.toString(id), Store.YES));
+    doc.add(new NumericDocValuesField(ID2_SORT_FIELD, id));
+    doc.add(new StringField(PROJECT, project, Store.YES));
+    doc.add(new StoredField(CHANGE, change(id)));
+    return doc;
+  }
+
+  private static Document withDocValues(int id, String project) {
+    Document doc = withoutDocValues(id, project);
+    doc.add(new SortedDocValuesField(PROJECT_DOC_VALUES_FIELD, new BytesRef(project)));
+    doc.add(new BinaryDocValuesField(CHANGE_DOC_VALUES_FIELD, change(id)));
+    return doc;
+  }
+
+  private static BytesRef change(int id) {
+    return new BytesRef(("change " + id).getBytes(UTF_8));
+  }
+
+  private int docId(int id) throws IOException {
+    TopDocs docs = searcher.search(new TermQuery(new Term(ID, Integer.toString(id))), 2);
+    assertThat(docs.scoreDocs).hasLength(1);
+    return docs.scoreDocs[0].doc;
+  }
+}
@@ -16,6 +16,9 @@ package com.google.gerrit.metrics.dropwizard;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.WeightedSnapshot;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Test;
 
 public class DropWizardMetricMakerTest {
@@ -41,4 +44,26 @@ public class DropWizardMetricMakerTest {
     assertThat(metrics.sanitizeMetricName("metric//")).isEqualTo("metric");
     assertThat(metrics.sanitizeMetricName("metric/submetric/")).isEqualTo("metric/submetric");
   }
+
+  @Test
+  public void shouldUseExponentiallyDecayingReservoirByDefault() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    DropWizardMetricMaker metrics = new DropWizardMetricMaker(registry);
+    metrics.setConfig(new Config());
+
+    metrics.newTimerImpl("timer");
+    assertThat(registry.timer("timer").getSnapshot()).isInstanceOf(WeightedSnapshot.class);
+  }
+
+  @Test
+  public void shouldUseReservoirFromConfig() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    DropWizardMetricMaker metrics = new DropWizardMetricMaker(registry);
+    Config cfg = new Config();
+    cfg.setString("metrics", null, "reservoir", "log_linear");
+    metrics.setConfig(cfg);
+
+    metrics.newTimerImpl("timer");
+    assertThat(registry.timer("timer").getSnapshot()).isNotInstanceOf(WeightedSnapshot.class);
+  }
 }
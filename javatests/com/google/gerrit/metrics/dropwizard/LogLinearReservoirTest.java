@@ -0,0 +1,108 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LogLinearReservoirTest {
+  private static class FakeClock extends Clock {
+    long tick;
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+
+  private final FakeClock clock = new FakeClock();
+  private final LogLinearReservoir reservoir = new LogLinearReservoir(Duration.ofMinutes(1), clock);
+
+  @Test
+  public void bucketsAreContiguous() throws Exception {
+    for (int b = 1; b < LogLinearReservoir.BUCKETS; b++) {
+      long lower = LogLinearReservoir.lowerBound(b);
+      assertThat(LogLinearReservoir.bucket(lower)).isEqualTo(b);
+      assertThat(LogLinearReservoir.bucket(lower - 1)).isEqualTo(b - 1);
+    }
+  }
+
+  @Test
+  public void smallAndLargeValuesAreClamped() throws Exception {
+    assertThat(LogLinearReservoir.bucket(-5)).isEqualTo(0);
+    assertThat(LogLinearReservoir.bucket(Long.MAX_VALUE)).isEqualTo(LogLinearReservoir.BUCKETS - 1);
+  }
+
+  @Test
+  public void percentilesHaveBoundedError() throws Exception {
+    for (long v = 1; v <= 100_000; v++) {
+      reservoir.update(v);
+    }
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(100_000);
+    assertThat(s.getMin()).isEqualTo(1);
+    assertThat(s.getMax()).isEqualTo(100_000);
+    assertThat(s.getMean()).isWithin(0.001).of(50_000.5);
+    double maxError = 1.0 / LogLinearReservoir.SUB_BUCKETS;
+    assertThat(s.getMedian()).isWithin(50_000 * maxError).of(50_000);
+    assertThat(s.get95thPercentile()).isWithin(95_000 * maxError).of(95_000);
+    assertThat(s.get999thPercentile()).isWithin(99_900 * maxError).of(99_900);
+  }
+
+  @Test
+  public void smallValuesAreExact() throws Exception {
+    for (long v = 0; v < 10; v++) {
+      reservoir.update(v);
+    }
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.getValue(0.5)).isEqualTo(4.0);
+    assertThat(s.getValues()).asList().containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+  }
+
+  @Test
+  public void emptySnapshot() throws Exception {
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(0);
+    assertThat(s.getMedian()).isEqualTo(0.0);
+    assertThat(s.getMin()).isEqualTo(0);
+    assertThat(s.getMax()).isEqualTo(0);
+  }
+
+  @Test
+  public void oldWindowsAreDropped() throws Exception {
+    reservoir.update(1000);
+    assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+
+    clock.tick += TimeUnit.MINUTES.toNanos(1);
+    assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+    reservoir.update(10);
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(2);
+    assertThat(s.getMax()).isEqualTo(1000);
+
+    clock.tick += TimeUnit.MINUTES.toNanos(1);
+    s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(1);
+    assertThat(s.getMax()).isEqualTo(10);
+
+    clock.tick += TimeUnit.MINUTES.toNanos(1);
+    assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+  }
+}
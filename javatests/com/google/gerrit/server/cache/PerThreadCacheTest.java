@@ -17,7 +17,12 @@ package com.google.gerrit.server.cache;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Test;
 
 public class PerThreadCacheTest {
@@ -89,7 +94,7 @@ public class PerThreadCacheTest {
   public void enforceMaxSize() {
     try (PerThreadCache cache = PerThreadCache.create()) {
       // Fill the cache
-      for (int i = 0; i < 50; i++) {
+      for (int i = 0; i < PerThreadCache.DEFAULT_MAX_ENTRIES; i++) {
         PerThreadCache.Key<String> key = PerThreadCache.Key.create(String.class, i);
         cache.get(key, () -> "cached value");
       }
@@ -100,4 +105,61 @@ public class PerThreadCacheTest {
       assertThat(value).isEqualTo("directly served");
     }
   }
+
+  @Test
+  public void maxSizeIsEnforcedPerClass() {
+    try (PerThreadCache cache = PerThreadCache.create()) {
+      for (int i = 0; i < PerThreadCache.DEFAULT_MAX_ENTRIES; i++) {
+        PerThreadCache.Key<String> key = PerThreadCache.Key.create(String.class, i);
+        cache.get(key, () -> "cached value");
+      }
+      PerThreadCache.Key<Integer> key = PerThreadCache.Key.create(Integer.class, 1000);
+      cache.get(key, () -> 1);
+      assertThat(cache.get(key, () -> 2)).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void configuredMaxSize() {
+    Config cfg = new Config();
+    cfg.setInt("perThreadCache", null, "maxEntries", 1);
+    cfg.setInt("perThreadCache", "Integer", "maxEntries", 2);
+    PerThreadCache.Factory factory = new PerThreadCache.Factory(cfg, new DisabledMetricMaker());
+    try (PerThreadCache cache = factory.create()) {
+      cache.get(PerThreadCache.Key.create(String.class, 1), () -> "value1");
+      cache.get(PerThreadCache.Key.create(String.class, 2), () -> "value2");
+      assertThat(cache.get(PerThreadCache.Key.create(String.class, 2), () -> "directly served"))
+          .isEqualTo("directly served");
+
+      cache.get(PerThreadCache.Key.create(Integer.class, 1), () -> 1);
+      cache.get(PerThreadCache.Key.create(Integer.class, 2), () -> 2);
+      assertThat(cache.get(PerThreadCache.Key.create(Integer.class, 2), () -> 3)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void propagateToOtherThread() throws Exception {
+    PerThreadCache.Key<String> key = PerThreadCache.Key.create(String.class);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (PerThreadCache cache = PerThreadCache.create()) {
+      cache.get(key, () -> "value1");
+      Callable<String> task =
+          PerThreadCache.propagate(() -> PerThreadCache.getOrCompute(key, () -> "value2"));
+      assertThat(executor.submit(task).get()).isEqualTo("value1");
+      assertThat(executor.submit(() -> PerThreadCache.get()).get()).isNull();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void propagatedTaskDoesNotUseClosedCache() throws Exception {
+    PerThreadCache.Key<String> key = PerThreadCache.Key.create(String.class);
+    Callable<String> task;
+    try (PerThreadCache cache = PerThreadCache.create()) {
+      cache.get(key, () -> "value1");
+      task = PerThreadCache.propagate(() -> PerThreadCache.getOrCompute(key, () -> "value2"));
+    }
+    assertThat(task.call()).isEqualTo("value2");
+  }
 }
@@ -29,17 +29,22 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.cache.DiskBackedCache;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
 import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.inject.TypeLiteral;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import org.junit.Test;
@@ -55,7 +60,22 @@ public class H2CacheTest {
 
   private static H2CacheImpl<String, String> newH2CacheImpl(
       SqlStore<String, String> store, Cache<String, ValueHolder<String>> mem) {
-    return new H2CacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem);
+    return new H2CacheImpl<>(newWriter(store), KEY_TYPE, mem);
+  }
+
+  private static BatchWriter<String, String> newWriter(SqlStore<String, String> store) {
+    return newWriter(MoreExecutors.directExecutor(), store, BatchWriter.DEFAULT_MAX_PENDING);
+  }
+
+  private static BatchWriter<String, String> newWriter(
+      Executor executor, SqlStore<String, String> store, int maxPending) {
+    return new BatchWriter<>(
+        "test",
+        executor,
+        store,
+        maxPending,
+        BatchWriter.DEFAULT_BATCH_SIZE,
+        new BatchWriter.Metrics(new DisabledMetricMaker()));
   }
 
   private static SqlStore<String, String> newStore(
@@ -217,15 +237,16 @@ public class H2CacheTest {
 
     // We wrap baseLoader just like H2CacheFactory is wrapping it. The wrapped version will call out
     // to the store for refreshing values.
-    H2CacheImpl.Loader<String, String> wrappedLoader =
-        new H2CacheImpl.Loader<>(MoreExecutors.directExecutor(), store, baseLoader);
+    BatchWriter<String, String> writer = newWriter(store);
+    DiskBackedCache.Loader<String, String> wrappedLoader =
+        new DiskBackedCache.Loader<>(writer, baseLoader);
     // memCache is the in-memory variant of the cache. Its loader is wrappedLoader which will call
     // out to the store to save or delete cached values.
     LoadingCache<String, ValueHolder<String>> memCache =
         CacheBuilder.newBuilder().maximumSize(10).build(wrappedLoader);
 
     // h2Cache puts it all together
-    H2CacheImpl<String, String> h2Cache = newH2CacheImpl(store, memCache);
+    H2CacheImpl<String, String> h2Cache = new H2CacheImpl<>(writer, KEY_TYPE, memCache);
 
     // Initial load and cache retrieval do not trigger refresh
     // This works because we use a directExecutor() for refreshes
@@ -249,6 +270,83 @@ public class H2CacheTest {
     assertThat(h2Cache.getIfPresent("foo")).isEqualTo("reload:foo");
   }
 
+  @Test
+  public void writesAreCoalescedUntilFlushed() {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    SqlStore<String, String> store = newStore(nextDbId(), DEFAULT_VERSION, null, null);
+    H2CacheImpl<String, String> impl =
+        new H2CacheImpl<>(
+            newWriter(tasks::add, store, BatchWriter.DEFAULT_MAX_PENDING),
+            KEY_TYPE,
+            disableMemCache());
+
+    impl.put("foo", "bar");
+    impl.put("foo", "baz");
+    assertThat(tasks).hasSize(1);
+    assertWithMessage("pending value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+    assertThat(impl.diskStats().size()).isEqualTo(0);
+
+    tasks.remove().run();
+    assertThat(impl.diskStats().size()).isEqualTo(1);
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+  }
+
+  @Test
+  public void writesAreDroppedWhenQueueIsFull() {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    SqlStore<String, String> store = newStore(nextDbId(), DEFAULT_VERSION, null, null);
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    H2CacheImpl<String, String> impl =
+        new H2CacheImpl<>(newWriter(tasks::add, store, 1), KEY_TYPE, mem);
+
+    impl.put("foo", "bar");
+    impl.put("baz", "qux");
+    tasks.remove().run();
+    assertThat(impl.diskStats().size()).isEqualTo(1);
+    assertThat(mem.getIfPresent("foo").clean).isTrue();
+    assertThat(mem.getIfPresent("baz").clean).isFalse();
+  }
+
+  @Test
+  public void invalidateDiscardsPendingWrite() {
+    Queue<Runnable> tasks = new ArrayDeque<>();
+    SqlStore<String, String> store = newStore(nextDbId(), DEFAULT_VERSION, null, null);
+    H2CacheImpl<String, String> impl =
+        new H2CacheImpl<>(
+            newWriter(tasks::add, store, BatchWriter.DEFAULT_MAX_PENDING),
+            KEY_TYPE,
+            disableMemCache());
+
+    impl.put("foo", "bar");
+    impl.invalidate("foo");
+    assertThat(impl.getIfPresent("foo")).isNull();
+
+    while (!tasks.isEmpty()) {
+      tasks.remove().run();
+    }
+    assertThat(impl.diskStats().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void stopFlushesPendingWrites() {
+    int id = nextDbId();
+    // Keeps the in-memory database open after impl closed its connections.
+    SqlStore<String, String> other = newStore(id, DEFAULT_VERSION, null, null);
+    assertThat(other.diskStats().size()).isEqualTo(0);
+
+    H2CacheImpl<String, String> impl =
+        new H2CacheImpl<>(
+            newWriter(r -> {}, newStore(id, DEFAULT_VERSION, null, null), 1),
+            KEY_TYPE,
+            CacheBuilder.newBuilder().build());
+    impl.put("foo", "bar");
+    impl.put("baz", "qux");
+    impl.stop();
+
+    assertThat(other.getIfPresent("foo").value).isEqualTo("bar");
+    assertThat(other.getIfPresent("baz").value).isEqualTo("qux");
+  }
+
   @SuppressWarnings("unchecked")
   private static void resetLoaderAndAnswerLoadAndRefreshCalls(CacheLoader<String, String> loader)
       throws Exception {
@@ -0,0 +1,161 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.server.cache.PersistentCacheFactory;
+import com.google.gerrit.server.cache.mem.DefaultMemoryCacheModule;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePath;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import java.nio.file.Path;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests the caches created by {@link MmapCacheFactory}, including their lifecycle. */
+public class MmapCacheFactoryTest {
+  private static final String CACHE_NAME = "test";
+  private static final int MEMORY_LIMIT = 2;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MmapCacheFactory factory;
+  private Cache<String, String> cache;
+
+  @Before
+  public void setUp() throws Exception {
+    restart();
+  }
+
+  @After
+  public void tearDown() {
+    factory.stop();
+  }
+
+  @Test
+  public void getAndPut() throws Exception {
+    assertThat(cache.getIfPresent("foo")).isNull();
+    assertThat(cache.get("foo", () -> "bar")).isEqualTo("bar");
+    assertThat(cache.get("foo", () -> "other")).isEqualTo("bar");
+
+    cache.put("foo", "baz");
+    assertThat(cache.getIfPresent("foo")).isEqualTo("baz");
+  }
+
+  @Test
+  public void entriesEvictedFromMemoryAreReadFromDisk() throws Exception {
+    int entries = 10;
+    for (int i = 0; i < entries; i++) {
+      cache.put("key" + i, "value" + i);
+    }
+    awaitDiskSize(entries);
+    cache.cleanUp();
+    assertThat(cache.size()).isAtMost(MEMORY_LIMIT);
+
+    for (int i = 0; i < entries; i++) {
+      assertThat(cache.getIfPresent("key" + i)).isEqualTo("value" + i);
+    }
+    assertThat(((PersistentCache) cache).diskStats().hitCount()).isAtLeast(entries - MEMORY_LIMIT);
+  }
+
+  @Test
+  public void entriesSurviveRestart() throws Exception {
+    cache.put("foo", "bar");
+    cache.put("baz", "qux");
+    cache.put("removed", "value");
+    cache.invalidate("removed");
+
+    restart();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getIfPresent("foo")).isEqualTo("bar");
+    assertThat(cache.getIfPresent("baz")).isEqualTo("qux");
+    assertThat(cache.getIfPresent("removed")).isNull();
+  }
+
+  @Test
+  public void invalidateAllSurvivesRestart() throws Exception {
+    cache.put("foo", "bar");
+    awaitDiskSize(1);
+    cache.invalidateAll();
+
+    restart();
+    assertThat(cache.getIfPresent("foo")).isNull();
+  }
+
+  /** Stops the current factory, if any, and starts a new one on the same cache directory. */
+  private void restart() throws Exception {
+    if (factory != null) {
+      factory.stop();
+    }
+
+    Path site = temporaryFolder.getRoot().toPath();
+    Config cfg = new Config();
+    cfg.setString("cache", null, "directory", "cache");
+    Injector injector =
+        Guice.createInjector(
+            new CacheModule() {
+              @Override
+              protected void configure() {
+                bind(Path.class).annotatedWith(SitePath.class).toInstance(site);
+                bind(Config.class).annotatedWith(GerritServerConfig.class).toInstance(cfg);
+                bind(MetricMaker.class).to(DisabledMetricMaker.class);
+                DynamicSet.setOf(binder(), CacheRemovalListener.class);
+                DynamicMap.mapOf(binder(), new TypeLiteral<Cache<?, ?>>() {});
+                install(new DefaultMemoryCacheModule());
+                bind(PersistentCacheFactory.class).to(MmapCacheFactory.class);
+
+                persist(CACHE_NAME, String.class, String.class)
+                    .maximumWeight(MEMORY_LIMIT)
+                    .diskLimit(1 << 20)
+                    .keySerializer(StringCacheSerializer.INSTANCE)
+                    .valueSerializer(StringCacheSerializer.INSTANCE);
+              }
+            });
+    factory = injector.getInstance(MmapCacheFactory.class);
+    cache =
+        injector.getInstance(
+            Key.get(new TypeLiteral<Cache<String, String>>() {}, Names.named(CACHE_NAME)));
+    factory.start();
+  }
+
+  private void awaitDiskSize(long size) throws Exception {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    while (((PersistentCache) cache).diskStats().size() < size) {
+      assertWithMessage("entries written in time").that(stopwatch.elapsed(SECONDS)).isLessThan(30L);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.DiskBackedCache.ValueHolder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.TypeLiteral;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MmapCacheTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<>() {};
+  private static final int DEFAULT_VERSION = 1234;
+  private static final int SEGMENT_SIZE = 4096;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+  private LogStore<String, String> store;
+
+  @Before
+  public void setUp() throws Exception {
+    file = temporaryFolder.getRoot().toPath().resolve("test.mmap");
+  }
+
+  @After
+  public void tearDown() {
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  private LogStore<String, String> reopen() {
+    return reopen(DEFAULT_VERSION, Long.MAX_VALUE, null);
+  }
+
+  private LogStore<String, String> reopen(
+      int version, long maxSize, @Nullable Duration expireAfterWrite) {
+    if (store != null) {
+      store.close();
+    }
+    store =
+        new LogStore<>(
+            file,
+            StringCacheSerializer.INSTANCE,
+            StringCacheSerializer.INSTANCE,
+            version,
+            maxSize,
+            SEGMENT_SIZE,
+            expireAfterWrite,
+            null);
+    store.open();
+    return store;
+  }
+
+  private static ValueHolder<String> holder(String value) {
+    return new ValueHolder<>(value, TimeUtil.now());
+  }
+
+  @Nullable
+  private String get(String key) {
+    ValueHolder<String> h = store.getIfPresent(key);
+    return h != null ? h.value : null;
+  }
+
+  @Test
+  public void get() throws Exception {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    MmapCacheImpl<String, String> impl =
+        new MmapCacheImpl<>(
+            new LogWriter<>(MoreExecutors.directExecutor(), reopen()), KEY_TYPE, mem);
+
+    assertThat(impl.getIfPresent("foo")).isNull();
+
+    AtomicBoolean called = new AtomicBoolean();
+    assertThat(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "bar";
+                }))
+        .isEqualTo("bar");
+    assertWithMessage("Callable was called").that(called.get()).isTrue();
+    assertWithMessage("in-memory value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    mem.invalidate("foo");
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    assertThat(impl.diskStats().hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void valuesSurviveReopen() throws Exception {
+    reopen();
+    for (int i = 0; i < 100; i++) {
+      store.put("key" + i, holder("value" + i));
+    }
+    store.put("key0", holder("updated"));
+
+    reopen();
+    assertThat(get("key0")).isEqualTo("updated");
+    for (int i = 1; i < 100; i++) {
+      assertThat(get("key" + i)).isEqualTo("value" + i);
+    }
+    assertThat(store.diskStats().size()).isEqualTo(100);
+  }
+
+  @Test
+  public void recordsSpanMultipleSegments() throws Exception {
+    reopen();
+    String value = Strings.repeat("x", SEGMENT_SIZE / 3);
+    for (int i = 0; i < 20; i++) {
+      store.put("key" + i, holder(value + i));
+    }
+    assertThat(store.diskStats().space()).isGreaterThan(5L * SEGMENT_SIZE);
+
+    reopen();
+    for (int i = 0; i < 20; i++) {
+      assertThat(get("key" + i)).isEqualTo(value + i);
+    }
+  }
+
+  @Test
+  public void valueLargerThanSegmentIsNotStored() throws Exception {
+    reopen();
+    ValueHolder<String> h = holder(Strings.repeat("x", SEGMENT_SIZE));
+    store.put("big", h);
+    assertThat(h.clean).isFalse();
+    assertThat(get("big")).isNull();
+  }
+
+  @Test
+  public void invalidateSurvivesReopen() throws Exception {
+    reopen();
+    store.put("foo", holder("bar"));
+    store.put("baz", holder("qux"));
+    store.invalidate("foo");
+    assertThat(get("foo")).isNull();
+
+    reopen();
+    assertThat(get("foo")).isNull();
+    assertThat(get("baz")).isEqualTo("qux");
+  }
+
+  @Test
+  public void invalidateAll() throws Exception {
+    reopen();
+    store.put("foo", holder("bar"));
+    store.invalidateAll();
+    assertThat(get("foo")).isNull();
+    store.put("baz", holder("qux"));
+
+    reopen();
+    assertThat(get("foo")).isNull();
+    assertThat(get("baz")).isEqualTo("qux");
+  }
+
+  @Test
+  public void versionMismatchDiscardsEntries() throws Exception {
+    reopen();
+    store.put("foo", holder("bar"));
+
+    reopen(DEFAULT_VERSION + 1, Long.MAX_VALUE, null);
+    assertThat(get("foo")).isNull();
+    assertThat(store.diskStats().size()).isEqualTo(0);
+  }
+
+  @Test
+  public void expiredEntryIsNotReturned() throws Exception {
+    reopen(DEFAULT_VERSION, Long.MAX_VALUE, Duration.ofMinutes(1));
+    store.put("old", new ValueHolder<>("value", Instant.now().minus(Duration.ofHours(1))));
+    store.put("new", holder("value"));
+    assertThat(get("old")).isNull();
+    assertThat(get("new")).isEqualTo("value");
+  }
+
+  @Test
+  public void corruptTailIsDiscarded() throws Exception {
+    reopen();
+    store.put("foo", holder("bar"));
+    store.put("baz", holder("qux"));
+    long end = store.diskStats().space();
+    store.close();
+
+    try (FileChannel ch = FileChannel.open(file, WRITE)) {
+      ch.write(ByteBuffer.wrap(new byte[] {'Q'}), end - 1);
+    }
+
+    reopen();
+    assertThat(get("foo")).isEqualTo("bar");
+    assertThat(get("baz")).isNull();
+
+    store.put("baz", holder("new"));
+    reopen();
+    assertThat(get("baz")).isEqualTo("new");
+  }
+
+  @Test
+  public void unwrittenSegmentIsDiscarded() throws Exception {
+    reopen();
+    String value = Strings.repeat("x", SEGMENT_SIZE / 2);
+    store.put("foo", holder(value));
+    // Doesn't fit into the first segment, so it's written at the start of the second one.
+    store.put("bar", holder(value));
+    store.close();
+
+    // As if the server crashed after the file was grown but before the record was written.
+    try (FileChannel ch = FileChannel.open(file, WRITE)) {
+      ch.write(ByteBuffer.allocate(4), SEGMENT_SIZE);
+    }
+
+    reopen();
+    assertThat(get("foo")).isEqualTo(value);
+    assertThat(get("bar")).isNull();
+    assertThat(store.diskStats().space()).isEqualTo(SEGMENT_SIZE);
+
+    store.put("bar", holder("new"));
+    reopen();
+    assertThat(get("foo")).isEqualTo(value);
+    assertThat(get("bar")).isEqualTo("new");
+  }
+
+  @Test
+  public void pruneReclaimsStaleRecords() throws Exception {
+    reopen();
+    for (int i = 0; i < 50; i++) {
+      store.put("key", holder("value" + i));
+    }
+    long before = store.diskStats().space();
+
+    store.prune(CacheBuilder.newBuilder().build());
+    assertThat(store.diskStats().space()).isLessThan(before);
+    assertThat(get("key")).isEqualTo("value49");
+
+    reopen();
+    assertThat(get("key")).isEqualTo("value49");
+  }
+
+  @Test
+  public void pruneDropsLeastRecentlyAccessedEntriesNotInMemory() throws Exception {
+    String value = Strings.repeat("x", 100);
+    reopen(DEFAULT_VERSION, 400, null);
+    store.put("a", new ValueHolder<>(value, Instant.ofEpochMilli(1000)));
+    store.put("b", new ValueHolder<>(value, Instant.ofEpochMilli(2000)));
+    store.put("c", new ValueHolder<>(value, Instant.ofEpochMilli(3000)));
+    store.put("d", new ValueHolder<>(value, Instant.ofEpochMilli(4000)));
+
+    Cache<String, String> mem = CacheBuilder.newBuilder().build();
+    mem.put("a", value);
+    store.prune(mem);
+
+    assertThat(get("a")).isEqualTo(value);
+    assertThat(get("b")).isNull();
+    assertThat(get("c")).isEqualTo(value);
+    assertThat(get("d")).isEqualTo(value);
+  }
+}
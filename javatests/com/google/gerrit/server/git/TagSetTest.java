@@ -38,8 +38,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Test;
 
 public class TagSetTest {
@@ -106,6 +110,45 @@ public class TagSetTest {
     assertEqual(tagSet, TagSet.fromProto(proto));
   }
 
+  @Test
+  public void updateWalksOnlyCommitsBetweenOldAndNewValue() throws Exception {
+    InMemoryRepository repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+    TestRepository<InMemoryRepository> tr = new TestRepository<>(repo);
+    RevCommit c1 = tr.commit().create();
+    RevCommit c2 = tr.commit().parent(c1).create();
+    RevCommit c3 = tr.commit().parent(c1).create();
+    tr.update("refs/heads/master", c1);
+    tr.lightweightTag("v1", c1);
+    tr.lightweightTag("v2", c2);
+
+    TagSet tagSet = new TagSet(Project.nameKey("project"));
+    tagSet.build(repo, null, null);
+    int master = tagSet.getRefsForTesting().get("refs/heads/master").flag;
+    assertThat(tagSet.lookupTag(c1).refFlags.get(master)).isTrue();
+    assertThat(tagSet.lookupTag(c2).refFlags.get(master)).isFalse();
+
+    // Fast-forward makes v2 reachable.
+    TagSet updated = new TagSet(tagSet.getProjectName());
+    assertThat(updated.update(repo, tagSet, "refs/heads/master", c1, c2)).isEqualTo(1);
+    assertThat(updated.getRefsForTesting().get("refs/heads/master").get()).isEqualTo(c2);
+    assertThat(updated.lookupTag(c1).refFlags.get(master)).isTrue();
+    assertThat(updated.lookupTag(c2).refFlags.get(master)).isTrue();
+    assertThat(tagSet.lookupTag(c2).refFlags.get(master)).isFalse();
+
+    // Rewind makes v2 unreachable again.
+    TagSet rewound = new TagSet(tagSet.getProjectName());
+    assertThat(rewound.update(repo, updated, "refs/heads/master", c2, c3)).isEqualTo(2);
+    assertThat(rewound.lookupTag(c1).refFlags.get(master)).isTrue();
+    assertThat(rewound.lookupTag(c2).refFlags.get(master)).isFalse();
+
+    // The ref moved elsewhere in the meantime.
+    TagSet stale = new TagSet(tagSet.getProjectName());
+    assertThat(stale.update(repo, rewound, "refs/heads/master", c1, c2)).isEqualTo(-1);
+    // The ref is not known to the set.
+    TagSet unknown = new TagSet(tagSet.getProjectName());
+    assertThat(unknown.update(repo, rewound, "refs/heads/other", c1, c2)).isEqualTo(-1);
+  }
+
   @Test
   public void tagSetFields() {
     assertThatSerializedClass(TagSet.class)
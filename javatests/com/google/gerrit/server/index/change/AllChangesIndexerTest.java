@@ -0,0 +1,201 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.config.FactoryModule;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.SiteIndexer;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.MultiProgressMonitor;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.inject.Guice;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AllChangesIndexerTest {
+  private static final int THREADS = 4;
+  private static final Project.NameKey BIG_PROJECT = Project.nameKey("big");
+
+  /** Number of changes of the big project; it is indexed in 3 slices of 9 batches each. */
+  private static final int BIG_PROJECT_CHANGES = 2500;
+
+  private static final int SMALL_PROJECTS = 20;
+  private static final int SMALL_PROJECT_CHANGES = 5;
+
+  private final InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+  private final Map<Change.Id, ChangeNotesResult> notes = new HashMap<>();
+  private final Multiset<Change.Id> indexed = ConcurrentHashMultiset.create();
+  private final Set<Thread> bigProjectThreads = ConcurrentHashMap.newKeySet();
+  private final ImmutableSortedSet.Builder<Project.NameKey> projects =
+      ImmutableSortedSet.naturalOrder();
+  private ListeningExecutorService executor;
+  private int nextChangeId = 1;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREADS));
+    createProject(BIG_PROJECT, BIG_PROJECT_CHANGES);
+    for (int i = 0; i < SMALL_PROJECTS; i++) {
+      createProject(Project.nameKey("small-" + i), SMALL_PROJECT_CHANGES);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void eachChangeOfSkewedProjectsIsIndexedExactlyOnce() throws Exception {
+    SiteIndexer.Result result = newIndexer().indexAll(mock(ChangeIndex.class));
+
+    int total = BIG_PROJECT_CHANGES + SMALL_PROJECTS * SMALL_PROJECT_CHANGES;
+    assertThat(result.success()).isTrue();
+    assertThat(result.doneCount()).isEqualTo(total);
+    assertThat(result.failedCount()).isEqualTo(0);
+    // Compares the number of times each change was indexed, too.
+    assertThat(indexed).containsExactlyElementsIn(notes.keySet());
+    // Each slice of the big project is started by one thread. The threads that finished the small
+    // projects must have helped with the remaining batches of the big project.
+    assertThat(bigProjectThreads.size()).isGreaterThan(3);
+  }
+
+  private void createProject(Project.NameKey name, int changes) throws Exception {
+    InMemoryRepository repo = repoManager.createRepository(name);
+    ObjectId commit = new TestRepository<>(repo).commit().create();
+    BatchRefUpdate bru = repo.getRefDatabase().newBatchUpdate();
+    for (int i = 0; i < changes; i++) {
+      Change.Id id = Change.id(nextChangeId++);
+      bru.addCommand(
+          new ReceiveCommand(ObjectId.zeroId(), commit, RefNames.changeMetaRef(id)),
+          new ReceiveCommand(ObjectId.zeroId(), commit, RefNames.patchSetRef(PatchSet.id(id, 1))));
+      notes.put(id, notesResult(name, id));
+    }
+    try (RevWalk rw = new RevWalk(repo)) {
+      bru.execute(rw, NullProgressMonitor.INSTANCE);
+    }
+    projects.add(name);
+  }
+
+  private static ChangeNotesResult notesResult(Project.NameKey project, Change.Id id) {
+    ChangeNotes changeNotes = mock(ChangeNotes.class);
+    when(changeNotes.getProjectName()).thenReturn(project);
+    when(changeNotes.getChangeId()).thenReturn(id);
+    ChangeNotesResult result = mock(ChangeNotesResult.class);
+    when(result.id()).thenReturn(id);
+    when(result.error()).thenReturn(Optional.empty());
+    when(result.notes()).thenReturn(changeNotes);
+    return result;
+  }
+
+  private AllChangesIndexer newIndexer() throws Exception {
+    ChangeNotes.Factory notesFactory = mock(ChangeNotes.Factory.class);
+    when(notesFactory.createAll(any(), any(), anyCollection()))
+        .thenAnswer(
+            in -> {
+              Collection<Change.Id> ids = in.getArgument(2);
+              return ids.stream().map(notes::get).collect(toImmutableList());
+            });
+
+    ChangeData.Factory changeDataFactory = mock(ChangeData.Factory.class);
+    when(changeDataFactory.create(any(ChangeNotes.class)))
+        .thenAnswer(
+            in -> {
+              ChangeNotes n = in.getArgument(0);
+              return ChangeData.createForTest(
+                  n.getProjectName(), n.getChangeId(), 1, ObjectId.zeroId());
+            });
+
+    ChangeIndexer changeIndexer = mock(ChangeIndexer.class);
+    doAnswer(
+            in -> {
+              ChangeData cd = in.getArgument(0);
+              indexed.add(cd.getId());
+              if (cd.project().equals(BIG_PROJECT)) {
+                bigProjectThreads.add(Thread.currentThread());
+                // Make the big project the critical path.
+                Thread.sleep(1);
+              }
+              return null;
+            })
+        .when(changeIndexer)
+        .index(any(ChangeData.class));
+    ChangeIndexer.Factory indexerFactory = mock(ChangeIndexer.Factory.class);
+    when(indexerFactory.create(any(), any(ChangeIndex.class))).thenReturn(changeIndexer);
+
+    ProjectCache projectCache = mock(ProjectCache.class);
+    when(projectCache.all()).thenReturn(projects.build());
+
+    MultiProgressMonitor.Factory multiProgressMonitorFactory =
+        Guice.createInjector(
+                new FactoryModule() {
+                  @Override
+                  protected void configure() {
+                    factory(MultiProgressMonitor.Factory.class);
+                    bind(MetricMaker.class).to(DisabledMetricMaker.class);
+                    bind(Ticker.class).toInstance(Ticker.systemTicker());
+                  }
+                })
+            .getInstance(MultiProgressMonitor.Factory.class);
+
+    return new AllChangesIndexer(
+        multiProgressMonitorFactory,
+        changeDataFactory,
+        repoManager,
+        executor,
+        indexerFactory,
+        notesFactory,
+        projectCache,
+        IndexConfig.createDefault());
+  }
+}
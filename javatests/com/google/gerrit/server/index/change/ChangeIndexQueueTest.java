@@ -0,0 +1,316 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.options.IsFirstInsertForEntry;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
+import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Guice;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeIndexQueueTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final Change.Id CHANGE = Change.id(1);
+  private static final long DELAY_MILLIS = 500;
+
+  /** Runs tasks only when {@link #advance} is called. */
+  private static class FakeScheduledExecutorService extends AbstractExecutorService
+      implements ScheduledExecutorService {
+    private final List<Task<?>> tasks = new ArrayList<>();
+    private long now;
+    private boolean rejecting;
+
+    /** Returns the number of tasks that didn't run yet. */
+    int queued() {
+      return tasks.size();
+    }
+
+    /** Moves the clock forward and runs the tasks which are due. */
+    void advance(long millis) {
+      now += millis;
+      for (Task<?> task : ImmutableList.copyOf(tasks)) {
+        if (task.time <= now) {
+          tasks.remove(task);
+          task.run();
+        }
+      }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return schedule(Executors.callable(command), delay, unit);
+    }
+
+    /** Sets whether new tasks are rejected, as by an executor that is shut down. */
+    void setRejecting(boolean rejecting) {
+      this.rejecting = rejecting;
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      if (rejecting) {
+        throw new RejectedExecutionException("rejecting tasks");
+      }
+      Task<V> task = new Task<>(callable, now + unit.toMillis(delay));
+      tasks.add(task);
+      return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+        Runnable command, long initialDelay, long period, TimeUnit unit) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+        Runnable command, long initialDelay, long delay, TimeUnit unit) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      schedule(command, 0, MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+
+    private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+      private final long time;
+
+      Task(Callable<V> callable, long time) {
+        super(callable);
+        this.time = time;
+      }
+
+      @Override
+      public long getDelay(TimeUnit unit) {
+        return unit.convert(time - now, MILLISECONDS);
+      }
+
+      @Override
+      public int compareTo(Delayed other) {
+        return Long.compare(getDelay(MILLISECONDS), other.getDelay(MILLISECONDS));
+      }
+    }
+  }
+
+  private final AtomicInteger scheduledForIndexing = new AtomicInteger();
+  private FakeScheduledExecutorService scheduler;
+  private FakeScheduledExecutorService indexExecutor;
+  private ChangeIndexCollection indexes;
+  private ChangeNotes.Factory notesFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    scheduler = new FakeScheduledExecutorService();
+    indexExecutor = new FakeScheduledExecutorService();
+    indexes = new ChangeIndexCollection();
+    notesFactory = mock(ChangeNotes.Factory.class);
+    when(notesFactory.createChecked(any(Project.NameKey.class), any(Change.Id.class)))
+        .thenThrow(new NoSuchChangeException(CHANGE));
+  }
+
+  @Test
+  public void requestsFromDifferentIndexersAreCoalesced() {
+    ChangeIndexQueue queue = newQueue(0);
+    ChangeIndexer indexer1 = newIndexer(queue, indexes);
+    ChangeIndexer indexer2 = newIndexer(queue, indexes);
+
+    indexer1.indexAsync(PROJECT, CHANGE);
+    indexer2.indexAsync(PROJECT, CHANGE);
+    indexer1.indexAsync(PROJECT, CHANGE);
+
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+    assertThat(scheduledForIndexing.get()).isEqualTo(1);
+
+    indexer2.indexAsync(PROJECT, Change.id(2));
+    assertThat(indexExecutor.queued()).isEqualTo(2);
+  }
+
+  @Test
+  public void requestsForDifferentIndexesAreNotCoalesced() {
+    ChangeIndexQueue queue = newQueue(0);
+    ChangeIndexer indexer1 = newIndexer(queue, indexes);
+    ChangeIndexer indexer2 = newIndexer(queue, new ChangeIndexCollection());
+
+    indexer1.indexAsync(PROJECT, CHANGE);
+    indexer2.indexAsync(PROJECT, CHANGE);
+
+    assertThat(indexExecutor.queued()).isEqualTo(2);
+  }
+
+  @Test
+  public void requestIsQueuedAgainOnceTaskStarted() throws Exception {
+    ChangeIndexQueue queue = newQueue(0);
+    ListenableFuture<ChangeData> first = newIndexer(queue, indexes).indexAsync(PROJECT, CHANGE);
+    indexExecutor.advance(0);
+    assertThat(first.isDone()).isTrue();
+
+    // The change may have been updated after the task read it, so it must be indexed again.
+    newIndexer(queue, indexes).indexAsync(PROJECT, CHANGE);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+    assertThat(scheduledForIndexing.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void requestsWithinDelayAreCoalesced() {
+    ChangeIndexQueue queue = newQueue(DELAY_MILLIS);
+    ChangeIndexer indexer1 = newIndexer(queue, indexes);
+    ChangeIndexer indexer2 = newIndexer(queue, indexes);
+
+    indexer1.indexAsync(PROJECT, CHANGE);
+    scheduler.advance(DELAY_MILLIS - 1);
+    indexer2.indexAsync(PROJECT, CHANGE);
+    assertThat(indexExecutor.queued()).isEqualTo(0);
+
+    scheduler.advance(1);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+    assertThat(scheduledForIndexing.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void requestAfterDelayIsCoalescedWhileTaskIsNotStarted() {
+    ChangeIndexQueue queue = newQueue(DELAY_MILLIS);
+    newIndexer(queue, indexes).indexAsync(PROJECT, CHANGE);
+    scheduler.advance(DELAY_MILLIS);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+
+    newIndexer(queue, indexes).indexAsync(PROJECT, CHANGE);
+    scheduler.advance(DELAY_MILLIS);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+  }
+
+  @Test
+  public void requestIsSubmittedAgainAfterDelayedTaskWasRejected() {
+    ChangeIndexQueue queue = newQueue(DELAY_MILLIS);
+    ChangeIndexer indexer = newIndexer(queue, indexes);
+    ListenableFuture<ChangeData> first = indexer.indexAsync(PROJECT, CHANGE);
+    indexExecutor.setRejecting(true);
+    scheduler.advance(DELAY_MILLIS);
+    assertThat(first.isDone()).isTrue();
+    assertThrows(ExecutionException.class, () -> Futures.getDone(first));
+
+    indexExecutor.setRejecting(false);
+    ListenableFuture<ChangeData> second = indexer.indexAsync(PROJECT, CHANGE);
+    assertThat(second.isDone()).isFalse();
+    assertThat(scheduledForIndexing.get()).isEqualTo(2);
+    scheduler.advance(DELAY_MILLIS);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+  }
+
+  @Test
+  public void requestIsNotDelayedByDefault() {
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.getDefaultQueue()).thenReturn(scheduler);
+    ChangeIndexQueue queue =
+        new ChangeIndexQueue(new Config(), workQueue, new DisabledMetricMaker());
+    newIndexer(queue, indexes).indexAsync(PROJECT, CHANGE);
+
+    assertThat(scheduler.queued()).isEqualTo(0);
+    assertThat(indexExecutor.queued()).isEqualTo(1);
+  }
+
+  private ChangeIndexQueue newQueue(long delayMillis) {
+    return new ChangeIndexQueue(scheduler, delayMillis, new DisabledMetricMaker());
+  }
+
+  private ChangeIndexer newIndexer(ChangeIndexQueue queue, ChangeIndexCollection indexes) {
+    DynamicSet<ChangeIndexedListener> listeners = new DynamicSet<>();
+    listeners.add(
+        "gerrit",
+        new ChangeIndexedListener() {
+          @Override
+          public void onChangeScheduledForIndexing(String projectName, int id) {
+            scheduledForIndexing.incrementAndGet();
+          }
+
+          @Override
+          public void onChangeIndexed(String projectName, int id) {}
+
+          @Override
+          public void onChangeDeleted(int id) {}
+        });
+    return new ChangeIndexer(
+        new Config(),
+        null,
+        notesFactory,
+        Guice.createInjector().getInstance(ThreadLocalRequestContext.class),
+        new PluginSetContext<>(listeners, PluginMetrics.DISABLED_INSTANCE),
+        null,
+        null,
+        MoreExecutors.listeningDecorator(indexExecutor),
+        indexes,
+        IsFirstInsertForEntry.NO,
+        queue);
+  }
+}
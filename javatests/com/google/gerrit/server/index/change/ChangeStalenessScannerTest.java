@@ -0,0 +1,291 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.projects.ProjectInput;
+import com.google.gerrit.extensions.events.ChangeIndexedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.RefState;
+import com.google.gerrit.lifecycle.LifecycleManager;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountManager;
+import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.change.ChangeInserter;
+import com.google.gerrit.server.change.NotifyResolver;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.change.ChangeStalenessScanner.RefSnapshot;
+import com.google.gerrit.server.index.change.StalenessChecker.RefStatePattern;
+import com.google.gerrit.server.notedb.Sequences;
+import com.google.gerrit.server.schema.SchemaCreator;
+import com.google.gerrit.server.update.BatchUpdate;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gerrit.testing.InMemoryModule;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeStalenessScannerTest {
+  private static final String SHA1 = "deadbeefdeadbeefdeadbeefdeadbeefdeadbeef";
+
+  private static final Project.NameKey P1 = Project.nameKey("project1");
+  private static final Project.NameKey P2 = Project.nameKey("project2");
+
+  private GitRepositoryManager repoManager;
+  private TestRepository<Repository> tr1;
+  private TestRepository<Repository> tr2;
+
+  private final List<Change.Id> indexed = Collections.synchronizedList(new ArrayList<>());
+  private LifecycleManager lifecycle;
+  private Injector injector;
+  private GerritApi gApi;
+  private IdentifiedUser user;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    tr1 = new TestRepository<>(repoManager.createRepository(P1));
+    tr2 = new TestRepository<>(repoManager.createRepository(P2));
+  }
+
+  @After
+  public void tearDown() {
+    if (lifecycle != null) {
+      lifecycle.stop();
+      injector.getInstance(ThreadLocalRequestContext.class).setContext(null);
+    }
+  }
+
+  @Test
+  public void namespaceOf() {
+    assertThat(RefSnapshot.namespaceOf("refs/changes/34/1234/meta")).isEqualTo("refs/changes/");
+    assertThat(RefSnapshot.namespaceOf("refs/draft-comments/")).isEqualTo("refs/draft-comments/");
+    assertThat(RefSnapshot.namespaceOf("HEAD")).isEqualTo("HEAD");
+  }
+
+  @Test
+  public void isStaleRefStates() throws Exception {
+    String ref1 = "refs/changes/34/1234/meta";
+    ObjectId id1 = tr1.update(ref1, tr1.commit().message("commit 1"));
+    String ref2 = "refs/draft-comments/34/1234/1000000";
+    ObjectId id2 = tr2.update(ref2, tr2.commit().message("commit 2"));
+
+    RefSnapshot snapshot = new RefSnapshot(repoManager);
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(
+                    P1, RefState.create(ref1, id1), P2, RefState.create(ref2, id2)),
+                ImmutableListMultimap.of()))
+        .isFalse();
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(P1, RefState.create(ref1, SHA1)),
+                ImmutableListMultimap.of()))
+        .isTrue();
+
+    // Missing ref is expected to be missing.
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(
+                    P1, RefState.create("refs/changes/34/1234/1", ObjectId.zeroId())),
+                ImmutableListMultimap.of()))
+        .isFalse();
+  }
+
+  @Test
+  public void isStaleRefStatePatterns() throws Exception {
+    String ref1 = "refs/draft-comments/34/1234/1000000";
+    ObjectId id1 = tr1.update(ref1, tr1.commit().message("commit 1"));
+    String ref2 = "refs/draft-comments/34/1234/1000001";
+    ObjectId id2 = tr1.update(ref2, tr1.commit().message("commit 2"));
+    tr1.update("refs/draft-comments/35/1235/1000000", tr1.commit().message("commit 3"));
+    RefStatePattern pattern = RefStatePattern.create("refs/draft-comments/34/1234/*");
+
+    RefSnapshot snapshot = new RefSnapshot(repoManager);
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(
+                    P1, RefState.create(ref1, id1), P1, RefState.create(ref2, id2)),
+                ImmutableListMultimap.of(P1, pattern)))
+        .isFalse();
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(P1, RefState.create(ref1, id1)),
+                ImmutableListMultimap.of(P1, pattern)))
+        .isTrue();
+  }
+
+  @Test
+  public void refsAreReadOncePerNamespace() throws Exception {
+    String ref = "refs/changes/34/1234/meta";
+    ObjectId id1 = tr1.update(ref, tr1.commit().message("commit 1"));
+
+    RefSnapshot snapshot = new RefSnapshot(repoManager);
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(P1, RefState.create(ref, id1)), ImmutableListMultimap.of()))
+        .isFalse();
+
+    // Updates after the snapshot was taken are not seen.
+    ObjectId id2 = tr1.update(ref, tr1.commit().message("commit 2"));
+    assertThat(
+            snapshot.isStale(
+                ImmutableSetMultimap.of(P1, RefState.create(ref, id2)), ImmutableListMultimap.of()))
+        .isTrue();
+  }
+
+  @Test
+  public void scanReindexesStaleChanges() throws Exception {
+    startServer();
+    Project.NameKey project = createProject("project");
+    List<Change.Id> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(createChange(project));
+    }
+    createChange(createProject("other"));
+    ImmutableSet<Change.Id> stale = ImmutableSet.of(changes.get(1), changes.get(4));
+    for (Change.Id id : stale) {
+      makeStale(project, id);
+    }
+    indexed.clear();
+
+    // The page size is smaller than the number of changes, so that the scan reads several pages.
+    ChangeStalenessScanner scanner =
+        new ChangeStalenessScanner(
+            injector.getInstance(ChangeIndexCollection.class),
+            injector.getInstance(GitRepositoryManager.class),
+            injector.getInstance(IndexConfig.class),
+            injector.getInstance(ChangeIndexer.class),
+            2);
+    ChangeStalenessScanner.Result result = scanner.scan(project, NullProgressMonitor.INSTANCE);
+    assertThat(result.scanned()).isEqualTo(5);
+    assertThat(result.mismatched()).isEqualTo(2);
+    assertThat(result.reindexed()).isEqualTo(2);
+    assertThat(indexed).containsExactlyElementsIn(stale);
+
+    indexed.clear();
+    result = scanner.scan(project, NullProgressMonitor.INSTANCE);
+    assertThat(result.scanned()).isEqualTo(5);
+    assertThat(result.mismatched()).isEqualTo(0);
+    assertThat(indexed).isEmpty();
+  }
+
+  private void startServer() throws Exception {
+    Config cfg = new Config();
+    cfg.setString("index", null, "type", "lucene");
+    InMemoryModule.setDefaults(cfg);
+    injector =
+        Guice.createInjector(
+            new InMemoryModule(cfg),
+            new AbstractModule() {
+              @Override
+              protected void configure() {
+                DynamicSet.bind(binder(), ChangeIndexedListener.class)
+                    .toInstance(
+                        new ChangeIndexedListener() {
+                          @Override
+                          public void onChangeIndexed(String projectName, int id) {
+                            indexed.add(Change.id(id));
+                          }
+
+                          @Override
+                          public void onChangeDeleted(int id) {}
+                        });
+              }
+            });
+    lifecycle = new LifecycleManager();
+    lifecycle.add(injector);
+    lifecycle.start();
+
+    injector.getInstance(SchemaCreator.class).create();
+    Account.Id userId =
+        injector
+            .getInstance(AccountManager.class)
+            .authenticate(injector.getInstance(AuthRequest.Factory.class).createForUser("user"))
+            .getAccountId();
+    user = injector.getInstance(IdentifiedUser.GenericFactory.class).create(userId);
+    injector.getInstance(ThreadLocalRequestContext.class).setContext(() -> user);
+    gApi = injector.getInstance(GerritApi.class);
+  }
+
+  private Project.NameKey createProject(String name) throws Exception {
+    ProjectInput in = new ProjectInput();
+    in.name = name;
+    in.createEmptyCommit = true;
+    gApi.projects().create(in);
+    return Project.nameKey(name);
+  }
+
+  private Change.Id createChange(Project.NameKey project) throws Exception {
+    try (Repository repo =
+            injector.getInstance(GitRepositoryManager.class).openRepository(project);
+        TestRepository<Repository> tr = new TestRepository<>(repo)) {
+      RevCommit commit = tr.parseBody(tr.commit().message("Test change").create());
+      Change.Id id = Change.id(injector.getInstance(Sequences.class).nextChangeId());
+      ChangeInserter ins =
+          injector
+              .getInstance(ChangeInserter.Factory.class)
+              .create(id, commit, "refs/heads/master")
+              .setValidate(false);
+      try (BatchUpdate bu =
+          injector.getInstance(BatchUpdate.Factory.class).create(project, user, TimeUtil.now())) {
+        bu.setNotify(NotifyResolver.Result.none());
+        bu.insertChange(ins);
+        bu.execute();
+      }
+      return id;
+    }
+  }
+
+  /** Updates the change and then resets its meta ref, so that the index is ahead of the ref. */
+  private void makeStale(Project.NameKey project, Change.Id id) throws Exception {
+    try (Repository repo =
+        injector.getInstance(GitRepositoryManager.class).openRepository(project)) {
+      String ref = RefNames.changeMetaRef(id);
+      ObjectId old = repo.exactRef(ref).getObjectId();
+      gApi.changes().id(project.get(), id.get()).topic("topic");
+
+      RefUpdate u = repo.updateRef(ref);
+      u.setNewObjectId(old);
+      u.setForceUpdate(true);
+      assertThat(u.update()).isEqualTo(RefUpdate.Result.FORCED);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.gerrit.entities.Project;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReindexCheckpointTest {
+  private static final Project.NameKey P1 = Project.nameKey("project1");
+  private static final Project.NameKey P2 = Project.nameKey("project with spaces");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+  private ChangeIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    file = temporaryFolder.getRoot().toPath().resolve("changes_0001.checkpoint");
+    index = mock(ChangeIndex.class);
+  }
+
+  @Test
+  public void slicesAreRecordedOnFlush() throws Exception {
+    ReindexCheckpoint checkpoint = ReindexCheckpoint.load(file);
+    assertThat(checkpoint.size()).isEqualTo(0);
+
+    checkpoint.markDone(index, P1, 0, 2);
+    checkpoint.markDone(index, P2, 0, 1);
+    assertThat(checkpoint.isDone(P1, 0, 2)).isFalse();
+    assertThat(Files.exists(file)).isFalse();
+    verify(index, never()).commit();
+
+    checkpoint.flush(index);
+    verify(index, times(1)).commit();
+    assertThat(checkpoint.isDone(P1, 0, 2)).isTrue();
+
+    ReindexCheckpoint loaded = ReindexCheckpoint.load(file);
+    assertThat(loaded.size()).isEqualTo(2);
+    assertThat(loaded.isDone(P1, 0, 2)).isTrue();
+    assertThat(loaded.isDone(P1, 1, 2)).isFalse();
+    assertThat(loaded.isDone(P1, 0, 3)).isFalse();
+    assertThat(loaded.isDone(P2, 0, 1)).isTrue();
+  }
+
+  @Test
+  public void flushWithoutPendingSlicesDoesNotCommit() throws Exception {
+    ReindexCheckpoint.load(file).flush(index);
+    verify(index, never()).commit();
+    assertThat(Files.exists(file)).isFalse();
+  }
+
+  @Test
+  public void delete() throws Exception {
+    ReindexCheckpoint checkpoint = ReindexCheckpoint.load(file);
+    checkpoint.markDone(index, P1, 0, 1);
+    checkpoint.flush(index);
+    assertThat(Files.exists(file)).isTrue();
+
+    checkpoint.delete();
+    assertThat(Files.exists(file)).isFalse();
+    assertThat(checkpoint.isDone(P1, 0, 1)).isFalse();
+    assertThat(ReindexCheckpoint.load(file).size()).isEqualTo(0);
+  }
+}
@@ -15,11 +15,21 @@
 package com.google.gerrit.server.notedb;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.AttentionSetUpdate;
+import com.google.gerrit.entities.AttentionSetUpdate.Operation;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.CommentRange;
+import com.google.gerrit.entities.HumanComment;
+import com.google.gerrit.entities.LabelId;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gerrit.testing.TestChanges;
+import java.util.Optional;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
@@ -708,6 +718,108 @@ public class ChangeNotesParserTest extends AbstractChangeNotesTest {
     assertParseFails("Update change\n\nPatch-set: 1\nCurrent: blah");
   }
 
+  @Test
+  public void parseIncrementalMatchesParseAll() throws Exception {
+    Change c = newOpenChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) 1);
+    update.commit();
+    ChangeNotesState prior = newParser(c).parseAll();
+
+    update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) -1);
+    update.putApproval(LabelId.VERIFIED, (short) 1);
+    update.setChangeMessage("Verified");
+    update.setTag("autogenerated:ci");
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.putComment(
+        HumanComment.Status.PUBLISHED,
+        newComment(
+            c.currentPatchSetId(),
+            "a.txt",
+            "uuid1",
+            new CommentRange(1, 2, 3, 4),
+            1,
+            changeOwner,
+            null,
+            TimeUtil.now(),
+            "Comment",
+            (short) 1,
+            testRepo.commit().message("PS1").create(),
+            false));
+    update.addToPlannedAttentionSetUpdates(
+        ImmutableSet.of(
+            AttentionSetUpdate.createForWrite(otherUser.getAccountId(), Operation.ADD, "reply")));
+    update.commit();
+
+    Optional<ChangeNotesState> incremental = newParser(c).parseIncremental(prior);
+    assertThat(incremental).isPresent();
+    assertThat(incremental.get()).isEqualTo(newParser(c).parseAll());
+  }
+
+  @Test
+  public void parseIncrementalRequiresIncrementalFooters() throws Exception {
+    Change c = newOpenChange();
+    ChangeNotesState prior = newParser(c).parseAll();
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setTopic("topic");
+    update.commit();
+
+    assertThat(newParser(c).parseIncremental(prior)).isEmpty();
+  }
+
+  @Test
+  public void parseAllAfterParseIncrementalFailed() throws Exception {
+    Change c = newOpenChange();
+    ChangeNotesState prior = newParser(c).parseAll();
+
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.setTopic("topic");
+    update.commit();
+
+    // Like ChangeNotesCache, fall back to a full parse with the same parser and walk.
+    ChangeNotesParser parser = newParser(c);
+    assertThat(parser.parseIncremental(prior)).isEmpty();
+    assertThat(parser.parseAll().columns().topic()).isEqualTo("topic");
+  }
+
+  @Test
+  public void parseIncrementalRequiresFastForward() throws Exception {
+    Change c = newOpenChange();
+    ChangeUpdate update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) 1);
+    update.commit();
+    ChangeNotesState prior = newParser(c).parseAll();
+
+    RevCommit meta = walk.parseCommit(prior.metaId());
+    testRepo.update(RefNames.changeMetaRef(c.getId()), meta.getParent(0));
+    update = newUpdate(c, otherUser);
+    update.putApproval(LabelId.CODE_REVIEW, (short) -1);
+    update.commit();
+
+    assertThat(newParser(c).parseIncremental(prior)).isEmpty();
+  }
+
+  /** Returns a new change with a status, like changes created by ChangeInserter. */
+  private Change newOpenChange() throws Exception {
+    Change c = TestChanges.newChange(project, changeOwner.getAccountId());
+    ChangeUpdate update = newUpdateForNewChange(c, changeOwner);
+    update.setChangeId(c.getKey().get());
+    update.setBranch(c.getDest().branch());
+    update.setStatus(Change.Status.NEW);
+    update.commit();
+    return c;
+  }
+
+  private ChangeNotesParser newParser(Change c) throws Exception {
+    walk.reset();
+    ObjectId tip = repo.exactRef(RefNames.changeMetaRef(c.getId())).getObjectId();
+    ChangeNoteJson changeNoteJson = injector.getInstance(ChangeNoteJson.class);
+    return new ChangeNotesParser(c.getId(), tip, walk, changeNoteJson, args.metrics);
+  }
+
   private RevCommit writeCommit(String body) throws Exception {
     ChangeNoteUtil noteUtil = injector.getInstance(ChangeNoteUtil.class);
     return writeCommit(
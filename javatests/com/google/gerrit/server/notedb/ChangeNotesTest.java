@@ -56,7 +56,9 @@ import com.google.gerrit.server.AssigneeStatusUpdate;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
+import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.util.AccountTemplateUtil;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.gerrit.server.validators.ValidationException;
@@ -3901,6 +3903,29 @@ public class ChangeNotesTest extends AbstractChangeNotesTest {
     assertThat(newNotes(c).getUpdateCount()).isEqualTo(3);
   }
 
+  @Test
+  public void createAllLoadsChangesOfOneProject() throws Exception {
+    Change c1 = newChange();
+    Change c2 = newChange();
+    ChangeUpdate update = newUpdate(c2, changeOwner);
+    update.setTopic("topic");
+    update.commit();
+    Change.Id missing = Change.id(c2.getId().get() + 1000);
+    ImmutableList<Change.Id> ids = ImmutableList.of(c1.getId(), missing, c2.getId());
+
+    ChangeNotes.Factory factory = new ChangeNotes.Factory(args, () -> null, null);
+    // The second load finds the states in the cache.
+    for (int i = 0; i < 2; i++) {
+      List<ChangeNotesResult> results = factory.createAll(repo, project, ids);
+      assertThat(results.stream().map(ChangeNotesResult::id).collect(toImmutableList()))
+          .containsExactlyElementsIn(ids)
+          .inOrder();
+      assertThat(results.get(0).notes().getMetaId()).isEqualTo(newNotes(c1).getMetaId());
+      assertThat(results.get(1).error().get()).isInstanceOf(NoSuchChangeException.class);
+      assertThat(results.get(2).notes().getChange().getTopic()).isEqualTo("topic");
+    }
+  }
+
   @Test
   public void createPatchSetAfterPatchSetDeletion() throws Exception {
     Change c = newChange();
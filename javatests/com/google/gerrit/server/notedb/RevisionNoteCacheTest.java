@@ -0,0 +1,160 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.notedb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Comment;
+import com.google.gerrit.entities.FixReplacement;
+import com.google.gerrit.entities.FixSuggestion;
+import com.google.gerrit.entities.HumanComment;
+import com.google.gerrit.entities.RobotComment;
+import com.google.gerrit.server.cache.proto.Cache.RevisionNoteProto;
+import com.google.gerrit.server.cache.serialize.ProtobufSerializer;
+import com.google.gson.Gson;
+import java.time.Instant;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class RevisionNoteCacheTest {
+  private static final Gson GSON = ChangeNoteJson.newGson();
+  private static final ObjectId COMMIT =
+      ObjectId.fromString("1234567812345678123456781234567812345678");
+  private static final Instant WRITTEN_ON = Instant.ofEpochSecond(1641038400, 123456789);
+
+  @Test
+  public void humanCommentsRoundTrip() {
+    HumanComment full =
+        new HumanComment(
+            new Comment.Key("uuid1", "a.txt", 1),
+            Account.id(1000),
+            WRITTEN_ON,
+            (short) 1,
+            "message",
+            "server-id",
+            true);
+    full.lineNbr = 3;
+    full.setRealAuthor(Account.id(1001));
+    full.parentUuid = "parent";
+    full.range = new Comment.Range(1, 2, 3, 4);
+    full.tag = "tag";
+    full.setCommitId(COMMIT);
+
+    HumanComment minimal =
+        new HumanComment(
+            new Comment.Key("uuid2", "/COMMIT_MSG", 2),
+            Account.id(1000),
+            WRITTEN_ON,
+            (short) 0,
+            null,
+            null,
+            false);
+
+    HumanComment withoutRealAuthor =
+        new HumanComment(
+            new Comment.Key("uuid3", "a.txt", 2),
+            Account.id(1000),
+            WRITTEN_ON,
+            (short) 1,
+            "message",
+            null,
+            false);
+    withoutRealAuthor.setRealAuthor(null);
+
+    ImmutableList<HumanComment> comments =
+        ImmutableList.of(reparse(full), reparse(minimal), reparse(withoutRealAuthor));
+    assertThat(comments.get(1).hasRealAuthor()).isTrue();
+    assertThat(comments.get(2).hasRealAuthor()).isFalse();
+    RevisionNoteProto proto = roundTrip(RevisionNoteCache.toProto(comments, "cert", null));
+
+    assertThat(RevisionNoteCache.humanComments(proto))
+        .containsExactlyElementsIn(comments)
+        .inOrder();
+    assertThat(RevisionNoteCache.pushCert(proto)).isEqualTo("cert");
+    assertThat(RevisionNoteCache.submitRequirementResults(proto)).isNull();
+  }
+
+  @Test
+  public void robotCommentsRoundTrip() {
+    RobotComment c =
+        new RobotComment(
+            new Comment.Key("uuid", "a.txt", 1),
+            Account.id(1000),
+            WRITTEN_ON,
+            (short) 1,
+            "message",
+            "server-id",
+            "robot",
+            "run");
+    c.setCommitId(COMMIT);
+    c.url = "https://example.com";
+    c.properties = ImmutableMap.of("key", "value");
+    c.fixSuggestions =
+        ImmutableList.of(
+            new FixSuggestion(
+                "fix",
+                "description",
+                ImmutableList.of(
+                    new FixReplacement("a.txt", new Comment.Range(1, 0, 2, 0), "replacement"))));
+    RobotComment parsed = GSON.fromJson(GSON.toJson(c), RobotComment.class);
+
+    RevisionNoteProto proto =
+        roundTrip(RevisionNoteCache.toProto(ImmutableList.of(parsed), null, null));
+    RobotComment cached = RevisionNoteCache.robotComments(proto).get(0);
+
+    // FixSuggestion doesn't implement equals.
+    assertThat(GSON.toJson(cached)).isEqualTo(GSON.toJson(parsed));
+    assertThat(RevisionNoteCache.pushCert(proto)).isNull();
+  }
+
+  @Test
+  public void emptySubmitRequirementResultsAreDistinguishedFromNone() {
+    RevisionNoteProto proto =
+        roundTrip(RevisionNoteCache.toProto(ImmutableList.of(), null, ImmutableList.of()));
+
+    assertThat(RevisionNoteCache.submitRequirementResults(proto)).isEmpty();
+  }
+
+  @Test
+  public void eachLookupCreatesNewComments() {
+    HumanComment c =
+        new HumanComment(
+            new Comment.Key("uuid", "a.txt", 1),
+            Account.id(1000),
+            WRITTEN_ON,
+            (short) 1,
+            "message",
+            null,
+            false);
+    RevisionNoteProto proto = RevisionNoteCache.toProto(ImmutableList.of(c), null, null);
+
+    HumanComment first = RevisionNoteCache.humanComments(proto).get(0);
+    first.message = "modified";
+
+    assertThat(RevisionNoteCache.humanComments(proto).get(0).message).isEqualTo("message");
+  }
+
+  private static HumanComment reparse(HumanComment c) {
+    return GSON.fromJson(GSON.toJson(c), HumanComment.class);
+  }
+
+  private static RevisionNoteProto roundTrip(RevisionNoteProto proto) {
+    ProtobufSerializer<RevisionNoteProto> s = new ProtobufSerializer<>(RevisionNoteProto.parser());
+    return s.deserialize(s.serialize(proto));
+  }
+}
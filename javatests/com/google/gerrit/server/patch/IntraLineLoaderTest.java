@@ -18,12 +18,19 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
 import com.google.gerrit.jgit.diff.ReplaceEdit;
 import java.util.List;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 
 public class IntraLineLoaderTest {
@@ -139,6 +146,91 @@ public class IntraLineLoaderTest {
                 .edits);
   }
 
+  @Test
+  public void tokenDiffReplacesWords() throws Exception {
+    String a = "int foo = bar(a);\n";
+    String b = "long foo = baz(a);\n";
+    assertThat(tokenIntraline(a, b))
+        .isEqualTo(
+            ref()
+                .replace("int", "long")
+                .common(" foo = ba")
+                .replace("r", "z")
+                .common("(a);\n")
+                .edits);
+  }
+
+  @Test
+  public void tokenDiffPrefersInsertAtLineBreak() throws Exception {
+    String a = "multi\nline\n";
+    String b = "multi\nlinemulti\nline\n";
+    assertThat(tokenIntraline(a, b)).isEqualTo(wordEdit(6, 6, 6, 16));
+  }
+
+  @Test
+  public void tokenDiffComparesLargeBlocksLineByLine() throws Exception {
+    StringBuilder a = new StringBuilder();
+    StringBuilder b = new StringBuilder();
+    Reference expected = ref();
+    for (int i = 0; i < 2000; i++) {
+      a.append("  int x").append(i).append(" = foo(y").append(i).append(");\n");
+      b.append("  long x").append(i).append(" = bar(y").append(i).append(");\n");
+      expected
+          .common("  ")
+          .replace("int", "long")
+          .common(" x" + i + " = ")
+          .replace("foo", "bar")
+          .common("(y" + i + ");\n");
+    }
+    assertThat(tokenIntraline(a.toString(), b.toString())).isEqualTo(expected.edits);
+  }
+
+  @Test
+  public void tokenDiffReplacesLargeBlocksWithDifferentLinesEntirely() throws Exception {
+    StringBuilder a = new StringBuilder();
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      a.append("a").append(i).append(" = 1;\n");
+      b.append("b").append(i).append(" = 2;\n");
+    }
+    b.append("c;\n");
+    // The common ";\n" at the end isn't part of the edit.
+    assertThat(tokenIntraline(a.toString(), b.toString()))
+        .isEqualTo(wordEdit(0, a.length() - 2, 0, b.length() - 2));
+  }
+
+  @Test
+  public void loaderReadsAlgorithmFromConfig() throws Exception {
+    String a = "  int x = foo(y);\n";
+    String b = "  long x = bar(y);\n";
+    Cache<ObjectId, TokenText> tokenCache = CacheBuilder.newBuilder().build();
+    Config cfg = new Config();
+    cfg.setString("cache", PatchListCacheImpl.INTRA_NAME, "algorithm", "histogram_token");
+    IntraLineDiffKey key =
+        IntraLineDiffKey.create(
+            ObjectId.fromString("0000000000000000000000000000000000000001"),
+            ObjectId.fromString("0000000000000000000000000000000000000002"),
+            Whitespace.IGNORE_NONE);
+    IntraLineDiffArgs args =
+        IntraLineDiffArgs.create(
+            new Text(a.getBytes(UTF_8)),
+            new Text(b.getBytes(UTF_8)),
+            ImmutableList.of(new Edit(0, 1, 0, 1)),
+            ImmutableSet.of(),
+            Project.nameKey("project"),
+            ObjectId.zeroId(),
+            "a.txt");
+
+    IntraLineDiff diff =
+        new IntraLineLoader(MoreExecutors.newDirectExecutorService(), tokenCache, cfg, key, args)
+            .call();
+
+    assertThat(diff.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+    assertThat(((ReplaceEdit) diff.getEdits().get(0)).getInternalEdits())
+        .isEqualTo(tokenIntraline(a, b));
+    assertThat(tokenCache.asMap().keySet()).containsExactly(key.getBlobA(), key.getBlobB());
+  }
+
   // helper functions to call IntraLineLoader.compute
 
   private static int countLines(String s) {
@@ -156,11 +248,26 @@ public class IntraLineLoaderTest {
   }
 
   private static List<Edit> intraline(String a, String b, Edit lines) throws Exception {
+    return intraline(a, b, lines, false);
+  }
+
+  private static List<Edit> tokenIntraline(String a, String b) throws Exception {
+    return intraline(a, b, new Edit(0, countLines(a), 0, countLines(b)), true);
+  }
+
+  private static List<Edit> intraline(String a, String b, Edit lines, boolean tokens)
+      throws Exception {
     Text aText = new Text(a.getBytes(UTF_8));
     Text bText = new Text(b.getBytes(UTF_8));
 
     IntraLineDiff diff =
-        IntraLineLoader.compute(aText, bText, ImmutableList.of(lines), ImmutableSet.of());
+        IntraLineLoader.compute(
+            aText,
+            bText,
+            ImmutableList.of(lines),
+            ImmutableSet.of(),
+            tokens ? TokenText.create(aText) : null,
+            tokens ? TokenText.create(bText) : null);
 
     assertThat(diff.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
     List<Edit> actualEdits = diff.getEdits();
@@ -0,0 +1,158 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch.gitfilediff;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.patch.gitfilediff.GitFileDiffCacheImpl.DiffAlgorithm;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the parallel computation of {@link GitFileDiffCacheImpl.Loader}. */
+public class GitFileDiffCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final int FILES = 250;
+
+  private final InMemoryRepositoryManager repoManager = new InMemoryRepositoryManager();
+  private final CountDownLatch tasksStarted = new CountDownLatch(2);
+  private final CountDownLatch tasksMayRun = new CountDownLatch(1);
+  private ThreadPoolExecutor diffExecutor;
+  private ObjectId oldTree;
+  private ObjectId newTree;
+
+  @Before
+  public void setUp() throws Exception {
+    Repo repo = repoManager.createRepository(PROJECT);
+    TestRepository<Repo> tr = new TestRepository<>(repo);
+    TestRepository<Repo>.CommitBuilder oldCommit = tr.commit();
+    for (int i = 0; i < FILES; i++) {
+      oldCommit.add(path(i), "line 1\nline 2\nline 3\n");
+    }
+    RevCommit parent = oldCommit.create();
+    TestRepository<Repo>.CommitBuilder newCommit = tr.commit().parent(parent);
+    for (int i = 0; i < FILES; i++) {
+      newCommit.add(path(i), "line 1\nline " + i + "\nline 3\n");
+    }
+    oldTree = tr.getRevWalk().parseCommit(parent).getTree();
+    newTree = tr.getRevWalk().parseCommit(newCommit.create()).getTree();
+
+    // Lets tests hold back the diff tasks until they checked what happens meanwhile.
+    diffExecutor =
+        new ThreadPoolExecutor(2, 2, 0, MILLISECONDS, new LinkedBlockingQueue<>()) {
+          @Override
+          protected void beforeExecute(Thread t, Runnable r) {
+            tasksStarted.countDown();
+            try {
+              tasksMayRun.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        };
+  }
+
+  @After
+  public void tearDown() {
+    diffExecutor.shutdownNow();
+  }
+
+  @Test
+  public void parallelDiffsEqualSequentialDiffs() throws Exception {
+    tasksMayRun.countDown();
+    Map<GitFileDiffCacheKey, GitFileDiff> sequential = loader(1).loadAll(keys());
+    assertThat(diffExecutor.getTaskCount()).isEqualTo(0);
+
+    Map<GitFileDiffCacheKey, GitFileDiff> parallel = loader(2).loadAll(keys());
+    assertThat(diffExecutor.getTaskCount()).isEqualTo(2);
+
+    assertThat(parallel).hasSize(FILES);
+    assertThat(parallel).isEqualTo(sequential);
+    assertThat(parallel.values().stream().noneMatch(GitFileDiff::isNegative)).isTrue();
+  }
+
+  @Test
+  public void parallelismIsSharedByAllRequests() throws Exception {
+    GitFileDiffCacheImpl.Loader loader = loader(2);
+    ExecutorService requests = Executors.newSingleThreadExecutor();
+    try {
+      Future<Map<GitFileDiffCacheKey, GitFileDiff>> first =
+          requests.submit(() -> loader.loadAll(keys()));
+      assertThat(tasksStarted.await(10, SECONDS)).isTrue();
+
+      // The first request holds all permits, so the second one diffs its files in this thread.
+      Map<GitFileDiffCacheKey, GitFileDiff> second = loader.loadAll(keys());
+      assertThat(diffExecutor.getTaskCount()).isEqualTo(2);
+
+      tasksMayRun.countDown();
+      assertThat(first.get(10, SECONDS)).isEqualTo(second);
+      assertThat(second).hasSize(FILES);
+    } finally {
+      requests.shutdownNow();
+    }
+  }
+
+  private GitFileDiffCacheImpl.Loader loader(int parallelism) {
+    Config cfg = new Config();
+    cfg.setInt("cache", "git_file_diff", "parallelism", parallelism);
+    cfg.setString("cache", "git_file_diff", "timeout", "1 min");
+    return new GitFileDiffCacheImpl.Loader(
+        cfg,
+        repoManager,
+        diffExecutor,
+        new GitFileDiffCacheImpl.Metrics(new DisabledMetricMaker()));
+  }
+
+  private ImmutableList<GitFileDiffCacheKey> keys() {
+    ImmutableList.Builder<GitFileDiffCacheKey> keys = ImmutableList.builder();
+    for (int i = 0; i < FILES; i++) {
+      keys.add(
+          GitFileDiffCacheKey.builder()
+              .project(PROJECT)
+              .oldTree(oldTree)
+              .newTree(newTree)
+              .newFilePath(path(i))
+              .renameScore(60)
+              .diffAlgorithm(DiffAlgorithm.HISTOGRAM_WITH_FALLBACK_MYERS)
+              .whitespace(Whitespace.IGNORE_NONE)
+              .useTimeout(false)
+              .build());
+    }
+    return keys.build();
+  }
+
+  private static String path(int i) {
+    return String.format("dir/file-%03d.txt", i);
+  }
+}
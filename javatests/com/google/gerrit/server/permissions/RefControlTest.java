@@ -16,6 +16,7 @@ package com.google.gerrit.server.permissions;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.common.truth.Truth8.assertThat;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowLabel;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
@@ -66,7 +67,9 @@ import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Repository;
@@ -203,6 +206,7 @@ public class RefControlTest {
   @Inject private ProjectCache projectCache;
   @Inject private ProjectControl.Factory projectControlFactory;
   @Inject private ProjectOperations projectOperations;
+  @Inject private RefVisibilityIndex refVisibilityIndex;
   @Inject private SchemaCreator schemaCreator;
   @Inject private SingleVersionListener singleVersionListener;
   @Inject private ThreadLocalRequestContext requestContext;
@@ -1240,6 +1244,54 @@ public class RefControlTest {
     assertThat(user(localKey, DEVS).isOwner()).isFalse();
   }
 
+  @Test
+  public void refVisibilityIndexMatchesReadPermission() throws Exception {
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(READ).ref("refs/heads/*").group(REGISTERED_USERS))
+        .add(block(READ).ref("refs/heads/secret/*").group(REGISTERED_USERS))
+        .add(allow(READ).ref("refs/heads/secret/*").group(DEVS))
+        .update();
+
+    List<String> refNames = new ArrayList<>();
+    for (int i = 0; i < RefVisibilityIndex.MIN_REFS; i++) {
+      refNames.add("refs/heads/branch" + i);
+      refNames.add("refs/heads/secret/branch" + i);
+    }
+
+    ProjectControl u = user(localKey);
+    BitSet readable = refVisibilityIndex.readableRefs(u, refNames).get();
+    for (int i = 0; i < refNames.size(); i++) {
+      String ref = refNames.get(i);
+      assertWithMessage(ref)
+          .that(readable.get(i))
+          .isEqualTo(u.controlForRef(ref).hasReadPermissionOnRef(false));
+    }
+    assertThat(readable.cardinality()).isEqualTo(RefVisibilityIndex.MIN_REFS);
+
+    // Users with the same relevant memberships share the entry.
+    assertThat(refVisibilityIndex.readableRefs(user(localKey, fixers), refNames).get())
+        .isSameInstanceAs(readable);
+    assertThat(refVisibilityIndex.readableRefs(user(localKey, DEVS), refNames).get().cardinality())
+        .isEqualTo(refNames.size());
+  }
+
+  @Test
+  public void refVisibilityIndexNotUsedForUsernamePatterns() throws Exception {
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(READ).ref("refs/heads/users/${username}/*").group(REGISTERED_USERS))
+        .update();
+
+    List<String> refNames = new ArrayList<>();
+    for (int i = 0; i < RefVisibilityIndex.MIN_REFS; i++) {
+      refNames.add("refs/heads/users/u" + i + "/master");
+    }
+    assertThat(refVisibilityIndex.readableRefs(user(localKey, "u0"), refNames)).isEmpty();
+  }
+
   @Test
   public void validateRefPatternsOK() throws Exception {
     RefPattern.validate("refs/*");
@@ -0,0 +1,105 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.Project;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SectionMatcherAutomatonTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private static SectionMatcherAutomaton automaton(String... patterns) {
+    return SectionMatcherAutomaton.create(
+        ImmutableList.of(
+            Arrays.stream(patterns)
+                .map(p -> SectionMatcher.wrap(PROJECT, AccessSection.create(p)))
+                .collect(toImmutableList())));
+  }
+
+  private static ImmutableList<String> candidates(SectionMatcherAutomaton a, String ref) {
+    return Streams.stream(a.candidates(ref))
+        .map(s -> s.getSection().getName())
+        .collect(toImmutableList());
+  }
+
+  @Test
+  public void matchesExactPrefixAndRegexPatterns() {
+    SectionMatcherAutomaton a =
+        automaton(
+            "refs/*",
+            "refs/heads/*",
+            "refs/heads/master",
+            "^refs/heads/stable-[0-9]+\\.[0-9]+",
+            "refs/tags/*");
+
+    assertThat(candidates(a, "refs/heads/master"))
+        .containsExactly("refs/*", "refs/heads/*", "refs/heads/master")
+        .inOrder();
+    assertThat(candidates(a, "refs/heads/stable-3.6"))
+        .containsExactly("refs/*", "refs/heads/*", "^refs/heads/stable-[0-9]+\\.[0-9]+")
+        .inOrder();
+    assertThat(candidates(a, "refs/heads/stable-3.x"))
+        .containsExactly("refs/*", "refs/heads/*")
+        .inOrder();
+    assertThat(candidates(a, "refs/meta/config")).containsExactly("refs/*");
+    assertThat(candidates(a, "HEAD")).isEmpty();
+  }
+
+  @Test
+  public void alwaysReturnsPatternsThatAreNotCompiled() {
+    SectionMatcherAutomaton a =
+        automaton("refs/heads/*", "refs/users/${username}/*", "^refs/heads/\\d+", "^refs/tags/.*$");
+
+    assertThat(candidates(a, "refs/tags/v1"))
+        .containsExactly("refs/users/${username}/*", "^refs/heads/\\d+", "^refs/tags/.*$")
+        .inOrder();
+  }
+
+  @Test
+  public void returnsAllSectionsForRegexRefs() {
+    SectionMatcherAutomaton a = automaton("refs/heads/*", "refs/tags/*");
+
+    assertThat(candidates(a, "^refs/heads/.*")).containsExactly("refs/heads/*", "refs/tags/*");
+  }
+
+  @Test
+  public void returnsAllSectionsForRefsWithLineTerminators() {
+    SectionMatcherAutomaton a = automaton("^refs/heads/.*", "refs/tags/*");
+
+    assertThat(candidates(a, "refs/heads/a\nb")).containsExactly("^refs/heads/.*", "refs/tags/*");
+  }
+
+  @Test
+  public void isCreatedFromComparesListIdentity() {
+    ImmutableList<SectionMatcher> local =
+        ImmutableList.of(SectionMatcher.wrap(PROJECT, AccessSection.create("refs/*")));
+    SectionMatcherAutomaton a = SectionMatcherAutomaton.create(ImmutableList.of(local));
+
+    assertThat(a.isCreatedFrom(ImmutableList.of(local))).isTrue();
+    assertThat(
+            a.isCreatedFrom(
+                ImmutableList.of(
+                    ImmutableList.of(
+                        SectionMatcher.wrap(PROJECT, AccessSection.create("refs/*"))))))
+        .isFalse();
+  }
+}
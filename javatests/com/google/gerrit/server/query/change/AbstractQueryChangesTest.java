@@ -35,6 +35,7 @@ import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.cache.Cache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -109,6 +110,7 @@ import com.google.gerrit.server.account.AccountManager;
 import com.google.gerrit.server.account.Accounts;
 import com.google.gerrit.server.account.AccountsUpdate;
 import com.google.gerrit.server.account.AuthRequest;
+import com.google.gerrit.server.account.ServiceUserClassifier;
 import com.google.gerrit.server.account.VersionedAccountQueries;
 import com.google.gerrit.server.account.externalids.ExternalIdFactory;
 import com.google.gerrit.server.change.ChangeInserter;
@@ -140,6 +142,7 @@ import com.google.gerrit.testing.TestTimeUtil;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
+import com.google.inject.name.Named;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -204,6 +207,10 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
   @Inject private ProjectConfig.Factory projectConfigFactory;
   @Inject private ProjectOperations projectOperations;
 
+  @Inject
+  @Named(ChangeVisibilityMemo.CACHE_NAME)
+  private Cache<ChangeVisibilityMemo.Key, Boolean> changeVisibilityCache;
+
   protected Injector injector;
   protected LifecycleManager lifecycle;
   protected Account.Id userId;
@@ -791,6 +798,57 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("project:visibleProject OR project:hiddenProject", visibleChange);
   }
 
+  @Test
+  public void byProjectWithHiddenBranch() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change2 = insert(repo, newChangeForBranch(repo, "hidden"));
+    Change change3 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change4 = insert(repo, newChangeForBranch(repo, "hidden"));
+    assertQuery("project:repo", change4, change3, change2, change1);
+
+    projectOperations
+        .project(Project.nameKey("repo"))
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/heads/hidden").group(REGISTERED_USERS))
+        .update();
+    assertQuery("project:repo", change3, change1);
+  }
+
+  @Test
+  public void byProjectWithHiddenBranchForServiceUser() throws Exception {
+    gApi.groups().id(ServiceUserClassifier.SERVICE_USERS).addMembers("user");
+    requestContext.setContext(newRequestContext(userId));
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change2 = insert(repo, newChangeForBranch(repo, "hidden"));
+    changeVisibilityCache.invalidateAll();
+    assertQuery("project:repo", change2, change1);
+    assertThat(changeVisibilityCache.asMap()).hasSize(2);
+
+    // Later queries of the service user use the cached answers instead of the permissions.
+    changeVisibilityCache.asMap().replaceAll((k, v) -> !k.branch().branch().endsWith("hidden"));
+    assertQuery("project:repo", change1);
+
+    // The answers are not shared with other users.
+    requestContext.setContext(newRequestContext(createAccount("user1")));
+    assertQuery("project:repo", change2, change1);
+
+    // The cached answers are not used once the groups of the service user change.
+    requestContext.setContext(newRequestContext(userId));
+    gApi.groups().id(createGroup("group1", "Administrators")).addMembers("user");
+    assertQuery("project:repo", change2, change1);
+    assertThat(changeVisibilityCache.asMap()).hasSize(4);
+
+    // Nor once the access rights change.
+    projectOperations
+        .project(Project.nameKey("repo"))
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/heads/hidden").group(REGISTERED_USERS))
+        .update();
+    assertQuery("project:repo", change1);
+  }
+
   @Test
   public void byParentOf() throws Exception {
     TestRepository<Repo> repo1 = createProject("repo1");
@@ -1415,6 +1473,46 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new limit:2").withStart(3));
   }
 
+  @Test
+  public void continueToken() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    List<ChangeInfo> results =
+        assertQuery(newQuery("status:new").withLimit(2), changes.get(4), changes.get(3));
+    assertThat(results.get(1)._moreChanges).isTrue();
+    String firstToken = results.get(1)._continueToken;
+    assertThat(firstToken).isNotNull();
+
+    results =
+        assertQuery(
+            newQuery("status:new").withLimit(2).withContinueToken(firstToken),
+            changes.get(2),
+            changes.get(1));
+    assertThat(results.get(1)._moreChanges).isTrue();
+    String token = results.get(1)._continueToken;
+
+    results =
+        assertQuery(newQuery("status:new").withLimit(2).withContinueToken(token), changes.get(0));
+    assertThat(results.get(0)._moreChanges).isNull();
+    assertThat(results.get(0)._continueToken).isNull();
+
+    assertQuery(
+        newQuery("status:new").withLimit(2).withStart(1).withContinueToken(firstToken),
+        changes.get(1),
+        changes.get(0));
+  }
+
+  @Test
+  public void continueTokenInvalid() throws Exception {
+    assertThatQueryException(newQuery("status:new").withContinueToken("not-a-token"))
+        .hasMessageThat()
+        .isEqualTo("invalid continuation token: not-a-token");
+  }
+
   @Test
   public void maxPages() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
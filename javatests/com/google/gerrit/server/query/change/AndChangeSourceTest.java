@@ -0,0 +1,201 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.query.AndSource;
+import com.google.gerrit.index.query.FieldBundle;
+import com.google.gerrit.index.query.IsVisibleToPredicate;
+import com.google.gerrit.index.query.ListResultSet;
+import com.google.gerrit.index.query.Paginated;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Guice;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AndChangeSourceTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  /** Source of the changes {@code 1} to {@code size}. */
+  private static class ChangeSource extends Predicate<ChangeData>
+      implements ChangeDataSource, Paginated<ChangeData> {
+    private final int size;
+    private QueryOptions opts;
+
+    ChangeSource(int size, int limit) {
+      this.size = size;
+      this.opts = QueryOptions.create(IndexConfig.createDefault(), 0, limit, ImmutableSet.of());
+    }
+
+    @Override
+    public boolean hasChange() {
+      return true;
+    }
+
+    @Override
+    public QueryOptions getOptions() {
+      return opts;
+    }
+
+    @Override
+    public ResultSet<ChangeData> restart(int start) {
+      opts = opts.withStart(start);
+      return read();
+    }
+
+    @Override
+    public ResultSet<ChangeData> restart(Object searchAfter) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public ResultSet<ChangeData> restart(int start, int limit) {
+      opts = opts.withLimit(limit);
+      return restart(start);
+    }
+
+    @Override
+    public int getCardinality() {
+      return size;
+    }
+
+    @Override
+    public ResultSet<ChangeData> read() {
+      List<ChangeData> r = new ArrayList<>();
+      for (int i = opts.start(); i < size && r.size() < opts.limit(); i++) {
+        r.add(ChangeData.createForTest(PROJECT, Change.id(i + 1), 1, ObjectId.zeroId()));
+      }
+      return new ListResultSet<>(r);
+    }
+
+    @Override
+    public ResultSet<FieldBundle> readRaw() {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public Predicate<ChangeData> copy(Collection<? extends Predicate<ChangeData>> children) {
+      throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return this == other;
+    }
+  }
+
+  /** Sees only changes whose number is a multiple of 7, if called in the expected context. */
+  private class IsVisible extends IsVisibleToPredicate<ChangeData> {
+    private final AtomicInteger matched = new AtomicInteger();
+    private final AtomicInteger outOfContext = new AtomicInteger();
+
+    IsVisible() {
+      super("visibleto", "multiple-of-7");
+    }
+
+    @Override
+    public boolean match(ChangeData cd) {
+      matched.incrementAndGet();
+      if (requestContext.getContext() != context) {
+        outOfContext.incrementAndGet();
+        return false;
+      }
+      return cd.getId().get() % 7 == 0;
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+  }
+
+  private final ThreadLocalRequestContext requestContext =
+      Guice.createInjector().getInstance(ThreadLocalRequestContext.class);
+  private final RequestContext context = () -> null;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    requestContext.setContext(context);
+  }
+
+  @After
+  public void tearDown() {
+    requestContext.setContext(null);
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void parallelFilterReturnsSameResultsAsSequentialFilter() {
+    // AndSource filters the results of each chunk one by one on the calling thread.
+    IsVisible sequentialIsVisible = new IsVisible();
+    List<Integer> sequential =
+        ids(
+            new AndSource<>(
+                ImmutableList.of(new ChangeSource(1000, 20)), sequentialIsVisible, 0, 50));
+
+    IsVisible parallelIsVisible = new IsVisible();
+    List<Integer> parallel =
+        ids(
+            new AndChangeSource(
+                new ChangeSource(1000, 20), parallelIsVisible, 0, 50, executor, requestContext));
+
+    assertThat(sequential).hasSize(24);
+    assertThat(parallel).containsExactlyElementsIn(sequential).inOrder();
+    assertThat(sequentialIsVisible.outOfContext.get()).isEqualTo(0);
+    assertThat(parallelIsVisible.outOfContext.get()).isEqualTo(0);
+    assertThat(parallelIsVisible.matched.get()).isEqualTo(sequentialIsVisible.matched.get());
+    assertThat(requestContext.getContext()).isSameInstanceAs(context);
+  }
+
+  @Test
+  public void parallelFilterReturnsAllMatchesIfSourceIsExhausted() {
+    List<Integer> parallel =
+        ids(
+            new AndChangeSource(
+                new ChangeSource(100, 20), new IsVisible(), 0, 30, executor, requestContext));
+
+    assertThat(parallel).containsExactly(7, 14, 21, 28, 35, 42, 49, 56, 63, 70, 77, 84, 91, 98);
+  }
+
+  private static ImmutableList<Integer> ids(AndSource<ChangeData> source) {
+    return source.read().toList().stream().map(cd -> cd.getId().get()).collect(toImmutableList());
+  }
+}
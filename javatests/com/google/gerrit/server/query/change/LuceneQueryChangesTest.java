@@ -14,15 +14,22 @@
 
 package com.google.gerrit.server.query.change;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.converter.ChangeProtoConverter;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.proto.Entities;
+import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.testing.InMemoryModule;
 import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import java.util.List;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -66,4 +73,39 @@ public abstract class LuceneQueryChangesTest extends AbstractQueryChangesTest {
             () -> assertQuery("owner: \"" + nameEmail + "\"\\", change1));
     assertThat(thrown).hasMessageThat().contains("Cannot create full-text query with value: \\");
   }
+
+  @Test
+  public void changesReadFromDocValuesEqualChangesReadFromStoredFields() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChange(repo));
+    insert(repo, newChange(repo));
+    gApi.changes().id(change1.getChangeId()).abandon();
+    Project.NameKey project = Project.nameKey("repo");
+
+    // Only requesting the change, or the project and the change number, reads the doc values.
+    List<ChangeData> stored = queryProvider.get().byProject(project);
+    List<ChangeData> change =
+        queryProvider.get().setRequestedFields(ChangeField.CHANGE).byProject(project);
+    List<ChangeData> ids =
+        queryProvider
+            .get()
+            .setRequestedFields(ChangeField.PROJECT, ChangeField.LEGACY_ID_STR)
+            .byProject(project);
+
+    assertThat(stored).hasSize(2);
+    assertThat(changeProtos(change)).containsExactlyElementsIn(changeProtos(stored)).inOrder();
+    assertThat(projectsAndIds(ids)).containsExactlyElementsIn(projectsAndIds(stored)).inOrder();
+  }
+
+  private static ImmutableList<Entities.Change> changeProtos(List<ChangeData> changes) {
+    return changes.stream()
+        .map(cd -> ChangeProtoConverter.INSTANCE.toProto(cd.change()))
+        .collect(toImmutableList());
+  }
+
+  private static ImmutableList<String> projectsAndIds(List<ChangeData> changes) {
+    return changes.stream()
+        .map(cd -> cd.project().get() + "~" + cd.getId())
+        .collect(toImmutableList());
+  }
 }
@@ -14,6 +14,7 @@ cat << EOF > $TMP/want
 backward-codecs
 cglib-3_2
 commons-io
+commons-math3
 dropwizard-core
 eddsa
 error-prone-annotations
@@ -28,6 +29,9 @@ guice-library
 guice-servlet
 j2objc
 jimfs
+jmh-annprocess
+jmh-core
+jopt-simple
 jruby
 lucene-analyzers-common
 lucene-core
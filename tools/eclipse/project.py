@@ -256,6 +256,7 @@ def gen_classpath(ext):
 
     classpathentry('src', 'java')
     classpathentry('src', 'javatests', out='eclipse-out/test')
+    classpathentry('src', 'javabenchmarks', out='eclipse-out/test')
     classpathentry('src', 'resources')
     import_jgit_sources()
     for s in sorted(src):